@@ -44,7 +44,11 @@ public class RuleManager {
 
 	private Router router;
 
-	private List<Rule> rules = new Vector<Rule>();
+	private RuleList rules = new RuleList();
+	/**
+	 * Replaced when outdated, see {@link #getIndex()}.
+	 */
+	private volatile RuleMatchingIndex index;
 	private List<RuleDefinitionSource> ruleSources = new ArrayList<RuleManager.RuleDefinitionSource>();
 	private Set<IRuleChangeListener> listeners = new HashSet<IRuleChangeListener>();
 
@@ -55,6 +59,25 @@ public class RuleManager {
 	private String defaultPath = ".*";
 	private int defaultMethod = 4;
 
+	/**
+	 * Exposes the modification count, so that changes to the list (also those made via {@link #getRules()}) can be
+	 * detected.
+	 */
+	private static class RuleList extends Vector<Rule> {
+		private static final long serialVersionUID = 1L;
+
+		public int getModCount() {
+			return modCount;
+		}
+
+		/**
+		 * Signals a change not detected by the modification count, e.g. when rules are swapped.
+		 */
+		public synchronized void changed() {
+			modCount++;
+		}
+	}
+
 	public enum RuleDefinitionSource {
 		/** rule defined in the spring context that created the router */
 		SPRING,
@@ -186,6 +209,7 @@ public class RuleManager {
 			return;
 		Collections.swap(rules, index, index - 1);
 		Collections.swap(ruleSources, index, index - 1);
+		rules.changed();
 		for (IRuleChangeListener listener : listeners) {
 			listener.rulePositionsChanged();
 		}
@@ -197,44 +221,47 @@ public class RuleManager {
 			return;
 		Collections.swap(rules, index, index + 1);
 		Collections.swap(ruleSources, index, index + 1);
+		rules.changed();
 		for (IRuleChangeListener listener : listeners) {
 			listener.rulePositionsChanged();
 		}
 	}
 
 	public void ruleChanged(Rule rule) {
+		rules.changed(); // the key might have changed
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleUpdated(rule);
 		}
 		getExchangeStore().refreshExchangeStoreListeners();
 	}
 
+	/**
+	 * @return the first active rule matching the request
+	 */
 	public Rule getMatchingRule(String hostHeader, String method, String uri, String version, int port, String localIP) {
-		for (Rule rule : rules) {
-			RuleKey key = rule.getKey();
-
-			log.debug("Host from rule: " + key.getHost() + ";   Host from parameter rule key: " + hostHeader);
-
-			if (!rule.isActive())
-				continue;
-			if (!key.matchesVersion(version))
-				continue;
-			if (key.getIp() != null && !key.getIp().equals(localIP))
-				continue;
-			if (!key.matchesHostHeader(hostHeader))
-				continue;
-			if (key.getPort() != -1 && port != -1 && key.getPort() != port)
-				continue;
-			if (!key.getMethod().equals(method) && !key.isMethodWildcard())
-				continue;
-			if (key.isUsePathPattern() && !key.matchesPath(uri))
-				continue;
-			if (!key.complexMatch(hostHeader, method, uri, version, port, localIP))
-				continue;
-
-			return rule;
+		return getIndex().getMatchingRule(hostHeader, method, uri, version, port, localIP);
+	}
+
+	/**
+	 * @return the {@link com.predic8.membrane.core.rules.ProxyRule}s in their order
+	 */
+	public List<Rule> getProxyRules() {
+		return getIndex().getProxyRules();
+	}
+
+	/**
+	 * Returns the dispatch index, rebuilding it if the rules have been modified since it was built.
+	 */
+	private RuleMatchingIndex getIndex() {
+		RuleMatchingIndex idx = index;
+		if (idx == null || idx.getModCount() != rules.getModCount()) {
+			synchronized (rules) {
+				idx = new RuleMatchingIndex(rules.toArray(new Rule[rules.size()]), rules.getModCount());
+			}
+			log.debug("Rebuilt rule matching index.");
+			index = idx;
 		}
-		return null;
+		return idx;
 	}
 
 	public void addRuleChangeListener(IRuleChangeListener viewer) {
@@ -274,6 +301,7 @@ public class RuleManager {
 
 		int i = rules.indexOf(rule);
 		rules.set(i, newRule);
+		rules.changed();
 
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleRemoved(rule, rules.size());
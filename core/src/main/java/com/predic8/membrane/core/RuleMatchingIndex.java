@@ -0,0 +1,329 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.predic8.membrane.core.rules.ProxyRule;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.rules.RuleKey;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+/**
+ * A dispatch index over a snapshot of the rules of a {@link RuleManager}.
+ *
+ * The rules are sorted into a tree by local port, then by exact host name, then by HTTP method, then into a
+ * path-prefix trie. Rules which cannot be indexed on a level (wildcard port, host patterns, wildcard method, regular
+ * expressions without literal prefix, keys of unknown types) are put into that level's wildcard branch.
+ *
+ * A lookup collects the candidates from all matching branches and checks them in their original order using
+ * {@link #matches(Rule, String, String, String, String, int, String)}, so the first matching rule of the list is
+ * found, just as by a linear scan.
+ *
+ * The index is immutable. {@link RuleManager} replaces it whenever the list of rules changes.
+ */
+public class RuleMatchingIndex {
+
+	private final int modCount;
+	private final Rule[] rules;
+	private final List<Rule> proxyRules = new ArrayList<Rule>();
+
+	private final Map<Integer, HostLevel> byPort = new HashMap<Integer, HostLevel>();
+	private final HostLevel anyPort = new HostLevel();
+
+	/**
+	 * @param modCount the modification count of the rule list the snapshot was taken from
+	 */
+	public RuleMatchingIndex(Rule[] rules, int modCount) {
+		this.rules = rules;
+		this.modCount = modCount;
+		for (int i = 0; i < rules.length; i++) {
+			Rule rule = rules[i];
+			if (rule instanceof ProxyRule)
+				proxyRules.add(rule);
+			RuleKey key = rule.getKey();
+			HostLevel hostLevel = anyPort;
+			if (key.getPort() != -1) {
+				hostLevel = byPort.get(key.getPort());
+				if (hostLevel == null)
+					byPort.put(key.getPort(), hostLevel = new HostLevel());
+			}
+			hostLevel.add(key, i);
+		}
+	}
+
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * @return the {@link ProxyRule}s in their original order
+	 */
+	public List<Rule> getProxyRules() {
+		return proxyRules;
+	}
+
+	public Rule getMatchingRule(String hostHeader, String method, String uri, String version, int port, String localIP) {
+		if (port == -1 || uri == null) {
+			// all ports match: the index cannot narrow down the candidates
+			for (Rule rule : rules)
+				if (matches(rule, hostHeader, method, uri, version, port, localIP))
+					return rule;
+			return null;
+		}
+
+		String host = hostHeader == null ? null : toLowerCase(getHostName(hostHeader));
+		Candidates candidates = new Candidates();
+		HostLevel hostLevel = byPort.get(port);
+		if (hostLevel != null)
+			hostLevel.collect(host, method, uri, candidates);
+		anyPort.collect(host, method, uri, candidates);
+
+		candidates.sort();
+		for (int i = 0; i < candidates.size; i++) {
+			Rule rule = rules[candidates.indexes[i]];
+			if (matches(rule, hostHeader, method, uri, version, port, localIP))
+				return rule;
+		}
+		return null;
+	}
+
+	/**
+	 * The full matching predicate, as used by a linear scan over the rules.
+	 */
+	public static boolean matches(Rule rule, String hostHeader, String method, String uri, String version, int port, String localIP) {
+		RuleKey key = rule.getKey();
+
+		if (!rule.isActive())
+			return false;
+		if (!key.matchesVersion(version))
+			return false;
+		if (key.getIp() != null && !key.getIp().equals(localIP))
+			return false;
+		if (!key.matchesHostHeader(hostHeader))
+			return false;
+		if (key.getPort() != -1 && port != -1 && key.getPort() != port)
+			return false;
+		if (!key.getMethod().equals(method) && !key.isMethodWildcard())
+			return false;
+		if (key.isUsePathPattern() && !key.matchesPath(uri))
+			return false;
+		if (!key.complexMatch(hostHeader, method, uri, version, port, localIP))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Same as the host name extraction of {@link ServiceProxyKey#matchesHostHeader(String)}.
+	 */
+	private static String getHostName(String hostHeader) {
+		int p = hostHeader.indexOf(':');
+		return p == -1 ? hostHeader : hostHeader.substring(0, p);
+	}
+
+	/**
+	 * Lower-cases ASCII characters only, like {@link java.util.regex.Pattern#CASE_INSENSITIVE} does.
+	 */
+	private static String toLowerCase(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				char[] chars = s.toCharArray();
+				for (int j = i; j < chars.length; j++)
+					if (chars[j] >= 'A' && chars[j] <= 'Z')
+						chars[j] += 'a' - 'A';
+				return new String(chars);
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * @return the exact (lower-case) host names matched by the key, or null, if the key cannot be indexed by host
+	 */
+	private static Set<String> getExactHosts(RuleKey key) {
+		if (!(key instanceof ServiceProxyKey) || ((ServiceProxyKey) key).isHostWildcard())
+			return null;
+		Set<String> hosts = new LinkedHashSet<String>();
+		for (String host : key.getHost().split(" ")) {
+			if (host.length() == 0)
+				continue;
+			for (int i = 0; i < host.length(); i++) {
+				char c = host.charAt(i);
+				if (c == '*' || c >= 128)
+					return null;
+			}
+			hosts.add(toLowerCase(host));
+		}
+		return hosts.isEmpty() ? null : hosts;
+	}
+
+	/**
+	 * @return a prefix every path matched by the key starts with; "" if there is no such prefix or it is unknown
+	 */
+	static String getPathPrefix(RuleKey key) {
+		if (!(key instanceof ServiceProxyKey) || !key.isUsePathPattern() || key.getPath() == null)
+			return "";
+		String path = key.getPath();
+		if (!key.isPathRegExp())
+			return path;
+		if (path.indexOf('|') != -1)
+			return ""; // alternatives
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (".[]{}()*+?^$\\".indexOf(c) != -1) {
+				if ((c == '*' || c == '?' || c == '{') && prefix.length() > 0)
+					prefix.setLength(prefix.length() - 1); // the last character is optional
+				break;
+			}
+			prefix.append(c);
+		}
+		return prefix.toString();
+	}
+
+	private static class HostLevel {
+		private final Map<String, MethodLevel> byHost = new HashMap<String, MethodLevel>();
+		private final MethodLevel anyHost = new MethodLevel();
+
+		void add(RuleKey key, int index) {
+			Set<String> hosts = getExactHosts(key);
+			if (hosts == null) {
+				anyHost.add(key, index);
+				return;
+			}
+			for (String host : hosts) {
+				MethodLevel methodLevel = byHost.get(host);
+				if (methodLevel == null)
+					byHost.put(host, methodLevel = new MethodLevel());
+				methodLevel.add(key, index);
+			}
+		}
+
+		void collect(String host, String method, String uri, Candidates candidates) {
+			if (host != null) {
+				MethodLevel methodLevel = byHost.get(host);
+				if (methodLevel != null)
+					methodLevel.collect(method, uri, candidates);
+			}
+			anyHost.collect(method, uri, candidates);
+		}
+	}
+
+	private static class MethodLevel {
+		private final Map<String, PathTrie> byMethod = new HashMap<String, PathTrie>();
+		private final PathTrie anyMethod = new PathTrie();
+
+		void add(RuleKey key, int index) {
+			PathTrie trie = anyMethod;
+			if (!key.isMethodWildcard()) {
+				trie = byMethod.get(key.getMethod());
+				if (trie == null)
+					byMethod.put(key.getMethod(), trie = new PathTrie());
+			}
+			trie.add(getPathPrefix(key), index);
+		}
+
+		void collect(String method, String uri, Candidates candidates) {
+			if (method != null) {
+				PathTrie trie = byMethod.get(method);
+				if (trie != null)
+					trie.collect(uri, candidates);
+			}
+			anyMethod.collect(uri, candidates);
+		}
+	}
+
+	/**
+	 * Maps path prefixes to rules. Rules without a known prefix are stored at the root.
+	 */
+	private static class PathTrie {
+		private final Node root = new Node();
+
+		void add(String prefix, int index) {
+			Node node = root;
+			for (int i = 0; i < prefix.length(); i++)
+				node = node.getOrCreateChild(prefix.charAt(i));
+			node.add(index);
+		}
+
+		void collect(String path, Candidates candidates) {
+			Node node = root;
+			candidates.addAll(node.rules, node.ruleCount);
+			for (int i = 0; i < path.length(); i++) {
+				node = node.getChild(path.charAt(i));
+				if (node == null)
+					return;
+				candidates.addAll(node.rules, node.ruleCount);
+			}
+		}
+	}
+
+	private static class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		private int[] rules = new int[0];
+		private int ruleCount;
+
+		Node getChild(char c) {
+			for (int i = 0; i < keys.length; i++)
+				if (keys[i] == c)
+					return children[i];
+			return null;
+		}
+
+		Node getOrCreateChild(char c) {
+			Node child = getChild(c);
+			if (child == null) {
+				child = new Node();
+				keys = Arrays.copyOf(keys, keys.length + 1);
+				keys[keys.length - 1] = c;
+				children = Arrays.copyOf(children, children.length + 1);
+				children[children.length - 1] = child;
+			}
+			return child;
+		}
+
+		void add(int index) {
+			if (ruleCount == rules.length)
+				rules = Arrays.copyOf(rules, Math.max(4, 2 * ruleCount));
+			rules[ruleCount++] = index;
+		}
+	}
+
+	private static class Candidates {
+		private int[] indexes = new int[16];
+		private int size;
+
+		void addAll(int[] values, int count) {
+			if (count == 0)
+				return;
+			if (size + count > indexes.length)
+				indexes = Arrays.copyOf(indexes, Math.max(2 * indexes.length, size + count));
+			System.arraycopy(values, 0, indexes, size, count);
+			size += count;
+		}
+
+		void sort() {
+			Arrays.sort(indexes, 0, size);
+		}
+	}
+}
@@ -160,7 +160,7 @@ public class EtcdBasedConfigurator implements ApplicationContextAware, Lifecycle
 		ServiceProxy sp = runningServiceProxyForModule.get(node.getModule());
 		LoadBalancingInterceptor lbi = (LoadBalancingInterceptor) sp.getInterceptors().get(0);
 		lbi.getClusterManager().getClusters().get(0)
-				.nodeUp(new Node(node.getTargetHost(), Integer.parseInt(node.getTargetPort())));
+				.nodeUp(new Node(node.getTargetHost(), Integer.parseInt(node.getTargetPort())), node.getWeight());
 		runningNodesForModule.get(node.getModule()).add(node);
 	}
 
@@ -268,6 +268,17 @@ public class EtcdBasedConfigurator implements ApplicationContextAware, Lifecycle
 
 					EtcdNodeInformation node = new EtcdNodeInformation(module, uuid, targetHost, targetPort,
 							targetName);
+
+					// the weight is optional
+					EtcdResponse respWeight = createRequest(module).uuid(uuid)
+							.getValue("weight").sendRequest();
+					if (respWeight.is2XX()) {
+						try {
+							node.setWeight(Integer.parseInt(respWeight.getValue()));
+						} catch (NumberFormatException e) {
+							log.warn("Ignoring invalid weight of " + node + ".");
+						}
+					}
 					if (node.isValid()) {
 						nodes.add(node);
 					}
@@ -20,6 +20,7 @@ public class EtcdNodeInformation {
 	String targetHost;
 	String targetPort;
 	String name;
+	int weight = 1;
 
 	public EtcdNodeInformation(String module, String uuid, String targetHost, String targetPort, String name) {
 		this.module = module;
@@ -76,6 +77,14 @@ public class EtcdNodeInformation {
 		this.targetPort = targetPort;
 	}
 
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
 	public String getName() {
 		return name;
 	}
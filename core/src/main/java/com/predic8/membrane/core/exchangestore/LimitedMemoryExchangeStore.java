@@ -15,13 +15,15 @@
 package com.predic8.membrane.core.exchangestore;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
@@ -30,27 +32,98 @@ import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.*;
 import com.predic8.membrane.core.interceptor.Interceptor.Flow;
 import com.predic8.membrane.core.model.AbstractExchangeViewerListener;
-import com.predic8.membrane.core.model.IExchangeViewerListener;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.RuleKey;
 import com.predic8.membrane.core.rules.StatisticCollector;
 
 /**
  * @description Store Exchange objects in-memory. Only the newest exchanges will be kept to keep the store below the configured memory limit.
+ * @explanation The exchanges are kept in one queue per rule, and in a global queue ordered by age, which
+ *              determines the exchanges to drop when the memory limit is reached. All queues are non-blocking, so
+ *              that recording exchanges never waits for the administration console reading the store.
  */
 @MCElement(name="limitedMemoryExchangeStore")
 public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 
+	/**
+	 * A stored exchange. Removed entries are only unlinked lazily from the queues, so they are marked as removed
+	 * (and drop their reference to the exchange) instead.
+	 */
+	private static class Entry {
+		private volatile AbstractExchange exc;
+		private final int size;
+		private final Shard shard;
+
+		Entry(AbstractExchange exc, int size, Shard shard) {
+			this.exc = exc;
+			this.size = size;
+			this.shard = shard;
+		}
+
+		/**
+		 * @return the exchange, or null if the entry has been removed
+		 */
+		AbstractExchange get() {
+			return exc;
+		}
+
+		/**
+		 * @return whether this call removed the entry
+		 */
+		synchronized boolean remove() {
+			if (exc == null)
+				return false;
+			exc = null;
+			return true;
+		}
+	}
+
+	/**
+	 * The exchanges of one rule, oldest first.
+	 */
+	private static class Shard {
+		private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * Unlinks removed entries from the head of the queue.
+		 */
+		void trim() {
+			Entry head;
+			while ((head = entries.peek()) != null && head.get() == null)
+				entries.remove(head);
+		}
+
+		List<AbstractExchange> snapshot() {
+			List<AbstractExchange> result = new ArrayList<AbstractExchange>(count.get());
+			for (Entry entry : entries) {
+				AbstractExchange exc = entry.get();
+				if (exc != null)
+					result.add(exc);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Shard key for exchanges without rule, as {@link ConcurrentHashMap} does not support null keys.
+	 */
+	private static final Object NO_RULE = new Object();
+
 	private int maxSize = 1000000;
-	private int currentSize;
+	private final AtomicLong currentSize = new AtomicLong();
 
 	/**
 	 * EVERY time that exchanges or inflight is changed, modify() MUST be called afterwards
 	 */
-	private final Queue<AbstractExchange> exchanges = new LinkedList<AbstractExchange>();
+	private final ConcurrentLinkedQueue<Entry> exchanges = new ConcurrentLinkedQueue<Entry>();
+	private final ConcurrentHashMap<Object, Shard> shards = new ConcurrentHashMap<Object, Shard>();
+	private final ConcurrentHashMap<AbstractExchange, Entry> index = new ConcurrentHashMap<AbstractExchange, Entry>();
 	private Map<AbstractExchange, Request> inflight = new ConcurrentHashMap<AbstractExchange, Request>();
 
-	private long lastModification = System.currentTimeMillis();
+	private volatile long lastModification = System.currentTimeMillis();
+	private final Object modificationLock = new Object();
+	private final AtomicInteger waitingForModification = new AtomicInteger();
 
 	public void snap(final AbstractExchange exc, final Flow flow) {
 		// TODO: [fix me] support multi-snap
@@ -109,46 +182,78 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		}
 	}
 
-	private synchronized void snapInternal(AbstractExchange exc, Flow flow) {
-		if (exc.getHeapSizeEstimation() > maxSize)
+	private void snapInternal(AbstractExchange exc, Flow flow) {
+		int size = exc.getHeapSizeEstimation();
+		if (size > maxSize)
 			return;
 
-		makeSpaceIfNeeded(exc);
+		Shard shard = getShard(exc.getRule() == null ? NO_RULE : exc.getRule().getKey(), true);
+		Entry entry = new Entry(exc, size, shard);
+		if (index.putIfAbsent(exc, entry) != null)
+			return; // already stored
+		shard.count.incrementAndGet();
+		shard.entries.offer(entry);
+		exchanges.offer(entry);
+		currentSize.addAndGet(size);
 
-		exchanges.offer(exc);
+		makeSpaceIfNeeded();
 		modify();
-		currentSize += exc.getHeapSizeEstimation();
 	}
 
-	public synchronized void remove(AbstractExchange exc) {
-		exchanges.remove(exc);
-		modify();
+	private Shard getShard(Object key, boolean create) {
+		Shard shard = shards.get(key);
+		if (shard == null && create) {
+			shard = new Shard();
+			Shard existing = shards.putIfAbsent(key, shard);
+			if (existing != null)
+				shard = existing;
+		}
+		return shard;
 	}
 
-	public synchronized void removeAllExchanges(Rule rule) {
-		exchanges.removeAll(getExchangeList(rule.getKey()));
+	private boolean remove(Entry entry) {
+		AbstractExchange exc = entry.get();
+		if (exc == null || !entry.remove())
+			return false;
+		index.remove(exc);
+		entry.shard.count.decrementAndGet();
+		entry.shard.trim();
+		currentSize.addAndGet(-entry.size);
+		return true;
+	}
+
+	public void remove(AbstractExchange exc) {
+		Entry entry = index.get(exc);
+		if (entry != null && remove(entry))
+			modify();
+	}
+
+	public void removeAllExchanges(Rule rule) {
+		Shard shard = getShard(rule.getKey(), false);
+		if (shard == null)
+			return;
+		for (Entry entry : shard.entries)
+			remove(entry);
 		modify();
 	}
 
-	private synchronized List<AbstractExchange> getExchangeList(RuleKey key) {
-		List<AbstractExchange> c = new ArrayList<AbstractExchange>();
-		for(AbstractExchange exc : exchanges) {
-			if (exc.getRule().equals(key)) {
-				c.add(exc);
-			}
-		}
-		return c;
+	private List<AbstractExchange> getExchangeList(RuleKey key) {
+		Shard shard = getShard(key, false);
+		if (shard == null)
+			return new ArrayList<AbstractExchange>(0);
+		return shard.snapshot();
 	}
 
-	public synchronized AbstractExchange[] getExchanges(RuleKey ruleKey) {
+	public AbstractExchange[] getExchanges(RuleKey ruleKey) {
 		return getExchangeList(ruleKey).toArray(new AbstractExchange[0]);
 	}
 
-	public synchronized int getNumberOfExchanges(RuleKey ruleKey) {
-		return getExchangeList(ruleKey).size();
+	public int getNumberOfExchanges(RuleKey ruleKey) {
+		Shard shard = getShard(ruleKey, false);
+		return shard == null ? 0 : shard.count.get();
 	}
 
-	public synchronized StatisticCollector getStatistics(RuleKey key) {
+	public StatisticCollector getStatistics(RuleKey key) {
 		StatisticCollector statistics = new StatisticCollector(false);
 		List<AbstractExchange> exchangesList = getExchangeList(key);
 		if (exchangesList == null || exchangesList.isEmpty())
@@ -160,11 +265,21 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		return statistics;
 	}
 
-	public synchronized Object[] getAllExchanges() {
-		return exchanges.toArray(new AbstractExchange[0]);
+	private List<AbstractExchange> getStoredExchanges() {
+		List<AbstractExchange> result = new ArrayList<AbstractExchange>(index.size());
+		for (Entry entry : exchanges) {
+			AbstractExchange exc = entry.get();
+			if (exc != null)
+				result.add(exc);
+		}
+		return result;
 	}
 
-	public synchronized List<AbstractExchange> getAllExchangesAsList() {
+	public Object[] getAllExchanges() {
+		return getStoredExchanges().toArray(new AbstractExchange[0]);
+	}
+
+	public List<AbstractExchange> getAllExchangesAsList() {
 		List<AbstractExchange> ret = new LinkedList<AbstractExchange>();
 
 		for (Map.Entry<AbstractExchange, Request> entry : inflight.entrySet()) {
@@ -180,19 +295,23 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 			newEx.setTimeResReceived(System.currentTimeMillis());
 			ret.add(newEx);
 		}
-		ret.addAll(exchanges);
+		ret.addAll(getStoredExchanges());
 
 		return ret;
 	}
 
-	public synchronized void removeAllExchanges(AbstractExchange[] candidates) {
-		exchanges.removeAll(Arrays.asList(candidates));
+	public void removeAllExchanges(AbstractExchange[] candidates) {
+		for (AbstractExchange exc : candidates) {
+			Entry entry = index.get(exc);
+			if (entry != null)
+				remove(entry);
+		}
 		modify();
 	}
 
 
 	@Override
-	public synchronized AbstractExchange getExchangeById(int id) {
+	public AbstractExchange getExchangeById(int id) {
 		for (AbstractExchange exc : getAllExchangesAsList()) {
 			if (exc.hashCode() == id) {
 				return exc;
@@ -206,7 +325,7 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 	}
 
 	@Override
-	public synchronized List<? extends ClientStatistics> getClientStatistics() {
+	public List<? extends ClientStatistics> getClientStatistics() {
 		Map<String, ClientStatisticsCollector> clients = new HashMap<String, ClientStatisticsCollector>();
 
 		for (AbstractExchange exc : getAllExchangesAsList()) {
@@ -218,23 +337,34 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		return new ArrayList<ClientStatistics>(clients.values());
 	}
 
-	public synchronized int getCurrentSize() {
-		return currentSize;
+	public int getCurrentSize() {
+		return (int) currentSize.get();
 	}
 
-	public synchronized Long getOldestTimeResSent() {
-		AbstractExchange exc = exchanges.peek();
-		return exc == null ? null : exc.getTimeResSent();
-	}
-
-	private void makeSpaceIfNeeded(AbstractExchange exc) {
-		while (!hasEnoughSpace(exc)) {
-			currentSize -= exchanges.poll().getHeapSizeEstimation();
+	public Long getOldestTimeResSent() {
+		for (Entry entry : exchanges) {
+			AbstractExchange exc = entry.get();
+			if (exc != null)
+				return exc.getTimeResSent();
 		}
+		return null;
 	}
 
-	private boolean hasEnoughSpace(AbstractExchange exc) {
-		return exc.getHeapSizeEstimation()+currentSize <= maxSize;
+	/**
+	 * Drops the oldest exchanges, until the store is below its memory limit. Entries removed otherwise are unlinked
+	 * from the global queue on the way.
+	 */
+	private void makeSpaceIfNeeded() {
+		while (currentSize.get() > maxSize) {
+			Entry oldest = exchanges.poll();
+			if (oldest == null)
+				return;
+			remove(oldest);
+		}
+		// removed entries in front of the queue would keep the queue from shrinking
+		Iterator<Entry> it = exchanges.iterator();
+		while (it.hasNext() && it.next().get() == null)
+			it.remove();
 	}
 
 	public int getMaxSize() {
@@ -246,24 +376,31 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		this.maxSize = maxSize;
 	}
 
-	private synchronized void modify() {
+	private void modify() {
 		lastModification = System.currentTimeMillis();
-		notifyAll();
+		if (waitingForModification.get() > 0) {
+			synchronized (modificationLock) {
+				modificationLock.notifyAll();
+			}
+		}
 	}
 
 	@Override
-	public synchronized long getLastModified() {
+	public long getLastModified() {
 		return lastModification;
 	}
 
 	@Override
-	public synchronized void waitForModification(long lastKnownModification) throws InterruptedException {
-		for (;;) {
-			if (lastKnownModification < this.lastModification) {
-				return;
+	public void waitForModification(long lastKnownModification) throws InterruptedException {
+		waitingForModification.incrementAndGet();
+		try {
+			synchronized (modificationLock) {
+				// lastKnownModification >= this.lastModification:
+				while (lastKnownModification >= this.lastModification)
+					modificationLock.wait();
 			}
-			// lastKnownModification >= this.lastModification:
-			wait();
+		} finally {
+			waitingForModification.decrementAndGet();
 		}
 	}
 
@@ -39,12 +39,27 @@ import org.apache.commons.logging.LogFactory;
  * message's body), the incoming network stream's buffer is directly written to
  * the output stream. This allows Membrane to perform very well in this
  * situation.
+ *
+ * While streaming, the content is usually retained, so that it is available
+ * afterwards. If {@link #setRetainContent(boolean)} is set to false and no
+ * {@link MessageObserver} needs the content, the body is pumped through using
+ * a reused buffer instead; its content cannot be accessed afterwards.
  */
 public abstract class AbstractBody {
 	private static final Log log = LogFactory.getLog(AbstractBody.class.getName());
 
 	boolean read;
 
+	private boolean retainContent = true;
+	/**
+	 * Set, as soon as streaming the body without retaining its content has started.
+	 */
+	private boolean discarding;
+	/**
+	 * The length of the content, if it has been streamed without being retained. -1 otherwise.
+	 */
+	private int discardedLength = -1;
+
 	protected List<Chunk> chunks = new ArrayList<Chunk>();
 	protected List<MessageObserver> observers = new ArrayList<MessageObserver>(1);
 
@@ -92,6 +107,7 @@ public abstract class AbstractBody {
 	 */
 	public byte[] getContent() throws IOException {
 		read();
+		checkContentRetained();
 		byte[] content = new byte[getLength()];
 		int destPos = 0;
 		for (Chunk chunk : chunks) {
@@ -102,6 +118,7 @@ public abstract class AbstractBody {
 
 	public InputStream getContentAsStream() throws IOException {
 		read();
+		checkContentRetained();
 		return new BodyInputStream(chunks);
 	}
 
@@ -114,6 +131,7 @@ public abstract class AbstractBody {
 			return;
 		}
 
+		checkContentRetained();
 		writeAlreadyRead(out);
 	}
 
@@ -129,6 +147,8 @@ public abstract class AbstractBody {
 	 */
 	public int getLength() throws IOException {
 		read();
+		if (discardedLength != -1)
+			return discardedLength;
 
 		int length = 0;
 		for (Chunk chunk : chunks) {
@@ -158,6 +178,7 @@ public abstract class AbstractBody {
 	 */
 	public byte[] getRaw() throws IOException {
 		read();
+		checkContentRetained();
 		return getRawLocal();
 	}
 
@@ -184,6 +205,60 @@ public abstract class AbstractBody {
 		return read;
 	}
 
+	public boolean isRetainContent() {
+		return retainContent;
+	}
+
+	/**
+	 * Whether the content has to be kept in memory while streaming the body. Setting this to false only has an
+	 * effect, if the body has not been read yet.
+	 */
+	public void setRetainContent(boolean retainContent) {
+		this.retainContent = retainContent;
+	}
+
+	/**
+	 * Determines, when streaming starts, whether the content has to be retained: This is the case if
+	 * {@link #isRetainContent()} is set or if any observer might access the content.
+	 */
+	protected boolean isContentNeeded() {
+		if (retainContent)
+			return true;
+		for (MessageObserver observer : observers)
+			if (!(observer instanceof NonRelevantBodyObserver))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Called by subclasses before the body is streamed without retaining the content.
+	 */
+	protected void discardingContent() {
+		discarding = true;
+	}
+
+	/**
+	 * @return whether the body is being or has been streamed without retaining its content. If so, it cannot be
+	 *         written again (for example, to retry a request).
+	 */
+	public boolean isContentDiscarded() {
+		return discarding;
+	}
+
+	/**
+	 * Called by subclasses after the body has been streamed without retaining the content.
+	 */
+	protected void contentDiscarded(int length) {
+		chunks.clear();
+		if (length > 0)
+			discardedLength = length;
+	}
+
+	private void checkContentRetained() {
+		if (discardedLength != -1)
+			throw new IllegalStateException("The body has been streamed without retaining its content.");
+	}
+
 	void addObserver(MessageObserver observer) {
 		if (read) {
 			observer.bodyComplete(this);
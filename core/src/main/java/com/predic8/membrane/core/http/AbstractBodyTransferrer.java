@@ -14,6 +14,7 @@
 package com.predic8.membrane.core.http;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Used to send a message body.
@@ -27,4 +28,11 @@ public abstract class AbstractBodyTransferrer {
 
 	public abstract void finish() throws IOException;
 
+	/**
+	 * Called by the body after each write: Sends data held back by this transferrer, if reading the next part of
+	 * the body from <code>source</code> might block.
+	 */
+	public void flushIfBlocking(InputStream source) throws IOException {
+	}
+
 }
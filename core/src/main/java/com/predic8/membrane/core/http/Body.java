@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.predic8.membrane.core.util.BufferPool;
 import com.predic8.membrane.core.util.ByteUtil;
 
 /**
@@ -35,7 +36,7 @@ import com.predic8.membrane.core.util.ByteUtil;
  */
 public class Body extends AbstractBody {
 
-	private final static int BUFFER_SIZE;
+	final static int BUFFER_SIZE;
 
 	static {
 		String bufferSize = System.getProperty("membrane.core.http.body.buffersize");
@@ -80,14 +81,29 @@ public class Body extends AbstractBody {
 
 	@Override
 	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
-		byte[] buffer = new byte[BUFFER_SIZE];
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = pool.acquire(BUFFER_SIZE);
+		try {
+			writeNotRead(out, buffer);
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
+	private void writeNotRead(AbstractBodyTransferrer out, byte[] buffer) throws IOException {
+		boolean retain = isContentNeeded();
+		if (!retain)
+			discardingContent();
 
 		int totalLength = 0;
 		int length = 0;
 		chunks.clear();
-		while ((this.length > totalLength || this.length == -1) && (length = inputStream.read(buffer)) > 0) {
+		while ((this.length > totalLength || this.length == -1) && (length = inputStream.read(buffer, 0, BUFFER_SIZE)) > 0) {
 			totalLength += length;
 			out.write(buffer, 0, length);
+			out.flushIfBlocking(inputStream);
+			if (!retain)
+				continue;
 			// TODO: this check is a temporary workaround only until non-replayable bodies have been figured out
 			if (totalLength <= 100000000) {
 				byte[] chunk = new byte[length];
@@ -115,6 +131,8 @@ public class Body extends AbstractBody {
 			}
 		}
 		out.finish();
+		if (!retain)
+			contentDiscarded(totalLength);
 		markAsRead();
 	}
 
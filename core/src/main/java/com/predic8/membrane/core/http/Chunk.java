@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.util.HttpUtil;
 
 /**
  * A chunk of a HTTP message body.
@@ -51,11 +52,10 @@ public class Chunk {
 		if (content == null || out == null)
 			return;
 
-		out.write(getLengthBytes());
+		HttpUtil.writeChunkSize(getLength(), out);
 		out.write(Constants.CRLF_BYTES);
 		out.write(getContent(), 0, getLength());
 		out.write(Constants.CRLF_BYTES);
-		out.flush();
 	}
 
 	/**
@@ -75,12 +75,7 @@ public class Chunk {
 	}
 
 	public int copyChunkLength(byte[] raw, int destPos, AbstractBody body) {
-		System.arraycopy(getLengthBytes(), 0, raw, destPos, getLengthBytes().length);
-		return destPos + getLengthBytes().length;
-	}
-
-	private byte[] getLengthBytes() {
-		return Long.toHexString(getLength()).getBytes(Constants.UTF_8_CHARSET);
+		return HttpUtil.writeChunkSize(getLength(), raw, destPos);
 	}
 
 }
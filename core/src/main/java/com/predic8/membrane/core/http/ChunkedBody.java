@@ -16,6 +16,7 @@ package com.predic8.membrane.core.http;
 
 import static com.predic8.membrane.core.http.ChunkedBodyTransferrer.ZERO;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -23,6 +24,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.util.BufferPool;
 import com.predic8.membrane.core.util.ByteUtil;
 import com.predic8.membrane.core.util.HttpUtil;
 
@@ -108,6 +110,10 @@ public class ChunkedBody extends AbstractBody {
 	@Override
 	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
 		log.debug("writeNotReadChunked");
+		if (!isContentNeeded()) {
+			writeNotReadWithoutRetaining(out);
+			return;
+		}
 		int chunkSize;
 		while ((chunkSize = HttpUtil.readChunkSize(inputStream)) > 0) {
 			Chunk chunk = new Chunk(ByteUtil.readByteArray(inputStream, chunkSize));
@@ -115,6 +121,7 @@ public class ChunkedBody extends AbstractBody {
 			chunks.add(chunk);
 			inputStream.read(); // CR
 			inputStream.read(); // LF
+			out.flushIfBlocking(inputStream);
 		}
 		inputStream.read(); // CR
 		inputStream.read(); // LF-
@@ -122,15 +129,49 @@ public class ChunkedBody extends AbstractBody {
 		markAsRead();
 	}
 
+	/**
+	 * Pumps the chunks' data through a single reused buffer. (Chunks larger than the buffer are forwarded in several
+	 * pieces.)
+	 */
+	private void writeNotReadWithoutRetaining(AbstractBodyTransferrer out) throws IOException {
+		discardingContent();
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = pool.acquire(Body.BUFFER_SIZE);
+		int totalLength = 0;
+		try {
+			int chunkSize;
+			while ((chunkSize = HttpUtil.readChunkSize(inputStream)) > 0) {
+				totalLength += chunkSize;
+				while (chunkSize > 0) {
+					int length = inputStream.read(buffer, 0, Math.min(chunkSize, Body.BUFFER_SIZE));
+					if (length == -1)
+						throw new EOFException("Connection closed within chunk.");
+					out.write(buffer, 0, length);
+					chunkSize -= length;
+				}
+				inputStream.read(); // CR
+				inputStream.read(); // LF
+				out.flushIfBlocking(inputStream);
+			}
+		} finally {
+			pool.release(buffer);
+		}
+		inputStream.read(); // CR
+		inputStream.read(); // LF
+		out.finish();
+		contentDiscarded(totalLength);
+		markAsRead();
+	}
+
 	protected int getRawLength() throws IOException {
 		if (chunks.isEmpty())
 			return 0;
 		int length = getLength();
 		for (Chunk chunk : chunks) {
-			length += Long.toHexString(chunk.getLength()).getBytes(Constants.UTF_8_CHARSET).length;
+			length += HttpUtil.getChunkSizeLength(chunk.getLength());
 			length += 2 * Constants.CRLF_BYTES.length;
 		}
-		length += "0".getBytes(Constants.UTF_8_CHARSET).length;
+		length += ZERO.length;
 		length += 2 * Constants.CRLF_BYTES.length;
 		return length;
 	}
@@ -11,45 +11,149 @@
    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
    See the License for the specific language governing permissions and
    limitations under the License. */
+
 package com.predic8.membrane.core.http;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.HttpUtil;
 
+/**
+ * Writes a body using "Transfer-Encoding: chunked".
+ *
+ * Small writes are coalesced into a buffer (taken from the {@link BufferPool}) and sent as a single chunk once
+ * the buffer is full, the first buffered write is older than the maximum delay, or reading the body's source
+ * would block (see {@link #flushIfBlocking(InputStream)}). Writes at least as large as the buffer are sent as
+ * chunks of their own. The underlying stream is flushed whenever a chunk has been sent, except by
+ * {@link #finish()}: flushing the end of the message is up to the caller.
+ */
 public class ChunkedBodyTransferrer extends AbstractBodyTransferrer {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	public static final long DEFAULT_MAX_DELAY = 10;
+
 	OutputStream out;
+	private final int bufferSize;
+	private final long maxDelayNanos;
+	private final byte[] header = new byte[10]; // up to 8 hex digits and CRLF
+	private byte[] buffer;
+	private int count;
+	private long firstWrite;
 
 	public ChunkedBodyTransferrer(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the buffer used to coalesce small writes, 0 to send each write as a chunk
+	 * @param maxDelay
+	 *            the time in milliseconds data may be held back in the buffer
+	 */
+	public ChunkedBodyTransferrer(OutputStream out, int bufferSize, long maxDelay) {
 		this.out = out;
+		this.bufferSize = bufferSize;
+		this.maxDelayNanos = maxDelay * 1000000;
 	}
 
 	@Override
 	public void write(byte[] content, int i, int length) throws IOException {
-		writeChunkSize(out, length);
-		out.write(content, i, length);
-		out.write(Constants.CRLF_BYTES);
-		out.flush();
+		if (length == 0)
+			return; // an empty chunk would end the body
+
+		if (count > 0 && count + length > bufferSize)
+			writeBuffer();
+
+		if (length >= bufferSize) {
+			writeChunk(content, i, length);
+			flush();
+			return;
+		}
+
+		if (buffer == null)
+			buffer = BufferPool.getInstance().acquire(bufferSize);
+		if (count == 0)
+			firstWrite = System.nanoTime();
+		System.arraycopy(content, i, buffer, count, length);
+		count += length;
+
+		if (count == bufferSize || System.nanoTime() - firstWrite >= maxDelayNanos) {
+			writeBuffer();
+			flush();
+		}
 	}
 
 	@Override
 	public void write(Chunk chunk) throws IOException {
-		chunk.write(out);
+		write(chunk.getContent(), 0, chunk.getLength());
+	}
+
+	@Override
+	public void flushIfBlocking(InputStream source) throws IOException {
+		if (count > 0 && source.available() == 0) {
+			writeBuffer();
+			flush();
+		}
 	}
 
 	@Override
 	public void finish() throws IOException {
+		if (count > 0)
+			writeBuffer();
+		releaseBuffer();
 		out.write(ZERO);
 		out.write(Constants.CRLF_BYTES);
 		out.write(Constants.CRLF_BYTES);
 	}
 
+	private void writeBuffer() throws IOException {
+		writeChunk(buffer, 0, count);
+		count = 0;
+	}
+
+	private void writeChunk(byte[] content, int i, int length) throws IOException {
+		int pos = HttpUtil.writeChunkSize(length, header, 0);
+		header[pos++] = '\r';
+		header[pos++] = '\n';
+		try {
+			out.write(header, 0, pos);
+			out.write(content, i, length);
+			out.write(Constants.CRLF_BYTES);
+		} catch (IOException e) {
+			releaseBuffer();
+			throw e;
+		}
+	}
+
+	private void flush() throws IOException {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			releaseBuffer();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the buffer to the pool: once the body has been written, or as soon as writing it has failed.
+	 */
+	private void releaseBuffer() {
+		if (buffer != null) {
+			BufferPool.getInstance().release(buffer);
+			buffer = null;
+		}
+		count = 0;
+	}
+
 
 	protected static final byte[] ZERO = "0".getBytes(Constants.UTF_8_CHARSET);
 
 	protected static void writeChunkSize(OutputStream out, int chunkSize) throws IOException {
-		out.write(Integer.toHexString(chunkSize).getBytes(Constants.UTF_8_CHARSET));
+		HttpUtil.writeChunkSize(chunkSize, out);
 		out.write(Constants.CRLF_BYTES);
 	}
 
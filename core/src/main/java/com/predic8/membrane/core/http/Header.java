@@ -97,6 +97,8 @@ public class Header {
 
 	public static final String WWW_AUTHENTICATE = "WWW-Authenticate";
 
+	public static final String RETRY_AFTER = "Retry-After";
+
 	public static final String ACCESS_CONTROL_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
 
 	public static final String ORIGIN = "Origin";
@@ -120,10 +122,24 @@ public class Header {
 
 	private final ArrayList<HeaderField> fields = new ArrayList<HeaderField>();
 
+	/**
+	 * The first field of each of the {@link HeaderName#HOT_NAMES}, so that these can be looked up without scanning
+	 * {@link #fields}. Built lazily, null when invalidated.
+	 */
+	private HeaderField[] hotFields;
+
 	public Header() {
 	}
 
 	public Header(InputStream in) throws IOException, EndOfStreamException {
+		if (in instanceof HttpHeadInputStream) {
+			HttpHeadInputStream his = (HttpHeadInputStream) in;
+			HeaderField field;
+			while ((field = his.readHeaderField()) != null)
+				add(field);
+			return;
+		}
+
 		String line;
 
 		while ((line = HttpUtil.readLine(in)).length() > 0) {
@@ -149,24 +165,50 @@ public class Header {
 	}
 
 	public void add(String key, String val) {
-		fields.add(new HeaderField(key, val));
+		add(new HeaderField(key, val));
 	}
 
 	public void add(HeaderField field) {
 		fields.add(field);
+		HeaderField[] hot = hotFields;
+		if (hot != null) {
+			int i = field.getHeaderName().getHotIndex();
+			if (i != -1 && hot[i] == null)
+				hot[i] = field;
+		}
 	}
 
 	public void remove(HeaderField field) {
 		fields.remove(field);
+		hotFields = null;
 	}
 
 	public void removeFields(String name) {
-		List<HeaderField> deleteValues = new ArrayList<HeaderField>();
-		for (HeaderField field : fields) {
-			if (field.getHeaderName().equals(name))
-				deleteValues.add(field);
+		int size = fields.size();
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			HeaderField field = fields.get(i);
+			if (!field.getHeaderName().equals(name))
+				fields.set(j++, field);
 		}
-		fields.removeAll(deleteValues);
+		if (j == size)
+			return;
+		fields.subList(j, size).clear();
+		hotFields = null;
+	}
+
+	private HeaderField getHotField(int index) {
+		HeaderField[] hot = hotFields;
+		if (hot == null) {
+			hot = new HeaderField[HeaderName.HOT_NAMES.length];
+			for (HeaderField field : fields) {
+				int i = field.getHeaderName().getHotIndex();
+				if (i != -1 && hot[i] == null)
+					hot[i] = field;
+			}
+			hotFields = hot;
+		}
+		return hot[index];
 	}
 
 	public List<HeaderField> getValues(HeaderName headerName) {
@@ -179,6 +221,11 @@ public class Header {
 	}
 
 	public String getFirstValue(String name) {
+		int hot = HeaderName.getHotIndex(name);
+		if (hot != -1) {
+			HeaderField field = getHotField(hot);
+			return field == null ? null : field.getValue();
+		}
 		for (HeaderField field : fields) {
 			if (field.getHeaderName().equals(name))
 				return field.getValue();
@@ -193,25 +240,34 @@ public class Header {
 	/**
 	 * Since {@link HttpUtil#readLine(InputStream)} assembles the String byte-by-byte
 	 * converting it to char-by-char, we use ISO-8859-1 for output here.
+	 *
+	 * The fields are encoded directly into a single array of the precomputed size.
+	 * Values which have not been decoded yet are copied as they were received.
 	 */
 	public void write(OutputStream out) throws IOException {
-		StringBuilder buffer = new StringBuilder();
-		for (HeaderField field : fields) {
-			String name = field.getHeaderName().toString();
-			String value = field.getValue();
-			buffer.append(name).append(": ").append(value)
-			.append(Constants.CRLF);
-		}
-		out.write(buffer.toString().getBytes(Constants.ISO_8859_1_CHARSET));
+		int length = 0;
+		for (HeaderField field : fields)
+			length += field.getEncodedLength();
+		byte[] buffer = new byte[length];
+		int pos = 0;
+		for (HeaderField field : fields)
+			pos = field.encode(buffer, pos);
+		out.write(buffer, 0, pos);
 	}
 
 	public void setValue(String name, String value) {
+		int hot = HeaderName.getHotIndex(name);
+		if (hot != -1 && getHotField(hot) == null) {
+			add(new HeaderField(name, value));
+			return;
+		}
 		boolean found = false;
 		for (int i = 0; i < fields.size(); i++) {
 			if (fields.get(i).getHeaderName().equals(name)) {
 				if (found) {
 					fields.set(i, fields.get(fields.size()-1));
 					fields.remove(fields.size()-1);
+					hotFields = null;
 					i--;
 				} else {
 					fields.get(i).setValue(value);
@@ -222,7 +278,7 @@ public class Header {
 		if (found)
 			return;
 		HeaderField newField = new HeaderField(name, value);
-		fields.add(newField);
+		add(newField);
 		return;
 	}
 
@@ -480,6 +536,7 @@ public class Header {
 
 	public void clear() {
 		fields.clear();
+		hotFields = null;
 	}
 
 	public boolean isUserAgentSupportsSNI() {
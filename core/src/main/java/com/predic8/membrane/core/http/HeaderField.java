@@ -21,12 +21,24 @@ public class HeaderField {
 
 	private HeaderName headerName;
 	private String value;
+	/**
+	 * The undecoded value, as long as {@link #value} has not been computed.
+	 */
+	private byte[] rawValue;
 
 	public HeaderField(HeaderName headerName,String value) {
 		this.headerName = headerName;
 		this.value = value;
 	}
 
+	/**
+	 * @param rawValue the ISO-8859-1 encoded value, decoded lazily by {@link #getValue()}
+	 */
+	public HeaderField(HeaderName headerName, byte[] rawValue) {
+		this.headerName = headerName;
+		this.rawValue = rawValue;
+	}
+
 	public HeaderField(String line) {
 		headerName = new HeaderName(getName(line));
 		value = getValue(line);
@@ -47,16 +59,27 @@ public class HeaderField {
 	public HeaderField(HeaderField element) {
 		headerName = new HeaderName(element.headerName);
 		value = element.value;
+		rawValue = element.rawValue;
 	}
 	public String getValue() {
+		byte[] raw = rawValue;
+		if (raw != null) {
+			value = new String(raw, Constants.ISO_8859_1_CHARSET);
+			rawValue = null;
+		}
 		return value;
 	}
 	public void setValue(String value) {
 		this.value = value;
+		rawValue = null;
 	}
 	public HeaderName getHeaderName() {
 		return headerName;
 	}
+	/**
+	 * Note that {@link Header} caches the positions of some well-known header names: Rename the field before adding
+	 * it to a {@link Header}.
+	 */
 	public void setHeaderName(HeaderName headerName) {
 		this.headerName = headerName;
 	}
@@ -66,12 +89,65 @@ public class HeaderField {
 		StringBuilder buf = new StringBuilder();
 		buf.append(headerName.toString());
 		buf.append(": ");
-		buf.append(value);
+		buf.append(getValue());
 		buf.append(Constants.CRLF);
 		return buf.toString();
 	}
 
+	/**
+	 * @return the length of "name: value\r\n" encoded by {@link #encode(byte[], int)}
+	 */
+	int getEncodedLength() {
+		byte[] raw = rawValue;
+		int valueLength;
+		if (raw != null) {
+			valueLength = raw.length;
+		} else {
+			String v = String.valueOf(value);
+			valueLength = isLatin1(v) ? v.length() : v.getBytes(Constants.ISO_8859_1_CHARSET).length;
+		}
+		return headerName.getBytes().length + valueLength + 4;
+	}
+
+	/**
+	 * Writes "name: value\r\n" using ISO-8859-1 into the array.
+	 *
+	 * @return the position after the written bytes
+	 */
+	int encode(byte[] dst, int pos) {
+		byte[] name = headerName.getBytes();
+		System.arraycopy(name, 0, dst, pos, name.length);
+		pos += name.length;
+		dst[pos++] = ':';
+		dst[pos++] = ' ';
+		byte[] raw = rawValue;
+		if (raw != null) {
+			System.arraycopy(raw, 0, dst, pos, raw.length);
+			pos += raw.length;
+		} else {
+			String v = String.valueOf(value);
+			if (isLatin1(v)) {
+				for (int i = 0; i < v.length(); i++)
+					dst[pos++] = (byte) v.charAt(i);
+			} else {
+				byte[] b = v.getBytes(Constants.ISO_8859_1_CHARSET);
+				System.arraycopy(b, 0, dst, pos, b.length);
+				pos += b.length;
+			}
+		}
+		dst[pos++] = '\r';
+		dst[pos++] = '\n';
+		return pos;
+	}
+
+	private static boolean isLatin1(String s) {
+		for (int i = 0; i < s.length(); i++)
+			if (s.charAt(i) > 0xFF)
+				return false;
+		return true;
+	}
+
 	public int estimateHeapSize() {
-		return 2*(4 + headerName.toString().length() + value.length());
+		return 2*(4 + headerName.toString().length() + getValue().length());
 	}
 }
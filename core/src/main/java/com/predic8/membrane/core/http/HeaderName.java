@@ -14,6 +14,11 @@
 
 package com.predic8.membrane.core.http;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.predic8.membrane.core.Constants;
+
 /**
  * This class is used by {@link Header} a key for header fields.
  * The {@link #hashCode()} method is overridden so the keys are
@@ -21,14 +26,125 @@ package com.predic8.membrane.core.http;
  */
 public class HeaderName {
 
+	private static final String[] KNOWN_NAMES = {
+		Header.HOST, Header.CONTENT_LENGTH, Header.CONTENT_TYPE, Header.TRANSFER_ENCODING, Header.CONTENT_ENCODING,
+		Header.CONNECTION, Header.PROXY_CONNECTION, Header.KEEP_ALIVE, Header.EXPECT, Header.UPGRADE, Header.ACCEPT,
+		"Accept-Encoding", "Accept-Language", "Accept-Charset", Header.USER_AGENT, Header.SERVER, "Date",
+		Header.AUTHORIZATION, Header.PROXY_AUTHORIZATION, Header.COOKIE, Header.SET_COOKIE, Header.CACHE_CONTROL,
+		Header.PRAGMA, Header.EXPIRES, Header.LAST_MODIFIED, Header.IF_MODIFIED_SINCE, "If-None-Match", "ETag",
+		"Vary", Header.LOCATION, Header.ORIGIN, "Referer", Header.X_FORWARDED_FOR, "X-Forwarded-Proto",
+		"X-Forwarded-Host", Header.X_REQUESTED_WITH, Header.SOAP_ACTION, Header.WWW_AUTHENTICATE,
+		Header.ACCESS_CONTROL_ALLOW_ORIGIN, Header.DESTINATION,
+	};
+
+	/**
+	 * Names looked up on (almost) every exchange. {@link Header} keeps the first field of each of these names in a
+	 * slot, so that they can be found without scanning all fields.
+	 */
+	static final String[] HOT_NAMES = {
+		Header.HOST, Header.CONTENT_LENGTH, Header.TRANSFER_ENCODING, Header.CONTENT_TYPE, Header.CONNECTION,
+		Header.PROXY_CONNECTION, Header.EXPECT, Header.KEEP_ALIVE, Header.UPGRADE, Header.CONTENT_ENCODING,
+		Header.X_FORWARDED_FOR,
+	};
+
+	private static final int UNKNOWN = -2;
+
+	/**
+	 * Interned instances of well-known header names (as well as their lower-case variants), indexed by length.
+	 */
+	private static final HeaderName[][] KNOWN;
+
+	static {
+		int maxLength = 0;
+		for (String name : KNOWN_NAMES)
+			maxLength = Math.max(maxLength, name.length());
+		List<List<HeaderName>> byLength = new ArrayList<List<HeaderName>>();
+		for (int i = 0; i <= maxLength; i++)
+			byLength.add(new ArrayList<HeaderName>());
+		for (String name : KNOWN_NAMES) {
+			byLength.get(name.length()).add(precomputed(name));
+			if (!name.equals(name.toLowerCase()))
+				byLength.get(name.length()).add(precomputed(name.toLowerCase()));
+		}
+		KNOWN = new HeaderName[maxLength + 1][];
+		for (int i = 0; i <= maxLength; i++)
+			KNOWN[i] = byLength.get(i).toArray(new HeaderName[0]);
+	}
+
+	private static HeaderName precomputed(String name) {
+		HeaderName n = new HeaderName(name);
+		n.hashCode();
+		n.getHotIndex();
+		n.getBytes();
+		return n;
+	}
+
+	/**
+	 * Looks up the interned instance of a well-known header name. The comparison is case-sensitive, so that the
+	 * header name is forwarded exactly as it was received.
+	 *
+	 * @return the shared instance, or null, if the name is not well-known
+	 */
+	public static HeaderName lookup(byte[] buf, int offset, int length) {
+		if (length >= KNOWN.length)
+			return null;
+		candidates:
+		for (HeaderName candidate : KNOWN[length]) {
+			String name = candidate.name;
+			for (int i = 0; i < length; i++)
+				if (name.charAt(i) != (char) (buf[offset + i] & 0xFF))
+					continue candidates;
+			return candidate;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the index of the name within {@link #HOT_NAMES}, or -1
+	 */
+	static int getHotIndex(String name) {
+		for (int i = 0; i < HOT_NAMES.length; i++)
+			if (HOT_NAMES[i] == name)
+				return i;
+		for (int i = 0; i < HOT_NAMES.length; i++)
+			if (HOT_NAMES[i].equalsIgnoreCase(name))
+				return i;
+		return -1;
+	}
+
 	private final String name;
 
+	// lazily computed
+	private int hash;
+	private int hotIndex = UNKNOWN;
+	private byte[] bytes;
+
 	public HeaderName(String name) {
 		this.name = name;
 	}
 
 	public HeaderName(HeaderName headerName) {
 		name = headerName.name;
+		hash = headerName.hash;
+		hotIndex = headerName.hotIndex;
+		bytes = headerName.bytes;
+	}
+
+	int getHotIndex() {
+		int i = hotIndex;
+		if (i == UNKNOWN)
+			hotIndex = i = getHotIndex(name);
+		return i;
+	}
+
+	/**
+	 * @return the ISO-8859-1 encoded name. The array must not be modified.
+	 */
+	byte[] getBytes() {
+		byte[] b = bytes;
+		if (b == null)
+			bytes = b = name.getBytes(Constants.ISO_8859_1_CHARSET);
+		return b;
 	}
 
 	@Override
@@ -49,7 +165,10 @@ public class HeaderName {
 
 	@Override
 	public int hashCode() {
-		return name.toLowerCase().hashCode();
+		int h = hash;
+		if (h == 0)
+			hash = h = name.toLowerCase().hashCode();
+		return h;
 	}
 
 	@Override
@@ -0,0 +1,229 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.transport.http.EOFWhileReadingLineException;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.EndOfStreamException;
+import com.predic8.membrane.core.util.HttpUtil;
+
+/**
+ * A {@link BufferedInputStream} which parses the head of HTTP messages (start line and header fields) by scanning
+ * its buffer directly for line boundaries, instead of reading byte by byte.
+ *
+ * Well-known header names are interned (see {@link HeaderName#lookup(byte[], int, int)}), header values are only
+ * decoded when {@link HeaderField#getValue()} is called.
+ *
+ * {@link HttpUtil#readLine(InputStream)} and {@link Header#Header(InputStream)} use this parser automatically, if
+ * they are passed an instance of this class.
+ */
+public class HttpHeadInputStream extends BufferedInputStream {
+
+	private static final Log log = LogFactory.getLog(HttpHeadInputStream.class.getName());
+
+	public HttpHeadInputStream(InputStream in) {
+		super(in);
+	}
+
+	public HttpHeadInputStream(InputStream in, int size) {
+		super(in, size);
+	}
+
+	/**
+	 * The buffer taken from the pool, until returned by {@link #close()}. Guarded by "this".
+	 */
+	private byte[] pooled;
+	private BufferPool pool;
+
+	/**
+	 * Uses a buffer from the given pool, which is returned by {@link #close()}.
+	 */
+	public HttpHeadInputStream(InputStream in, int size, BufferPool pool) {
+		super(in, 1);
+		this.pool = pool;
+		buf = pooled = pool.acquire(size);
+	}
+
+	/**
+	 * @return the number of bytes read from the underlying stream, which have not been consumed yet. They can be
+	 *         read without blocking.
+	 */
+	public synchronized int getBufferedLength() {
+		return count - pos;
+	}
+
+	/**
+	 * Closes the stream and returns the buffer to the pool, if it has been taken from one.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			// like BufferedInputStream, do not wait for a running read(): closing the underlying stream aborts it
+			super.close();
+		} finally {
+			// the read holds the lock while it fills the buffer: wait for it to return, before another stream
+			// can take the buffer from the pool
+			synchronized (this) {
+				if (pooled != null) {
+					pool.release(pooled);
+					pooled = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same semantics as {@link HttpUtil#readLine(InputStream)}.
+	 */
+	public synchronized String readLine() throws IOException, EndOfStreamException {
+		int end = findLineEnd();
+		String line = lineSoFar == null ? new String(buf, pos, end - pos, Constants.ISO_8859_1_CHARSET) : takeLineSoFar(end);
+		pos = end;
+		skipLineTerminator();
+		return line;
+	}
+
+	/**
+	 * Reads the next header field.
+	 *
+	 * @return the header field, or null, if the empty line terminating the header has been read.
+	 */
+	public synchronized HeaderField readHeaderField() throws IOException, EndOfStreamException {
+		while (true) {
+			int end = findLineEnd();
+			if (lineSoFar != null) {
+				// line longer than the buffer: fall back to the String based parser
+				String line = takeLineSoFar(end);
+				pos = end;
+				skipLineTerminator();
+				if (line.length() == 0)
+					return null;
+				if (line.indexOf(':') == -1) {
+					log.error("Header read line that caused problems: " + line);
+					continue;
+				}
+				return new HeaderField(line);
+			}
+
+			int start = pos;
+			HeaderField field = start == end ? null : parseHeaderField(start, end);
+			pos = end;
+			skipLineTerminator(); // might refill the buffer
+			if (start == end)
+				return null;
+			if (field != null)
+				return field;
+		}
+	}
+
+	/**
+	 * @return the header field contained in buf[start..end), or null, if the line is invalid
+	 */
+	private HeaderField parseHeaderField(int start, int end) {
+		int colon = start;
+		while (colon < end && buf[colon] != ':')
+			colon++;
+		if (colon == end) {
+			log.error("Header read line that caused problems: " + new String(buf, start, end - start, Constants.ISO_8859_1_CHARSET));
+			return null;
+		}
+
+		HeaderName name = HeaderName.lookup(buf, start, colon - start);
+		if (name == null)
+			name = new HeaderName(new String(buf, start, colon - start, Constants.ISO_8859_1_CHARSET));
+
+		// trim the value like String.trim() does
+		int valueStart = colon + 1;
+		int valueEnd = end;
+		while (valueStart < valueEnd && (buf[valueStart] & 0xFF) <= ' ')
+			valueStart++;
+		while (valueEnd > valueStart && (buf[valueEnd - 1] & 0xFF) <= ' ')
+			valueEnd--;
+
+		return new HeaderField(name, Arrays.copyOfRange(buf, valueStart, valueEnd));
+	}
+
+	/**
+	 * Characters of the current line, if it did not fit into the buffer.
+	 */
+	private StringBuilder lineSoFar;
+
+	/**
+	 * Scans the buffer for the next CR or LF, refilling it as necessary. If the line does not fit into the buffer,
+	 * its first part is moved to {@link #lineSoFar}.
+	 *
+	 * @return the position of the line terminator within the buffer
+	 */
+	private int findLineEnd() throws IOException, EOFWhileReadingLineException {
+		while (true) {
+			if (pos >= count && !fillBuffer()) {
+				String line = lineSoFar == null ? "" : lineSoFar.toString();
+				lineSoFar = null;
+				throw new EOFWhileReadingLineException(line);
+			}
+			byte[] b = buf;
+			for (int i = pos; i < count; i++)
+				if (b[i] == 13 || b[i] == 10)
+					return i;
+			if (lineSoFar == null)
+				lineSoFar = new StringBuilder(2 * (count - pos));
+			for (int i = pos; i < count; i++)
+				lineSoFar.append((char) (b[i] & 0xFF));
+			pos = count;
+		}
+	}
+
+	private String takeLineSoFar(int end) {
+		for (int i = pos; i < end; i++)
+			lineSoFar.append((char) (buf[i] & 0xFF));
+		String line = lineSoFar.toString();
+		lineSoFar = null;
+		return line;
+	}
+
+	/**
+	 * Skips the line terminator at {@link #pos}: CR followed by any character, or LF optionally followed by CR (see
+	 * {@link HttpUtil#readLine(InputStream)}).
+	 */
+	private void skipLineTerminator() throws IOException {
+		boolean cr = buf[pos++] == 13;
+		if (pos >= count && !fillBuffer())
+			return;
+		if (cr || buf[pos] == 13)
+			pos++;
+	}
+
+	/**
+	 * Lets {@link BufferedInputStream} refill the buffer (respecting the mark), without consuming a byte.
+	 *
+	 * @return false, if the end of the stream has been reached
+	 */
+	private boolean fillBuffer() throws IOException {
+		if (super.read() == -1)
+			return false;
+		pos--;
+		return true;
+	}
+
+}
@@ -0,0 +1,25 @@
+/* Copyright 2012 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.http;
+
+/**
+ * A {@link MessageObserver} which only needs to be notified about the progress of a body, but never accesses the
+ * body's content.
+ *
+ * If a body is only observed by {@link NonRelevantBodyObserver}s and {@link AbstractBody#setRetainContent(boolean)}
+ * has been set to false, the body is streamed without keeping its content in memory.
+ */
+public interface NonRelevantBodyObserver extends MessageObserver {
+}
@@ -71,7 +71,10 @@ public class Response extends Message {
 			res.getHeader().setValue(Header.TRANSFER_ENCODING, Header.CHUNKED);
 			Body b = new Body(stream);
 			if (closeStreamWhenDone) {
-				b.addObserver(new AbstractMessageObserver() {
+				b.addObserver(new NonRelevantBodyObserver() {
+					@Override
+					public void bodyRequested(AbstractBody body) {
+					}
 					@Override
 					public void bodyComplete(AbstractBody body) {
 						try {
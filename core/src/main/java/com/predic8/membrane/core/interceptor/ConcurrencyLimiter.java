@@ -0,0 +1,238 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrently running requests.
+ *
+ * Requests exceeding the limit wait for a running request to complete, but at most for a given timeout and only
+ * while fewer than {@link #setMaxQueued(int)} requests are already waiting: Excess requests are rejected immediately.
+ *
+ * In adaptive mode, the limit follows the observed latency, similar to the "gradient" algorithm of Netflix'
+ * concurrency-limits: A long-term average of the latency serves as the baseline. While the latency of completed
+ * requests stays within {@link #TOLERANCE} times the baseline, the limit slowly grows; if the latency increases
+ * beyond that (because requests start queueing up at the backend), or requests fail, the limit shrinks
+ * proportionally.
+ */
+public class ConcurrencyLimiter {
+
+	/**
+	 * How much the latency may exceed its long-term average before the limit is reduced.
+	 */
+	public static final double TOLERANCE = 1.5;
+
+	private static final double SMOOTHING = 0.2;
+	private static final int QUEUE_SIZE = 4;
+	private static final int LONG_WINDOW = 600;
+	private static final int WARMUP_WINDOW = 10;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final Object waiters = new Object();
+
+	private volatile int limit;
+	private volatile int maxQueued = Integer.MAX_VALUE;
+
+	// adaptive state, guarded by "this"
+	private boolean adaptive;
+	private int minLimit, maxLimit;
+	private double estimatedLimit;
+	private double longRtt;
+	private int samples;
+
+	/**
+	 * @param limit the maximum number of concurrent requests, or 0 for no limit
+	 */
+	public ConcurrencyLimiter(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * @param limit the maximum number of concurrent requests, or 0 for no limit
+	 */
+	public synchronized void setLimit(int limit) {
+		adaptive = false;
+		updateLimit(limit);
+	}
+
+	/**
+	 * Switches to adaptive mode.
+	 *
+	 * @param initialLimit the limit to start with
+	 */
+	public synchronized void setAdaptive(int minLimit, int maxLimit, int initialLimit) {
+		this.adaptive = true;
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+		this.samples = 0;
+		updateLimit((int) estimatedLimit);
+	}
+
+	public synchronized boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @param maxQueued the maximum number of requests waiting for the limit to allow them to run
+	 */
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	private void updateLimit(int newLimit) {
+		int old = limit;
+		limit = newLimit;
+		if ((newLimit > old || newLimit == 0) && queued.get() > 0)
+			synchronized (waiters) {
+				waiters.notifyAll();
+			}
+	}
+
+	/**
+	 * Acquires a slot without waiting.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			int l = limit;
+			if (l > 0 && current >= l)
+				return false;
+			if (inFlight.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Acquires a slot, waiting at most the given time for one to become available. Each successful call has to be
+	 * followed by a call to {@link #release()} or {@link #release(long, boolean)}.
+	 *
+	 * @return whether a slot was acquired. If not, the request has been counted as rejected.
+	 */
+	public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+		if (tryAcquire())
+			return true;
+		if (timeout <= 0 || queued.incrementAndGet() > maxQueued) {
+			if (timeout > 0)
+				queued.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (waiters) {
+				while (true) {
+					if (tryAcquire())
+						return true;
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						rejected.incrementAndGet();
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(waiters, remaining);
+				}
+			}
+		} finally {
+			queued.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Releases a slot without contributing to the adaptive limit.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+		// a waiter increments 'queued' before trying to acquire: either it sees the released slot, or we see it
+		if (queued.get() > 0)
+			synchronized (waiters) {
+				waiters.notify();
+			}
+	}
+
+	/**
+	 * Releases a slot and, in adaptive mode, adjusts the limit.
+	 *
+	 * @param rtt how long the request took, in nanoseconds
+	 * @param dropped whether the request failed in a way indicating overload (like a timeout)
+	 */
+	public void release(long rtt, boolean dropped) {
+		int current = inFlight.get();
+		release();
+		onSample(rtt, current, dropped);
+	}
+
+	private synchronized void onSample(long rtt, int inFlight, boolean dropped) {
+		if (!adaptive || rtt <= 0)
+			return;
+
+		double shortRtt = rtt;
+		if (samples < WARMUP_WINDOW)
+			longRtt = (longRtt * samples + shortRtt) / ++samples;
+		else
+			longRtt += (shortRtt - longRtt) / LONG_WINDOW;
+
+		// after a period of high latency, let the baseline recover quickly once the latency improves
+		if (longRtt / shortRtt > 2)
+			longRtt *= 0.95;
+
+		// don't grow the limit while it is not used
+		if (!dropped && inFlight < estimatedLimit / 2)
+			return;
+
+		double newLimit;
+		if (dropped)
+			newLimit = estimatedLimit / 2;
+		else
+			newLimit = estimatedLimit * Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt)) + QUEUE_SIZE;
+		newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		updateLimit((int) estimatedLimit);
+	}
+
+	/**
+	 * @return the current limit, or 0 if unlimited
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of requests currently waiting for a slot
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of requests rejected so far
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+}
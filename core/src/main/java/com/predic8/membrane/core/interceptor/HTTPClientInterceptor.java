@@ -24,8 +24,12 @@ import com.predic8.membrane.annot.MCChildElement;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.transport.http.CircuitBreakerOpenException;
+import com.predic8.membrane.core.transport.http.ConnectionPoolExhaustedException;
 import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpTransport;
 import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
 
 /**
@@ -56,8 +60,15 @@ public class HTTPClientInterceptor extends AbstractInterceptor {
 	public Outcome handleRequest(Exchange exc) throws Exception {
 		exc.blockRequestIfNeeded();
 
+		boolean retainBodies = exc.getRule() == null || exc.getRule().isRetainBodies();
+		// HttpClient does not retry or fail over, once a body streamed without retaining it has been sent
+		if (!retainBodies)
+			exc.getRequest().getBody().setRetainContent(false);
+
 		try {
 			hc.call(exc, adjustHostHeader, failOverOn5XX);
+			if (!retainBodies)
+				exc.getResponse().getBody().setRetainContent(false);
 			return Outcome.RETURN;
 		} catch (ConnectException e) {
 			exc.setResponse(Response.badGateway("Target " + getDestination(exc) + " is not reachable.").build());
@@ -66,6 +77,15 @@ public class HTTPClientInterceptor extends AbstractInterceptor {
 		} catch (UnknownHostException e) {
 			exc.setResponse(Response.internalServerError("Target host " + getDestination(exc) + " is unknown. DNS was unable to resolve host name.").build());
 			return Outcome.ABORT;
+		} catch (CircuitBreakerOpenException e) {
+			exc.setResponse(Response.serverUnavailable("Target " + getDestination(exc) + " is unavailable.")
+					.header(Header.RETRY_AFTER, Long.toString((e.getRetryAfter() + 999) / 1000)).build());
+			log.debug(e.getMessage());
+			return Outcome.ABORT;
+		} catch (ConnectionPoolExhaustedException e) {
+			exc.setResponse(Response.serverUnavailable("No connection to target " + getDestination(exc) + " available.").build());
+			log.warn(e.getMessage());
+			return Outcome.ABORT;
 		}
 	}
 
@@ -82,6 +102,9 @@ public class HTTPClientInterceptor extends AbstractInterceptor {
 		else
 			hc = new HttpClient(httpClientConfig);
 		hc.setStreamPumpStats(getRouter().getStatistics().getStreamPumpStats());
+		hc.setDnsCache(router.getDnsCache());
+		if (router.getTransport() instanceof HttpTransport && ((HttpTransport) router.getTransport()).getTunnelThreads() > 0)
+			hc.setChannelSockets(true);
 	}
 
 
@@ -114,6 +137,13 @@ public class HTTPClientInterceptor extends AbstractInterceptor {
 		this.adjustHostHeader = adjustHostHeader;
 	}
 
+	/**
+	 * @return the client used to send requests, available after {@link #init(Router)}
+	 */
+	public HttpClient getHttpClient() {
+		return hc;
+	}
+
 	public HttpClientConfiguration getHttpClientConfig() {
 		return httpClientConfig;
 	}
@@ -29,7 +29,6 @@ import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.rules.AbstractServiceProxy;
 import com.predic8.membrane.core.rules.NullRule;
-import com.predic8.membrane.core.rules.ProxyRule;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.transport.http.AbstractHttpHandler;
 
@@ -100,10 +99,7 @@ public class RuleMatchingInterceptor extends AbstractInterceptor {
 	}
 
 	private Rule findProxyRule(Exchange exc) {
-		for (Rule rule : router.getRuleManager().getRules()) {
-			if (!(rule instanceof ProxyRule))
-				continue;
-
+		for (Rule rule : router.getRuleManager().getProxyRules()) {
 			if (rule.getKey().getIp() != null)
 				if (!rule.getKey().getIp().equals(exc.getHandler().getLocalAddress().toString()))
 					continue;
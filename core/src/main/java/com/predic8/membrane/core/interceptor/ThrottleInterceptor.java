@@ -14,6 +14,8 @@
 
 package com.predic8.membrane.core.interceptor;
 
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -24,7 +26,14 @@ import com.predic8.membrane.core.http.Response;
 
 /**
  * @description <p>
- *              The throttle feature can slow down traffic to thwart denial of service attacks.
+ *              The throttle feature can slow down traffic to thwart denial of service attacks and limits the number
+ *              of concurrently running requests.
+ *              </p>
+ *              <p>
+ *              With <tt>adaptive="true"</tt>, the limit is continuously adjusted between <tt>minThreads</tt> and
+ *              <tt>maxThreads</tt> based on the observed latency of the requests: When the latency rises (because
+ *              the backend starts to queue requests), the limit is lowered, so that excess requests are rejected
+ *              with "503 Service Unavailable" instead of piling up.
  *              </p>
  * @topic 6. Security
  */
@@ -32,10 +41,17 @@ import com.predic8.membrane.core.http.Response;
 public class ThrottleInterceptor extends AbstractInterceptor {
 	private static Log log = LogFactory.getLog(ThrottleInterceptor.class.getName());
 
+	private static final int DEFAULT_ADAPTIVE_MAX_THREADS = 1000;
+	private static final int ADAPTIVE_INITIAL_THREADS = 20;
+
+	private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(0);
+	private final String startTimeProperty = "throttleStart" + System.identityHashCode(this);
+
 	private long delay = 0;
 	private int maxThreads = 0;
-	private int threads = 0;
+	private int minThreads = 1;
 	private int busyDelay = 0;
+	private boolean adaptive;
 
 	public ThrottleInterceptor() {
 		name = "Throttle";
@@ -47,41 +63,44 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 			log.debug("delaying for "+delay+"ms");
 			Thread.sleep(delay);
 		}
-		if ( maxThreads > 0 && threads >= maxThreads ) {
-			log.debug("Max thread limit of "+maxThreads+" reached. Waiting "+busyDelay+"ms");
-			Thread.sleep(busyDelay);
-			if ( threads >= maxThreads ) {
-				log.info("Max thread limit of " +maxThreads+ " reached. Server Busy.");
-				exc.setResponse(Response.serverUnavailable("Server busy.").build());
-				return Outcome.ABORT;
-			}
+		if (!limiter.acquire(busyDelay, TimeUnit.MILLISECONDS)) {
+			log.info("Max thread limit of " + limiter.getLimit() + " reached. Server Busy.");
+			exc.setResponse(Response.serverUnavailable("Server busy.").build());
+			return Outcome.ABORT;
 		}
-		increaseThreads();
-		log.debug("thread count increased: "+threads);
+		exc.setProperty(startTimeProperty, System.nanoTime());
+		log.debug("thread count increased: "+limiter.getInFlight());
 		return Outcome.CONTINUE;
 	}
 
 
 	@Override
 	public Outcome handleResponse(Exchange exc) throws Exception {
-		decreaseThreads();
-		log.debug("thread count decreased: "+threads);
+		int status = exc.getResponse() == null ? 0 : exc.getResponse().getStatusCode();
+		release(exc, status == 502 || status == 503 || status == 504);
 		return Outcome.CONTINUE;
 	}
 
 	@Override
 	public void handleAbort(Exchange exchange) {
-		decreaseThreads();
-		log.debug("thread count decreased: "+threads);
+		release(exchange, true);
 	}
 
+	private void release(Exchange exc, boolean dropped) {
+		Long start = (Long) exc.getProperty(startTimeProperty);
+		limiter.release(start == null ? 0 : System.nanoTime() - start, dropped);
+		log.debug("thread count decreased: "+limiter.getInFlight());
+	}
 
-	private synchronized void decreaseThreads() {
-		--threads;
+	private void configureLimiter() {
+		if (adaptive)
+			limiter.setAdaptive(minThreads, maxThreads > 0 ? maxThreads : DEFAULT_ADAPTIVE_MAX_THREADS, ADAPTIVE_INITIAL_THREADS);
+		else
+			limiter.setLimit(maxThreads);
 	}
 
-	private synchronized void increaseThreads() {
-		++threads;
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
 	}
 
 	public long getDelay() {
@@ -104,12 +123,44 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 
 	/**
 	 * @description If non-zero, newly incoming request are aborted if the number of running requests has reached this limit.
-	 * @default 0
+	 *              With <tt>adaptive="true"</tt>, this is the upper bound of the adaptive limit.
+	 * @default 0 (or 1000, if adaptive)
 	 * @example 5
 	 */
 	@MCAttribute
 	public void setMaxThreads(int maxThreads) {
 		this.maxThreads = maxThreads;
+		configureLimiter();
+	}
+
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * @description The lower bound of the adaptive limit. (Only used with <tt>adaptive="true"</tt>.)
+	 * @default 1
+	 * @example 10
+	 */
+	@MCAttribute
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+		configureLimiter();
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @description Whether to adjust the limit of concurrently running requests automatically, based on their latency.
+	 *              The limit starts at 20 and moves between <tt>minThreads</tt> and <tt>maxThreads</tt>.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		configureLimiter();
 	}
 
 	public int getBusyDelay() {
@@ -117,8 +168,8 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 	}
 
 	/**
-	 * @description If a newly incoming request exceeds maxThreads, the interceptor waits the specified number in
-	 *              milliseconds and retries once before aborting the request.
+	 * @description If a newly incoming request exceeds the limit, the interceptor waits at most the specified number of
+	 *              milliseconds for a running request to complete before aborting the request.
 	 * @default 0
 	 * @example 3000
 	 */
@@ -127,9 +178,24 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 		this.busyDelay = busyDelay;
 	}
 
+	public int getMaxQueued() {
+		return limiter.getMaxQueued();
+	}
+
+	/**
+	 * @description The maximum number of requests waiting (see <tt>busyDelay</tt>) for running requests to complete.
+	 *              Further requests exceeding the limit are aborted immediately.
+	 * @default <i>no limit</i>
+	 * @example 50
+	 */
+	@MCAttribute
+	public void setMaxQueued(int maxQueued) {
+		limiter.setMaxQueued(maxQueued);
+	}
+
 	@Override
 	public String getShortDescription() {
-		if (delay > 0 || maxThreads > 0)
+		if (delay > 0 || maxThreads > 0 || adaptive)
 			return "Throttles the rate of incoming requests.";
 		else
 			return "Not configured.";
@@ -140,8 +206,13 @@ public class ThrottleInterceptor extends AbstractInterceptor {
 		StringBuilder sb = new StringBuilder();
 		if (delay > 0)
 			sb.append("Delays requests by " + String.format("%.1f", delay/1000.0) + " seconds.");
-		if (maxThreads > 0) {
+		if (adaptive)
+			sb.append("Adapts the number of concurrent requests to their latency, allowing between " + minThreads +
+					" and " + (maxThreads > 0 ? maxThreads : DEFAULT_ADAPTIVE_MAX_THREADS) + " concurrent requests (currently " +
+					limiter.getLimit() + ").");
+		else if (maxThreads > 0)
 			sb.append("Only allows " + maxThreads + " concurrent requests.");
+		if (adaptive || maxThreads > 0) {
 			if (busyDelay > 0)
 				sb.append("The server waits at most " +
 						String.format("%.1f", busyDelay/1000.0) + " seconds for enough running requests to terminate, " +
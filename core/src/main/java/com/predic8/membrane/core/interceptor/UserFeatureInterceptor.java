@@ -18,6 +18,8 @@ import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.rules.AbstractServiceProxy;
+import com.predic8.membrane.core.rules.Bulkhead;
 import com.predic8.membrane.core.rules.Rule;
 
 /**
@@ -40,7 +42,7 @@ public class UserFeatureInterceptor extends AbstractInterceptor {
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
 		Rule predecessorRule = exc.getRule();
-		Outcome outcome = flowController.invokeRequestHandlers(exc, predecessorRule.getInterceptors());
+		Outcome outcome = invokeRequestHandlers(exc, predecessorRule);
 
 		while (isTargetInternalAndContinue(exc, outcome)) {
 			log.debug("routing to serviceProxy with name: " + getServiceProxyName(exc));
@@ -55,12 +57,23 @@ public class UserFeatureInterceptor extends AbstractInterceptor {
 			exc.getDestinations().clear();
 			exc.getDestinations().add(DispatchingInterceptor.getForwardingDestination(exc));
 			// user feature
-			outcome = flowController.invokeRequestHandlers(exc, newRule.getInterceptors());
+			outcome = invokeRequestHandlers(exc, newRule);
 		}
 		exc.setRule(predecessorRule);
 		return outcome;
 	}
 
+	private Outcome invokeRequestHandlers(Exchange exc, Rule rule) throws Exception {
+		if (rule instanceof AbstractServiceProxy) {
+			Bulkhead bulkhead = ((AbstractServiceProxy) rule).getBulkhead();
+			if (bulkhead != null && bulkhead.enter(exc) != Outcome.CONTINUE) {
+				log.debug("bulkhead of " + rule.getName() + " is full.");
+				return Outcome.RETURN;
+			}
+		}
+		return flowController.invokeRequestHandlers(exc, rule.getInterceptors());
+	}
+
 	private String getServiceProxyName(Exchange exc) {
 		return exc.getDestinations().get(0).substring(8);
 	}
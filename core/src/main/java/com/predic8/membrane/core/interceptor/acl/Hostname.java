@@ -20,6 +20,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.util.DNSCache;
 
 
 
@@ -82,7 +83,8 @@ public class Hostname extends AbstractClientAddress {
 					lastWarningSlowReverseDNSUsed = now;
 				}
 			}
-			String canonicalHostName = router.getDnsCache().getCanonicalHostName(InetAddress.getByName(ip));
+			DNSCache dnsCache = router.getDnsCache();
+			String canonicalHostName = dnsCache.getCanonicalHostName(InetAddress.getByName(ip), dnsCache.getReverseLookupTimeout());
 			log.debug("CanonicalHostname for " + hostname + " / " + ip + " is "  + canonicalHostName);
 			return pattern.matcher(canonicalHostName).matches();
 		} catch (UnknownHostException e) {
@@ -73,7 +73,7 @@ public class Resource extends AbstractXmlElement {
 			log.debug("Hostname: " + hostname + (router.getTransport().isReverseDNS() ? "" : " (reverse DNS is disabled in configuration)"));
 			log.debug("IP: " + ip);
 			try {
-				log.debug("Hostaddress (might require slow DNS lookup): " + router.getDnsCache().getHostName(InetAddress.getByName(ip)));
+				log.debug("Hostaddress (might require slow DNS lookup): " + router.getDnsCache().getHostName(InetAddress.getByName(ip), router.getDnsCache().getReverseLookupTimeout()));
 			} catch (UnknownHostException e) {
 				log.debug("Failed to get hostname from address: " + e.getMessage());
 			}
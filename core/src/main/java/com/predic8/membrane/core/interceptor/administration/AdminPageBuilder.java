@@ -60,7 +60,7 @@ import com.predic8.membrane.core.rules.AbstractServiceProxy;
 import com.predic8.membrane.core.rules.ProxyRule;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.StatisticCollector;
-import com.predic8.membrane.core.transport.http.StreamPump;
+import com.predic8.membrane.core.transport.http.Pump;
 import com.predic8.membrane.core.util.TextUtil;
 
 public class AdminPageBuilder extends Html {
@@ -397,6 +397,8 @@ public class AdminPageBuilder extends Html {
 		.span().input().type("text").id("host").name("host").classAttr("validate[required]").end(2)
 		.span().text("Port").end()
 		.span().input().type("text").id("port").name("port").size("5").classAttr("validate[required,custom[integer]]").end(2)
+		.span().text("Weight").end()
+		.span().input().type("text").id("weight").name("weight").size("3").classAttr("validate[custom[integer]]").end(2)
 		.span().input().value("Add Node").type("submit").classAttr("mb-button").end(2);
 		end();
 		end();
@@ -481,7 +483,7 @@ public class AdminPageBuilder extends Html {
 		end();
 		end();
 		tbody();
-		for (StreamPump p : router.getStatistics().getStreamPumpStats().getStreamPumps()) {
+		for (Pump p : router.getStatistics().getStreamPumpStats().getStreamPumps()) {
 			tr().style("text-align: right;");
 			td().style("text-align:left;").text(p.getName()).end();
 			createTds(
@@ -501,7 +503,7 @@ public class AdminPageBuilder extends Html {
 		table().attr("cellpadding", "0", "cellspacing", "0", "border", "0", "class", "display nodesTable");
 		thead();
 		tr();
-		createThs("Node", "Status", "Count", "Errors", "Time since last up", "Sessions", "Current Threads", "Action");
+		createThs("Node", "Status", "Weight", "Count", "Errors", "Time since last up", "Sessions", "Current Threads", "Action");
 		end();
 		end();
 		tbody();
@@ -511,7 +513,7 @@ public class AdminPageBuilder extends Html {
 			createLink(""+n.getHost()+":"+n.getPort(), "node", "show",
 					createQueryString("balancer", balancerName, "cluster", params.get("cluster"), "host", n.getHost(),"port", ""+n.getPort() ));
 			end();
-			createTds( getStatusString(n), ""+n.getCounter(),
+			createTds( getStatusString(n), ""+n.getWeight(), ""+n.getCounter(),
 					String.format("%1$.2f%%", n.getErrors()*100),
 					formatDurationHMS(System.currentTimeMillis()-n.getLastUpTime()),
 					""+BalancerUtil.lookupBalancer(router, balancerName).getSessionsByNode(params.get("cluster"),n).size(),
@@ -20,8 +20,10 @@ import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,12 +39,20 @@ import com.predic8.membrane.core.http.Message;
 import com.predic8.membrane.core.http.MimeType;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.http.Response.ResponseBuilder;
+import com.predic8.membrane.core.interceptor.HTTPClientInterceptor;
+import com.predic8.membrane.core.interceptor.Interceptor;
 import com.predic8.membrane.core.interceptor.rest.JSONContent;
 import com.predic8.membrane.core.interceptor.rest.QueryParameter;
 import com.predic8.membrane.core.interceptor.rest.RESTInterceptor;
 import com.predic8.membrane.core.interceptor.statistics.util.JDBCUtil;
 import com.predic8.membrane.core.rules.AbstractServiceProxy;
+import com.predic8.membrane.core.rules.Bulkhead;
 import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.transport.http.AcceptStatistics;
+import com.predic8.membrane.core.transport.http.ConnectionManager;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpEndpointListener;
+import com.predic8.membrane.core.transport.http.HttpTransport;
 import com.predic8.membrane.core.util.ComparatorFactory;
 import com.predic8.membrane.core.util.TextUtil;
 
@@ -87,6 +97,64 @@ public class AdminRESTInterceptor extends RESTInterceptor {
 		});
 	}
 
+	@Mapping("/admin/rest/connections(/?\\?.*)?")
+	public Response getConnections(QueryParameter params, String relativeRootPath) throws Exception {
+		final Map<HttpClient, String> clients = getHttpClients();
+
+		return json( new JSONContent() {
+			public void write(JsonGenerator gen) throws Exception {
+				gen.writeStartObject();
+				gen.writeArrayFieldStart("connections");
+				for (Map.Entry<HttpClient, String> e : clients.entrySet()) {
+					for (ConnectionManager.PoolStatistics s : e.getKey().getConnectionPoolStatistics()) {
+						gen.writeStartObject();
+						gen.writeStringField("httpClient", e.getValue());
+						gen.writeStringField("destination", s.getDestination());
+						gen.writeNumberField("idle", s.getIdle());
+						gen.writeNumberField("leased", s.getLeased());
+						gen.writeNumberField("pending", s.getPending());
+						gen.writeNumberField("created", s.getCreated());
+						gen.writeNumberField("evicted", s.getEvicted());
+						gen.writeEndObject();
+					}
+				}
+				gen.writeEndArray();
+				gen.writeEndObject();
+			}
+		});
+	}
+
+	@Mapping("/admin/rest/listeners(/?\\?.*)?")
+	public Response getListeners(QueryParameter params, String relativeRootPath) throws Exception {
+		final List<HttpEndpointListener> listeners = router.getTransport() instanceof HttpTransport ?
+				((HttpTransport)router.getTransport()).getEndpointListeners() : new ArrayList<HttpEndpointListener>();
+
+		return json( new JSONContent() {
+			public void write(JsonGenerator gen) throws Exception {
+				gen.writeStartObject();
+				gen.writeArrayFieldStart("listeners");
+				for (HttpEndpointListener l : listeners) {
+					AcceptStatistics s = l.getStatistics();
+					gen.writeStartObject();
+					gen.writeStringField("ip", l.getIp());
+					gen.writeNumberField("port", l.getPort());
+					gen.writeNumberField("acceptors", l.getAcceptorCount());
+					gen.writeBooleanField("reusePort", l.isReusePort());
+					gen.writeNumberField("accepted", s.getAccepted());
+					gen.writeNumberField("acceptRate", s.getAcceptRate());
+					gen.writeNumberField("acceptQueue", s.getAcceptQueueLength());
+					gen.writeNumberField("rejected", s.getRejected());
+					gen.writeNumberField("failed", s.getFailed());
+					gen.writeNumberField("open", l.getOpenConnectionCount());
+					gen.writeNumberField("idle", l.getIdleConnectionCount());
+					gen.writeEndObject();
+				}
+				gen.writeEndArray();
+				gen.writeEndObject();
+			}
+		});
+	}
+
 	@Mapping("/admin/rest/proxies(/?\\?.*)?")
 	public Response getProxies(final QueryParameter params, String relativeRootPath) throws Exception {
 		final List<AbstractServiceProxy> proxies = getServiceProxies();
@@ -128,6 +196,17 @@ public class AdminRESTInterceptor extends RESTInterceptor {
 					gen.writeStringField("targetHost", p.getTargetHost());
 					gen.writeNumberField("targetPort", p.getTargetPort());
 					gen.writeNumberField("count", p.getCount());
+					Bulkhead b = p.getBulkhead();
+					if (b != null) {
+						gen.writeObjectFieldStart("bulkhead");
+						gen.writeNumberField("maxConcurrent", b.getMaxConcurrent());
+						gen.writeNumberField("inFlight", b.getInFlight());
+						gen.writeNumberField("queued", b.getQueued());
+						gen.writeNumberField("accepted", b.getAccepted());
+						gen.writeNumberField("rejected", b.getRejected());
+						gen.writeNumberField("utilization", b.getUtilization());
+						gen.writeEndObject();
+					}
 					gen.writeObjectFieldStart("actions");
 					if (!isReadOnly()) {
 						gen.writeStringField("delete", "/admin/service-proxy/delete?name="+URLEncoder.encode(RuleUtil.getRuleIdentifier(p),"UTF-8"));
@@ -347,6 +426,28 @@ public class AdminRESTInterceptor extends RESTInterceptor {
 		return exc.getRule()instanceof AbstractServiceProxy?((AbstractServiceProxy) exc.getRule()).getTargetPort():-1;
 	}
 
+	/**
+	 * @return all HTTP clients used by the router, mapped to the name of their owner
+	 */
+	private Map<HttpClient, String> getHttpClients() {
+		Map<HttpClient, String> clients = new LinkedHashMap<HttpClient, String>();
+		clients.put(router.getResolverMap().getHTTPSchemaResolver().getHttpClient(), "global");
+		addHttpClients(clients, router.getTransport().getInterceptors(), "transport");
+		for (Rule r : router.getRuleManager().getRules())
+			addHttpClients(clients, r.getInterceptors(), r.toString());
+		return clients;
+	}
+
+	private void addHttpClients(Map<HttpClient, String> clients, List<Interceptor> interceptors, String owner) {
+		for (Interceptor i : interceptors) {
+			if (!(i instanceof HTTPClientInterceptor))
+				continue;
+			HttpClient hc = ((HTTPClientInterceptor) i).getHttpClient();
+			if (hc != null && !clients.containsKey(hc))
+				clients.put(hc, owner);
+		}
+	}
+
 	private List<AbstractServiceProxy> getServiceProxies() {
 		List<AbstractServiceProxy> rules = new LinkedList<AbstractServiceProxy>();
 		for (Rule r : router.getRuleManager().getRules()) {
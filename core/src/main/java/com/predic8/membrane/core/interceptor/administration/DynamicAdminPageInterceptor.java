@@ -392,11 +392,14 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 		log.debug("cluster: " + params.get("cluster"));
 		log.debug("host: " + params.get("host"));
 		log.debug("port: " + params.get("port"));
+		log.debug("weight: " + params.get("weight"));
 
+		String weight = params.get("weight");
 		BalancerUtil.lookupBalancer(router, getBalancerParam(params)).up(
 				params.get("cluster"),
 				params.get("host"),
-				Integer.parseInt(params.get("port")));
+				Integer.parseInt(params.get("port")),
+				weight == null || weight.length() == 0 ? 1 : Integer.parseInt(weight));
 		return redirect("clusters","show",createQueryString("balancer", getBalancerParam(params), "cluster", params.get("cluster")), relativeRootPath);
 	}
 
@@ -55,19 +55,16 @@ public class Balancer extends AbstractXmlElement {
 		return sct == null ? 0 : sct.getSessionTimeout();
 	}
 
+	/**
+	 * @param sessionTimeout 0 means sessions never expire. The cleanup thread keeps running anyway, as it also
+	 *        processes the queue of new sessions of the {@link SessionTable}s.
+	 */
 	public void setSessionTimeout(long sessionTimeout) {
-		if (sessionTimeout == 0) {
-			if (sct != null) {
-				sct.interrupt();
-				sct = null;
-			}
-		} else {
-			if (sct == null) {
-				sct = new SessionCleanupThread(clusters);
-				sct.start();
-			}
-			sct.setSessionTimeout(sessionTimeout);
+		if (sct == null) {
+			sct = new SessionCleanupThread(clusters);
+			sct.start();
 		}
+		sct.setSessionTimeout(sessionTimeout);
 	}
 
 	public long getTimeout() {
@@ -120,6 +117,10 @@ public class Balancer extends AbstractXmlElement {
 		getCluster(cName).nodeUp(new Node(host, port));
 	}
 
+	public void up(String cName, String host, int port, int weight) {
+		getCluster(cName).nodeUp(new Node(host, port), weight);
+	}
+
 	public void down(String cName, String host, int port) {
 		getCluster(cName).nodeDown(new Node(host, port));
 	}
@@ -72,6 +72,10 @@ public class BalancerUtil {
 		lookupBalancer(router, balancerName).up(cName, host, port);
 	}
 
+	public static void up(Router router, String balancerName, String cName, String host, int port, int weight) {
+		lookupBalancer(router, balancerName).up(cName, host, port, weight);
+	}
+
 	public static void down(Router router, String balancerName, String cName, String host, int port) {
 		lookupBalancer(router, balancerName).down(cName, host, port);
 	}
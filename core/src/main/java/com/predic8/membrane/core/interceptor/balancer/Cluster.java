@@ -15,6 +15,7 @@
 package com.predic8.membrane.core.interceptor.balancer;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.logging.*;
 
@@ -31,8 +32,14 @@ public class Cluster {
 	public static final String DEFAULT_NAME = "Default";
 
 	private String name = DEFAULT_NAME;
-	private List<Node> nodes = Collections.synchronizedList(new LinkedList<Node>());
-	private Map<String, Session> sessions = new Hashtable<String, Session>();
+	private final List<Node> nodes = new CopyOnWriteArrayList<Node>();
+	private final SessionTable sessions = new SessionTable();
+
+	/**
+	 * Immutable snapshot of the nodes that are UP. It is only rebuilt when the nodes or their status change, so that
+	 * dispatching a request neither locks nor copies.
+	 */
+	private volatile List<Node> availableNodes = Collections.emptyList();
 
 	public Cluster() {
 	}
@@ -42,31 +49,51 @@ public class Cluster {
 	}
 
 
-	public void nodeUp(Node n) {
+	public synchronized void nodeUp(Node n) {
 		log.debug("node: " + n +" up");
 		getNodeCreateIfNeeded(n).setLastUpTime(System.currentTimeMillis());
 		getNodeCreateIfNeeded(n).setStatus(Status.UP);
+		updateAvailableNodes();
+	}
+
+	/**
+	 * Like {@link #nodeUp(Node)}, but also sets the node's weight.
+	 */
+	public void nodeUp(Node n, int weight) {
+		nodeUp(n);
+		getNode(n).setWeight(weight);
 	}
 
-	public void nodeDown(Node n) {
+	public synchronized void nodeDown(Node n) {
 		log.debug("node: " + n +" down");
 		getNodeCreateIfNeeded(n).setStatus(Status.DOWN);
+		updateAvailableNodes();
 	}
 
-	public void nodeTakeOut(Node n) {
+	public synchronized void nodeTakeOut(Node n) {
 		log.debug("node: " + n +" takeout");
 		getNodeCreateIfNeeded(n).setStatus(Status.TAKEOUT);
+		updateAvailableNodes();
 	}
 
-	public boolean removeNode(Node node) {
-		return nodes.remove(node);
+	public synchronized boolean removeNode(Node node) {
+		boolean removed = nodes.remove(node);
+		updateAvailableNodes();
+		return removed;
 	}
 
+	/**
+	 * @return an unmodifiable list of the nodes that are UP
+	 */
 	public List<Node> getAvailableNodes(long timeout) {
-		List<Node> l = new LinkedList<Node>();
-		synchronized (nodes) {
-			for (Node n : getAllNodes(timeout)) {
-				if ( n.isUp() ) l.add(n);
+		List<Node> l = availableNodes;
+		if (timeout > 0) {
+			long now = System.currentTimeMillis();
+			for (Node n : l) {
+				if (now - n.getLastUpTime() > timeout) {
+					getAllNodes(timeout);
+					return availableNodes;
+				}
 			}
 		}
 		return l;
@@ -76,18 +103,25 @@ public class Cluster {
 		if (timeout <= 0) {
 			return nodes;
 		}
-		synchronized (nodes) {
+		synchronized (this) {
 			for (Node n : nodes) {
 				if ( System.currentTimeMillis()-n.getLastUpTime() > timeout ) n.setStatus(Status.DOWN);
 			}
+			updateAvailableNodes();
 		}
 		return nodes;
 	}
 
-	public Node getNode(Node ep) {
-		synchronized (nodes) {
-			return nodes.get(nodes.indexOf(ep));
-		}
+	private void updateAvailableNodes() {
+		List<Node> l = new ArrayList<Node>();
+		for (Node n : nodes)
+			if (n.isUp())
+				l.add(n);
+		availableNodes = Collections.unmodifiableList(l);
+	}
+
+	public synchronized Node getNode(Node ep) {
+		return nodes.get(nodes.indexOf(ep));
 	}
 
 	private Node getNodeCreateIfNeeded(Node ep) {
@@ -95,7 +129,9 @@ public class Cluster {
 			return getNode(ep);
 		}
 		log.debug("creating endpoint: "+ep);
-		nodes.add(new Node(ep.getHost(), ep.getPort()));
+		Node n = new Node(ep.getHost(), ep.getPort());
+		n.setWeight(ep.getWeight());
+		nodes.add(n);
 		return getNode(ep);
 	}
 
@@ -105,7 +141,10 @@ public class Cluster {
 
 			@Override
 			public boolean add(Node e) {
-				nodes.add(e);
+				synchronized (Cluster.this) {
+					nodes.add(e);
+					updateAvailableNodes();
+				}
 				return super.add(e);
 			}
 		};
@@ -115,9 +154,10 @@ public class Cluster {
 	 * @description Specifies a node.
 	 */
 	@MCChildElement
-	public void setNodes(List<Node> nodes) {
+	public synchronized void setNodes(List<Node> nodes) {
 		this.nodes.clear();
 		this.nodes.addAll(nodes);
+		updateAvailableNodes();
 	}
 
 	public String getName() {
@@ -134,24 +174,27 @@ public class Cluster {
 	}
 
 	public boolean containsSession(String sessionId) {
-		return sessions.containsKey(sessionId) && sessions.get(sessionId).getNode().isUp();
+		Session s = sessions.get(sessionId);
+		return s != null && s.getNode().isUp();
 	}
 
 	public void addSession(String sessionId, Node n) {
-		sessions.put(sessionId, new Session(sessionId, n));
+		sessions.put(new Session(sessionId, n));
 	}
 
 	public Map<String, Session> getSessions() {
+		return sessions.getSessions();
+	}
+
+	public SessionTable getSessionTable() {
 		return sessions;
 	}
 
 	public List<Session> getSessionsByNode(Node node) {
 		List<Session> l = new LinkedList<Session>();
-		synchronized (sessions) {
-			for (Session s : sessions.values()) {
-				if ( s.getNode().equals(node))
-					l.add(s);
-			}
+		for (Session s : sessions.getSessions().values()) {
+			if ( s.getNode().equals(node))
+				l.add(s);
 		}
 		return l;
 	}
@@ -87,7 +87,15 @@ public class ClusterNotificationInterceptor extends AbstractInterceptor {
 
 	private void updateClusterManager(Matcher m, Map<String, String> params)
 			throws Exception {
-		if ("up".equals(m.group(1))) {
+		if ("up".equals(m.group(1)) && params.get("weight") != null) {
+			BalancerUtil.up(
+					router,
+					getBalancerParam(params),
+					getClusterParam(params),
+					params.get("host"),
+					getPortParam(params),
+					Integer.parseInt(params.get("weight")));
+		} else if ("up".equals(m.group(1))) {
 			BalancerUtil.up(
 					router,
 					getBalancerParam(params),
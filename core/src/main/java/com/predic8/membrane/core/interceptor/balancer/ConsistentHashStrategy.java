@@ -0,0 +1,279 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.util.URLParamUtil;
+
+/**
+ * @description Strategy that always dispatches requests with the same key to the same node, as long as the node is
+ *              available. The key is taken from a header, a cookie, a query parameter or a path segment of the
+ *              request. If none of them is configured or the request does not contain the key, the client's IP
+ *              address is used.
+ * @explanation The nodes are placed on a hash ring, each with a number of virtual nodes in proportion to its
+ *              weight. When a node goes down or comes up, only the keys on its part of the ring are moved to other
+ *              nodes, so caches on the nodes stay valid. No session table is needed.
+ */
+@MCElement(name="consistentHashStrategy")
+public class ConsistentHashStrategy extends AbstractXmlElement implements RequestBasedDispatchingStrategy {
+
+	private static Log log = LogFactory.getLog(ConsistentHashStrategy.class.getName());
+
+	private String header;
+	private String cookie;
+	private String queryParam;
+	private int pathSegment;
+	private int virtualNodes = 100;
+
+	private volatile Ring ring = new Ring(new Node[0], new int[0], 0);
+
+	public Node dispatch(LoadBalancingInterceptor interceptor) throws EmptyNodeListException {
+		return dispatch(interceptor, "");
+	}
+
+	public Node dispatch(LoadBalancingInterceptor interceptor, Exchange exc) throws EmptyNodeListException {
+		String key = getKey(exc);
+		if (key == null)
+			key = exc.getRemoteAddrIp() != null ? exc.getRemoteAddrIp() : "";
+		return dispatch(interceptor, key);
+	}
+
+	Node dispatch(LoadBalancingInterceptor interceptor, String key) throws EmptyNodeListException {
+		List<Node> endpoints = interceptor.getEndpoints();
+		if (endpoints.isEmpty())
+			throw new EmptyNodeListException();
+		return getRing(endpoints).get(hash(key));
+	}
+
+	public void done(AbstractExchange exc) {
+	}
+
+	String getKey(Exchange exc) {
+		Request request = exc.getRequest();
+		if (header != null)
+			return request.getHeader().getFirstValue(header);
+		if (cookie != null)
+			return request.getHeader().getFirstCookie(cookie);
+		String uri = request.getUri();
+		int q = uri.indexOf('?');
+		if (queryParam != null)
+			return q == -1 ? null : URLParamUtil.parseQueryString(uri.substring(q + 1)).get(queryParam);
+		if (pathSegment > 0) {
+			String[] segments = (q == -1 ? uri : uri.substring(0, q)).split("/");
+			// segments[0] is the empty string before the leading '/'
+			return pathSegment < segments.length ? segments[pathSegment] : null;
+		}
+		return null;
+	}
+
+	/**
+	 * The ring is rebuilt (without a lock) when the available nodes or their weights have changed.
+	 */
+	private Ring getRing(List<Node> endpoints) {
+		Node[] nodes = endpoints.toArray(new Node[endpoints.size()]);
+		int[] weights = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			weights[i] = Math.max(1, nodes[i].getWeight());
+		Ring r = ring;
+		if (r.virtualNodes == virtualNodes && Arrays.equals(r.nodes, nodes) && Arrays.equals(r.weights, weights))
+			return r;
+		log.debug("rebuilding hash ring for nodes " + Arrays.toString(nodes));
+		r = new Ring(nodes, weights, virtualNodes);
+		ring = r;
+		return r;
+	}
+
+	private static class Ring {
+		final Node[] nodes;
+		final int[] weights;
+		final int virtualNodes;
+
+		/**
+		 * The positions of the virtual nodes on the ring in ascending order, and their nodes.
+		 */
+		final long[] positions;
+		final Node[] owners;
+
+		Ring(Node[] nodes, int[] weights, int virtualNodes) {
+			this.nodes = nodes;
+			this.weights = weights;
+			this.virtualNodes = virtualNodes;
+
+			int size = 0;
+			for (int weight : weights)
+				size += weight * virtualNodes;
+			long[] entries = new long[size];
+			Node[] entryOwners = new Node[size];
+			int n = 0;
+			for (int i = 0; i < nodes.length; i++)
+				for (int j = 0; j < weights[i] * virtualNodes; j++) {
+					entries[n] = hash(nodes[i].getHost() + ":" + nodes[i].getPort() + "#" + j);
+					entryOwners[n++] = nodes[i];
+				}
+
+			// sort the positions, keeping the owners in the same order
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			final long[] e = entries;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Long.compare(e[a], e[b]);
+				}
+			});
+			positions = new long[size];
+			owners = new Node[size];
+			for (int i = 0; i < size; i++) {
+				positions[i] = entries[order[i]];
+				owners[i] = entryOwners[order[i]];
+			}
+		}
+
+		/**
+		 * @return the node owning the first virtual node at or after the hash
+		 */
+		Node get(long hash) {
+			int i = Arrays.binarySearch(positions, hash);
+			if (i < 0)
+				i = -i - 1;
+			return owners[i == owners.length ? 0 : i];
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a, followed by the finalizer of MurmurHash3 to spread similar keys over the whole ring.
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(Constants.UTF_8_CHARSET)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	/**
+	 * @description Name of the request header whose value is used as key.
+	 * @example X-Customer-Id
+	 */
+	@MCAttribute
+	public void setHeader(String header) {
+		this.header = header;
+	}
+
+	public String getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * @description Name of the cookie whose value is used as key.
+	 * @example JSESSIONID
+	 */
+	@MCAttribute
+	public void setCookie(String cookie) {
+		this.cookie = cookie;
+	}
+
+	public String getQueryParam() {
+		return queryParam;
+	}
+
+	/**
+	 * @description Name of the query parameter whose value is used as key.
+	 * @example id
+	 */
+	@MCAttribute
+	public void setQueryParam(String queryParam) {
+		this.queryParam = queryParam;
+	}
+
+	public int getPathSegment() {
+		return pathSegment;
+	}
+
+	/**
+	 * @description Number of the path segment used as key, starting with 1. For example, 2 selects "42" in
+	 *              "/customers/42/orders".
+	 * @example 2
+	 */
+	@MCAttribute
+	public void setPathSegment(int pathSegment) {
+		this.pathSegment = pathSegment;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	/**
+	 * @description Number of points on the hash ring per node and unit of weight. More points spread the keys
+	 *              more evenly, but make rebuilding the ring more expensive. Has to be at least 1.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setVirtualNodes(int virtualNodes) {
+		if (virtualNodes < 1)
+			throw new IllegalArgumentException("virtualNodes has to be at least 1, but is " + virtualNodes + ".");
+		this.virtualNodes = virtualNodes;
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement("consistentHashStrategy");
+
+		if (header != null)
+			out.writeAttribute("header", header);
+		if (cookie != null)
+			out.writeAttribute("cookie", cookie);
+		if (queryParam != null)
+			out.writeAttribute("queryParam", queryParam);
+		if (pathSegment > 0)
+			out.writeAttribute("pathSegment", "" + pathSegment);
+		out.writeAttribute("virtualNodes", "" + virtualNodes);
+
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "consistentHashStrategy";
+	}
+
+}
@@ -0,0 +1,515 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.util.DNSCache;
+
+/**
+ * @description Actively checks the health of all nodes of a balancer by sending an HTTP request to each node
+ *              regularly. A node is set DOWN after a number of failed checks in a row, and UP again after a number
+ *              of successful checks in a row. Nodes which have been taken out are not changed.
+ * @explanation All checks are run concurrently by a single thread using non-blocking I/O, so checking many nodes
+ *              does not need many threads, and a node which does not respond does not delay the checks of the
+ *              other nodes.
+ */
+@MCElement(name="healthCheck", topLevel=false)
+public class HealthChecker {
+
+	private static final Log log = LogFactory.getLog(HealthChecker.class.getName());
+
+	/**
+	 * How often (in ms) to check whether the host of a node has been resolved.
+	 */
+	private static final int RESOLVE_POLL_INTERVAL = 100;
+
+	private String path = "/";
+	private String expectedStatus = "200-399";
+	private boolean[] expected = parseStatusCodes(expectedStatus);
+	private int interval = 5000;
+	private int jitter = 1000;
+	private int timeout = 2000;
+	private int healthyThreshold = 2;
+	private int unhealthyThreshold = 3;
+
+	private LoadBalancingInterceptor lbi;
+	private Router router;
+	private DNSCache dnsCache;
+	private final Map<String, NodeHealth> health = new ConcurrentHashMap<String, NodeHealth>();
+	private volatile Thread thread;
+
+	/**
+	 * The result of the checks of a node.
+	 */
+	public static class NodeHealth {
+		private final String host;
+		private final int port;
+		private volatile boolean healthy;
+		private volatile long lastCheck;
+		private volatile long latency = -1;
+		private volatile int successes, failures;
+
+		private long nextCheck;
+		private Probe probe;
+
+		NodeHealth(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return whether the last change was to healthy. False, as long as the node has not been checked
+		 *         {@link HealthChecker#getHealthyThreshold()} times.
+		 */
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		public long getLastCheck() {
+			return lastCheck;
+		}
+
+		/**
+		 * @return the duration of the last successful check in milliseconds, or -1
+		 */
+		public long getLatency() {
+			return latency;
+		}
+
+		public int getSuccesses() {
+			return successes;
+		}
+
+		public int getFailures() {
+			return failures;
+		}
+	}
+
+	/**
+	 * A running check: A connection to the node which sends the request and reads the status line.
+	 */
+	private class Probe {
+		final NodeHealth node;
+		final long start, deadline;
+		final SocketChannel channel;
+		final ByteBuffer out, in = ByteBuffer.allocate(256);
+
+		Probe(NodeHealth node, InetAddress address, long now, Selector selector) throws IOException {
+			this.node = node;
+			start = now;
+			deadline = now + timeout;
+			out = ByteBuffer.wrap(("GET " + path + " HTTP/1.1\r\n" +
+					"Host: " + node.host + ":" + node.port + "\r\n" +
+					"User-Agent: " + Constants.PRODUCT_NAME + " Health Check\r\n" +
+					"Connection: close\r\n\r\n").getBytes(Constants.ISO_8859_1_CHARSET));
+			channel = SocketChannel.open();
+			try {
+				channel.configureBlocking(false);
+				boolean connected = channel.connect(new InetSocketAddress(address, node.port));
+				channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return the status code, 0 if the status line has not been read completely yet
+		 */
+		int handle(SelectionKey key) throws IOException {
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+			if (key.isValid() && key.isWritable()) {
+				channel.write(out);
+				if (!out.hasRemaining())
+					key.interestOps(SelectionKey.OP_READ);
+			}
+			if (key.isValid() && key.isReadable()) {
+				if (channel.read(in) == -1)
+					throw new IOException("Connection closed before the status line was received.");
+				String head = new String(in.array(), 0, in.position(), Constants.ISO_8859_1_CHARSET);
+				int eol = head.indexOf("\r\n");
+				if (eol != -1) {
+					String[] statusLine = head.substring(0, eol).split(" ");
+					if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/"))
+						throw new IOException("Invalid status line: " + head.substring(0, eol));
+					try {
+						return Integer.parseInt(statusLine[1]);
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid status line: " + head.substring(0, eol));
+					}
+				}
+				if (!in.hasRemaining())
+					throw new IOException("Status line too long.");
+			}
+			return 0;
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	public synchronized void start(LoadBalancingInterceptor lbi, Router router) throws IOException {
+		if (thread != null)
+			return;
+		this.lbi = lbi;
+		this.router = router;
+		if (dnsCache == null)
+			dnsCache = router != null ? router.getDnsCache() : new DNSCache();
+		final Selector selector = Selector.open();
+		thread = new Thread("Health Check") {
+			@Override
+			public void run() {
+				try {
+					runChecks(selector);
+				} catch (Exception e) {
+					log.error("Health checks stopped.", e);
+				} finally {
+					try {
+						selector.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * @return whether the checks have been started and not been stopped yet
+	 */
+	public boolean isRunning() {
+		Thread t = thread;
+		return t != null && t.isAlive();
+	}
+
+	private void runChecks(Selector selector) throws IOException {
+		long nextRefresh = 0;
+		boolean routerRunning = false;
+		while (!Thread.currentThread().isInterrupted()) {
+			long now = System.currentTimeMillis();
+			if (now >= nextRefresh) {
+				// stop when the router (e.g. because of hot deployment) has been stopped
+				if (router != null) {
+					if (routerRunning && !router.isRunning())
+						break;
+					routerRunning = router.isRunning();
+				}
+				refreshNodes(now);
+				nextRefresh = now + 1000;
+			}
+
+			long next = nextRefresh;
+			for (NodeHealth h : health.values()) {
+				if (h.probe == null && h.nextCheck <= now)
+					startProbe(h, now, selector);
+				if (h.probe != null && h.probe.deadline <= now) {
+					log.debug("Health check of " + h.host + ":" + h.port + " timed out.");
+					h.probe.close();
+					onResult(h, false, now);
+				}
+				next = Math.min(next, h.probe != null ? h.probe.deadline : h.nextCheck);
+			}
+
+			selector.select(Math.max(1, next - now));
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Probe probe = (Probe) key.attachment();
+				if (probe.node.probe != probe)
+					continue;
+				now = System.currentTimeMillis();
+				try {
+					int status = probe.handle(key);
+					if (status == 0)
+						continue;
+					probe.close();
+					probe.node.latency = now - probe.start;
+					if (!isExpected(status))
+						log.debug("Health check of " + probe.node.host + ":" + probe.node.port + " returned " + status + ".");
+					onResult(probe.node, isExpected(status), now);
+				} catch (IOException e) {
+					log.debug("Health check of " + probe.node.host + ":" + probe.node.port + " failed: " + e.getMessage());
+					probe.close();
+					onResult(probe.node, false, now);
+				}
+			}
+		}
+		for (NodeHealth h : health.values())
+			if (h.probe != null)
+				h.probe.close();
+	}
+
+	private void startProbe(NodeHealth h, long now, Selector selector) {
+		try {
+			InetAddress address = dnsCache.getByNameIfResolved(h.host);
+			if (address == null) {
+				// do not delay the checks of the other nodes until the host has been resolved
+				h.nextCheck = now + RESOLVE_POLL_INTERVAL;
+				return;
+			}
+			h.probe = new Probe(h, address, now, selector);
+		} catch (IOException e) {
+			log.debug("Health check of " + h.host + ":" + h.port + " failed: " + e.getMessage());
+			onResult(h, false, now);
+		}
+	}
+
+	/**
+	 * Adds the nodes of all clusters which are not known yet and removes the ones which do not exist anymore.
+	 */
+	private void refreshNodes(long now) {
+		Map<String, Node> nodes = new HashMap<String, Node>();
+		for (Cluster c : lbi.getClusterManager().getClusters())
+			for (Node n : c.getAllNodes(0))
+				nodes.put(n.getHost() + ":" + n.getPort(), n);
+
+		for (Map.Entry<String, Node> e : nodes.entrySet()) {
+			if (!health.containsKey(e.getKey())) {
+				NodeHealth h = new NodeHealth(e.getValue().getHost(), e.getValue().getPort());
+				// spread the first checks
+				h.nextCheck = now + random(jitter);
+				health.put(e.getKey(), h);
+			}
+		}
+		Iterator<Map.Entry<String, NodeHealth>> it = health.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, NodeHealth> e = it.next();
+			if (!nodes.containsKey(e.getKey())) {
+				if (e.getValue().probe != null)
+					e.getValue().probe.close();
+				it.remove();
+			}
+		}
+	}
+
+	private void onResult(NodeHealth h, boolean success, long now) {
+		h.probe = null;
+		h.lastCheck = now;
+		h.nextCheck = now + interval + random(jitter);
+		if (success) {
+			h.failures = 0;
+			if (++h.successes >= healthyThreshold)
+				setHealthy(h, true);
+		} else {
+			h.successes = 0;
+			if (++h.failures >= unhealthyThreshold)
+				setHealthy(h, false);
+		}
+	}
+
+	private void setHealthy(NodeHealth h, boolean healthy) {
+		if (h.healthy != healthy)
+			log.info("Node " + h.host + ":" + h.port + " is " + (healthy ? "healthy." : "unhealthy."));
+		h.healthy = healthy;
+		Node node = new Node(h.host, h.port);
+		for (Cluster c : lbi.getClusterManager().getClusters()) {
+			for (Node n : c.getAllNodes(0)) {
+				if (!n.equals(node))
+					continue;
+				if (healthy && n.isDown())
+					c.nodeUp(n);
+				else if (!healthy && n.isUp())
+					c.nodeDown(n);
+			}
+		}
+	}
+
+	private static int random(int bound) {
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextInt(bound);
+	}
+
+	boolean isExpected(int status) {
+		return status >= 0 && status < expected.length && expected[status];
+	}
+
+	/**
+	 * @param codes a comma separated list of status codes and ranges of status codes, like "200-299,404"
+	 */
+	static boolean[] parseStatusCodes(String codes) {
+		boolean[] result = new boolean[600];
+		for (String part : codes.split(",")) {
+			part = part.trim();
+			int dash = part.indexOf('-');
+			int from = Integer.parseInt(dash == -1 ? part : part.substring(0, dash).trim());
+			int to = dash == -1 ? from : Integer.parseInt(part.substring(dash + 1).trim());
+			if (from < 100 || to > 599 || from > to)
+				throw new IllegalArgumentException("Invalid status code range: " + part);
+			for (int i = from; i <= to; i++)
+				result[i] = true;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the results of the checks, by "host:port"
+	 */
+	public Map<String, NodeHealth> getHealth() {
+		return Collections.unmodifiableMap(health);
+	}
+
+	public NodeHealth getHealth(Node node) {
+		return health.get(node.getHost() + ":" + node.getPort());
+	}
+
+	/**
+	 * Sets the cache used to resolve the hosts of the nodes. If not set, the router's DNS cache is used.
+	 */
+	public void setDnsCache(DNSCache dnsCache) {
+		this.dnsCache = dnsCache;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @description The path requested from each node.
+	 * @default /
+	 * @example /health
+	 */
+	@MCAttribute
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public String getExpectedStatus() {
+		return expectedStatus;
+	}
+
+	/**
+	 * @description The status codes of a healthy node: a comma separated list of codes and ranges of codes.
+	 * @default 200-399
+	 * @example 200,204
+	 */
+	@MCAttribute
+	public void setExpectedStatus(String expectedStatus) {
+		this.expected = parseStatusCodes(expectedStatus);
+		this.expectedStatus = expectedStatus;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @description Time in milliseconds between two checks of a node.
+	 * @default 5000
+	 */
+	@MCAttribute
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @description Maximum random time in milliseconds added to the interval, so that the checks of the nodes are
+	 *              spread over time.
+	 * @default 1000
+	 */
+	@MCAttribute
+	public void setJitter(int jitter) {
+		this.jitter = jitter;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @description Time in milliseconds after which a check without response has failed.
+	 * @default 2000
+	 */
+	@MCAttribute
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getHealthyThreshold() {
+		return healthyThreshold;
+	}
+
+	/**
+	 * @description Number of successful checks in a row after which a node is set UP.
+	 * @default 2
+	 */
+	@MCAttribute
+	public void setHealthyThreshold(int healthyThreshold) {
+		this.healthyThreshold = healthyThreshold;
+	}
+
+	public int getUnhealthyThreshold() {
+		return unhealthyThreshold;
+	}
+
+	/**
+	 * @description Number of failed checks in a row after which a node is set DOWN.
+	 * @default 3
+	 */
+	@MCAttribute
+	public void setUnhealthyThreshold(int unhealthyThreshold) {
+		this.unhealthyThreshold = unhealthyThreshold;
+	}
+
+}
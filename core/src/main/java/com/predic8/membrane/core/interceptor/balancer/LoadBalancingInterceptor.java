@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 import com.google.common.collect.Lists;
 import com.predic8.membrane.annot.MCAttribute;
@@ -35,7 +36,7 @@ import com.predic8.membrane.core.interceptor.Outcome;
  * @topic 7. Clustering and Loadbalancing
  */
 @MCElement(name="balancer")
-public class LoadBalancingInterceptor extends AbstractInterceptor {
+public class LoadBalancingInterceptor extends AbstractInterceptor implements DisposableBean {
 
 	private static Log log = LogFactory.getLog(LoadBalancingInterceptor.class
 			.getName());
@@ -63,7 +64,7 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 
 		Node dispatchedNode;
 		try {
-			dispatchedNode = getDispatchedNode(exc.getRequest());
+			dispatchedNode = getDispatchedNode(exc);
 		} catch (EmptyNodeListException e) {
 			//This can happen for 2 reasons:
 			//1) Initial server misconfiguration. None configured at all.
@@ -92,7 +93,13 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 	public void handleAbort(Exchange exc) {
 		if(nodeOnlineChecker != null){
 			nodeOnlineChecker.handle(exc);
-		}		
+		}
+
+		Node n = (Node) exc.getProperty("dispatchedNode");
+		if (n != null) {
+			n.removeThread();
+			strategy.done(exc);
+		}
 	}
 
 	@Override
@@ -139,12 +146,12 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		n.collectStatisticsFrom(exc);
 	}
 
-	private Node getDispatchedNode(Message msg) throws Exception {
+	private Node getDispatchedNode(Exchange exc) throws Exception {
 		String sessionId;
 		if (sessionIdExtractor == null
-				|| (sessionId = getSessionId(msg)) == null) {
+				|| (sessionId = getSessionId(exc.getRequest())) == null) {
 			log.debug("no session id found.");
-			return strategy.dispatch(this);
+			return dispatch(exc);
 		}
 
 		Session s = getSession(sessionId);
@@ -153,13 +160,19 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		if (s == null || s.getNode().isDown()) {
 			log.debug("assigning new node for session id " + sessionId
 					+ (s != null ? " (old node was " + s.getNode() + ")" : ""));
-			balancer.addSession2Cluster(sessionId, Cluster.DEFAULT_NAME, strategy.dispatch(this));
+			balancer.addSession2Cluster(sessionId, Cluster.DEFAULT_NAME, dispatch(exc));
 		}
 		s = getSession(sessionId);
 		s.used();
 		return s.getNode();
 	}
 
+	private Node dispatch(Exchange exc) throws EmptyNodeListException {
+		if (strategy instanceof RequestBasedDispatchingStrategy)
+			return ((RequestBasedDispatchingStrategy) strategy).dispatch(this, exc);
+		return strategy.dispatch(this);
+	}
+
 	private Session getSession(String sessionId) {
 		return balancer.getSessions(Cluster.DEFAULT_NAME).get(sessionId);
 	}
@@ -216,6 +229,8 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 	@MCChildElement(order=4)
 	public void setNodeOnlineChecker(NodeOnlineChecker noc)
 	{
+		if (this.nodeOnlineChecker != null && this.nodeOnlineChecker != noc)
+			this.nodeOnlineChecker.stop();
 		this.nodeOnlineChecker = noc;
 		this.nodeOnlineChecker.setLbi(this);
 	}
@@ -300,6 +315,17 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 		for (Cluster c : balancer.getClusters())
 			for (Node n : c.getNodes())
 				c.nodeUp(n);
+		if (nodeOnlineChecker != null)
+			nodeOnlineChecker.init(router);
+	}
+
+	/**
+	 * Stops the health checks, when the proxy is removed (for example, by hot deployment).
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if (nodeOnlineChecker != null)
+			nodeOnlineChecker.stop();
 	}
 
 }
@@ -40,8 +40,10 @@ public class Node extends AbstractXmlElement {
 
 	private String host;
 	private int port;
+	private int weight = 1;
 
 	private volatile long lastUpTime;
+	private volatile long upSince;
 	private volatile Status status;
 	private AtomicInteger counter = new AtomicInteger();
 	private AtomicInteger threads = new AtomicInteger();
@@ -125,6 +127,28 @@ public class Node extends AbstractXmlElement {
 		this.port = port;
 	}
 
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @description The node's share of the requests relative to the other nodes of the cluster. Only used by
+	 *              the weightedRoundRobinStrategy.
+	 * @example 3
+	 * @default 1
+	 */
+	@MCAttribute
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * @return the time the node's status last changed to {@link Status#UP}
+	 */
+	public long getUpSince() {
+		return upSince;
+	}
+
 	public boolean isUp() {
 		return status == Status.UP;
 	}
@@ -138,8 +162,8 @@ public class Node extends AbstractXmlElement {
 	}
 
 	public void setStatus(Status status) {
-		if (status == Status.DOWN)
-			threads.set(0);
+		if (status == Status.UP && this.status != Status.UP)
+			upSince = System.currentTimeMillis();
 		this.status = status;
 	}
 
@@ -183,14 +207,15 @@ public class Node extends AbstractXmlElement {
 		}
 	}
 
+	/**
+	 * Counts a request running on the node. Has to be followed by {@link #removeThread()}.
+	 */
 	public void addThread() {
-		if (!isUp()) return;
 		threads.incrementAndGet();
 	}
 
 	public void removeThread() {
-		if (!isUp()) return;
-		threads.incrementAndGet();
+		threads.decrementAndGet();
 	}
 
 	public int getThreads() {
@@ -209,6 +234,8 @@ public class Node extends AbstractXmlElement {
 
 		out.writeAttribute("host", host);
 		out.writeAttribute("port", ""+port);
+		if (weight != 1)
+			out.writeAttribute("weight", ""+weight);
 
 		out.writeEndElement();
 	}
@@ -218,6 +245,7 @@ public class Node extends AbstractXmlElement {
 
 		host = token.getAttributeValue("", "host");
 		port = Integer.parseInt(token.getAttributeValue("", "port")!=null?token.getAttributeValue("", "port"):"80");
+		weight = Integer.parseInt(token.getAttributeValue("", "weight")!=null?token.getAttributeValue("", "weight"):"1");
 	}
 
 	public String getDestinationURL(Exchange exc) {
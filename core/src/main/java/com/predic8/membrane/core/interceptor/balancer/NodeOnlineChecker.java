@@ -17,16 +17,20 @@ package com.predic8.membrane.core.interceptor.balancer;
 import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCChildElement;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
 import org.joda.time.DateTime;
 
@@ -95,16 +99,30 @@ public class NodeOnlineChecker {
     private static Log log = LogFactory.getLog(NodeOnlineChecker.class.getName());
     LoadBalancingInterceptor lbi;
     ConcurrentHashMap<String, BadNode> badNodesForDestinations = new ConcurrentHashMap<String, BadNode>();
-    HashSet<BadNode> offlineNodes = new HashSet<BadNode>();
+    Set<BadNode> offlineNodes = Collections.newSetFromMap(new ConcurrentHashMap<BadNode, Boolean>());
     private int retryTimeInSeconds = -1;
     private int nodeCounterLimit5XX = 10;
     private int pingTimeoutInSeconds = 1;
     private DateTime lastCheck = DateTime.now();
+    private HealthChecker healthCheck;
 
 
     public NodeOnlineChecker() {
     }
 
+    /**
+     * Starts the active health checks, if configured.
+     */
+    public void init(Router router) throws IOException {
+        if (healthCheck != null)
+            healthCheck.start(lbi, router);
+    }
+
+    public void stop() {
+        if (healthCheck != null)
+            healthCheck.stop();
+    }
+
     public void handle(Exchange exc) {
         if (exc.getNodeExceptions() != null) {
             for (int i = 0; i < exc.getDestinations().size(); i++) {
@@ -184,13 +202,15 @@ public class NodeOnlineChecker {
 
 
     public void putNodesBackUp() {
-        if(retryTimeInSeconds < 0) {
+        if(retryTimeInSeconds < 0 || healthCheck != null) {
+            // the active health checks put the nodes back up
             return;
         }
-        if(retryTimeInSeconds > 0) {
-            if (DateTime.now().isBefore(lastCheck.plusSeconds(retryTimeInSeconds))) {
+        synchronized (this) {
+            if (retryTimeInSeconds > 0 && DateTime.now().isBefore(lastCheck.plusSeconds(retryTimeInSeconds))) {
                 return;
             }
+            lastCheck = DateTime.now();
         }
         List<BadNode> onlineNodes = pingOfflineNodes();
         for(BadNode node : onlineNodes){
@@ -251,6 +271,19 @@ public class NodeOnlineChecker {
         this.retryTimeInSeconds = retryTimeInSeconds;
     }
 
+    public HealthChecker getHealthCheck() {
+        return healthCheck;
+    }
+
+    /**
+     * @description Actively checks the health of the nodes. If set, the checks replace the pings of offline nodes
+     *              (see retryTimeInSeconds).
+     */
+    @MCChildElement
+    public void setHealthCheck(HealthChecker healthCheck) {
+        this.healthCheck = healthCheck;
+    }
+
     public int getNodeCounterLimit5XX() {
         return nodeCounterLimit5XX;
     }
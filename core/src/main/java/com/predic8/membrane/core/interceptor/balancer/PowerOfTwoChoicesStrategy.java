@@ -0,0 +1,176 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+
+/**
+ * @description Strategy that picks two random available nodes and dispatches to the one with the lower load
+ *              ("power of two choices"). The load of a node is its number of running requests multiplied by its
+ *              recent response time (peak exponentially weighted moving average: a slow response immediately raises
+ *              the average, which then decays with the decay time). So faster nodes get proportionally more
+ *              requests.
+ */
+@MCElement(name="powerOfTwoChoicesStrategy")
+public class PowerOfTwoChoicesStrategy extends AbstractXmlElement implements DispatchingStrategy {
+
+	/**
+	 * The minimum time in milliseconds between two removals of the response times of nodes not available anymore.
+	 */
+	static final long PRUNE_INTERVAL = 10000;
+
+	private int decayTime = 10000;
+
+	private final ConcurrentHashMap<Node, AtomicReference<Ewma>> responseTimes = new ConcurrentHashMap<Node, AtomicReference<Ewma>>();
+	private final AtomicLong nextPrune = new AtomicLong();
+
+	public Node dispatch(LoadBalancingInterceptor interceptor) throws EmptyNodeListException {
+		List<Node> endpoints = interceptor.getEndpoints();
+		int size = endpoints.size();
+		if (size == 0)
+			throw new EmptyNodeListException();
+		long now = System.currentTimeMillis();
+		prune(endpoints, now);
+		if (size == 1)
+			return endpoints.get(0);
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(size);
+		int j = random.nextInt(size - 1);
+		if (j >= i)
+			j++;
+		Node a = endpoints.get(i), b = endpoints.get(j);
+		return getCost(b, now) < getCost(a, now) ? b : a;
+	}
+
+	/**
+	 * Forgets the response times of nodes which are not available anymore (for example, removed from a dynamic
+	 * cluster), so that they do not accumulate. Does nothing, if this has been done within the last
+	 * {@link #PRUNE_INTERVAL}.
+	 */
+	void prune(List<Node> endpoints, long now) {
+		long next = nextPrune.get();
+		if (now < next || !nextPrune.compareAndSet(next, now + PRUNE_INTERVAL))
+			return;
+		if (responseTimes.isEmpty())
+			return;
+		responseTimes.keySet().retainAll(new HashSet<Node>(endpoints));
+	}
+
+	public void done(AbstractExchange exc) {
+		Node node = (Node) exc.getProperty("dispatchedNode");
+		if (node == null || exc.getTimeReqSent() == 0 || exc.getTimeResReceived() == 0)
+			return;
+		observe(node, exc.getTimeResReceived() - exc.getTimeReqSent(), System.currentTimeMillis());
+	}
+
+	void observe(Node node, long responseTime, long now) {
+		AtomicReference<Ewma> ref = responseTimes.get(node);
+		if (ref == null) {
+			ref = new AtomicReference<Ewma>();
+			AtomicReference<Ewma> old = responseTimes.putIfAbsent(node, ref);
+			if (old != null)
+				ref = old;
+		}
+		while (true) {
+			Ewma old = ref.get();
+			double value = responseTime;
+			// a response time above the average replaces it ("peak")
+			if (old != null && old.value > value) {
+				double w = old.getWeight(now, decayTime);
+				value = old.value * w + value * (1 - w);
+			}
+			if (ref.compareAndSet(old, new Ewma(value, now)))
+				return;
+		}
+	}
+
+	double getCost(Node node, long now) {
+		AtomicReference<Ewma> ref = responseTimes.get(node);
+		Ewma ewma = ref == null ? null : ref.get();
+		double responseTime = ewma == null ? 0 : ewma.getValue(now, decayTime);
+		// +1: nodes without known response time are compared by their number of running requests
+		return (responseTime + 1) * (node.getThreads() + 1);
+	}
+
+	/**
+	 * The immutable state of the moving average.
+	 */
+	private static class Ewma {
+		final double value;
+		final long time;
+
+		Ewma(double value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+
+		/**
+		 * @return the value decayed towards 0, so that a node which is not used any more because of a slow response
+		 *         gets requests again
+		 */
+		double getValue(long now, int decayTime) {
+			return value * getWeight(now, decayTime);
+		}
+
+		double getWeight(long now, int decayTime) {
+			if (now <= time)
+				return 1;
+			return Math.exp(-(now - time) / (double) decayTime);
+		}
+	}
+
+	public int getDecayTime() {
+		return decayTime;
+	}
+
+	/**
+	 * @description Time in milliseconds after which a response time has lost about 63% of its weight in the moving
+	 *              average.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setDecayTime(int decayTime) {
+		this.decayTime = decayTime;
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement("powerOfTwoChoicesStrategy");
+
+		out.writeAttribute("decayTime", "" + decayTime);
+
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "powerOfTwoChoicesStrategy";
+	}
+
+}
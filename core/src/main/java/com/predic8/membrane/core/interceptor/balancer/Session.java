@@ -16,9 +16,14 @@ package com.predic8.membrane.core.interceptor.balancer;
 
 public class Session {
 	Node node;
-	long lastUsed;
+	volatile long lastUsed;
 	String id;
 
+	/**
+	 * Whether the session is in the timing wheel of its {@link SessionTable}. Guarded by the table.
+	 */
+	boolean scheduled;
+
 	Session(String id, Node node) {
 		this.id = id;
 		this.node = node;
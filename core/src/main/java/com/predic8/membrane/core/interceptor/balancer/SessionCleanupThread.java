@@ -14,25 +14,30 @@
 
 package com.predic8.membrane.core.interceptor.balancer;
 
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+/**
+ * Removes expired sessions from the {@link SessionTable}s of the clusters, once per {@link SessionTable#TICK}.
+ */
 public class SessionCleanupThread extends Thread {
 	private static Log log = LogFactory.getLog(SessionCleanupThread.class.getName());
 	public static final long DEFAULT_TIMEOUT = 60 * 60000;
 
 	private Map<String, Cluster> clusters;
-	private long sessionTimeout = DEFAULT_TIMEOUT;
+	private volatile long sessionTimeout = DEFAULT_TIMEOUT;
 
 	public SessionCleanupThread(Map<String, Cluster> clusters) {
 		super("SessionCleanupThread");
 		this.clusters = clusters;
 	}
 
+	/**
+	 * @param sessionTimeout 0 means sessions never expire
+	 */
 	public void setSessionTimeout(long sessionTimeout) {
 		this.sessionTimeout = sessionTimeout;
 	}
@@ -46,46 +51,27 @@ public class SessionCleanupThread extends Thread {
 		try {
 			sleep(10000); //TODO without exceptions are thrown because log4j is not ready.
 		} catch (InterruptedException e1) {
+			return;
 		}
 
 		log.debug("SessionCleanupThread started");
 
 		while (!interrupted()) {
-			synchronized (this) {
-
-				long time = System.currentTimeMillis();
-				int size = 0;
-				int cleaned = 0;
-				for (Cluster c : clusters.values()) {
-					synchronized (c.getSessions()) {
-						size = c.getSessions().size();
-						cleaned = cleanupSessions(c);
-					}
-				}
-				if (cleaned != 0)
-					log.debug(""+ cleaned +" sessions removed of "+ size +" in " +(System.currentTimeMillis()-time)+"ms");
+			long time = System.currentTimeMillis();
+			int size = 0;
+			int cleaned = 0;
+			for (Cluster c : new ArrayList<Cluster>(clusters.values())) {
+				size += c.getSessions().size();
+				cleaned += c.getSessionTable().expire(time, sessionTimeout);
 			}
+			if (cleaned != 0)
+				log.debug(""+ cleaned +" sessions removed of "+ size +" in " +(System.currentTimeMillis()-time)+"ms");
 
 			try {
-				sleep(15000);
+				sleep(SessionTable.TICK);
 			} catch (InterruptedException e) {
+				return;
 			}
 		}
 	}
-
-	private int cleanupSessions(Cluster c) {
-		Collection<Session> ss = c.getSessions().values();
-		Iterator<Session> sIt = ss.iterator();
-		int cleaned = 0;
-		long now = System.currentTimeMillis();
-
-		while (sIt.hasNext()) {
-			Session s = sIt.next();
-			if (now - s.getLastUsed() > sessionTimeout) {
-				cleaned++;
-				sIt.remove();
-			}
-		}
-		return cleaned;
-	}
 }
@@ -0,0 +1,164 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The sessions of a {@link Cluster}, removed after they have not been used for the session timeout.
+ *
+ * The sessions are kept in a {@link ConcurrentHashMap}, so looking up and adding sessions does not take a global lock.
+ *
+ * Expiry uses a hierarchical timing wheel (3 levels of 64 slots, ticking once a second), so that
+ * {@link #expire(long, long)} does not scan all sessions: a session is only looked at when its slot is due.
+ * {@link Session#used()} does not move the session within the wheel. Instead, when the slot is due, the session is
+ * rescheduled if it has been used in the meantime. So each session is looked at about once per timeout.
+ *
+ * New sessions are queued and only inserted into the wheel by the thread calling {@link #expire(long, long)}, so
+ * request threads never touch the wheel.
+ */
+public class SessionTable {
+
+	static final long TICK = 1000;
+
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int LEVELS = 3;
+
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+	private final ConcurrentLinkedQueue<Session> added = new ConcurrentLinkedQueue<Session>();
+
+	// the wheel, only used within expire()
+	private final List<List<Session>> slots = new ArrayList<List<Session>>(LEVELS * SLOTS);
+	private long tick = -1;
+	private long timeout;
+
+	public SessionTable() {
+		for (int i = 0; i < LEVELS * SLOTS; i++)
+			slots.add(new ArrayList<Session>());
+	}
+
+	public ConcurrentMap<String, Session> getSessions() {
+		return sessions;
+	}
+
+	public Session get(String id) {
+		return sessions.get(id);
+	}
+
+	public void put(Session session) {
+		sessions.put(session.getId(), session);
+		added.add(session);
+	}
+
+	/**
+	 * Removes the sessions which have not been used for longer than the timeout. Has to be called regularly, at
+	 * least once per {@link #TICK}, otherwise the queue of new sessions grows.
+	 *
+	 * @param timeout the session timeout in milliseconds, 0 meaning sessions never expire
+	 * @return the number of removed sessions
+	 */
+	public synchronized int expire(long now, long timeout) {
+		long nowTick = now / TICK;
+		if (tick < 0)
+			tick = nowTick;
+		if (timeout != this.timeout) {
+			// the sessions have been scheduled using a different timeout
+			clear();
+			this.timeout = timeout;
+			if (timeout > 0)
+				for (Session s : sessions.values())
+					schedule(s, tick + 1);
+		}
+
+		Session s;
+		while ((s = added.poll()) != null)
+			if (timeout > 0 && !s.scheduled)
+				schedule(s, tick + 1);
+		if (timeout <= 0) {
+			tick = nowTick;
+			return 0;
+		}
+
+		int expired = 0;
+		while (tick < nowTick) {
+			tick++;
+			for (int level = LEVELS - 1; level > 0; level--)
+				if ((tick & ((1L << (BITS * level)) - 1)) == 0)
+					for (Session c : takeSlot(level, tick))
+						if (isCurrent(c))
+							schedule(c, tick);
+			for (Session c : takeSlot(0, tick)) {
+				if (!isCurrent(c))
+					continue;
+				if (now - c.getLastUsed() > timeout) {
+					c.scheduled = false;
+					if (sessions.remove(c.getId(), c))
+						expired++;
+				} else {
+					schedule(c, tick + 1);
+				}
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * @return whether the session is still in the table, or whether it was removed or replaced
+	 */
+	private boolean isCurrent(Session s) {
+		if (sessions.get(s.getId()) == s)
+			return true;
+		s.scheduled = false;
+		return false;
+	}
+
+	private List<Session> takeSlot(int level, long tick) {
+		int i = level * SLOTS + (int) ((tick >> (BITS * level)) & (SLOTS - 1));
+		List<Session> slot = slots.get(i);
+		slots.set(i, new ArrayList<Session>());
+		return slot;
+	}
+
+	/**
+	 * Puts the session into the slot of the tick when it expires (or of the latest tick the wheel can hold).
+	 */
+	private void schedule(Session s, long minTick) {
+		s.scheduled = true;
+		long expiry = Math.max(minTick, (s.getLastUsed() + timeout) / TICK + 1);
+		int level = 0;
+		while (level < LEVELS - 1 && (expiry >> (BITS * (level + 1))) != (tick >> (BITS * (level + 1))))
+			level++;
+		if (level == LEVELS - 1) {
+			long maxBlock = (tick >> (BITS * level)) + SLOTS - 1;
+			if ((expiry >> (BITS * level)) > maxBlock)
+				expiry = maxBlock << (BITS * level);
+		}
+		slots.get(level * SLOTS + (int) ((expiry >> (BITS * level)) & (SLOTS - 1))).add(s);
+	}
+
+	private void clear() {
+		for (int i = 0; i < slots.size(); i++) {
+			for (Session s : slots.get(i))
+				s.scheduled = false;
+			slots.set(i, new ArrayList<Session>());
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+
+/**
+ * @description Strategy that dispatches the requests to the available nodes in proportion to their weight, using
+ *              smooth weighted round robin (as nginx does): the requests to a node are spread evenly instead of
+ *              being sent in bursts. A node that just changed to UP gets its full weight only after the slow start
+ *              time, its weight rising linearly until then. So a backend which was just (re)started is not
+ *              overloaded while it is still warming up.
+ */
+@MCElement(name="weightedRoundRobinStrategy")
+public class WeightedRoundRobinStrategy extends AbstractXmlElement implements DispatchingStrategy {
+
+	/**
+	 * Weights are multiplied by this, so that the slow start can ramp them up in small steps.
+	 */
+	static final long SCALE = 1000;
+
+	private long slowStart = 30000;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(new State(new Node[0], new long[0]));
+
+	public void done(AbstractExchange exc) {
+	}
+
+	public Node dispatch(LoadBalancingInterceptor interceptor) throws EmptyNodeListException {
+		List<Node> endpoints = interceptor.getEndpoints();
+		if (endpoints.isEmpty())
+			throw new EmptyNodeListException();
+		Node[] nodes = endpoints.toArray(new Node[endpoints.size()]);
+
+		long now = System.currentTimeMillis();
+		long[] weights = new long[nodes.length];
+		long total = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			weights[i] = getEffectiveWeight(nodes[i], now);
+			total += weights[i];
+		}
+
+		// the current weights are replaced as a whole, so concurrent dispatches do not need a lock
+		while (true) {
+			State s = state.get();
+			long[] current = s.getCurrentWeights(nodes);
+			int best = 0;
+			for (int i = 0; i < nodes.length; i++) {
+				current[i] += weights[i];
+				if (current[i] > current[best])
+					best = i;
+			}
+			current[best] -= total;
+			if (state.compareAndSet(s, new State(nodes, current)))
+				return nodes[best];
+		}
+	}
+
+	long getEffectiveWeight(Node node, long now) {
+		long weight = Math.max(1, node.getWeight()) * SCALE;
+		long up = now - node.getUpSince();
+		if (slowStart > 0 && up < slowStart)
+			weight = Math.max(1, weight * Math.max(0, up) / slowStart);
+		return weight;
+	}
+
+	/**
+	 * The immutable state of the smooth weighted round robin algorithm.
+	 */
+	private static class State {
+		final Node[] nodes;
+		final long[] current;
+
+		State(Node[] nodes, long[] current) {
+			this.nodes = nodes;
+			this.current = current;
+		}
+
+		/**
+		 * @return a copy of the current weights, in the order of the given nodes. Nodes which have been added get
+		 *         a current weight of 0.
+		 */
+		long[] getCurrentWeights(Node[] nodes) {
+			if (Arrays.equals(this.nodes, nodes))
+				return current.clone();
+			long[] result = new long[nodes.length];
+			for (int i = 0; i < nodes.length; i++)
+				for (int j = 0; j < this.nodes.length; j++)
+					if (nodes[i].equals(this.nodes[j]))
+						result[i] = current[j];
+			return result;
+		}
+	}
+
+	public long getSlowStart() {
+		return slowStart;
+	}
+
+	/**
+	 * @description Time in milliseconds after a node changed to UP, during which its weight is ramped up from
+	 *              (almost) 0 to its configured weight. 0 disables the slow start.
+	 * @default 30000
+	 */
+	@MCAttribute
+	public void setSlowStart(long slowStart) {
+		this.slowStart = slowStart;
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement("weightedRoundRobinStrategy");
+
+		out.writeAttribute("slowStart", "" + slowStart);
+
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "weightedRoundRobinStrategy";
+	}
+
+}
@@ -14,6 +14,7 @@
 package com.predic8.membrane.core.jmx;
 
 import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.rules.Bulkhead;
 import com.predic8.membrane.core.rules.ServiceProxy;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
@@ -52,4 +53,28 @@ public class JmxServiceProxy {
     public int getProcessedExchanges(){
         return rule.getCount();
     }
+
+    @ManagedAttribute
+    public int getBulkheadInFlight(){
+        Bulkhead b = rule.getBulkhead();
+        return b == null ? -1 : b.getInFlight();
+    }
+
+    @ManagedAttribute
+    public int getBulkheadQueued(){
+        Bulkhead b = rule.getBulkhead();
+        return b == null ? -1 : b.getQueued();
+    }
+
+    @ManagedAttribute
+    public long getBulkheadRejected(){
+        Bulkhead b = rule.getBulkhead();
+        return b == null ? -1 : b.getRejected();
+    }
+
+    @ManagedAttribute
+    public double getBulkheadUtilization(){
+        Bulkhead b = rule.getBulkhead();
+        return b == null ? -1 : b.getUtilization();
+    }
 }
@@ -39,6 +39,8 @@ public abstract class AbstractProxy implements Rule {
 	protected volatile boolean blockRequest;
 	protected volatile boolean blockResponse;
 
+	protected boolean retainBodies = true;
+
 	protected List<Interceptor> interceptors = new ArrayList<Interceptor>();
 
 	/**
@@ -128,6 +130,22 @@ public abstract class AbstractProxy implements Rule {
 		this.blockResponse = blockStatus;
 	}
 
+	public boolean isRetainBodies() {
+		return retainBodies;
+	}
+
+	/**
+	 * @description Whether message bodies streamed through this proxy are kept in memory after they have been
+	 *              forwarded. If <i>false</i>, a body is only retained when an exchange store needs it. Otherwise it
+	 *              is pumped through using a single reused buffer and cannot be accessed (or resent) after
+	 *              forwarding.
+	 * @default true
+	 */
+	@MCAttribute
+	public void setRetainBodies(boolean retainBodies) {
+		this.retainBodies = retainBodies;
+	}
+
 	private StatisticCollector getStatisticCollectorByStatusCode(int code) {
 		StatisticCollector sc = statusCodes.get(code);
 		if (sc == null) {
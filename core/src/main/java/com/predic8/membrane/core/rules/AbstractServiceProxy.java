@@ -114,6 +114,7 @@ public abstract class AbstractServiceProxy extends SSLableProxy {
 	}
 
 	protected Target target = new Target();
+	private Bulkhead bulkhead;
 
 	public String getTargetScheme() {
 		return getSslOutboundContext() != null ? "https" : "http";
@@ -174,6 +175,18 @@ public abstract class AbstractServiceProxy extends SSLableProxy {
 		}
 	}
 
+	public Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	/**
+	 * @description Limits the number of exchanges concurrently handled by this proxy.
+	 */
+	@MCChildElement(order=60)
+	public void setBulkhead(Bulkhead bulkhead) {
+		this.bulkhead = bulkhead;
+	}
+
 	public String getTargetHost() {
 		return target.getHost();
 	}
@@ -0,0 +1,164 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.rules;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.ConcurrencyLimiter;
+import com.predic8.membrane.core.interceptor.Outcome;
+
+/**
+ * @description <p>
+ *              Limits the number of exchanges concurrently handled by a service proxy, so that a slow backend cannot
+ *              occupy all threads of the transport and thereby starve the other proxies.
+ *              </p>
+ * @explanation <p>
+ *              Exchanges exceeding <tt>maxConcurrent</tt> wait up to <tt>maxWait</tt> milliseconds (while there are
+ *              fewer than <tt>maxQueued</tt> waiting exchanges) for a running one to complete. Otherwise they are
+ *              answered with "503 Service Unavailable" without running the proxy's interceptors or contacting the
+ *              backend.
+ *              </p>
+ *              <p>
+ *              The utilization of a bulkhead is available via JMX and <tt>/admin/rest/proxies</tt>.
+ *              </p>
+ */
+@MCElement(name="bulkhead", topLevel=false)
+public class Bulkhead {
+
+	private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(100);
+	private final AtomicLong accepted = new AtomicLong();
+	private int maxWait;
+
+	/**
+	 * Pushed onto the exchange's interceptor stack, so that the slot is released when the exchange completes or is
+	 * aborted.
+	 */
+	private final AbstractInterceptor releaser = new AbstractInterceptor() {
+		{
+			name = "Bulkhead";
+		}
+
+		@Override
+		public Outcome handleResponse(Exchange exc) throws Exception {
+			limiter.release();
+			return Outcome.CONTINUE;
+		}
+
+		@Override
+		public void handleAbort(Exchange exc) {
+			limiter.release();
+		}
+	};
+
+	/**
+	 * Admits the exchange or sets a "503 Service Unavailable" response.
+	 *
+	 * @return {@link Outcome#CONTINUE}, if the exchange may proceed, or {@link Outcome#RETURN}
+	 */
+	public Outcome enter(Exchange exc) throws InterruptedException {
+		if (!limiter.acquire(maxWait, TimeUnit.MILLISECONDS)) {
+			exc.setResponse(Response.serverUnavailable("Too many concurrent requests.").build());
+			return Outcome.RETURN;
+		}
+		accepted.incrementAndGet();
+		exc.pushInterceptorToStack(releaser);
+		return Outcome.CONTINUE;
+	}
+
+	public int getMaxConcurrent() {
+		return limiter.getLimit();
+	}
+
+	/**
+	 * @description The maximum number of exchanges handled concurrently by the service proxy.
+	 * @default 100
+	 * @example 20
+	 */
+	@MCAttribute
+	public void setMaxConcurrent(int maxConcurrent) {
+		limiter.setLimit(maxConcurrent);
+	}
+
+	public int getMaxQueued() {
+		return limiter.getMaxQueued();
+	}
+
+	/**
+	 * @description The maximum number of exchanges waiting for a running exchange to complete.
+	 * @default <i>no limit</i>
+	 * @example 10
+	 */
+	@MCAttribute
+	public void setMaxQueued(int maxQueued) {
+		limiter.setMaxQueued(maxQueued);
+	}
+
+	public int getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * @description How long, in milliseconds, an exchange may wait for a running exchange to complete.
+	 * @default 0
+	 * @example 500
+	 */
+	@MCAttribute
+	public void setMaxWait(int maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * @return the number of exchanges currently handled
+	 */
+	public int getInFlight() {
+		return limiter.getInFlight();
+	}
+
+	/**
+	 * @return the number of exchanges currently waiting
+	 */
+	public int getQueued() {
+		return limiter.getQueued();
+	}
+
+	/**
+	 * @return the number of exchanges admitted so far
+	 */
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * @return the number of exchanges rejected so far
+	 */
+	public long getRejected() {
+		return limiter.getRejected();
+	}
+
+	/**
+	 * @return the ratio of exchanges currently handled to the limit, between 0 and 1
+	 */
+	public double getUtilization() {
+		int limit = limiter.getLimit();
+		return limit <= 0 ? 0 : Math.min(1.0, (double) limiter.getInFlight() / limit);
+	}
+
+}
@@ -58,6 +58,11 @@ public interface Rule extends Cloneable {
 
 	public boolean isTargetAdjustHostHeader();
 
+	/**
+	 * @return whether bodies streamed through this rule have to be kept in memory after forwarding
+	 */
+	public boolean isRetainBodies();
+
 	public boolean isActive();
 
 	public String getErrorState();
@@ -238,6 +238,11 @@ public class SSLProxy implements Rule {
         return false;
     }
 
+    @Override
+    public boolean isRetainBodies() {
+        return true;
+    }
+
     @Override
     public boolean isActive() {
         return true;
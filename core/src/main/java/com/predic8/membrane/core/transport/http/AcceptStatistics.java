@@ -0,0 +1,165 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.core.Constants;
+
+/**
+ * Counts the connections accepted by a {@link HttpEndpointListener}.
+ *
+ * The accept rate is an exponentially weighted moving average over about one minute, updated every 5 seconds, so
+ * that recording an accepted connection only increments a counter.
+ */
+public class AcceptStatistics {
+
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+	private static final String[] PROC_NET_TCP = new String[] { "/proc/net/tcp", "/proc/net/tcp6" };
+	private static final String TCP_LISTEN = "0A";
+
+	private final int port;
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong uncounted = new AtomicLong();
+	private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+	private volatile double rate;
+	private volatile boolean initialized;
+
+	public AcceptStatistics(int port) {
+		this.port = port;
+	}
+
+	void accepted() {
+		accepted.incrementAndGet();
+		uncounted.incrementAndGet();
+		tickIfNecessary();
+	}
+
+	void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	void failed() {
+		failed.incrementAndGet();
+	}
+
+	private void tickIfNecessary() {
+		long old = lastTick.get();
+		long age = System.nanoTime() - old;
+		if (age < TICK_INTERVAL)
+			return;
+		long ticks = age / TICK_INTERVAL;
+		if (!lastTick.compareAndSet(old, old + ticks * TICK_INTERVAL))
+			return; // another thread is ticking
+		double current = uncounted.getAndSet(0) / (TICK_INTERVAL / 1e9);
+		double r = initialized ? rate + ALPHA * (current - rate) : current;
+		// no connections have been counted during the remaining ticks
+		if (ticks > 1)
+			r *= Math.pow(1 - ALPHA, Math.min(ticks - 1, 1000));
+		rate = r;
+		initialized = true;
+	}
+
+	/**
+	 * @return the number of connections accepted so far
+	 */
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * @return the number of accepted connections which were closed immediately because the transport's executor
+	 *         did not accept another handler
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the number of failed calls to {@link java.net.ServerSocket#accept()}
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the average number of connections accepted per second during about the last minute
+	 */
+	public double getAcceptRate() {
+		tickIfNecessary();
+		return rate;
+	}
+
+	/**
+	 * Returns the number of connections which have completed the TCP handshake, but have not been accepted yet.
+	 *
+	 * The JDK does not expose the length of a socket's accept queue: It is read from <tt>/proc/net/tcp</tt> and
+	 * <tt>/proc/net/tcp6</tt>, summing up all listening sockets on the port (regardless of the IP address they are
+	 * bound to). As this scans all TCP sockets of the host, it should only be called on demand.
+	 *
+	 * @return the accept queue length, or -1 if it cannot be determined on this platform
+	 */
+	public int getAcceptQueueLength() {
+		boolean found = false;
+		int length = 0;
+		for (String file : PROC_NET_TCP) {
+			BufferedReader r;
+			try {
+				r = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.ISO_8859_1_CHARSET));
+			} catch (IOException e) {
+				continue;
+			}
+			try {
+				found = true;
+				r.readLine(); // column titles
+				String line;
+				while ((line = r.readLine()) != null) {
+					// "sl local_address rem_address st tx_queue:rx_queue ...": the rx_queue of a listening socket
+					// is the length of its accept queue
+					String[] fields = line.trim().split("\\s+");
+					if (fields.length < 5 || !TCP_LISTEN.equals(fields[3]))
+						continue;
+					String local = fields[1];
+					if (Integer.parseInt(local.substring(local.lastIndexOf(':') + 1), 16) != port)
+						continue;
+					String queues = fields[4];
+					length += Integer.parseInt(queues.substring(queues.indexOf(':') + 1), 16);
+				}
+			} catch (IOException e) {
+				return -1;
+			} catch (RuntimeException e) {
+				return -1;
+			} finally {
+				try {
+					r.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return found ? length : -1;
+	}
+
+}
@@ -0,0 +1,198 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+
+/**
+ * The circuit breaker of one target (host:port) of an {@link HttpClient}, see {@link CircuitBreakerConfiguration}.
+ *
+ * Every call has to be permitted by {@link #tryAcquire()}. The outcome of every permitted call has to be reported
+ * using {@link #onResult(boolean, long)}.
+ *
+ * Instances are thread-safe.
+ */
+public class CircuitBreaker {
+
+	private static final Log log = LogFactory.getLog(CircuitBreaker.class.getName());
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final byte FAILED = 1, SLOW = 2;
+
+	private final String destination;
+	private final CircuitBreakerConfiguration configuration;
+
+	/**
+	 * The outcomes of the recent calls in the closed state (ring buffer).
+	 */
+	private final byte[] outcomes;
+	private int count, next, failures, slowCalls;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private int probesPermitted, probesSucceeded;
+
+	private long opened, halfOpened, closed, rejected;
+
+	public CircuitBreaker(String destination, CircuitBreakerConfiguration configuration) {
+		this.destination = destination;
+		this.configuration = configuration;
+		outcomes = new byte[Math.max(1, configuration.getWindowSize())];
+	}
+
+	/**
+	 * @return whether a call to the target may be attempted
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() < openedAt + configuration.getOpenDuration()) {
+				rejected++;
+				return false;
+			}
+			state = State.HALF_OPEN;
+			halfOpened++;
+			probesPermitted = 0;
+			probesSucceeded = 0;
+			log.info("Circuit to " + destination + " is half-open.");
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesPermitted >= configuration.getHalfOpenCalls()) {
+				rejected++;
+				return false;
+			}
+			probesPermitted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back the permission obtained by {@link #tryAcquire()}, when no call has been made.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probesPermitted > 0)
+			probesPermitted--;
+	}
+
+	/**
+	 * @param success whether a response without 5XX status code has been received
+	 * @param duration the time in milliseconds until the response header has been received (or the call failed)
+	 */
+	public synchronized void onResult(boolean success, long duration) {
+		boolean slow = configuration.getSlowCallDuration() > 0 && duration > configuration.getSlowCallDuration();
+		switch (state) {
+		case CLOSED:
+			record((byte) ((success ? 0 : FAILED) | (slow ? SLOW : 0)));
+			if (count >= configuration.getMinCalls() && (failures * 100 >= configuration.getFailureRateThreshold() * count
+					|| slowCalls > 0 && slowCalls * 100 >= configuration.getSlowCallRateThreshold() * count))
+				open();
+			break;
+		case HALF_OPEN:
+			if (!success || slow)
+				open();
+			else if (++probesSucceeded >= configuration.getHalfOpenCalls())
+				close();
+			break;
+		case OPEN:
+			// the call was permitted before the circuit opened
+			break;
+		}
+	}
+
+	private void record(byte outcome) {
+		if (count == outcomes.length)
+			forget(outcomes[next]);
+		else
+			count++;
+		outcomes[next] = outcome;
+		if ((outcome & FAILED) != 0)
+			failures++;
+		if ((outcome & SLOW) != 0)
+			slowCalls++;
+		next = (next + 1) % outcomes.length;
+	}
+
+	private void forget(byte outcome) {
+		if ((outcome & FAILED) != 0)
+			failures--;
+		if ((outcome & SLOW) != 0)
+			slowCalls--;
+	}
+
+	private void open() {
+		log.warn("Circuit to " + destination + " is open" + (state == State.CLOSED ? " (" + failures + " of the last " +
+				count + " calls failed, " + slowCalls + " were slow)." : ", probe call failed."));
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		opened++;
+	}
+
+	private void close() {
+		log.info("Circuit to " + destination + " is closed.");
+		state = State.CLOSED;
+		count = next = failures = slowCalls = 0;
+		closed++;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the time in milliseconds until probe calls will be let through, 0 if the circuit is not open
+	 */
+	public synchronized long getRetryAfter() {
+		if (state != State.OPEN)
+			return 0;
+		return Math.max(0, openedAt + configuration.getOpenDuration() - System.currentTimeMillis());
+	}
+
+	/**
+	 * @return how often the circuit has opened so far
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * @return how often the circuit has become half-open so far
+	 */
+	public synchronized long getHalfOpened() {
+		return halfOpened;
+	}
+
+	/**
+	 * @return how often the circuit has closed (after being half-open) so far
+	 */
+	public synchronized long getClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of calls rejected so far
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+}
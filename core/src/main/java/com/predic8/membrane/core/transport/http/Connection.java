@@ -15,8 +15,6 @@ package com.predic8.membrane.core.transport.http;
 
 import static com.predic8.membrane.core.util.TextUtil.isNullOrEmpty;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,6 +22,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 
 import javax.net.ssl.SSLSocket;
 
@@ -32,10 +31,15 @@ import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.HttpHeadInputStream;
 import com.predic8.membrane.core.http.MessageObserver;
+import com.predic8.membrane.core.http.NonRelevantBodyObserver;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.DNSCache;
+import com.predic8.membrane.core.util.PooledBufferedOutputStream;
 
 /**
  * A {@link Connection} is an outbound TCP/IP connection, possibly managed
@@ -51,7 +55,7 @@ import com.predic8.membrane.core.transport.ssl.SSLProvider;
  * response body has fully been read and it should deassociate itself from the
  * exchange.
  */
-public class Connection implements MessageObserver {
+public class Connection implements NonRelevantBodyObserver {
 
 	private static Log log = LogFactory.getLog(Connection.class.getName());
 
@@ -69,6 +73,10 @@ public class Connection implements MessageObserver {
 	private Exchange exchange;
 	private boolean keepAttachedToExchange;
 
+	// managed by the ConnectionManager
+	ConnectionManager.Destination destination;
+	long deathTime;
+
 	public static Connection open(String host, int port, String localHost, SSLProvider sslProvider, int connectTimeout) throws UnknownHostException, IOException {
 		return open(host, port, localHost, sslProvider, null, connectTimeout);
 	}
@@ -82,19 +90,24 @@ public class Connection implements MessageObserver {
 			else
 				con.socket = sslProvider.createSocket(host, port, InetAddress.getByName(localHost), 0, connectTimeout);
 		} else {
-			if (isNullOrEmpty(localHost)) {
-				con.socket = new Socket();
+			// channel based sockets can be forwarded by the TunnelEngine
+			if (mgr != null && mgr.isChannelSockets()) {
+				con.socket = SocketChannel.open().socket();
 			} else {
 				con.socket = new Socket();
-				con.socket.bind(new InetSocketAddress(InetAddress.getByName(localHost), 0));
 			}
-			con.socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			DNSCache dnsCache = mgr != null ? mgr.getDnsCache() : null;
+			if (!isNullOrEmpty(localHost)) {
+				con.socket.bind(new InetSocketAddress(dnsCache != null ? dnsCache.getByName(localHost) : InetAddress.getByName(localHost), 0));
+			}
+			con.socket.connect(dnsCache != null ? new InetSocketAddress(dnsCache.getByName(host), port) : new InetSocketAddress(host, port), connectTimeout);
 		}
 
 		log.debug("Opened connection on localPort: " + con.socket.getLocalPort());
 		//Creating output stream before input stream is suggested.
-		con.out = new BufferedOutputStream(con.socket.getOutputStream(), 2048);
-		con.in = new BufferedInputStream(con.socket.getInputStream(), 2048);
+		// the buffers are returned to the pool by close()
+		con.out = new PooledBufferedOutputStream(con.socket.getOutputStream(), 2048);
+		con.in = new HttpHeadInputStream(con.socket.getInputStream(), 2048, BufferPool.getInstance());
 
 		return con;
 	}
@@ -14,21 +14,24 @@
 package com.predic8.membrane.core.transport.http;
 
 import java.io.IOException;
-import java.net.InetAddress;
+import java.io.InterruptedIOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.google.common.base.Objects;
+import com.predic8.membrane.core.transport.http.client.ConnectionConfiguration;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
+import com.predic8.membrane.core.util.DNSCache;
 
 /**
  * Pools TCP/IP connections, holding them open for a configurable number of milliseconds.
@@ -47,73 +50,155 @@ import com.predic8.membrane.core.transport.ssl.SSLProvider;
  *
  * Note that you should call {@link Connection#release()} exactly once, or alternatively
  * {@link Connection#close()} at least once.
+ *
+ * Idle connections are kept in one lock-free deque per destination (host:port) and are reused in LIFO order, so
+ * that the most recently used (and therefore most likely still alive) connection is handed out first. The number
+ * of connections per destination and in total may be limited: When a limit is reached, {@link #getConnection}
+ * waits up to the connection request timeout for a connection to become available, or fails with a
+ * {@link ConnectionPoolExhaustedException}.
  */
 public class ConnectionManager {
 
 	private static Log log = LogFactory.getLog(ConnectionManager.class.getName());
 
+	/**
+	 * Threads waiting for a connection re-check the global limit at least this often (in milliseconds), as they
+	 * are only notified about connections becoming available at their own destination.
+	 */
+	private static final long MAX_WAIT_SLICE = 100;
+
 	private final long keepAliveTimeout;
 	private final long autoCloseInterval;
+	private final int maxConnectionsPerHost;
+	private final int maxTotalConnections;
+	private final long connectionRequestTimeout;
+
+	/**
+	 * The pooled connections to one host:port.
+	 *
+	 * Waiting for a connection (only when a limit has been reached) synchronizes on the destination.
+	 */
+	static class Destination {
+		final String host;
+		final int port;
 
-	private static class ConnectionKey {
-		public final String host;
-		public final int port;
+		/**
+		 * Idle connections, the most recently released one first.
+		 */
+		final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<Connection>();
+		final AtomicInteger idleCount = new AtomicInteger(); // ConcurrentLinkedDeque.size() is O(n)
+		final AtomicInteger open = new AtomicInteger(); // idle, leased or currently being opened
+		final AtomicInteger pending = new AtomicInteger(); // threads waiting for a connection
+		final AtomicLong created = new AtomicLong();
+		final AtomicLong evicted = new AtomicLong();
 
-		public ConnectionKey(String host, int port) {
+		/**
+		 * Set, when the unused destination has been removed from {@link ConnectionManager#destinations}.
+		 */
+		volatile boolean retired;
+
+		Destination(String host, int port) {
 			this.host = host;
 			this.port = port;
 		}
 
 		@Override
-		public int hashCode() {
-			return Objects.hashCode(host, port);
+		public String toString() {
+			return host + ":" + port;
 		}
+	}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof ConnectionKey) || obj == null)
-				return false;
-			ConnectionKey other = (ConnectionKey)obj;
-			return host.equals(other.host) && port == other.port;
+	/**
+	 * A snapshot of the pool gauges of one destination.
+	 */
+	public static class PoolStatistics {
+		private final String destination;
+		private final int idle, leased, pending;
+		private final long created, evicted;
+
+		private PoolStatistics(Destination d) {
+			destination = d.toString();
+			idle = Math.max(0, d.idleCount.get());
+			leased = Math.max(0, d.open.get() - idle);
+			pending = d.pending.get();
+			created = d.created.get();
+			evicted = d.evicted.get();
 		}
 
-		@Override
-		public String toString() {
-			return host + ":" + port;
+		/**
+		 * @return host:port
+		 */
+		public String getDestination() {
+			return destination;
 		}
-	}
 
-	private static class OldConnection {
-		public final Connection connection;
-		public final long deathTime;
+		/**
+		 * @return the number of open connections waiting in the pool to be reused
+		 */
+		public int getIdle() {
+			return idle;
+		}
+
+		/**
+		 * @return the number of connections currently in use
+		 */
+		public int getLeased() {
+			return leased;
+		}
 
-		public OldConnection(Connection connection, long defaultKeepAliveTimeout) {
-			this.connection = connection;
-			long lastUse = connection.getLastUse();
-			if (lastUse == 0)
-				lastUse = System.currentTimeMillis();
-			long delta = connection.getTimeout();
-			if (delta == 0)
-				delta = defaultKeepAliveTimeout;
-			if (delta > 400)
-				delta -= 400; // slippage
-			else
-				delta = 0;
-			if (connection.getCompletedExchanges() >= connection.getMaxExchanges())
-				delta = 0; // let the background closer do its job
-			this.deathTime = lastUse + delta;
+		/**
+		 * @return the number of threads currently waiting for a connection because a limit has been reached
+		 */
+		public int getPending() {
+			return pending;
+		}
+
+		/**
+		 * @return the number of connections opened so far
+		 */
+		public long getCreated() {
+			return created;
+		}
+
+		/**
+		 * @return the number of idle connections closed by the pool so far, because their keep-alive timeout expired
+		 */
+		public long getEvicted() {
+			return evicted;
 		}
 	}
 
-	private AtomicInteger numberInPool = new AtomicInteger();
-	private HashMap<ConnectionKey, ArrayList<OldConnection>> availableConnections =
-			new HashMap<ConnectionManager.ConnectionKey, ArrayList<OldConnection>>(); // guarded by this
+	private final AtomicInteger numberInPool = new AtomicInteger();
+	/**
+	 * Maps the host to the destinations (usually only one) with that host. Modifications are guarded by the map.
+	 */
+	private final ConcurrentHashMap<String, Destination[]> destinations = new ConcurrentHashMap<String, Destination[]>();
 	private Timer timer;
 	private volatile boolean shutdownWhenDone = false;
+	private volatile boolean channelSockets;
+	private volatile DNSCache dnsCache;
 
 	public ConnectionManager(long keepAliveTimeout) {
+		this(keepAliveTimeout, 0, 0, 0);
+	}
+
+	public ConnectionManager(ConnectionConfiguration configuration) {
+		this(configuration.getKeepAliveTimeout(), configuration.getMaxConnectionsPerHost(),
+				configuration.getMaxTotalConnections(), configuration.getConnectionRequestTimeout());
+	}
+
+	/**
+	 * @param maxConnectionsPerHost 0 for no limit
+	 * @param maxTotalConnections 0 for no limit
+	 * @param connectionRequestTimeout how long to wait for a connection, if a limit has been reached. 0 to fail
+	 *        immediately.
+	 */
+	public ConnectionManager(long keepAliveTimeout, int maxConnectionsPerHost, int maxTotalConnections, long connectionRequestTimeout) {
 		this.keepAliveTimeout = keepAliveTimeout;
 		this.autoCloseInterval = keepAliveTimeout * 2;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxTotalConnections = maxTotalConnections;
+		this.connectionRequestTimeout = connectionRequestTimeout;
 		timer = new Timer("Connection Closer", true);
 		timer.schedule(new TimerTask() {
 			@Override
@@ -126,96 +211,290 @@ public class ConnectionManager {
 
 	public Connection getConnection(String host, int port, String localHost, SSLProvider sslProvider, int connectTimeout) throws UnknownHostException, IOException {
 
-		log.debug("connection requested for host: " + host + " and port: " + port);
+		if (log.isDebugEnabled()) {
+			log.debug("connection requested for host: " + host + " and port: " + port);
+			log.debug("Number of connections in pool: " + numberInPool.get());
+		}
+
+		while (true) {
+			Destination d = getDestination(host, port);
+
+			Connection c = pollIdle(d);
+			if (c != null)
+				return c;
+
+			if (!reserve(d)) {
+				c = waitForConnection(d);
+				if (c != null)
+					return c;
+			}
+
+			if (d.retired) {
+				// raced with closeOldConnections(): retry with a fresh destination
+				unreserve(d);
+				continue;
+			}
+
+			Connection result;
+			try {
+				result = Connection.open(host, port, localHost, sslProvider, this, connectTimeout);
+			} catch (IOException e) {
+				unreserve(d);
+				throw e;
+			} catch (RuntimeException e) {
+				unreserve(d);
+				throw e;
+			}
+			result.destination = d;
+			d.created.incrementAndGet();
+			return result;
+		}
+	}
 
-		log.debug("Number of connections in pool: " + numberInPool.get());
+	private Destination getDestination(String host, int port) {
+		Destination[] ds = destinations.get(host);
+		if (ds != null)
+			for (Destination d : ds)
+				if (d.port == port)
+					return d;
+		synchronized (destinations) {
+			ds = destinations.get(host);
+			if (ds != null)
+				for (Destination d : ds)
+					if (d.port == port)
+						return d;
+			Destination d = new Destination(host, port);
+			ds = ds == null ? new Destination[1] : Arrays.copyOf(ds, ds.length + 1);
+			ds[ds.length - 1] = d;
+			destinations.put(host, ds);
+			return d;
+		}
+	}
 
-		ConnectionKey key = new ConnectionKey(host, port);
+	/**
+	 * @return the most recently released connection which has not yet expired, or null
+	 */
+	private Connection pollIdle(Destination d) {
 		long now = System.currentTimeMillis();
+		Connection c;
+		while ((c = d.idle.pollFirst()) != null) {
+			d.idleCount.decrementAndGet();
+			if (c.deathTime > now)
+				return c;
+			evict(d, c);
+		}
+		return null;
+	}
 
-		synchronized(this) {
-			ArrayList<OldConnection> l = availableConnections.get(key);
-			if (l != null) {
-				int i = l.size() - 1;
-				while(i >= 0) {
-					OldConnection c = l.get(i);
-					if (c.deathTime > now) {
-						l.remove(i);
-						return c.connection;
-					}
-					Collections.swap(l, 0, i);
-					i--;
+	/**
+	 * Reserves the right to open a new connection to the destination, if the limits allow it.
+	 */
+	private boolean reserve(Destination d) {
+		if (!tryIncrement(numberInPool, maxTotalConnections))
+			return false;
+		if (!tryIncrement(d.open, maxConnectionsPerHost)) {
+			numberInPool.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private void unreserve(Destination d) {
+		numberInPool.decrementAndGet();
+		d.open.decrementAndGet();
+		signal(d);
+	}
+
+	private static boolean tryIncrement(AtomicInteger counter, int max) {
+		while (true) {
+			int current = counter.get();
+			if (max > 0 && current >= max)
+				return false;
+			if (counter.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Waits until either an idle connection or a reservation for a new connection can be obtained.
+	 *
+	 * @return the idle connection, or null if a new connection may be opened
+	 */
+	private Connection waitForConnection(Destination d) throws IOException {
+		if (connectionRequestTimeout <= 0)
+			throw createPoolExhaustedException(d);
+
+		long deadline = System.currentTimeMillis() + connectionRequestTimeout;
+		d.pending.incrementAndGet();
+		try {
+			synchronized (d) {
+				while (true) {
+					Connection c = pollIdle(d);
+					if (c != null)
+						return c;
+					if (reserve(d))
+						return null;
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw createPoolExhaustedException(d);
+					d.wait(Math.min(remaining, MAX_WAIT_SLICE));
 				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection to " + d + ".");
+		} finally {
+			d.pending.decrementAndGet();
 		}
+	}
 
-		Connection result = Connection.open(host, port, localHost, sslProvider, this, connectTimeout);
-		numberInPool.incrementAndGet();
-		return result;
+	private ConnectionPoolExhaustedException createPoolExhaustedException(Destination d) {
+		return new ConnectionPoolExhaustedException("No connection to " + d + " available: " + d.open.get() + " of maxConnectionsPerHost=" +
+				maxConnectionsPerHost + ", " + numberInPool.get() + " of maxTotalConnections=" + maxTotalConnections +
+				" connections are open.");
+	}
+
+	private void signal(Destination d) {
+		if (d.pending.get() > 0) {
+			synchronized (d) {
+				d.notify();
+			}
+		}
+	}
+
+	private void evict(Destination d, Connection c) {
+		d.evicted.incrementAndGet();
+		try {
+			c.close();
+		} catch (Exception e) {
+			// do nothing
+		}
 	}
 
 	public void releaseConnection(Connection connection) {
 		if (connection == null)
 			return;
 
+		Destination d = connection.destination;
+
 		if (connection.isClosed()) {
-			numberInPool.decrementAndGet();
+			// count each closed connection only once
+			if (d != null) {
+				connection.destination = null;
+				numberInPool.decrementAndGet();
+				d.open.decrementAndGet();
+				signal(d);
+			}
 			return;
 		}
 
-		ConnectionKey key = new ConnectionKey(connection.getHost(), connection.socket.getPort());
-		OldConnection o = new OldConnection(connection, keepAliveTimeout);
-		ArrayList<OldConnection> l;
-		synchronized(this) {
-			l = availableConnections.get(key);
-			if (l == null) {
-				l = new ArrayList<OldConnection>();
-				availableConnections.put(key, l);
+		if (d == null) {
+			// adopt a connection not opened by getConnection()
+			d = getDestination(connection.getHost(), connection.socket.getPort());
+			d.open.incrementAndGet();
+			numberInPool.incrementAndGet();
+			connection.destination = d;
+			if (d.retired) {
+				// raced with closeOldConnections(): the destination is not pooled anymore
+				evict(d, connection); // calls releaseConnection() again, which undoes the adoption
+				return;
 			}
-			l.add(o);
 		}
+
+		connection.deathTime = getDeathTime(connection);
+		d.idle.offerFirst(connection);
+		d.idleCount.incrementAndGet();
+		signal(d);
+	}
+
+	private long getDeathTime(Connection connection) {
+		long lastUse = connection.getLastUse();
+		if (lastUse == 0)
+			lastUse = System.currentTimeMillis();
+		long delta = connection.getTimeout();
+		if (delta == 0)
+			delta = keepAliveTimeout;
+		if (delta > 400)
+			delta -= 400; // slippage
+		else
+			delta = 0;
+		if (connection.getCompletedExchanges() >= connection.getMaxExchanges())
+			delta = 0; // let the background closer do its job
+		return lastUse + delta;
 	}
 
 	private int closeOldConnections() {
-		ArrayList<ConnectionKey> toRemove = new ArrayList<ConnectionKey>();
-		ArrayList<Connection> toClose = new ArrayList<Connection>();
 		long now = System.currentTimeMillis();
 		log.trace("closing old connections");
-		int closed = 0, remaining;
-		synchronized(this) {
-			// close connections after their timeout
-			for (Map.Entry<ConnectionKey, ArrayList<OldConnection>> e : availableConnections.entrySet()) {
-				ArrayList<OldConnection> l = e.getValue();
-				for (int i = 0; i < l.size(); i++) {
-					OldConnection o = l.get(i);
-					if (o.deathTime < now) {
-						// replace [i] by [last]
-						if (i == l.size() - 1)
-							l.remove(i);
-						else
-							l.set(i, l.remove(l.size() - 1));
-						--i;
+		int closed = 0;
+		for (Destination[] ds : destinations.values()) {
+			for (Destination d : ds) {
+				// close connections after their timeout
+				for (Connection c : d.idle) {
+					if (c.deathTime < now && d.idle.removeFirstOccurrence(c)) {
+						d.idleCount.decrementAndGet();
+						evict(d, c);
 						closed++;
-						toClose.add(o.connection);
 					}
 				}
-				if (l.isEmpty())
-					toRemove.add(e.getKey());
-			}
-			for (ConnectionKey remove : toRemove)
-				availableConnections.remove(remove);
-			remaining = availableConnections.size();
-		}
-		for (Connection c : toClose) {
-			try {
-				c.close();
-			} catch (Exception e) {
-				// do nothing
+				if (d.open.get() == 0 && d.pending.get() == 0)
+					retire(d);
 			}
 		}
 		if (closed != 0)
 			log.debug("closed " + closed + " connections");
-		return remaining;
+		return destinations.size();
+	}
+
+	/**
+	 * Removes an unused destination. See {@link #getConnection} for the other half of the handshake via
+	 * {@link Destination#retired}.
+	 */
+	private void retire(Destination d) {
+		synchronized (destinations) {
+			d.retired = true;
+			if (d.open.get() != 0 || d.pending.get() != 0) {
+				d.retired = false;
+				return;
+			}
+			Destination[] ds = destinations.get(d.host);
+			if (ds == null)
+				return;
+			if (ds.length == 1) {
+				destinations.remove(d.host);
+				return;
+			}
+			Destination[] nds = new Destination[ds.length - 1];
+			int i = 0;
+			for (Destination other : ds)
+				if (other != d)
+					nds[i++] = other;
+			destinations.put(d.host, nds);
+		}
+	}
+
+	public boolean isChannelSockets() {
+		return channelSockets;
+	}
+
+	/**
+	 * Whether plain connections opened from now on are based on a {@link java.nio.channels.SocketChannel}, so that
+	 * they can be forwarded by the {@link TunnelEngine} after an upgrade.
+	 */
+	public void setChannelSockets(boolean channelSockets) {
+		this.channelSockets = channelSockets;
+	}
+
+	public DNSCache getDnsCache() {
+		return dnsCache;
+	}
+
+	/**
+	 * Sets the cache used to resolve the hosts of plain connections opened from now on. If null (the default), hosts
+	 * are resolved on every new connection.
+	 */
+	public void setDnsCache(DNSCache dnsCache) {
+		this.dnsCache = dnsCache;
 	}
 
 	public void shutdownWhenDone() {
@@ -226,14 +505,23 @@ public class ConnectionManager {
 		return numberInPool.get();
 	}
 
+	/**
+	 * @return a snapshot of the gauges of all destinations currently known to the pool
+	 */
+	public List<PoolStatistics> getPoolStatistics() {
+		List<PoolStatistics> result = new ArrayList<PoolStatistics>();
+		for (Destination[] ds : destinations.values())
+			for (Destination d : ds)
+				result.add(new PoolStatistics(d));
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("Number in pool: " + numberInPool.get() + "\n");
-		synchronized(this) {
-			for (Map.Entry<ConnectionKey, ArrayList<OldConnection>> e : availableConnections.entrySet()) {
-				sb.append("To " + e.getKey() + ": " + e.getValue().size() + "\n");
-			}
+		for (PoolStatistics s : getPoolStatistics()) {
+			sb.append("To " + s.getDestination() + ": " + s.getIdle() + "\n");
 		}
 		return sb.toString();
 	}
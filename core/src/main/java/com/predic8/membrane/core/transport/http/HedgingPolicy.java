@@ -0,0 +1,176 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.core.transport.http.client.HedgingConfiguration;
+
+/**
+ * Determines the hedging delay of an {@link HttpClient} per destination (host:port) from the response times
+ * observed recently, and runs the hedged attempts.
+ *
+ * The first attempt of a call runs on the calling thread. Hedged attempts are started by a timer and run by a pool
+ * of at most {@link HedgingConfiguration#getMaxThreads()} threads: if all of them are busy, no further requests
+ * are hedged.
+ *
+ * Instances are thread-safe.
+ */
+public class HedgingPolicy {
+
+	/**
+	 * The number of response times kept per destination.
+	 */
+	static final int SAMPLES = 100;
+	/**
+	 * The number of response times needed, before the percentile is used instead of the fixed delay.
+	 */
+	static final int MIN_SAMPLES = 20;
+	private static final int MAX_DESTINATIONS = 1000;
+
+	private final HedgingConfiguration configuration;
+	private final ConcurrentHashMap<String, ResponseTimes> responseTimes = new ConcurrentHashMap<String, ResponseTimes>();
+	private final ThreadPoolExecutor executor;
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final AtomicLong hedged = new AtomicLong();
+	private final AtomicLong won = new AtomicLong();
+
+	public HedgingPolicy(HedgingConfiguration configuration) {
+		this.configuration = configuration;
+		executor = new ThreadPoolExecutor(0, Math.max(1, configuration.getMaxThreads()), 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), createThreadFactory("HttpClient Hedged Call"));
+		timer = new ScheduledThreadPoolExecutor(1, createThreadFactory("HttpClient Hedging Timer"));
+		timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+		timer.allowCoreThreadTimeOut(true);
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private static ThreadFactory createThreadFactory(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @return the time in milliseconds to wait for a response from the destination, before hedging
+	 */
+	public long getDelay(String destination) {
+		int percentile = configuration.getPercentile();
+		if (percentile > 0) {
+			ResponseTimes rt = responseTimes.get(destination);
+			if (rt != null) {
+				long delay = rt.getPercentile(percentile);
+				if (delay >= 0)
+					return delay;
+			}
+		}
+		return configuration.getDelay();
+	}
+
+	/**
+	 * @param responseTime the time in milliseconds until the response header has been received
+	 */
+	public void record(String destination, long responseTime) {
+		if (configuration.getPercentile() <= 0)
+			return;
+		ResponseTimes rt = responseTimes.get(destination);
+		if (rt == null) {
+			if (responseTimes.size() >= MAX_DESTINATIONS)
+				responseTimes.clear();
+			rt = new ResponseTimes();
+			ResponseTimes old = responseTimes.putIfAbsent(destination, rt);
+			if (old != null)
+				rt = old;
+		}
+		rt.add(responseTime);
+	}
+
+	/**
+	 * @return the executor running the hedged attempts. Rejects attempts, if all threads are busy.
+	 */
+	Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the executor starting hedged attempts after the hedging delay
+	 */
+	ScheduledExecutorService getTimer() {
+		return timer;
+	}
+
+	void hedged() {
+		hedged.incrementAndGet();
+	}
+
+	void won() {
+		won.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of hedged requests sent so far
+	 */
+	public long getHedged() {
+		return hedged.get();
+	}
+
+	/**
+	 * @return the number of calls so far, where the response of a hedged request was used
+	 */
+	public long getWon() {
+		return won.get();
+	}
+
+	private static class ResponseTimes {
+		private final long[] samples = new long[SAMPLES];
+		private int count, next;
+
+		synchronized void add(long responseTime) {
+			samples[next] = responseTime;
+			next = (next + 1) % samples.length;
+			if (count < samples.length)
+				count++;
+		}
+
+		/**
+		 * @return the percentile, or -1 if too few response times are known
+		 */
+		long getPercentile(int percentile) {
+			long[] sorted;
+			synchronized (this) {
+				if (count < MIN_SAMPLES)
+					return -1;
+				sorted = Arrays.copyOf(samples, count);
+			}
+			Arrays.sort(sorted);
+			return sorted[Math.min(count - 1, (int) Math.ceil(count * percentile / 100.0) - 1)];
+		}
+	}
+}
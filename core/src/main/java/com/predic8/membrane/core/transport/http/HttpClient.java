@@ -22,6 +22,16 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.concurrent.GuardedBy;
 
@@ -33,15 +43,26 @@ import com.predic8.membrane.core.config.security.SSLParser;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.ChunkedBodyTransferrer;
 import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HttpHeadInputStream;
 import com.predic8.membrane.core.http.PlainBodyTransferrer;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.model.AbstractExchangeViewerListener;
+import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.transport.http.client.AuthenticationConfiguration;
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+import com.predic8.membrane.core.transport.http.client.ConnectionConfiguration;
+import com.predic8.membrane.core.transport.http.client.HedgingConfiguration;
 import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
 import com.predic8.membrane.core.transport.http.client.ProxyConfiguration;
+import com.predic8.membrane.core.transport.http2.Http2;
+import com.predic8.membrane.core.transport.http2.Http2ClientConnection;
+import com.predic8.membrane.core.transport.http2.Http2ConnectionPool;
+import com.predic8.membrane.core.transport.http2.Http2Stream;
+import com.predic8.membrane.core.transport.http2.StreamResetException;
 import com.predic8.membrane.core.transport.ssl.SSLContext;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
+import com.predic8.membrane.core.util.DNSCache;
 import com.predic8.membrane.core.util.EndOfStreamException;
 import com.predic8.membrane.core.util.HttpUtil;
 import com.predic8.membrane.core.util.Util;
@@ -62,15 +83,25 @@ public class HttpClient {
 	private final AuthenticationConfiguration authentication;
 
 	/**
-	 * How long to wait between calls to the same destination, in milliseconds.
+	 * Limits the retries and determines how long to wait between calls to the same destination.
 	 * To prevent hammering one target.
-	 * Between calls to different targets (think servers) this waiting time is not applied.
+	 * Between calls to different targets (think servers) no time is waited.
 	 *
-	 * Note: for reasons of code simplicity, this sleeping time is only applied between direct successive calls
+	 * Note: for reasons of code simplicity, the backoff is only applied between direct successive calls
 	 * to the same target. If there are multiple targets like one, two, one and it all goes very fast, then
 	 * it's possible that the same server gets hit with less time in between.
 	 */
-	private final int timeBetweenTriesMs = 250;
+	private final RetryPolicy retryPolicy;
+	/**
+	 * See {@link HttpClientConfiguration#setHedging(HedgingConfiguration)}, null if disabled.
+	 */
+	private final HedgingPolicy hedgingPolicy;
+	/**
+	 * See {@link HttpClientConfiguration#setCircuitBreaker(CircuitBreakerConfiguration)}. The circuit breakers by
+	 * host:port, null if disabled.
+	 */
+	private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers;
+	private final CircuitBreakerConfiguration circuitBreakerConfiguration;
 	/**
 	 * See {@link HttpClientConfiguration#setMaxRetries(int)}
 	 */
@@ -79,6 +110,10 @@ public class HttpClient {
 	private final String localAddr;
 
 	private final ConnectionManager conMgr;
+	/**
+	 * See {@link ConnectionConfiguration#setHttp2(boolean)}, null if disabled.
+	 */
+	private final Http2ConnectionPool http2Pool;
 	private StreamPump.StreamPumpStats streamPumpStats;
 
 	public HttpClient() {
@@ -89,20 +124,88 @@ public class HttpClient {
 		proxy = configuration.getProxy();
 		authentication = configuration.getAuthentication();
 		maxRetries = configuration.getMaxRetries();
+		retryPolicy = new RetryPolicy(configuration.getRetries());
+		hedgingPolicy = configuration.getHedging() != null ? new HedgingPolicy(configuration.getHedging()) : null;
+		circuitBreakerConfiguration = configuration.getCircuitBreaker();
+		circuitBreakers = circuitBreakerConfiguration != null ? new ConcurrentHashMap<String, CircuitBreaker>() : null;
 
 		connectTimeout = configuration.getConnection().getTimeout();
 		localAddr = configuration.getConnection().getLocalAddr();
 
-		conMgr = new ConnectionManager(configuration.getConnection().getKeepAliveTimeout());
+		conMgr = new ConnectionManager(configuration.getConnection());
+		http2Pool = configuration.getConnection().isHttp2() ? new Http2ConnectionPool(configuration.getConnection().getKeepAliveTimeout()) : null;
 	}
 
 	public void setStreamPumpStats(StreamPump.StreamPumpStats streamPumpStats) {
 		this.streamPumpStats = streamPumpStats;
 	}
 
+	/**
+	 * @see ConnectionManager#setChannelSockets(boolean)
+	 */
+	public void setChannelSockets(boolean channelSockets) {
+		conMgr.setChannelSockets(channelSockets);
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @return null, if hedging is disabled
+	 */
+	public HedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	/**
+	 * @return the circuit breakers of the targets called so far (empty, if circuit breakers are disabled)
+	 */
+	public Collection<CircuitBreaker> getCircuitBreakers() {
+		return circuitBreakers != null ? circuitBreakers.values() : Collections.<CircuitBreaker>emptyList();
+	}
+
+	private CircuitBreaker getCircuitBreaker(HostColonPort target) {
+		String destination = target.toString();
+		CircuitBreaker circuitBreaker = circuitBreakers.get(destination);
+		if (circuitBreaker == null) {
+			circuitBreaker = new CircuitBreaker(destination, circuitBreakerConfiguration);
+			CircuitBreaker old = circuitBreakers.putIfAbsent(destination, circuitBreaker);
+			if (old != null)
+				circuitBreaker = old;
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return the circuit breaker of the target, if the call may be attempted, or null if circuit breakers are
+	 *         disabled
+	 * @throws CircuitBreakerOpenException if the call may not be attempted
+	 */
+	private CircuitBreaker acquireCircuitBreaker(HostColonPort target) throws CircuitBreakerOpenException {
+		if (circuitBreakers == null)
+			return null;
+		CircuitBreaker circuitBreaker = getCircuitBreaker(target);
+		if (!circuitBreaker.tryAcquire())
+			throw new CircuitBreakerOpenException("Circuit to " + target + " is open.", circuitBreaker.getRetryAfter());
+		return circuitBreaker;
+	}
+
+	/**
+	 * @see ConnectionManager#setDnsCache(DNSCache)
+	 * @see Http2ConnectionPool#setDnsCache(DNSCache)
+	 */
+	public void setDnsCache(DNSCache dnsCache) {
+		conMgr.setDnsCache(dnsCache);
+		if (http2Pool != null)
+			http2Pool.setDnsCache(dnsCache);
+	}
+
 	@Override
 	protected void finalize() throws Throwable {
 		conMgr.shutdownWhenDone();
+		if (http2Pool != null)
+			http2Pool.shutdownWhenDone();
 	}
 
 	private void setRequestURI(Request req, String dest) throws MalformedURLException {
@@ -170,14 +273,39 @@ public class HttpClient {
 		Exception exception = null;
 		Object trackNodeStatusObj = exc.getProperty(Exchange.TRACK_NODE_STATUS);
 		boolean trackNodeStatus = trackNodeStatusObj != null && trackNodeStatusObj instanceof Boolean && (Boolean)trackNodeStatusObj;
+		retryPolicy.requested();
+		if (isHedgingPossible(exc)) {
+			HedgedCall hedgedCall = new HedgedCall(exc, adjustHostHeader, failOverOn5XX, trackNodeStatus);
+			if (hedgedCall.call())
+				return exc;
+			counter = hedgedCall.getTries();
+			exception = hedgedCall.getException();
+			if (exception instanceof ConnectionPoolExhaustedException || counter == maxRetries
+					|| !retryPolicy.allowRetry(exc.getRequest(), true))
+				throw exception;
+		}
 		while (counter < maxRetries) {
 			Connection con = null;
+			Http2ClientConnection h2 = null;
+			Http2Stream stream = null;
+			boolean refused = false;
+			// whether the request might have reached the server
+			boolean connected = false;
+			boolean retryAllowed = false;
 			String dest = getDestination(exc, counter);
 			HostColonPort target = null;
+			// the circuit breaker to report the outcome of the call to
+			CircuitBreaker circuitBreaker = null;
+			boolean rejected = false;
+			int status = 0;
+			long start = System.currentTimeMillis();
 			try {
 				log.debug("try # " + counter + " to " + dest);
 				target = init(exc, dest, adjustHostHeader);
-				if (counter == 0) {
+				circuitBreaker = acquireCircuitBreaker(target);
+				if (useHttp2(exc))
+					h2 = http2Pool.getConnection(target.host, target.port, localAddr, getOutboundSSLProvider(exc, target), connectTimeout);
+				if (counter == 0 && h2 == null) {
 					con = exc.getTargetConnection();
 					if (con != null) {
 						if (!con.isSame(target.host, target.port)) {
@@ -188,11 +316,12 @@ public class HttpClient {
 						}
 					}
 				}
-				if (con == null) {
+				if (con == null && h2 == null) {
 					con = conMgr.getConnection(target.host, target.port, localAddr, getOutboundSSLProvider(exc, target), connectTimeout);
 					con.setKeepAttachedToExchange(exc.getRequest().isBindTargetConnectionToIncoming());
 					exc.setTargetConnection(con);
 				}
+				connected = true;
 				Response response;
 				String newProtocol = null;
 
@@ -200,8 +329,20 @@ public class HttpClient {
 					handleConnectRequest(exc, con);
 					response = Response.ok().build();
 					newProtocol = "CONNECT";
+				} else if (h2 != null) {
+					stream = h2.sendRequest(exc.getRequest(), getOutboundSSLProvider(exc, target) != null ? "https" : "http", getAuthority(exc, target));
+					exc.setTimeReqSent(System.currentTimeMillis());
+					response = h2.readResponse(stream, exc.getRequest().isHEADRequest());
+					exc.setReceived();
+					exc.setTimeResReceived(System.currentTimeMillis());
+					if (hedgingPolicy != null)
+						hedgingPolicy.record(target.toString(), exc.getTimeResReceived() - start);
+					if (trackNodeStatus)
+						exc.setNodeStatusCode(counter, response.getStatusCode());
 				} else {
 					response = doCall(exc, con);
+					if (hedgingPolicy != null)
+						hedgingPolicy.record(target.toString(), exc.getTimeResReceived() - start);
 					if (trackNodeStatus)
 						exc.setNodeStatusCode(counter, response.getStatusCode());
 
@@ -219,6 +360,7 @@ public class HttpClient {
 					}
 				}
 
+				status = response.getStatusCode();
 				if (newProtocol != null) {
 					setupConnectionForwarding(exc, con, newProtocol, streamPumpStats);
 					exc.getDestinations().clear();
@@ -229,19 +371,37 @@ public class HttpClient {
 				}
 
 				boolean is5XX = 500 <= response.getStatusCode() && response.getStatusCode() < 600;
-				if (!failOverOn5XX || !is5XX || counter == maxRetries-1) {
-					applyKeepAliveHeader(response, con);
+				if (failOverOn5XX && is5XX && counter < maxRetries-1 && !exc.getRequest().getBody().isContentDiscarded())
+					retryAllowed = retryPolicy.allowRetry(exc.getRequest(), true);
+				if (!retryAllowed) {
 					exc.getDestinations().clear();
 					exc.getDestinations().add(dest);
-					con.setExchange(exc);
-					response.addObserver(con);
+					if (con != null) {
+						applyKeepAliveHeader(response, con);
+						con.setExchange(exc);
+						response.addObserver(con);
+					}
 					exc.setResponse(response);
 					return exc;
 				}
+				if (stream != null)
+					h2.cancel(stream);
 				// java.net.SocketException: Software caused connection abort: socket write error
 			} catch (ConnectException e) {
 				exception = e;
 				log.info("Connection to " + (target == null ? dest : target ) + " refused.");
+			} catch (CircuitBreakerOpenException e) {
+				log.debug(e.getMessage());
+				exception = e;
+				rejected = true;
+			} catch (ConnectionPoolExhaustedException e) {
+				// a local limit, not a failure of the target: fail fast
+				if (circuitBreaker != null) {
+					circuitBreaker.release();
+					circuitBreaker = null;
+				}
+				exception = e;
+				throw e;
 			} catch(SocketException e){
 				if ( e.getMessage().contains("Software caused connection abort")) {
 					log.info("Connection to " + dest + " was aborted externally. Maybe by the server or the OS Membrane is running on.");
@@ -255,7 +415,7 @@ public class HttpClient {
 				log.warn("Unknown host: " + (target == null ? dest : target ));
 				exception = e;
 				if (exc.getDestinations().size() < 2) {
-					//don't retry this host, it's useless. (it's very unlikely that it will work after timeBetweenTriesMs)
+					//don't retry this host, it's useless. (it's very unlikely that it will work after the backoff)
 					break;
 				}
 			} catch (EOFWhileReadingFirstLineException e) {
@@ -263,11 +423,21 @@ public class HttpClient {
 				exception = e;
 			} catch (NoResponseException e) {
 				throw e;
+			} catch (StreamResetException e) {
+				// a refused HTTP/2 stream has not been processed by the server
+				refused = e.getErrorCode() == Http2.REFUSED_STREAM;
+				if (refused)
+					log.debug("HTTP/2 stream to " + dest + " refused.");
+				else
+					logException(exc, counter, e);
+				exception = e;
 			} catch (Exception e) {
 				logException(exc, counter, e);
 				exception = e;
 			}
 			finally	{
+				if (circuitBreaker != null)
+					circuitBreaker.onResult(status > 0 && status < 500, System.currentTimeMillis() - start);
 				if (trackNodeStatus) {
 					if(exception != null){
 						exc.setNodeException(counter, exception);
@@ -275,14 +445,392 @@ public class HttpClient {
 				}
 			}
 			counter++;
-			if (exc.getDestinations().size() == 1) {
-				//as documented above, the sleep timeout is only applied between successive calls to the same destination.
-				Thread.sleep(timeBetweenTriesMs);
+			if (counter == maxRetries)
+				break;
+			// no request has been sent
+			if (rejected)
+				continue;
+			if (exc.getRequest().getBody().isContentDiscarded()) {
+				log.debug("Not retrying request to " + dest + ": the body has been streamed without retaining it.");
+				break;
+			}
+			// a refused HTTP/2 stream has not been processed by the server either
+			if (!retryAllowed && !retryPolicy.allowRetry(exc.getRequest(), !connected || refused)) {
+				log.debug("Not retrying " + exc.getRequest().getMethod() + " request to " + dest + ".");
+				break;
+			}
+			if (exc.getDestinations().size() == 1 && !refused) {
+				//as documented above, the backoff is only applied between successive calls to the same destination.
+				Thread.sleep(retryPolicy.getBackoff(counter));
 			}
 		}
 		throw exception;
 	}
 
+	/**
+	 * Whether to send the request via HTTP/2. Requests which depend on the HTTP/1.x connection are excluded.
+	 */
+	private boolean useHttp2(Exchange exc) {
+		Request request = exc.getRequest();
+		return http2Pool != null && proxy == null && exc.getTargetConnection() == null && !request.isCONNECTRequest()
+				&& !request.isHTTP10() && !request.isBindTargetConnectionToIncoming()
+				&& request.getHeader().getFirstValue(Header.UPGRADE) == null;
+	}
+
+	/**
+	 * Whether the request may be sent to several destinations concurrently, see {@link HedgingConfiguration}.
+	 */
+	private boolean isHedgingPossible(Exchange exc) {
+		Request request = exc.getRequest();
+		return hedgingPolicy != null && maxRetries > 1 && exc.getDestinations().size() > 1
+				&& RetryPolicy.isIdempotent(request) && exc.getTargetConnection() == null && !useHttp2(exc)
+				&& !request.isHTTP10() && !request.isBindTargetConnectionToIncoming()
+				&& request.getHeader().getFirstValue(Header.UPGRADE) == null
+				&& request.getHeader().getFirstValue(Header.EXPECT) == null;
+	}
+
+	/**
+	 * Sends the request to the first destination and, each time no response has been received within the hedging
+	 * delay, to the next destination as well. The first response received is used. (If failing over on 5XX responses
+	 * is enabled, 5XX responses are only used, if no other response can be received.)
+	 *
+	 * The calling thread sends the first request (and the requests failing over) itself, the hedged requests are
+	 * sent by the threads of the {@link HedgingPolicy}. As soon as a response is used, the connections of all other
+	 * attempts are closed.
+	 */
+	private class HedgedCall {
+
+		private final Exchange exc;
+		private final boolean adjustHostHeader, failOverOn5XX, trackNodeStatus;
+		private final int maxTries;
+		private final BlockingQueue<HedgedAttempt> completed = new LinkedBlockingQueue<HedgedAttempt>();
+		@GuardedBy("this")
+		private final List<HedgedAttempt> attempts = new ArrayList<HedgedAttempt>();
+		@GuardedBy("this")
+		private HedgedAttempt winner;
+		@GuardedBy("this")
+		private boolean decided;
+		@GuardedBy("this")
+		private ScheduledFuture<?> nextHedge;
+		private Exception exception;
+
+		HedgedCall(Exchange exc, boolean adjustHostHeader, boolean failOverOn5XX, boolean trackNodeStatus) {
+			this.exc = exc;
+			this.adjustHostHeader = adjustHostHeader;
+			this.failOverOn5XX = failOverOn5XX;
+			this.trackNodeStatus = trackNodeStatus;
+			maxTries = Math.min(maxRetries, exc.getDestinations().size());
+		}
+
+		/**
+		 * @return whether the exchange has received a response. If not, all tries failed: see {@link #getException()}.
+		 */
+		boolean call() throws Exception {
+			// the request is sent more than once
+			exc.getRequest().readBody();
+
+			HedgedAttempt result = null, last5XX = null, next;
+			int finished = 0;
+			synchronized (this) {
+				next = create();
+			}
+			try {
+				while (true) {
+					if (next != null) {
+						next.run();
+						next = null;
+					}
+					HedgedAttempt a = completed.take();
+					finished++;
+					synchronized (this) {
+						if (a == winner) {
+							result = a;
+							break;
+						}
+					}
+					if (a.isCancelled())
+						continue; // another attempt won
+					if (a.exception != null) {
+						log.debug("try # " + a.index + " to " + a.dest + " failed: " + a.exception);
+						exception = a.exception;
+						if (trackNodeStatus)
+							exc.setNodeException(a.index, a.exception);
+					} else {
+						if (trackNodeStatus)
+							exc.setNodeStatusCode(a.index, a.status);
+						if (last5XX != null)
+							last5XX.cancel();
+						last5XX = a;
+					}
+					synchronized (this) {
+						if (winner != null || finished < attempts.size())
+							continue;
+						// fail over immediately, as no other try is pending
+						if (exception instanceof ConnectionPoolExhaustedException || attempts.size() >= maxTries
+								|| !retryPolicy.allowRetry(exc.getRequest(), true))
+							break;
+						next = create();
+					}
+				}
+				if (result == null)
+					result = last5XX;
+			} finally {
+				List<HedgedAttempt> all;
+				synchronized (this) {
+					decided = true;
+					if (nextHedge != null)
+						nextHedge.cancel(false);
+					all = new ArrayList<HedgedAttempt>(attempts);
+				}
+				for (HedgedAttempt a : all)
+					if (a != result)
+						a.cancel();
+			}
+			if (result == null)
+				return false;
+			use(result);
+			return true;
+		}
+
+		/**
+		 * Prepares the next attempt and schedules hedging it.
+		 */
+		@GuardedBy("this")
+		private HedgedAttempt create() {
+			int index = attempts.size();
+			String dest = getDestination(exc, index);
+			CircuitBreaker circuitBreaker = null;
+			HedgedAttempt a;
+			try {
+				HostColonPort target = init(exc, dest, adjustHostHeader);
+				circuitBreaker = acquireCircuitBreaker(target);
+				ByteArrayOutputStream request = new ByteArrayOutputStream();
+				exc.getRequest().write(request);
+				a = new HedgedAttempt(this, index, dest, target, getOutboundSSLProvider(exc, target), request.toByteArray(), exc.getRequest().isHEADRequest());
+				a.circuitBreaker = circuitBreaker;
+			} catch (Exception e) {
+				// the request has not been sent: do not leave the permit of a half-open circuit taken
+				if (circuitBreaker != null)
+					circuitBreaker.release();
+				a = new HedgedAttempt(this, index, dest, e);
+			}
+			attempts.add(a);
+
+			if (nextHedge != null)
+				nextHedge.cancel(false);
+			nextHedge = null;
+			if (a.exception == null && attempts.size() < maxTries) {
+				final HedgedAttempt latest = a;
+				nextHedge = hedgingPolicy.getTimer().schedule(new Runnable() {
+					@Override
+					public void run() {
+						hedge(latest);
+					}
+				}, hedgingPolicy.getDelay(a.target.toString()), TimeUnit.MILLISECONDS);
+			}
+			return a;
+		}
+
+		/**
+		 * Called by the timer, if no response to the latest attempt has been received within the hedging delay.
+		 */
+		private synchronized void hedge(HedgedAttempt latest) {
+			if (decided || winner != null || attempts.get(attempts.size() - 1) != latest)
+				return;
+			if (!retryPolicy.allowRetry(exc.getRequest(), true))
+				return;
+			log.debug("No response from " + latest.dest + " within " + (System.currentTimeMillis() - latest.startTime) + " ms, hedging.");
+			HedgedAttempt a = create();
+			try {
+				hedgingPolicy.getExecutor().execute(a);
+			} catch (RejectedExecutionException e) {
+				log.debug("All hedging threads are busy, not hedging.");
+				attempts.remove(a);
+				if (nextHedge != null)
+					nextHedge.cancel(false);
+				nextHedge = null;
+				if (a.circuitBreaker != null)
+					a.circuitBreaker.release();
+				return;
+			}
+			hedgingPolicy.hedged();
+		}
+
+		/**
+		 * Called by the thread running the attempt, as soon as it has completed.
+		 */
+		void completed(HedgedAttempt a) {
+			List<HedgedAttempt> others = null;
+			synchronized (this) {
+				if (!decided && winner == null && a.isUsable(failOverOn5XX)) {
+					winner = a;
+					others = new ArrayList<HedgedAttempt>(attempts);
+				}
+			}
+			if (others != null)
+				for (HedgedAttempt other : others)
+					if (other != a)
+						other.cancel();
+			completed.add(a);
+		}
+
+		private void use(HedgedAttempt a) throws IOException {
+			if (a.index > 0)
+				hedgingPolicy.won();
+			if (trackNodeStatus)
+				exc.setNodeStatusCode(a.index, a.status);
+			Connection con = a.getConnection();
+			init(exc, a.dest, adjustHostHeader);
+			exc.setTargetConnection(con);
+			exc.setTimeReqSent(a.timeReqSent);
+			exc.setReceived();
+			exc.setTimeResReceived(a.timeResReceived);
+			exc.getDestinations().clear();
+			exc.getDestinations().add(a.dest);
+			applyKeepAliveHeader(a.response, con);
+			con.setExchange(exc);
+			a.response.addObserver(con);
+			exc.setResponse(a.response);
+		}
+
+		synchronized int getTries() {
+			return attempts.size();
+		}
+
+		Exception getException() {
+			return exception;
+		}
+	}
+
+	/**
+	 * Sends the serialized request to one destination and reads the response header. The connection is closed, if
+	 * the attempt fails or is cancelled.
+	 */
+	private class HedgedAttempt implements Runnable {
+
+		final HedgedCall call;
+		final int index;
+		final String dest;
+		final HostColonPort target;
+		final SSLProvider sslProvider;
+		final byte[] request;
+		final boolean head;
+		final long startTime = System.currentTimeMillis();
+		CircuitBreaker circuitBreaker;
+
+		long timeReqSent, timeResReceived;
+		Response response;
+		int status;
+		Exception exception;
+
+		@GuardedBy("this")
+		private Connection con;
+		@GuardedBy("this")
+		private boolean done, cancelled;
+
+		HedgedAttempt(HedgedCall call, int index, String dest, HostColonPort target, SSLProvider sslProvider, byte[] request, boolean head) {
+			this.call = call;
+			this.index = index;
+			this.dest = dest;
+			this.target = target;
+			this.sslProvider = sslProvider;
+			this.request = request;
+			this.head = head;
+		}
+
+		HedgedAttempt(HedgedCall call, int index, String dest, Exception exception) {
+			this(call, index, dest, null, null, null, false);
+			this.exception = exception;
+		}
+
+		@Override
+		public void run() {
+			if (exception == null)
+				send();
+			call.completed(this);
+		}
+
+		private void send() {
+			try {
+				Connection c = conMgr.getConnection(target.host, target.port, localAddr, sslProvider, connectTimeout);
+				synchronized (this) {
+					con = c;
+					if (cancelled)
+						throw new IOException("Try has been cancelled.");
+				}
+				c.out.write(request);
+				c.out.flush();
+				timeReqSent = System.currentTimeMillis();
+				do {
+					response = new Response();
+					response.read(c.in, !head);
+				} while (response.getStatusCode() == 100);
+				timeResReceived = System.currentTimeMillis();
+				status = response.getStatusCode();
+				hedgingPolicy.record(target.toString(), timeResReceived - startTime);
+			} catch (Exception e) {
+				exception = e;
+			}
+			boolean aborted;
+			synchronized (this) {
+				done = true;
+				aborted = cancelled && exception != null;
+				if (exception != null || cancelled)
+					discard();
+			}
+			if (circuitBreaker != null) {
+				// neither a local limit nor closing the connection ourselves tell anything about the target
+				if (aborted || exception instanceof ConnectionPoolExhaustedException)
+					circuitBreaker.release();
+				else
+					circuitBreaker.onResult(exception == null && status < 500, System.currentTimeMillis() - startTime);
+			}
+		}
+
+		/**
+		 * @return whether the response can be used right away
+		 */
+		synchronized boolean isUsable(boolean failOverOn5XX) {
+			return !cancelled && exception == null && (!failOverOn5XX || status < 500 || status >= 600);
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		synchronized Connection getConnection() {
+			return con;
+		}
+
+		/**
+		 * Closes the connection: an attempt still waiting for its response fails immediately, the response of a
+		 * completed attempt is discarded.
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			discard();
+		}
+
+		@GuardedBy("this")
+		private void discard() {
+			if (con == null)
+				return;
+			try {
+				con.close();
+			} catch (IOException e) {
+				log.debug("Closing connection of discarded try.", e);
+			}
+			con = null;
+			if (done)
+				response = null;
+		}
+	}
+
+	private String getAuthority(Exchange exc, HostColonPort target) {
+		String host = exc.getRequest().getHeader().getHost();
+		return host != null ? host : target.host + ":" + target.port;
+	}
+
 	private void applyKeepAliveHeader(Response response, Connection con) {
 		String value = response.getHeader().getFirstValue(Header.KEEP_ALIVE);
 		if (value == null)
@@ -348,8 +896,45 @@ public class HttpClient {
 		final HttpServerHandler hsr = (HttpServerHandler)exc.getHandler();
 		String source = hsr.getSourceSocket().getRemoteSocketAddress().toString();
 		String dest = con.toString();
-		final StreamPump a = new StreamPump(con.in, hsr.getSrcOut(), streamPumpStats, protocol + " " + source + " <- " + dest, exc.getRule());
-		final StreamPump b = new StreamPump(hsr.getSrcIn(), con.out, streamPumpStats, protocol + " " + source + " -> " + dest, exc.getRule());
+		final String backwardName = protocol + " " + source + " <- " + dest;
+		final String onwardName = protocol + " " + source + " -> " + dest;
+
+		final TunnelEngine tunnelEngine = hsr.getTransport().getTunnelEngine();
+		if (tunnelEngine != null && TunnelEngine.canForward(hsr.getSourceSocket(), hsr.getSrcIn(), con.socket, con.in)) {
+			final Rule rule = exc.getRule();
+			final Runnable cleanUp = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						con.close();
+					} catch (IOException e) {
+						log.debug("", e);
+					}
+					hsr.closeTunneled();
+				}
+			};
+			exc.addExchangeViewerListener(new AbstractExchangeViewerListener() {
+
+				@Override
+				public void setExchangeFinished() {
+					hsr.setTunneled();
+					try {
+						hsr.getSrcOut().flush();
+						con.out.flush();
+					} catch (IOException e) {
+						log.debug("", e);
+						cleanUp.run();
+						return;
+					}
+					tunnelEngine.forward(hsr.getSourceSocket(), (HttpHeadInputStream) hsr.getSrcIn(), con.socket,
+							(HttpHeadInputStream) con.in, onwardName, backwardName, rule, cleanUp);
+				}
+			});
+			return;
+		}
+
+		final StreamPump a = new StreamPump(con.in, hsr.getSrcOut(), streamPumpStats, backwardName, exc.getRule());
+		final StreamPump b = new StreamPump(hsr.getSrcIn(), con.out, streamPumpStats, onwardName, exc.getRule());
 
 		hsr.getSourceSocket().setSoTimeout(0);
 
@@ -358,7 +943,7 @@ public class HttpClient {
 			@Override
 			public void setExchangeFinished() {
 				String threadName = Thread.currentThread().getName();
-				new Thread(a, threadName + " " + protocol + " Backward Thread").start();
+				hsr.getTransport().createThread(a, threadName + " " + protocol + " Backward Thread").start();
 				try {
 					Thread.currentThread().setName(threadName + " " + protocol + " Onward Thread");
 					b.run();
@@ -403,4 +988,11 @@ public class HttpClient {
 	ConnectionManager getConnectionManager() {
 		return conMgr;
 	}
+
+	/**
+	 * @return the gauges of the connection pool, per destination
+	 */
+	public List<ConnectionManager.PoolStatistics> getConnectionPoolStatistics() {
+		return conMgr.getPoolStatistics();
+	}
 }
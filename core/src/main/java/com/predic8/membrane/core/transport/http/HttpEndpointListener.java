@@ -17,10 +17,16 @@ package com.predic8.membrane.core.transport.http;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -30,44 +36,145 @@ import org.apache.commons.logging.LogFactory;
 import com.predic8.membrane.core.transport.PortOccupiedException;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
 
+/**
+ * Accepts connections on an IP/port and hands them over to {@link HttpServerHandler}s.
+ *
+ * With <tt>&lt;transport acceptors="N"&gt;</tt>, N threads accept connections: Where supported (Java 9+ on Linux or
+ * BSD, without SSL), each of them gets its own server socket bound using <tt>SO_REUSEPORT</tt>, so that the kernel
+ * distributes incoming connections across separate accept queues. Otherwise, all threads share one server socket.
+ */
 public class HttpEndpointListener extends Thread {
 
 	private static final Log log = LogFactory.getLog(HttpEndpointListener.class.getName());
 
+	private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
+	private final String ip;
+	private final int port;
 	private final ServerSocket serverSocket;
+	private final List<ServerSocket> serverSockets = new ArrayList<ServerSocket>();
+	private final List<Thread> acceptors = new ArrayList<Thread>();
 	private final HttpTransport transport;
 	private final SSLProvider sslProvider;
+	private final IdleConnectionSelector idleConnectionSelector;
+	private final AcceptStatistics statistics;
 	private final ConcurrentHashMap<Socket, Boolean> idleSockets = new ConcurrentHashMap<Socket, Boolean>();
 	private final ConcurrentHashMap<Socket, Boolean> openSockets = new ConcurrentHashMap<Socket, Boolean>();
 	private volatile boolean closed;
 
 	public HttpEndpointListener(String ip, int port, HttpTransport transport, SSLProvider sslProvider) throws IOException {
+		this.ip = ip;
+		this.port = port;
 		this.transport = transport;
 		this.sslProvider = sslProvider;
+		this.idleConnectionSelector = sslProvider == null ? transport.getIdleConnectionSelector() : null;
+		this.statistics = new AcceptStatistics(port);
 
+		int backlog = transport.getBacklog();
+		int acceptorCount = Math.max(1, transport.getAcceptors());
+		InetAddress bindAddress = ip != null ? InetAddress.getByName(ip) : null;
 		try {
 			if (sslProvider != null)
-				serverSocket = sslProvider.createServerSocket(port, 50, ip != null ? InetAddress.getByName(ip) : null);
+				serverSockets.add(sslProvider.createServerSocket(port, backlog, bindAddress));
+			else if (acceptorCount > 1 && SO_REUSEPORT != null)
+				for (int i = 0; i < acceptorCount; i++)
+					serverSockets.add(createChannelServerSocket(port, backlog, bindAddress, true));
+			else if (idleConnectionSelector != null || transport.getTunnelEngine() != null)
+				serverSockets.add(createChannelServerSocket(port, backlog, bindAddress, false));
 			else
-				serverSocket = new ServerSocket(port, 50, ip != null ? InetAddress.getByName(ip) : null);
+				serverSockets.add(new ServerSocket(port, backlog, bindAddress));
+		} catch (IOException e) {
+			for (ServerSocket ss : serverSockets)
+				ss.close();
+			if (e instanceof BindException)
+				throw new PortOccupiedException(port);
+			throw e;
+		}
+		serverSocket = serverSockets.get(0);
 
-			setName("Connection Acceptor " + (ip != null ? ip + ":" : ":") + port);
-			log.debug("listening at port "+port + (ip != null ? " ip " + ip : ""));
-		} catch (BindException e) {
-			throw new PortOccupiedException(port);
+		setName("Connection Acceptor " + (ip != null ? ip + ":" : ":") + port);
+		for (int i = 1; i < acceptorCount; i++) {
+			final ServerSocket ss = serverSockets.size() > i ? serverSockets.get(i) : serverSocket;
+			acceptors.add(new Thread(getName() + " #" + (i + 1)) {
+				@Override
+				public void run() {
+					accept(ss);
+				}
+			});
 		}
+		log.debug("listening at port "+port + (ip != null ? " ip " + ip : "") + (acceptorCount > 1 ? " using " +
+				acceptorCount + " acceptors" + (serverSockets.size() > 1 ? " with SO_REUSEPORT" : "") : ""));
+	}
+
+	/**
+	 * @return {@link StandardSocketOptions}.SO_REUSEPORT (Java 9+), if the platform supports it for server sockets
+	 */
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> getReusePortOption() {
+		try {
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			try {
+				return channel.supportedOptions().contains(option) ? option : null;
+			} finally {
+				channel.close();
+			}
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a server socket backed by a {@link ServerSocketChannel}: Only the channels of sockets accepted this way
+	 * can be parked on the {@link IdleConnectionSelector} or forwarded by the {@link TunnelEngine}.
+	 */
+	private static ServerSocket createChannelServerSocket(int port, int backlog, InetAddress bindAddress, boolean reusePort) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			if (reusePort)
+				channel.setOption(SO_REUSEPORT, true);
+			channel.socket().bind(new InetSocketAddress(bindAddress, port), backlog);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel.socket();
 	}
 
 	@Override
 	public void run() {
+		for (Thread acceptor : acceptors)
+			acceptor.start();
+		accept(serverSocket);
+		try {
+			for (Thread acceptor : acceptors)
+				acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept(ServerSocket serverSocket) {
 		while (!closed) {
 			try {
 				Socket socket = serverSocket.accept();
+				statistics.accepted();
 				openSockets.put(socket, Boolean.TRUE);
 				try {
-					transport.getExecutorService().execute(new HttpServerHandler(socket, this));
+					HttpServerHandler handler = new HttpServerHandler(socket, this);
+					if (idleConnectionSelector != null) {
+						// wait for the first request without occupying a thread
+						try {
+							handler.park();
+						} catch (SocketException e) {
+							// the listener has been closed concurrently and the socket with it
+							openSockets.remove(socket);
+						}
+					} else
+						transport.getExecutorService().execute(handler);
 				} catch (RejectedExecutionException e) {
 					openSockets.remove(socket);
+					statistics.rejected();
 					log.error("HttpServerHandler execution rejected. Might be due to a proxies.xml hot deployment in progress or a low"
 							+ " value for <transport maxThreadPoolSize=\"...\">.");
 					socket.close();
@@ -78,11 +185,14 @@ public class HttpEndpointListener extends Thread {
 				if (message != null && (message.endsWith("socket closed") || message.endsWith("Socket closed"))) {
 					log.debug("socket closed.");
 					break;
-				} else
+				} else {
+					statistics.failed();
 					log.error(e);
+				}
 			} catch (NullPointerException e) {
 				// Ignore this. serverSocket variable is set null during a loop in the process of closing server socket.
 			} catch (Exception e) {
+				statistics.failed();
 				log.error(e);
 			}
 		}
@@ -90,8 +200,9 @@ public class HttpEndpointListener extends Thread {
 
 	public void closePort() throws IOException {
 		closed = true;
-		if (!serverSocket.isClosed())
-			serverSocket.close();
+		for (ServerSocket ss : serverSockets)
+			if (!ss.isClosed())
+				ss.close();
 	}
 
 	/**
@@ -130,6 +241,49 @@ public class HttpEndpointListener extends Thread {
 		return transport;
 	}
 
+	/**
+	 * @return the IP address the listener is bound to, or null if bound to all addresses
+	 */
+	public String getIp() {
+		return ip;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return the number of threads accepting connections
+	 */
+	public int getAcceptorCount() {
+		return acceptors.size() + 1;
+	}
+
+	/**
+	 * @return whether each acceptor uses its own server socket bound using <tt>SO_REUSEPORT</tt>
+	 */
+	public boolean isReusePort() {
+		return serverSockets.size() > 1;
+	}
+
+	public AcceptStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the number of connections accepted by this listener, which are still open
+	 */
+	public int getOpenConnectionCount() {
+		return openSockets.size();
+	}
+
+	/**
+	 * @return the number of open connections currently waiting for their next request
+	 */
+	public int getIdleConnectionCount() {
+		return idleSockets.size();
+	}
+
 	public boolean isClosed() {
 		return closed;
 	}
@@ -137,4 +291,12 @@ public class HttpEndpointListener extends Thread {
 	public SSLProvider getSslProvider() {
 		return sslProvider;
 	}
+
+	/**
+	 * @return the selector to park idle connections on, or null if connections accepted by this listener are
+	 *         served in blocking mode.
+	 */
+	public IdleConnectionSelector getIdleConnectionSelector() {
+		return idleConnectionSelector;
+	}
 }
\ No newline at end of file
@@ -14,8 +14,6 @@
 
 package com.predic8.membrane.core.transport.http;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -34,12 +32,17 @@ import org.apache.commons.logging.LogFactory;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.AbstractBody;
 import com.predic8.membrane.core.http.Header;
-import com.predic8.membrane.core.http.MessageObserver;
+import com.predic8.membrane.core.http.HttpHeadInputStream;
+import com.predic8.membrane.core.http.NonRelevantBodyObserver;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.transport.http2.Http2;
+import com.predic8.membrane.core.transport.http2.Http2ServerConnection;
 import com.predic8.membrane.core.transport.ssl.SSLProvider;
+import com.predic8.membrane.core.util.BufferPool;
 import com.predic8.membrane.core.util.DNSCache;
 import com.predic8.membrane.core.util.EndOfStreamException;
+import com.predic8.membrane.core.util.PooledBufferedOutputStream;
 import com.predic8.membrane.core.util.Util;
 
 public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
@@ -51,6 +54,10 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 	private Socket sourceSocket;
 	private InputStream srcIn;
 	private OutputStream srcOut;
+	private boolean initialized;
+	private boolean parked; // see HttpTransport.Mode.NIO
+	private boolean tunneled; // see TunnelEngine
+	private boolean requestRead;
 
 
 	public HttpServerHandler(Socket socket, HttpEndpointListener endpointListener) throws IOException {
@@ -69,21 +76,38 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 		SSLProvider sslProvider = endpointListener.getSslProvider();
 		if (sslProvider != null)
 			sourceSocket = sslProvider.wrapAcceptedSocket(sourceSocket);
+		if (getTransport().isHttp2() && sourceSocket instanceof SSLSocket)
+			Http2.setApplicationProtocols((SSLSocket) sourceSocket, Http2.ALPN_H2, Http2.ALPN_HTTP_1_1);
 		log.debug("New ServerThread created. " + counter.incrementAndGet());
-		srcIn = new BufferedInputStream(sourceSocket.getInputStream(), 2048);
-		srcOut = new BufferedOutputStream(sourceSocket.getOutputStream(), 2048);
+		srcIn = new HttpHeadInputStream(sourceSocket.getInputStream(), 2048, BufferPool.getInstance());
+		srcOut = new PooledBufferedOutputStream(sourceSocket.getOutputStream(), 2048);
 		sourceSocket.setSoTimeout(endpointListener.getTransport().getSocketTimeout());
 		sourceSocket.setTcpNoDelay(endpointListener.getTransport().isTcpNoDelay());
+		initialized = true;
 	}
 
 	public void run() {
 		Connection boundConnection = null; // see Request.isBindTargetConnectionToIncoming()
+		boolean resumed = parked, handedOver = false;
+		parked = false;
 		try {
 			updateThreadName(true);
-			setup();
+			if (resumed)
+				endpointListener.setIdleStatus(sourceSocket, false);
+			if (!initialized)
+				setup();
 			while (true) {
 				srcReq = new Request();
 
+				if (resumed) {
+					// the selector reported the next request's bytes as readable
+					resumed = false;
+				} else if (boundConnection == null && endpointListener.getIdleConnectionSelector() != null && srcIn.available() == 0) {
+					park();
+					handedOver = true;
+					return;
+				}
+
 				endpointListener.setIdleStatus(sourceSocket, true);
 				try {
 					srcIn.mark(2);
@@ -94,6 +118,13 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 					endpointListener.setIdleStatus(sourceSocket, false);
 				}
 
+				if (!requestRead && getTransport().isHttp2() && isHttp2Preface()) {
+					log.debug("Serving HTTP/2 connection.");
+					new Http2ServerConnection(getTransport(), sourceSocket, srcIn, srcOut).serve();
+					return;
+				}
+				requestRead = true;
+
 				if (boundConnection != null) {
 					exchange.setTargetConnection(boundConnection);
 					boundConnection = null;
@@ -111,6 +142,10 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 
 				process();
 
+				if (tunneled) {
+					handedOver = true;
+					return;
+				}
 				if (srcReq.isCONNECTRequest()) {
 					log.debug("stopping HTTP Server Thread after establishing an HTTP connect");
 					return;
@@ -154,24 +189,82 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 		}
 
 		finally {
-			endpointListener.setOpenStatus(sourceSocket, false);
-
-			if (boundConnection != null)
-				try {
-					boundConnection.close();
-				} catch (IOException e) {
-					log.debug("Closing bound connection.", e);
-				}
+			// once handed over, the handler might already be running on another thread
+			if (!handedOver) {
+				endpointListener.setOpenStatus(sourceSocket, false);
+
+				if (boundConnection != null)
+					try {
+						boundConnection.close();
+					} catch (IOException e) {
+						log.debug("Closing bound connection.", e);
+					}
 
-			closeConnections();
+				closeConnections();
 
-			exchange.detach();
+				exchange.detach();
+			}
 
 			updateThreadName(false);
 		}
 
 	}
 
+	/**
+	 * Checks for (and consumes) the HTTP/2 connection preface. On SSL connections, HTTP/2 is only used if it has been
+	 * negotiated via ALPN.
+	 */
+	private boolean isHttp2Preface() throws IOException {
+		if (sourceSocket instanceof SSLSocket && !Http2.ALPN_H2.equals(Http2.getApplicationProtocol((SSLSocket) sourceSocket)))
+			return false;
+		return Http2.readPreface(srcIn);
+	}
+
+	/**
+	 * Hands the idle connection over to the {@link IdleConnectionSelector}, which will {@link #run()} this handler
+	 * again as soon as the next request can be read.
+	 *
+	 * The caller must not touch the handler after this method returned.
+	 */
+	void park() throws IOException {
+		endpointListener.setIdleStatus(sourceSocket, true);
+		parked = true;
+		endpointListener.getIdleConnectionSelector().park(this);
+	}
+
+	/**
+	 * Called by the {@link IdleConnectionSelector}, if a parked connection was closed or timed out.
+	 */
+	void closeParked() {
+		try {
+			endpointListener.setIdleStatus(sourceSocket, false);
+		} catch (IOException e) {
+			// does not happen
+		}
+		closeTunneled();
+	}
+
+	/**
+	 * Marks the connection as handed over to the {@link TunnelEngine}: Once the running exchange has been processed,
+	 * the handler returns without closing the connection.
+	 */
+	void setTunneled() {
+		tunneled = true;
+	}
+
+	/**
+	 * Called by the {@link TunnelEngine} (or {@link #closeParked()}) to clean up, once the connection has been
+	 * closed.
+	 */
+	void closeTunneled() {
+		endpointListener.setOpenStatus(sourceSocket, false);
+
+		closeConnections();
+
+		if (exchange != null)
+			exchange.detach();
+	}
+
 	private void closeConnections() {
 
 		try {
@@ -185,6 +278,15 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 					+ sourceSocket.getPort() + " on remote host: "
 					+ sourceSocket.getInetAddress(), e2);
 		}
+		// return the buffers to the pool: the socket is closed, so nothing can be read or written anymore
+		try {
+			if (srcIn != null)
+				srcIn.close();
+		} catch (IOException e) {
+			log.debug("Closing input stream.", e);
+		}
+		if (srcOut != null)
+			((PooledBufferedOutputStream) srcOut).release();
 	}
 
 	private void process() throws Exception {
@@ -194,14 +296,14 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 			InetAddress remoteAddr = sourceSocket.getInetAddress();
 			String ip = dnsCache.getHostAddress(remoteAddr);
 			exchange.setRemoteAddrIp(ip);
-			exchange.setRemoteAddr(getTransport().isReverseDNS() ? dnsCache.getHostName(remoteAddr) : ip);
+			exchange.setRemoteAddr(getTransport().isReverseDNS() ? dnsCache.getHostName(remoteAddr, dnsCache.getReverseLookupTimeout()) : ip);
 
 			exchange.setRequest(srcReq);
 			exchange.setOriginalRequestUri(srcReq.getUri());
 
 			if (exchange.getRequest().getHeader().is100ContinueExpected()) {
 				final Request request = exchange.getRequest();
-				request.addObserver(new MessageObserver() {
+				request.addObserver(new NonRelevantBodyObserver() {
 					public void bodyRequested(AbstractBody body) {
 						try {
 							if (request.getHeader().is100ContinueExpected()) {
@@ -51,16 +51,35 @@ public class HttpTransport extends Transport {
 	public static final String HEADER_HOST = "com.predic8.membrane.transport.http.header.Host";
 	public static final String SOURCE_IP = "com.predic8.membrane.transport.http.source.Ip";
 
+	public enum Mode {
+		BLOCKING,
+		NIO
+	}
+
+	public enum ExecutorType {
+		POOL,
+		VIRTUAL
+	}
+
 	private int socketTimeout = 30000;
 	private int forceSocketCloseOnHotDeployAfter = 30000;
 	private boolean tcpNoDelay = true;
+	private boolean http2;
+	private int backlog = 50;
+	private int acceptors = 1;
+	private Mode mode = Mode.BLOCKING;
+	private IdleConnectionSelector idleConnectionSelector;
+	private int tunnelThreads;
+	private TunnelEngine tunnelEngine;
 
 	public Hashtable<IpPort, HttpEndpointListener> portListenerMapping = new Hashtable<IpPort, HttpEndpointListener>();
 	public List<WeakReference<HttpEndpointListener>> stillRunning = new ArrayList<WeakReference<HttpEndpointListener>>();
 
-	private ThreadPoolExecutor executorService = new ThreadPoolExecutor(20,
+	private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(20,
 			Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
 			new SynchronousQueue<Runnable>(), new HttpServerThreadFactory());
+	private ExecutorService executorService = threadPool;
+	private ExecutorType executor = ExecutorType.POOL;
 
 	@Override
 	public void init(Router router) throws Exception {
@@ -77,6 +96,15 @@ public class HttpTransport extends Transport {
 		return portListenerMapping.keys();
 	}
 
+	/**
+	 * @return the listeners of all currently open ports
+	 */
+	public List<HttpEndpointListener> getEndpointListeners() {
+		synchronized (portListenerMapping) {
+			return new ArrayList<HttpEndpointListener>(portListenerMapping.values());
+		}
+	}
+
 	/**
 	 * Closes the corresponding server port. Note that connections might still be open and exchanges still running after
 	 * this method completes.
@@ -131,6 +159,10 @@ public class HttpTransport extends Transport {
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 			}
+			if (idleConnectionSelector != null)
+				idleConnectionSelector.close();
+			if (tunnelEngine != null)
+				tunnelEngine.close();
 		}
 	}
 
@@ -161,6 +193,13 @@ public class HttpTransport extends Transport {
 		if (port == -1)
 			throw new RuntimeException("The port-attribute is missing (probably on a <serviceProxy> element).");
 
+		if (mode == Mode.NIO && sslProvider == null && idleConnectionSelector == null) {
+			idleConnectionSelector = new IdleConnectionSelector(this);
+			idleConnectionSelector.start();
+		}
+		if (tunnelThreads > 0 && tunnelEngine == null)
+			tunnelEngine = new TunnelEngine(tunnelThreads, getRouter().getStatistics().getStreamPumpStats());
+
 		HttpEndpointListener portListenerThread = new HttpEndpointListener(
 				ip, port, this, sslProvider);
 		portListenerMapping.put(new IpPort(ip, port), portListenerThread);
@@ -172,7 +211,7 @@ public class HttpTransport extends Transport {
 	}
 
 	public int getCoreThreadPoolSize() {
-		return executorService.getCorePoolSize();
+		return threadPool.getCorePoolSize();
 	}
 
 	/**
@@ -182,11 +221,11 @@ public class HttpTransport extends Transport {
 	 */
 	@MCAttribute
 	public void setCoreThreadPoolSize(int corePoolSize) {
-		executorService.setCorePoolSize(corePoolSize);
+		threadPool.setCorePoolSize(corePoolSize);
 	}
 
 	public int getMaxThreadPoolSize() {
-		return executorService.getMaximumPoolSize();
+		return threadPool.getMaximumPoolSize();
 	}
 
 	/**
@@ -196,13 +235,76 @@ public class HttpTransport extends Transport {
 	 */
 	@MCAttribute
 	public void setMaxThreadPoolSize(int value) {
-		executorService.setMaximumPoolSize(value);
+		threadPool.setMaximumPoolSize(value);
 	}
 
 	public ExecutorService getExecutorService() {
 		return executorService;
 	}
 
+	public ExecutorType getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @description <p>How threads handling incoming connections are allocated.</p>
+	 *              <p><tt>pool</tt> uses a pool of platform threads (see <tt>coreThreadPoolSize</tt> and
+	 *              <tt>maxThreadPoolSize</tt>).</p>
+	 *              <p><tt>virtual</tt> runs each connection, as well as both directions of WebSocket, TCP and CONNECT
+	 *              tunnels, on its own virtual thread. This requires a JVM supporting virtual threads (Java 21+):
+	 *              On older JVMs, a warning is logged and <tt>pool</tt> is used.</p>
+	 * @default pool
+	 * @example virtual
+	 */
+	@MCAttribute
+	public void setExecutor(ExecutorType executor) {
+		if (executor == this.executor)
+			return;
+		if (executor == ExecutorType.VIRTUAL && !VirtualThreads.isSupported()) {
+			log.warn("<transport executor=\"virtual\"> requires a JVM supporting virtual threads. Falling back to executor=\"pool\".");
+			return;
+		}
+		this.executor = executor;
+		executorService = executor == ExecutorType.VIRTUAL ? VirtualThreads.newExecutor(HttpServerThreadFactory.DEFAULT_THREAD_NAME) : threadPool;
+	}
+
+	/**
+	 * Creates a thread for long-running work outside of the {@link #getExecutorService()}, like the backward
+	 * {@link StreamPump} of a tunnel. Uses a virtual thread, if configured via {@link #setExecutor(ExecutorType)}.
+	 */
+	public Thread createThread(Runnable runnable, String name) {
+		if (executor == ExecutorType.VIRTUAL)
+			return VirtualThreads.newThreadFactory(name).newThread(runnable);
+		return new Thread(runnable, name);
+	}
+
+	/**
+	 * @return the selector idle keep-alive connections are parked on, or null if not running in {@link Mode#NIO}.
+	 */
+	public IdleConnectionSelector getIdleConnectionSelector() {
+		return idleConnectionSelector;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @description <p>How incoming connections are served.</p>
+	 *              <p><tt>blocking</tt> dedicates one thread to each open connection, including idle keep-alive
+	 *              connections waiting for their next request.</p>
+	 *              <p><tt>nio</tt> parks idle plain HTTP connections on a <tt>java.nio</tt> selector and only
+	 *              dispatches them to a thread once the bytes of the next request are readable, so the number of
+	 *              threads tracks the number of active requests instead of the number of open connections.
+	 *              (SSL connections are always served in <tt>blocking</tt> mode.)</p>
+	 * @default blocking
+	 * @example nio
+	 */
+	@MCAttribute
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
 	public int getSocketTimeout() {
 		return socketTimeout;
 	}
@@ -233,6 +335,85 @@ public class HttpTransport extends Transport {
 		this.tcpNoDelay = tcpNoDelay;
 	}
 
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * @description <p>Whether to accept HTTP/2 connections.</p>
+	 *              <p>On SSL listeners, <tt>h2</tt> is offered during the TLS handshake via ALPN (requiring Java 9+ or
+	 *              Java 8u252+). On plain listeners, connections starting with the HTTP/2 connection preface
+	 *              ("prior knowledge" <tt>h2c</tt>) are served using HTTP/2. Other connections continue to use
+	 *              HTTP/1.x. (The <tt>Upgrade: h2c</tt> mechanism is not supported.)</p>
+	 *              <p>Each HTTP/2 stream is handled as a separate exchange running through the interceptor chain.
+	 *              CONNECT requests are only supported via HTTP/1.x.</p>
+	 * @default false
+	 */
+	@MCAttribute
+	public void setHttp2(boolean http2) {
+		this.http2 = http2;
+	}
+
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * @description <p>The maximum number of incoming connections waiting to be accepted, per server socket. Connection
+	 *              attempts exceeding it are refused or dropped by the operating system, which usually also caps the value
+	 *              (on Linux, see <tt>net.core.somaxconn</tt>).</p>
+	 *              <p>Changes only apply to ports opened afterwards.</p>
+	 * @default 50
+	 * @example 1024
+	 */
+	@MCAttribute
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * @description <p>The number of threads accepting connections on each port.</p>
+	 *              <p>If the JVM supports <tt>SO_REUSEPORT</tt> (Java 9+ on Linux or BSD), each thread gets its own
+	 *              server socket (with its own backlog), so that the operating system distributes incoming connections
+	 *              among them. Otherwise, and for SSL ports, the threads share a single server socket.</p>
+	 *              <p>Changes only apply to ports opened afterwards.</p>
+	 * @default 1
+	 * @example 4
+	 */
+	@MCAttribute
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	public int getTunnelThreads() {
+		return tunnelThreads;
+	}
+
+	/**
+	 * @description <p>The number of I/O threads forwarding the data of WebSocket, TCP and CONNECT tunnels.</p>
+	 *              <p>With <tt>0</tt>, each tunnel occupies two threads, one per direction. Otherwise, all tunnels
+	 *              are multiplexed onto the given number of threads using <tt>java.nio</tt> selectors. (Tunnels of
+	 *              SSL connections, on either side, always use two threads.)</p>
+	 *              <p>Changes only apply to ports opened afterwards.</p>
+	 * @default 0
+	 * @example 2
+	 */
+	@MCAttribute
+	public void setTunnelThreads(int tunnelThreads) {
+		this.tunnelThreads = tunnelThreads;
+	}
+
+	/**
+	 * @return the engine forwarding tunnels, or null if tunnels are forwarded by {@link StreamPump}s.
+	 */
+	public TunnelEngine getTunnelEngine() {
+		return tunnelEngine;
+	}
+
 	@Override
 	public boolean isOpeningPorts() {
 		return true;
@@ -0,0 +1,189 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parks idle keep-alive connections of {@link HttpTransport.Mode#NIO} listeners on a {@link Selector}, so that
+ * they do not occupy a thread while waiting for the next request.
+ *
+ * As soon as bytes are readable on a parked connection, the connection is switched back to blocking mode and its
+ * {@link HttpServerHandler} is handed to the transport's executor again. Parked connections exceeding the
+ * transport's socket timeout are closed.
+ */
+public class IdleConnectionSelector extends Thread {
+
+	private static final Log log = LogFactory.getLog(IdleConnectionSelector.class.getName());
+
+	private static final long CHECK_INTERVAL = 1000;
+
+	private final HttpTransport transport;
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<HttpServerHandler> toRegister = new ConcurrentLinkedQueue<HttpServerHandler>();
+
+	// only accessed by the selector thread
+	private final Map<HttpServerHandler, SelectionKey> parked = new HashMap<HttpServerHandler, SelectionKey>();
+	private final Map<HttpServerHandler, Long> parkedSince = new HashMap<HttpServerHandler, Long>();
+
+	private volatile boolean closed;
+
+	public IdleConnectionSelector(HttpTransport transport) throws IOException {
+		this.transport = transport;
+		this.selector = Selector.open();
+		setName("Idle Connection Selector");
+		setDaemon(true);
+	}
+
+	/**
+	 * Hands an idle connection over to the selector thread. May be called from any thread.
+	 */
+	public void park(HttpServerHandler handler) {
+		if (closed) {
+			handler.closeParked();
+			return;
+		}
+		toRegister.add(handler);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		List<HttpServerHandler> readable = new ArrayList<HttpServerHandler>();
+		long lastCheck = System.currentTimeMillis();
+		try {
+			while (!closed) {
+				selector.select(CHECK_INTERVAL);
+				registerParkedConnections();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					HttpServerHandler handler = (HttpServerHandler) key.attachment();
+					key.cancel();
+					unpark(handler);
+					readable.add(handler);
+				}
+
+				if (!readable.isEmpty()) {
+					// deregister the cancelled keys, so that the channels may be switched back to blocking mode
+					selector.selectNow();
+					for (HttpServerHandler handler : readable)
+						dispatch(handler);
+					readable.clear();
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastCheck >= CHECK_INTERVAL) {
+					closeTimedOutConnections(now);
+					lastCheck = now;
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// closed concurrently
+		} catch (IOException e) {
+			log.error("Idle connection selector failed.", e);
+		} finally {
+			closeAllParkedConnections();
+		}
+	}
+
+	private void registerParkedConnections() {
+		HttpServerHandler handler;
+		while ((handler = toRegister.poll()) != null) {
+			SocketChannel channel = handler.getSourceSocket().getChannel();
+			try {
+				channel.configureBlocking(false);
+				parked.put(handler, channel.register(selector, SelectionKey.OP_READ, handler));
+				parkedSince.put(handler, System.currentTimeMillis());
+			} catch (IOException e) {
+				handler.closeParked();
+			} catch (CancelledKeyException e) {
+				handler.closeParked();
+			}
+		}
+	}
+
+	private void dispatch(HttpServerHandler handler) {
+		try {
+			handler.getSourceSocket().getChannel().configureBlocking(true);
+			transport.getExecutorService().execute(handler);
+		} catch (IOException e) {
+			handler.closeParked();
+		} catch (RejectedExecutionException e) {
+			log.error("HttpServerHandler execution rejected. Might be due to a proxies.xml hot deployment in progress or a low"
+					+ " value for <transport maxThreadPoolSize=\"...\">.");
+			handler.closeParked();
+		}
+	}
+
+	private void closeTimedOutConnections(long now) {
+		int timeout = transport.getSocketTimeout();
+		List<HttpServerHandler> remove = new ArrayList<HttpServerHandler>();
+		for (Map.Entry<HttpServerHandler, Long> e : parkedSince.entrySet()) {
+			HttpServerHandler handler = e.getKey();
+			// connections closed by HttpEndpointListener.closeConnections() have to be cleaned up as well
+			if (!handler.getSourceSocket().getChannel().isOpen() || (timeout > 0 && now - e.getValue() > timeout))
+				remove.add(handler);
+		}
+		for (HttpServerHandler handler : remove) {
+			parked.get(handler).cancel();
+			unpark(handler);
+			log.debug("Closing idle connection.");
+			handler.closeParked();
+		}
+	}
+
+	private void unpark(HttpServerHandler handler) {
+		parked.remove(handler);
+		parkedSince.remove(handler);
+	}
+
+	private void closeAllParkedConnections() {
+		for (HttpServerHandler handler : new ArrayList<HttpServerHandler>(parked.keySet())) {
+			unpark(handler);
+			handler.closeParked();
+		}
+		HttpServerHandler handler;
+		while ((handler = toRegister.poll()) != null)
+			handler.closeParked();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.debug("Closing selector.", e);
+		}
+	}
+
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,36 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+/**
+ * Forwards the data of one direction of a connection which is not handled as HTTP anymore (for example, after a
+ * protocol upgrade). Running pumps are listed by {@link StreamPump.StreamPumpStats}.
+ */
+public interface Pump {
+
+	String getName();
+
+	String getServiceProxyName();
+
+	long getTransferredBytes();
+
+	long getCreationTime();
+
+	/**
+	 * Stops forwarding and closes the connections.
+	 */
+	void close();
+
+}
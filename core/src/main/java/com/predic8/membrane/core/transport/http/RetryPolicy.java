@@ -0,0 +1,147 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.transport.http.client.RetryConfiguration;
+
+/**
+ * Decides whether a failed call of an {@link HttpClient} may be retried, and how long to wait before the retry.
+ *
+ * Retries are limited by a budget: Every request adds {@link RetryConfiguration#getBudgetPercent()}/100 of a retry
+ * to the budget, and {@link RetryConfiguration#getMinRetriesPerSecond()} retries are added per second. Every retry
+ * takes one from the budget. The budget can hold at most 10 seconds worth of minimum retries (but at least 100
+ * retries), so that it is quickly used up during an outage.
+ *
+ * Instances are thread-safe.
+ */
+public class RetryPolicy {
+
+	/**
+	 * The budget is kept in thousandths of a retry.
+	 */
+	private static final long RETRY = 1000;
+
+	private final RetryConfiguration configuration;
+	private final long maxBalance;
+	private final AtomicLong balance;
+	private final AtomicLong lastRefill = new AtomicLong(System.currentTimeMillis());
+
+	private final AtomicLong attempted = new AtomicLong();
+	private final AtomicLong suppressedByBudget = new AtomicLong();
+	private final AtomicLong suppressedNonIdempotent = new AtomicLong();
+
+	public RetryPolicy(RetryConfiguration configuration) {
+		this.configuration = configuration;
+		maxBalance = RETRY * Math.max(100, 10L * configuration.getMinRetriesPerSecond());
+		balance = new AtomicLong(RETRY * configuration.getMinRetriesPerSecond());
+	}
+
+	/**
+	 * Called once per call of the client (not per try).
+	 */
+	public void requested() {
+		deposit(RETRY * configuration.getBudgetPercent() / 100);
+	}
+
+	/**
+	 * Checks whether the request may be retried and, if so, takes the retry from the budget.
+	 *
+	 * @param safe whether the request did not reach the server (for example, because the connection could not be
+	 *            established) or the user explicitly asked for the retry (failover on 5XX responses). Otherwise, only
+	 *            requests with idempotent methods are retried.
+	 */
+	public boolean allowRetry(Request request, boolean safe) {
+		if (!safe && !configuration.isRetryNonIdempotent() && !isIdempotent(request)) {
+			suppressedNonIdempotent.incrementAndGet();
+			return false;
+		}
+		refill();
+		while (true) {
+			long b = balance.get();
+			if (b < RETRY) {
+				suppressedByBudget.incrementAndGet();
+				return false;
+			}
+			if (balance.compareAndSet(b, b - RETRY)) {
+				attempted.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param retry the number of the retry to the same destination, starting at 1
+	 * @return the time in milliseconds to wait before the retry: exponential backoff with jitter
+	 */
+	public long getBackoff(int retry) {
+		long backoff = Math.min(configuration.getMaxBackoff(), (long) configuration.getInitialBackoff() << Math.min(retry - 1, 30));
+		if (backoff <= 0)
+			return 0;
+		return backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	public static boolean isIdempotent(Request request) {
+		String method = request.getMethod();
+		return Request.METHOD_GET.equals(method) || Request.METHOD_HEAD.equals(method)
+				|| Request.METHOD_PUT.equals(method) || Request.METHOD_DELETE.equals(method)
+				|| Request.METHOD_OPTIONS.equals(method) || Request.METHOD_TRACE.equals(method);
+	}
+
+	private void refill() {
+		long now = System.currentTimeMillis();
+		long last = lastRefill.get();
+		long elapsed = now - last;
+		// the budget is refilled by the thread which moves lastRefill forward
+		if (elapsed > 0 && lastRefill.compareAndSet(last, now))
+			deposit(elapsed * RETRY * configuration.getMinRetriesPerSecond() / 1000);
+	}
+
+	private void deposit(long amount) {
+		if (amount <= 0)
+			return;
+		while (true) {
+			long b = balance.get();
+			long n = Math.min(maxBalance, b + amount);
+			if (n <= b || balance.compareAndSet(b, n))
+				return;
+		}
+	}
+
+	/**
+	 * @return the number of retries attempted so far
+	 */
+	public long getAttempted() {
+		return attempted.get();
+	}
+
+	/**
+	 * @return the number of retries not attempted so far, because the budget was exhausted
+	 */
+	public long getSuppressedByBudget() {
+		return suppressedByBudget.get();
+	}
+
+	/**
+	 * @return the number of retries not attempted so far, because the request method is not idempotent
+	 */
+	public long getSuppressedNonIdempotent() {
+		return suppressedNonIdempotent.get();
+	}
+
+}
@@ -19,38 +19,41 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.util.BufferPool;
 
 import javax.net.ssl.SSLException;
 
-public class StreamPump implements Runnable {
+public class StreamPump implements Runnable, Pump {
 
 	private static Log log = LogFactory.getLog(StreamPump.class.getName());
 
 	public static class StreamPumpStats {
-		private static ArrayList<StreamPump> pumps = new ArrayList<StreamPump>();
+		private final Set<Pump> pumps = Collections.newSetFromMap(new ConcurrentHashMap<Pump, Boolean>());
 
-		public synchronized int getRunning() {
+		public int getRunning() {
 			return pumps.size();
 		}
-		public synchronized void registerPump(StreamPump pump) {
+		public void registerPump(Pump pump) {
 			pumps.add(pump);
 		}
-		public synchronized void unregisterPump(StreamPump pump) {
+		public void unregisterPump(Pump pump) {
 			pumps.remove(pump);
 		}
-		public synchronized List<StreamPump> getStreamPumps() {
-			return new ArrayList<StreamPump>(pumps);
+		public List<Pump> getStreamPumps() {
+			return new ArrayList<Pump>(pumps);
 		}
-		public synchronized void closeAllStreamPumps() {
-			for (StreamPump p : pumps) {
+		public void closeAllStreamPumps() {
+			for (Pump p : pumps) {
 				p.close();
 			}
 		}
@@ -61,7 +64,7 @@ public class StreamPump implements Runnable {
 	private final OutputStream out;
 	private StreamPumpStats stats;
 	// statistical members
-	private AtomicLong bytesTransferred;
+	private volatile long bytesTransferred; // only written by the thread running the pump
 	private String pumpName;
 	private final long creationTime;
 	private Rule rule;
@@ -70,7 +73,6 @@ public class StreamPump implements Runnable {
 		this.in = in;
 		this.out = out;
 		this.stats = stats;
-		this.bytesTransferred = new AtomicLong();
 		this.pumpName = name;
 		this.creationTime = System.currentTimeMillis();
 		this.rule = rule;
@@ -78,16 +80,18 @@ public class StreamPump implements Runnable {
 
 	@Override
 	public void run() {
-		byte[] buffer = new byte[8192];
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = pool.acquire(8192);
 		int length = 0;
 		if (stats != null)
 			stats.registerPump(this);
 		try {
-			while ((length = in.read(buffer)) > 0) {
+			while ((length = in.read(buffer, 0, 8192)) > 0) {
 				out.write(buffer, 0, length);
-				out.flush();
-				if (stats != null)
-					bytesTransferred.addAndGet(length);
+				// only flush once the data available has been forwarded
+				if (in.available() == 0)
+					out.flush();
+				bytesTransferred += length;
 			}
 		} catch (SocketTimeoutException e) {
 			// do nothing
@@ -105,22 +109,28 @@ public class StreamPump implements Runnable {
 			}
 			if (stats != null)
 				stats.unregisterPump(this);
+			pool.release(buffer);
 		}
 	}
 
+	@Override
 	public String getName() {
 		return this.pumpName;
 	}
+	@Override
 	public String getServiceProxyName() {
 		return rule.getName();
 	}
-	public synchronized long getTransferredBytes() {
-		return bytesTransferred.get();
+	@Override
+	public long getTransferredBytes() {
+		return bytesTransferred;
 	}
-	public synchronized long getCreationTime() {
+	@Override
+	public long getCreationTime() {
 		return creationTime;
 	}
 
+	@Override
 	public synchronized void close() {
 		try {
 			log.debug("Closing Stream Pump '" + pumpName + "'");
@@ -0,0 +1,472 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.HttpHeadInputStream;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.transport.http.StreamPump.StreamPumpStats;
+import com.predic8.membrane.core.util.BufferPool;
+
+/**
+ * Forwards the data of upgraded connections (WebSocket, TCP and CONNECT tunnels) using a few selector threads,
+ * instead of two blocking {@link StreamPump}s (and threads) per tunnel.
+ *
+ * Each tunnel is assigned to one of the engine's I/O threads. Data is read into the thread's direct buffer and
+ * written to the other side right away: Only if the other side cannot take all of it, the rest is kept in a buffer
+ * from the {@link BufferPool} and reading from this side is suspended until the rest has been written. An idle
+ * tunnel therefore does not hold any buffer.
+ *
+ * When one side shuts down its output, the output of the other side is shut down, once all data has been
+ * forwarded. The tunnel is closed when both directions have been shut down or on the first error.
+ *
+ * Only plain connections based on {@link SocketChannel}s can be forwarded (see
+ * {@link #canForward(Socket, InputStream, Socket, InputStream)}).
+ */
+public class TunnelEngine {
+
+	private static final Log log = LogFactory.getLog(TunnelEngine.class.getName());
+
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * The maximum number of reads per readiness event, so that a fast connection cannot starve the other tunnels
+	 * of the same I/O thread.
+	 */
+	private static final int MAX_READS = 4;
+
+	private final IOThread[] threads;
+	private final AtomicInteger next = new AtomicInteger();
+	private final StreamPumpStats stats;
+
+	public TunnelEngine(int threadCount, StreamPumpStats stats) throws IOException {
+		this.stats = stats;
+		threads = new IOThread[threadCount];
+		try {
+			for (int i = 0; i < threadCount; i++)
+				threads[i] = new IOThread("Tunnel I/O Thread #" + (i + 1));
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		for (IOThread thread : threads)
+			thread.start();
+	}
+
+	/**
+	 * @return whether the tunnel between the two connections can be forwarded by the engine: Both sockets have to
+	 *         be backed by a {@link SocketChannel} and read through an {@link HttpHeadInputStream}.
+	 */
+	public static boolean canForward(Socket a, InputStream aIn, Socket b, InputStream bIn) {
+		return a.getChannel() != null && b.getChannel() != null
+				&& aIn instanceof HttpHeadInputStream && bIn instanceof HttpHeadInputStream;
+	}
+
+	/**
+	 * Hands the two connections over to an I/O thread. The sockets are switched to non-blocking mode: Their streams
+	 * must not be used anymore, the output streams have to be flushed before. Data already buffered by the input
+	 * streams is forwarded first.
+	 *
+	 * @param onClose
+	 *            called after the tunnel has been closed, to clean up the connections
+	 */
+	public void forward(Socket a, HttpHeadInputStream aIn, Socket b, HttpHeadInputStream bIn, String onwardName,
+			String backwardName, Rule rule, Runnable onClose) {
+		Tunnel tunnel = new Tunnel(a.getChannel(), b.getChannel(), onClose);
+		tunnel.onward = new Direction(tunnel, tunnel.a, tunnel.b, onwardName, rule);
+		tunnel.backward = new Direction(tunnel, tunnel.b, tunnel.a, backwardName, rule);
+		try {
+			tunnel.onward.pending = drain(aIn);
+			tunnel.backward.pending = drain(bIn);
+			tunnel.a.channel.configureBlocking(false);
+			tunnel.b.channel.configureBlocking(false);
+		} catch (IOException e) {
+			log.debug("Could not set up tunnel.", e);
+			tunnel.close();
+			return;
+		}
+		if (stats != null) {
+			stats.registerPump(tunnel.onward);
+			stats.registerPump(tunnel.backward);
+		}
+		threads[(next.getAndIncrement() & Integer.MAX_VALUE) % threads.length].register(tunnel);
+	}
+
+	private static ByteBuffer drain(HttpHeadInputStream in) throws IOException {
+		int length = in.getBufferedLength();
+		if (length == 0)
+			return null;
+		byte[] buffer = BufferPool.getInstance().acquire(length);
+		int read = 0;
+		while (read < length)
+			read += in.read(buffer, read, length - read);
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	/**
+	 * @return the number of open tunnels
+	 */
+	public int getTunnelCount() {
+		int count = 0;
+		for (IOThread thread : threads)
+			if (thread != null)
+				count += thread.tunnelCount;
+		return count;
+	}
+
+	public int getThreadCount() {
+		return threads.length;
+	}
+
+	/**
+	 * Closes all tunnels and stops the I/O threads.
+	 */
+	public void close() {
+		for (IOThread thread : threads)
+			if (thread != null)
+				thread.close();
+	}
+
+	private class IOThread extends Thread {
+
+		private final Selector selector;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final ConcurrentLinkedQueue<Tunnel> toRegister = new ConcurrentLinkedQueue<Tunnel>();
+		private final ConcurrentLinkedQueue<Tunnel> toClose = new ConcurrentLinkedQueue<Tunnel>();
+
+		// only accessed by this thread
+		private final Set<Tunnel> tunnels = new HashSet<Tunnel>();
+
+		private volatile int tunnelCount;
+		private volatile boolean closed;
+
+		IOThread(String name) throws IOException {
+			super(name);
+			selector = Selector.open();
+			setDaemon(true);
+		}
+
+		void register(Tunnel tunnel) {
+			tunnel.thread = this;
+			toRegister.add(tunnel);
+			selector.wakeup();
+			if (closed && toRegister.remove(tunnel))
+				tunnel.close();
+		}
+
+		/**
+		 * Closes the tunnel on this thread. May be called from any thread.
+		 */
+		void requestClose(Tunnel tunnel) {
+			toClose.add(tunnel);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					registerTunnels();
+					closeRequestedTunnels();
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						Side side = (Side) key.attachment();
+						try {
+							if (key.isWritable())
+								side.out.writePending();
+							if (key.isValid() && key.isReadable())
+								side.in.read(buffer);
+						} catch (IOException e) {
+							log.debug("Tunnel closed: " + e.getMessage());
+							close(side.tunnel);
+						} catch (CancelledKeyException e) {
+							close(side.tunnel);
+						}
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				// closed concurrently
+			} catch (IOException e) {
+				log.error("Tunnel I/O thread failed.", e);
+			} finally {
+				for (Tunnel tunnel : new ArrayList<Tunnel>(tunnels))
+					close(tunnel);
+				Tunnel tunnel;
+				while ((tunnel = toRegister.poll()) != null)
+					tunnel.close();
+				try {
+					selector.close();
+				} catch (IOException e) {
+					log.debug("Closing selector.", e);
+				}
+			}
+		}
+
+		private void registerTunnels() {
+			Tunnel tunnel;
+			while ((tunnel = toRegister.poll()) != null) {
+				try {
+					tunnel.a.key = tunnel.a.channel.register(selector, 0, tunnel.a);
+					tunnel.b.key = tunnel.b.channel.register(selector, 0, tunnel.b);
+				} catch (IOException e) {
+					tunnel.close();
+					continue;
+				}
+				tunnels.add(tunnel);
+				tunnelCount = tunnels.size();
+				tunnel.a.updateInterest();
+				tunnel.b.updateInterest();
+			}
+		}
+
+		private void closeRequestedTunnels() {
+			Tunnel tunnel;
+			while ((tunnel = toClose.poll()) != null)
+				close(tunnel);
+		}
+
+		private void close(Tunnel tunnel) {
+			if (tunnels.remove(tunnel))
+				tunnelCount = tunnels.size();
+			tunnel.close();
+		}
+
+		void close() {
+			closed = true;
+			selector.wakeup();
+		}
+	}
+
+	private class Tunnel {
+		final Side a, b;
+		final Runnable onClose;
+		Direction onward, backward;
+		volatile IOThread thread;
+		private boolean closed;
+
+		Tunnel(SocketChannel a, SocketChannel b, Runnable onClose) {
+			this.a = new Side(this, a);
+			this.b = new Side(this, b);
+			this.onClose = onClose;
+		}
+
+		void checkDone() {
+			if (onward.isDone() && backward.isDone())
+				thread.close(this);
+		}
+
+		/**
+		 * Closes both connections. Only called by the tunnel's I/O thread (or before the tunnel has been registered).
+		 */
+		void close() {
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+			}
+			a.close();
+			b.close();
+			onward.releasePending();
+			backward.releasePending();
+			if (stats != null) {
+				stats.unregisterPump(onward);
+				stats.unregisterPump(backward);
+			}
+			try {
+				onClose.run();
+			} catch (RuntimeException e) {
+				log.error("Cleaning up tunnel failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * One of the two connections of a tunnel.
+	 */
+	private static class Side {
+		final Tunnel tunnel;
+		final SocketChannel channel;
+		SelectionKey key;
+		Direction in; // reads from this side
+		Direction out; // writes to this side
+
+		Side(Tunnel tunnel, SocketChannel channel) {
+			this.tunnel = tunnel;
+			this.channel = channel;
+		}
+
+		void updateInterest() {
+			if (key == null || !key.isValid())
+				return;
+			int ops = 0;
+			if (!in.eof && in.pending == null)
+				ops |= SelectionKey.OP_READ;
+			if (out.pending != null)
+				ops |= SelectionKey.OP_WRITE;
+			key.interestOps(ops);
+		}
+
+		void close() {
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("Closing channel.", e);
+			}
+		}
+	}
+
+	/**
+	 * Forwards the data of one direction of a tunnel. Shown like a {@link StreamPump}.
+	 */
+	private class Direction implements Pump {
+		final Tunnel tunnel;
+		final Side from, to;
+		ByteBuffer pending; // data which could not be written yet
+		boolean eof;
+		boolean shutdown;
+
+		private final String name;
+		private final Rule rule;
+		private final long creationTime = System.currentTimeMillis();
+		private volatile long bytesTransferred; // only written by the I/O thread
+
+		Direction(Tunnel tunnel, Side from, Side to, String name, Rule rule) {
+			this.name = name;
+			this.rule = rule;
+			this.tunnel = tunnel;
+			this.from = from;
+			this.to = to;
+			from.in = this;
+			to.out = this;
+		}
+
+		void read(ByteBuffer buffer) throws IOException {
+			for (int i = 0; i < MAX_READS; i++) {
+				buffer.clear();
+				int length = from.channel.read(buffer);
+				if (length == -1) {
+					eof = true;
+					if (pending == null)
+						shutdownOutput();
+					from.updateInterest();
+					tunnel.checkDone();
+					return;
+				}
+				if (length == 0)
+					return;
+				bytesTransferred += length;
+				buffer.flip();
+				to.channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					int remaining = buffer.remaining();
+					pending = ByteBuffer.wrap(BufferPool.getInstance().acquire(remaining), 0, remaining);
+					buffer.get(pending.array(), 0, remaining);
+					from.updateInterest();
+					to.updateInterest();
+					return;
+				}
+				if (length < buffer.capacity())
+					return;
+			}
+		}
+
+		void writePending() throws IOException {
+			if (pending == null)
+				return;
+			to.channel.write(pending);
+			if (pending.hasRemaining())
+				return;
+			releasePending();
+			to.updateInterest();
+			if (eof) {
+				shutdownOutput();
+				tunnel.checkDone();
+			} else {
+				from.updateInterest();
+			}
+		}
+
+		private void shutdownOutput() throws IOException {
+			shutdown = true;
+			to.channel.socket().shutdownOutput();
+		}
+
+		boolean isDone() {
+			return shutdown;
+		}
+
+		void releasePending() {
+			if (pending != null) {
+				BufferPool.getInstance().release(pending.array());
+				pending = null;
+			}
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getServiceProxyName() {
+			return rule.getName();
+		}
+
+		@Override
+		public long getTransferredBytes() {
+			return bytesTransferred;
+		}
+
+		@Override
+		public long getCreationTime() {
+			return creationTime;
+		}
+
+		@Override
+		public void close() {
+			log.debug("Closing tunnel '" + getName() + "'");
+			IOThread thread = tunnel.thread;
+			if (thread != null)
+				thread.requestClose(tunnel);
+			else
+				tunnel.close();
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of newer JDKs.
+ *
+ * Membrane is compiled for Java 8, so the API is looked up via reflection. On JDKs without virtual threads,
+ * {@link #isSupported()} returns false.
+ */
+public class VirtualThreads {
+
+	private static final Method ofVirtual, name, factory, newThreadPerTaskExecutor;
+
+	static {
+		Method o = null, n = null, f = null, e = null;
+		try {
+			o = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			n = builder.getMethod("name", String.class);
+			f = builder.getMethod("factory");
+			e = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (Exception ex) {
+			o = null;
+		}
+		ofVirtual = o;
+		name = n;
+		factory = f;
+		newThreadPerTaskExecutor = e;
+	}
+
+	public static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * @return a factory creating virtual threads with the given name
+	 */
+	public static ThreadFactory newThreadFactory(String threadName) {
+		if (!isSupported())
+			throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.");
+		try {
+			return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(null), threadName));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return an executor starting a new virtual thread for each task
+	 */
+	public static ExecutorService newExecutor(String threadName) {
+		try {
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, newThreadFactory(threadName));
+		} catch (UnsupportedOperationException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http.client;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description Enables a circuit breaker per target (host:port). If too many of the recent calls to a target failed
+ *              or were slow, the circuit opens: calls to the target fail immediately (with "503 Service
+ *              Unavailable", if no other destination is available) for openDuration milliseconds. Then a few probe
+ *              calls are let through (half-open state): if they succeed, the circuit closes again, else it opens
+ *              again.
+ *              A call fails, if no response could be received or the response has a 5XX status code.
+ */
+@MCElement(name="circuitBreaker", topLevel=false)
+public class CircuitBreakerConfiguration {
+
+	private int windowSize = 20;
+	private int minCalls = 10;
+	private int failureRateThreshold = 50;
+	private int slowCallDuration = 0;
+	private int slowCallRateThreshold = 100;
+	private int openDuration = 10000;
+	private int halfOpenCalls = 3;
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @description The number of recent calls the failure and slow call rates are computed from.
+	 * @default 20
+	 */
+	@MCAttribute
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public int getMinCalls() {
+		return minCalls;
+	}
+
+	/**
+	 * @description The minimum number of recent calls needed, before the circuit may open.
+	 * @default 10
+	 */
+	@MCAttribute
+	public void setMinCalls(int minCalls) {
+		this.minCalls = minCalls;
+	}
+
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * @description The circuit opens, if at least this percentage of the recent calls failed.
+	 * @default 50
+	 */
+	@MCAttribute
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public int getSlowCallDuration() {
+		return slowCallDuration;
+	}
+
+	/**
+	 * @description Calls taking longer than this number of milliseconds (until the response header has been
+	 *              received) are slow. 0 disables slow call detection.
+	 * @default 0
+	 * @example 5000
+	 */
+	@MCAttribute
+	public void setSlowCallDuration(int slowCallDuration) {
+		this.slowCallDuration = slowCallDuration;
+	}
+
+	public int getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+
+	/**
+	 * @description The circuit opens, if at least this percentage of the recent calls was slow.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public int getOpenDuration() {
+		return openDuration;
+	}
+
+	/**
+	 * @description Time in milliseconds the circuit stays open, before probe calls are let through.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setOpenDuration(int openDuration) {
+		this.openDuration = openDuration;
+	}
+
+	public int getHalfOpenCalls() {
+		return halfOpenCalls;
+	}
+
+	/**
+	 * @description The number of probe calls let through in the half-open state. If all of them succeed (and are not
+	 *              slow), the circuit closes.
+	 * @default 3
+	 */
+	@MCAttribute
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		this.halfOpenCalls = halfOpenCalls;
+	}
+}
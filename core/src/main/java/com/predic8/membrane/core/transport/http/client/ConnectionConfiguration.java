@@ -22,6 +22,10 @@ public class ConnectionConfiguration {
 	private long keepAliveTimeout = 4000;
 	private int connectTimeout = 10000;
 	private String localAddr;
+	private int maxConnectionsPerHost;
+	private int maxTotalConnections;
+	private long connectionRequestTimeout;
+	private boolean http2;
 
 	public long getKeepAliveTimeout() {
 		return keepAliveTimeout;
@@ -64,5 +68,66 @@ public class ConnectionConfiguration {
 		this.localAddr = localAddr;
 	}
 
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * @description Maximum number of open connections (idle or in use) to one host:port. 0 means no limit.
+	 * @default 0
+	 * @example 100
+	 */
+	@MCAttribute
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	/**
+	 * @description Maximum number of open connections (idle or in use) to all hosts. 0 means no limit.
+	 * @default 0
+	 * @example 1000
+	 */
+	@MCAttribute
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	public long getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	/**
+	 * @description Time in milliseconds to wait for a connection, when <i>maxConnectionsPerHost</i> or
+	 *              <i>maxTotalConnections</i> has been reached. 0 means that the attempt fails immediately.
+	 * @default 0
+	 * @example 5000
+	 */
+	@MCAttribute
+	public void setConnectionRequestTimeout(long connectionRequestTimeout) {
+		this.connectionRequestTimeout = connectionRequestTimeout;
+	}
+
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	/**
+	 * @description Whether to use HTTP/2 for requests to the backends, multiplexing many concurrent exchanges over
+	 *              few connections per host:port. For <i>https</i> targets, HTTP/2 is negotiated via ALPN (Java 9+ or
+	 *              8u252+), falling back to HTTP/1.1. <i>http</i> targets have to support HTTP/2 with prior
+	 *              knowledge (h2c). CONNECT, protocol upgrades (like WebSocket), HTTP/1.0 requests, requests via a
+	 *              proxy and NTLM authenticated requests always use HTTP/1.1. The <i>keepAliveTimeout</i> determines
+	 *              how long an HTTP/2 connection without streams is kept open.
+	 * @default false
+	 */
+	@MCAttribute
+	public void setHttp2(boolean http2) {
+		this.http2 = http2;
+	}
+
 
 }
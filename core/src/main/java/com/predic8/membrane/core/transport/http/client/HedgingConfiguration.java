@@ -0,0 +1,77 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http.client;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description Enables request hedging: If the exchange has more than one destination (for example, when using a
+ *              load balancer) and the backend does not respond within the hedging delay, the request is sent to the
+ *              next destination as well. The first response is used, the others are discarded. Only requests with
+ *              idempotent methods (GET, HEAD, PUT, DELETE, OPTIONS, TRACE) are hedged. Every hedged request counts
+ *              as a retry (see the retry budget).
+ */
+@MCElement(name="hedging", topLevel=false)
+public class HedgingConfiguration {
+
+	private int delay = 100;
+	private int percentile = 95;
+	private int maxThreads = 100;
+
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * @description Time in milliseconds to wait for a response, before the request is sent to the next destination.
+	 *              If percentile is set, this value is only used until enough response times of the destination have
+	 *              been observed.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setDelay(int delay) {
+		this.delay = delay;
+	}
+
+	public int getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @description The hedging delay is set to this percentile of the response times (time until the response header
+	 *              has been received) of the last 100 requests to the destination. 0 means that the fixed delay is
+	 *              always used.
+	 * @default 95
+	 */
+	@MCAttribute
+	public void setPercentile(int percentile) {
+		this.percentile = percentile;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * @description The maximum number of hedged requests running at the same time (over all destinations of the
+	 *              client). If reached, requests are not hedged until one of them has completed.
+	 * @default 100
+	 */
+	@MCAttribute
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+}
@@ -26,6 +26,9 @@ public class HttpClientConfiguration {
 	private ConnectionConfiguration connection = new ConnectionConfiguration();
 	private ProxyConfiguration proxy;
 	private AuthenticationConfiguration authentication;
+	private RetryConfiguration retries = new RetryConfiguration();
+	private HedgingConfiguration hedging;
+	private CircuitBreakerConfiguration circuitBreaker;
 
 	public ConnectionConfiguration getConnection() {
 		return connection;
@@ -56,6 +59,41 @@ public class HttpClientConfiguration {
 		this.authentication = authentication;
 	}
 
+	public RetryConfiguration getRetries() {
+		return retries;
+	}
+
+	@MCChildElement(order=4)
+	public void setRetries(RetryConfiguration retries) {
+		if (retries == null)
+			throw new InvalidParameterException("'retries' parameter cannot be null.");
+		this.retries = retries;
+	}
+
+	public HedgingConfiguration getHedging() {
+		return hedging;
+	}
+
+	/**
+	 * @description Enables request hedging. Disabled, if not set.
+	 */
+	@MCChildElement(order=5)
+	public void setHedging(HedgingConfiguration hedging) {
+		this.hedging = hedging;
+	}
+
+	public CircuitBreakerConfiguration getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @description Enables a circuit breaker per target. Disabled, if not set.
+	 */
+	@MCChildElement(order=6)
+	public void setCircuitBreaker(CircuitBreakerConfiguration circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
 	public int getMaxRetries() {
 		return maxRetries;
 	}
@@ -0,0 +1,104 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http.client;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+
+/**
+ * @description Limits the retries of failed calls to the backend, so that retries do not amplify the load on
+ *              backends which are already overloaded.
+ */
+@MCElement(name="retries", topLevel=false)
+public class RetryConfiguration {
+
+	private int budgetPercent = 20;
+	private int minRetriesPerSecond = 10;
+	private int initialBackoff = 250;
+	private int maxBackoff = 4000;
+	private boolean retryNonIdempotent;
+
+	public int getBudgetPercent() {
+		return budgetPercent;
+	}
+
+	/**
+	 * @description The number of retries allowed, in percent of the number of requests (in addition to
+	 *              minRetriesPerSecond). Retries exceeding the budget are not attempted: the call fails immediately.
+	 * @default 20
+	 */
+	@MCAttribute
+	public void setBudgetPercent(int budgetPercent) {
+		this.budgetPercent = budgetPercent;
+	}
+
+	public int getMinRetriesPerSecond() {
+		return minRetriesPerSecond;
+	}
+
+	/**
+	 * @description The number of retries per second always allowed, so that clients sending few requests can retry
+	 *              as well.
+	 * @default 10
+	 */
+	@MCAttribute
+	public void setMinRetriesPerSecond(int minRetriesPerSecond) {
+		this.minRetriesPerSecond = minRetriesPerSecond;
+	}
+
+	public int getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	/**
+	 * @description Time in milliseconds to wait before the first retry to the same destination. The time doubles
+	 *              with each further retry (up to maxBackoff). A random jitter of up to half the time is subtracted,
+	 *              so that retries of concurrent requests spread out.
+	 *              Between calls to different destinations, no time is waited.
+	 * @default 250
+	 */
+	@MCAttribute
+	public void setInitialBackoff(int initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	public int getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	/**
+	 * @description Maximum time in milliseconds to wait before a retry.
+	 * @default 4000
+	 */
+	@MCAttribute
+	public void setMaxBackoff(int maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	public boolean isRetryNonIdempotent() {
+		return retryNonIdempotent;
+	}
+
+	/**
+	 * @description Whether requests with non-idempotent methods (like POST) are retried after the request might have
+	 *              reached the server. If false, they are only retried, if the connection could not be established.
+	 *              (Failing over on 5XX responses, if enabled on the httpClient interceptor, is not affected.)
+	 * @default false
+	 */
+	@MCAttribute
+	public void setRetryNonIdempotent(boolean retryNonIdempotent) {
+		this.retryNonIdempotent = retryNonIdempotent;
+	}
+}
@@ -0,0 +1,110 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads HTTP/2 frames (see RFC 7540, section 4.1). Only used by the thread reading from the connection.
+ *
+ * A {@link java.net.SocketTimeoutException} thrown by the underlying stream does not lose data: The next call to
+ * {@link #next()} continues with the partially read frame.
+ */
+public class FrameReader {
+
+	private static final int HEADER_LENGTH = 9;
+
+	private final InputStream in;
+	private final int maxFrameSize;
+
+	private final byte[] header = new byte[HEADER_LENGTH];
+	private byte[] payload;
+	private int headerRead, payloadRead;
+
+	private int length, type, flags, streamId;
+
+	/**
+	 * @param maxFrameSize the SETTINGS_MAX_FRAME_SIZE sent to the peer
+	 */
+	public FrameReader(InputStream in, int maxFrameSize) {
+		this.in = in;
+		this.maxFrameSize = maxFrameSize;
+		this.payload = new byte[Math.min(maxFrameSize, Http2.DEFAULT_MAX_FRAME_SIZE)];
+	}
+
+	/**
+	 * Reads the next frame. The payload is only valid until the next call.
+	 *
+	 * @return false, if the stream ended cleanly before the next frame
+	 * @throws Http2Exception if the frame exceeds the maximum frame size
+	 */
+	public boolean next() throws IOException {
+		while (headerRead < HEADER_LENGTH) {
+			int n = in.read(header, headerRead, HEADER_LENGTH - headerRead);
+			if (n == -1) {
+				if (headerRead == 0)
+					return false;
+				throw new EOFException("Connection closed within HTTP/2 frame header.");
+			}
+			headerRead += n;
+			if (headerRead == HEADER_LENGTH) {
+				length = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8 | (header[2] & 0xFF);
+				type = header[3] & 0xFF;
+				flags = header[4] & 0xFF;
+				streamId = ((header[5] & 0x7F) << 24 | (header[6] & 0xFF) << 16 | (header[7] & 0xFF) << 8 | (header[8] & 0xFF));
+				if (length > maxFrameSize)
+					throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds maximum frame size.");
+				if (length > payload.length)
+					payload = new byte[maxFrameSize];
+				payloadRead = 0;
+			}
+		}
+		while (payloadRead < length) {
+			int n = in.read(payload, payloadRead, length - payloadRead);
+			if (n == -1)
+				throw new EOFException("Connection closed within HTTP/2 frame.");
+			payloadRead += n;
+		}
+		headerRead = 0;
+		return true;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	public int getStreamId() {
+		return streamId;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+}
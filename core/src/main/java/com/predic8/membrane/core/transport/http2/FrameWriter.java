@@ -0,0 +1,160 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes HTTP/2 frames (see RFC 7540, section 4.1). Thread-safe: Each method writes its frames atomically, so that
+ * the frames of concurrent streams do not interleave within a header block.
+ *
+ * Each method flushes the underlying stream.
+ */
+public class FrameWriter {
+
+	private final OutputStream out;
+	private final HpackEncoder encoder = new HpackEncoder();
+	private final byte[] header = new byte[9];
+	private int maxFrameSize = Http2.DEFAULT_MAX_FRAME_SIZE;
+
+	public FrameWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Called when the peer changes SETTINGS_MAX_FRAME_SIZE.
+	 */
+	public synchronized void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	public synchronized int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/**
+	 * Called when the peer changes SETTINGS_HEADER_TABLE_SIZE.
+	 */
+	public synchronized void setMaxHeaderTableSize(int size) {
+		encoder.setMaxTableSize(size);
+	}
+
+	private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+		header[0] = (byte) (length >>> 16);
+		header[1] = (byte) (length >>> 8);
+		header[2] = (byte) length;
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		header[5] = (byte) ((streamId >>> 24) & 0x7F);
+		header[6] = (byte) (streamId >>> 16);
+		header[7] = (byte) (streamId >>> 8);
+		header[8] = (byte) streamId;
+		out.write(header);
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	public synchronized void writePreface() throws IOException {
+		out.write(Http2.PREFACE);
+	}
+
+	/**
+	 * @param settings pairs of setting identifier and value
+	 */
+	public synchronized void writeSettings(int... settings) throws IOException {
+		writeFrameHeader(settings.length * 3, Http2.SETTINGS, 0, 0);
+		for (int i = 0; i < settings.length; i += 2) {
+			out.write(settings[i] >>> 8);
+			out.write(settings[i]);
+			writeInt(settings[i + 1]);
+		}
+		out.flush();
+	}
+
+	public synchronized void writeSettingsAck() throws IOException {
+		writeFrameHeader(0, Http2.SETTINGS, Http2.FLAG_ACK, 0);
+		out.flush();
+	}
+
+	public synchronized void writePing(boolean ack, byte[] data, int offset) throws IOException {
+		writeFrameHeader(8, Http2.PING, ack ? Http2.FLAG_ACK : 0, 0);
+		out.write(data, offset, 8);
+		out.flush();
+	}
+
+	public synchronized void writeGoAway(int lastStreamId, int errorCode) throws IOException {
+		writeFrameHeader(8, Http2.GOAWAY, 0, 0);
+		writeInt(lastStreamId);
+		writeInt(errorCode);
+		out.flush();
+	}
+
+	public synchronized void writeRstStream(int streamId, int errorCode) throws IOException {
+		writeFrameHeader(4, Http2.RST_STREAM, 0, streamId);
+		writeInt(errorCode);
+		out.flush();
+	}
+
+	public synchronized void writeWindowUpdate(int streamId, int increment) throws IOException {
+		writeFrameHeader(4, Http2.WINDOW_UPDATE, 0, streamId);
+		writeInt(increment);
+		out.flush();
+	}
+
+	/**
+	 * Encodes the header fields and writes them as a HEADERS frame, followed by CONTINUATION frames if the header
+	 * block exceeds the maximum frame size.
+	 *
+	 * @param fields alternating lower-case names and values, pseudo-header fields first
+	 */
+	public synchronized void writeHeaders(int streamId, List<String> fields, boolean endStream) throws IOException {
+		encoder.reset();
+		for (int i = 0; i < fields.size(); i += 2)
+			encoder.encode(fields.get(i), fields.get(i + 1));
+		byte[] block = encoder.getBuffer();
+		int length = encoder.getLength();
+
+		int pos = 0;
+		int type = Http2.HEADERS;
+		int flags = endStream ? Http2.FLAG_END_STREAM : 0;
+		do {
+			int n = Math.min(length - pos, maxFrameSize);
+			boolean last = pos + n == length;
+			writeFrameHeader(n, type, last ? flags | Http2.FLAG_END_HEADERS : flags, streamId);
+			out.write(block, pos, n);
+			pos += n;
+			type = Http2.CONTINUATION;
+			flags = 0;
+		} while (pos < length);
+		out.flush();
+	}
+
+	/**
+	 * Writes a single DATA frame. The caller is responsible for flow control and the maximum frame size.
+	 */
+	public synchronized void writeData(int streamId, byte[] data, int offset, int length, boolean endStream) throws IOException {
+		writeFrameHeader(length, Http2.DATA, endStream ? Http2.FLAG_END_STREAM : 0, streamId);
+		out.write(data, offset, length);
+		out.flush();
+	}
+
+}
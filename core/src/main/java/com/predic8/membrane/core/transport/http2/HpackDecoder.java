@@ -0,0 +1,157 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.HeaderName;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541). One instance per connection and direction, as the dynamic table is shared
+ * by all header blocks received on a connection. Not thread-safe.
+ */
+public class HpackDecoder {
+
+	private final HpackTable table;
+	private final int maxTableSize;
+	private final int maxHeaderListSize;
+
+	// state while decoding a block
+	private byte[] buf;
+	private int pos, end;
+
+	/**
+	 * @param maxTableSize the SETTINGS_HEADER_TABLE_SIZE sent to the peer
+	 * @param maxHeaderListSize the maximum size of a decoded header list (see SETTINGS_MAX_HEADER_LIST_SIZE)
+	 */
+	public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+		this.table = new HpackTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+		this.maxHeaderListSize = maxHeaderListSize;
+	}
+
+	/**
+	 * Decodes a complete header block. Pseudo-header fields (like <tt>:path</tt>) are returned as normal fields.
+	 *
+	 * A block exceeding the maximum header list size is still fully decoded to keep the dynamic table in sync, before
+	 * a stream error is raised.
+	 *
+	 * @throws Http2Exception a connection error if the block is malformed, or a stream error if the header list is
+	 *             too large
+	 */
+	public List<HeaderField> decode(byte[] block, int offset, int length, int streamId) throws Http2Exception {
+		buf = block;
+		pos = offset;
+		end = offset + length;
+		try {
+			List<HeaderField> fields = new ArrayList<HeaderField>();
+			int listSize = 0;
+			boolean fieldSeen = false;
+			while (pos < end) {
+				int b = buf[pos] & 0xFF;
+				HpackTable.Entry entry;
+				if ((b & 0x80) != 0) {
+					entry = table.get(readInt(7));
+				} else if ((b & 0x40) != 0) {
+					entry = readLiteral(6);
+					table.add(entry);
+				} else if ((b & 0x20) != 0) {
+					if (fieldSeen)
+						throw new Http2Exception(Http2.COMPRESSION_ERROR, "Dynamic table size update after header field.");
+					int size = readInt(5);
+					if (size > maxTableSize)
+						throw new Http2Exception(Http2.COMPRESSION_ERROR, "Dynamic table size update exceeds limit.");
+					table.setMaxSize(size);
+					continue;
+				} else {
+					// literal header field without indexing or never indexed
+					entry = readLiteral(4);
+				}
+				fieldSeen = true;
+				listSize += entry.size;
+				if (listSize <= maxHeaderListSize)
+					fields.add(new HeaderField(entry.name, entry.value));
+			}
+			if (listSize > maxHeaderListSize)
+				throw new Http2Exception(streamId, Http2.REFUSED_STREAM, "Header list size exceeds " + maxHeaderListSize + " bytes.");
+			return fields;
+		} finally {
+			buf = null;
+		}
+	}
+
+	private HpackTable.Entry readLiteral(int prefixBits) throws Http2Exception {
+		int nameIndex = readInt(prefixBits);
+		HeaderName name;
+		if (nameIndex == 0) {
+			byte[] bytes = readString();
+			name = HeaderName.lookup(bytes, 0, bytes.length);
+			if (name == null)
+				name = new HeaderName(new String(bytes, Constants.ISO_8859_1_CHARSET));
+		} else {
+			name = table.get(nameIndex).name;
+		}
+		return new HpackTable.Entry(name, new String(readString(), Constants.ISO_8859_1_CHARSET));
+	}
+
+	private byte[] readString() throws Http2Exception {
+		if (pos >= end)
+			throw truncated();
+		boolean huffman = (buf[pos] & 0x80) != 0;
+		int length = readInt(7);
+		if (length > end - pos)
+			throw truncated();
+		int start = pos;
+		pos += length;
+		return huffman ? Huffman.decode(buf, start, length) : Arrays.copyOfRange(buf, start, start + length);
+	}
+
+	/**
+	 * Reads an integer with an N-bit prefix (see RFC 7541, section 5.1).
+	 */
+	private int readInt(int prefixBits) throws Http2Exception {
+		int mask = (1 << prefixBits) - 1;
+		int value = buf[pos++] & mask;
+		if (value < mask)
+			return value;
+		int shift = 0;
+		int b;
+		do {
+			if (pos >= end)
+				throw truncated();
+			if (shift > 21)
+				throw new Http2Exception(Http2.COMPRESSION_ERROR, "HPACK integer overflow.");
+			b = buf[pos++] & 0xFF;
+			value += (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		if (value < 0)
+			throw new Http2Exception(Http2.COMPRESSION_ERROR, "HPACK integer overflow.");
+		return value;
+	}
+
+	private Http2Exception truncated() {
+		return new Http2Exception(Http2.COMPRESSION_ERROR, "Truncated header block.");
+	}
+
+	HpackTable getTable() {
+		return table;
+	}
+
+}
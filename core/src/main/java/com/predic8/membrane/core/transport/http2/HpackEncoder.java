@@ -0,0 +1,130 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.util.Arrays;
+
+import com.predic8.membrane.core.Constants;
+
+/**
+ * Encodes HPACK header blocks (RFC 7541).
+ *
+ * The encoder never inserts into the dynamic table: Fields are either referenced from the static table or sent as
+ * literals (Huffman coded, if shorter). This keeps the encoder free of per-connection state, so that header blocks
+ * of concurrent streams may be encoded in any order, at the cost of a lower compression ratio.
+ *
+ * Not thread-safe.
+ */
+public class HpackEncoder {
+
+	private byte[] buf = new byte[256];
+	private int pos;
+
+	private int pendingTableSizeUpdate = -1;
+	private int maxTableSize = Http2.DEFAULT_HEADER_TABLE_SIZE;
+
+	/**
+	 * Called when the peer changes SETTINGS_HEADER_TABLE_SIZE.
+	 */
+	public void setMaxTableSize(int size) {
+		if (size < maxTableSize) {
+			// signal the reduction at the beginning of the next header block (see RFC 7541, section 4.2)
+			maxTableSize = size;
+			pendingTableSizeUpdate = size;
+		}
+	}
+
+	/**
+	 * Starts a new header block.
+	 */
+	public void reset() {
+		pos = 0;
+		if (pendingTableSizeUpdate != -1) {
+			writeInt(0x20, 5, pendingTableSizeUpdate);
+			pendingTableSizeUpdate = -1;
+		}
+	}
+
+	/**
+	 * @param name the lower-case name of the field
+	 */
+	public void encode(String name, String value) {
+		int index = HpackTable.getStaticIndex(name, value);
+		if (index != 0) {
+			writeInt(0x80, 7, index);
+			return;
+		}
+		int nameIndex = HpackTable.getStaticNameIndex(name);
+		// sensitive values must not be indexed by intermediaries either (see RFC 7541, section 7.1.3)
+		int prefix = isSensitive(name) ? 0x10 : 0x00;
+		writeInt(prefix, 4, nameIndex);
+		if (nameIndex == 0)
+			writeString(name);
+		writeString(value);
+	}
+
+	private static boolean isSensitive(String name) {
+		return name.equals("authorization") || name.equals("proxy-authorization") || name.equals("cookie")
+				|| name.equals("set-cookie");
+	}
+
+	private void writeString(String s) {
+		byte[] bytes = s.getBytes(Constants.ISO_8859_1_CHARSET);
+		int huffmanLength = Huffman.getEncodedLength(bytes);
+		if (huffmanLength < bytes.length) {
+			writeInt(0x80, 7, huffmanLength);
+			ensureCapacity(huffmanLength);
+			pos = Huffman.encode(bytes, buf, pos);
+		} else {
+			writeInt(0x00, 7, bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+	}
+
+	/**
+	 * Writes an integer with an N-bit prefix (see RFC 7541, section 5.1).
+	 */
+	private void writeInt(int firstByteFlags, int prefixBits, int value) {
+		ensureCapacity(6);
+		int mask = (1 << prefixBits) - 1;
+		if (value < mask) {
+			buf[pos++] = (byte) (firstByteFlags | value);
+			return;
+		}
+		buf[pos++] = (byte) (firstByteFlags | mask);
+		value -= mask;
+		while (value >= 0x80) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+	}
+
+	private void ensureCapacity(int n) {
+		if (pos + n > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+	}
+
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int getLength() {
+		return pos;
+	}
+
+}
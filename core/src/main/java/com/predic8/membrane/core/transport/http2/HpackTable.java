@@ -0,0 +1,211 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.predic8.membrane.core.http.HeaderName;
+
+/**
+ * The HPACK header table (see RFC 7541, section 2.3): The static table followed by a dynamic table of bounded size.
+ */
+public class HpackTable {
+
+	public static class Entry {
+		public final HeaderName name;
+		public final String value;
+		final int size;
+
+		public Entry(HeaderName name, String value) {
+			this.name = name;
+			this.value = value;
+			this.size = name.toString().length() + value.length() + 32;
+		}
+	}
+
+	private static final String[][] STATIC_FIELDS = {
+			{ ":authority", "" },
+			{ ":method", "GET" },
+			{ ":method", "POST" },
+			{ ":path", "/" },
+			{ ":path", "/index.html" },
+			{ ":scheme", "http" },
+			{ ":scheme", "https" },
+			{ ":status", "200" },
+			{ ":status", "204" },
+			{ ":status", "206" },
+			{ ":status", "304" },
+			{ ":status", "400" },
+			{ ":status", "404" },
+			{ ":status", "500" },
+			{ "accept-charset", "" },
+			{ "accept-encoding", "gzip, deflate" },
+			{ "accept-language", "" },
+			{ "accept-ranges", "" },
+			{ "accept", "" },
+			{ "access-control-allow-origin", "" },
+			{ "age", "" },
+			{ "allow", "" },
+			{ "authorization", "" },
+			{ "cache-control", "" },
+			{ "content-disposition", "" },
+			{ "content-encoding", "" },
+			{ "content-language", "" },
+			{ "content-length", "" },
+			{ "content-location", "" },
+			{ "content-range", "" },
+			{ "content-type", "" },
+			{ "cookie", "" },
+			{ "date", "" },
+			{ "etag", "" },
+			{ "expect", "" },
+			{ "expires", "" },
+			{ "from", "" },
+			{ "host", "" },
+			{ "if-match", "" },
+			{ "if-modified-since", "" },
+			{ "if-none-match", "" },
+			{ "if-range", "" },
+			{ "if-unmodified-since", "" },
+			{ "last-modified", "" },
+			{ "link", "" },
+			{ "location", "" },
+			{ "max-forwards", "" },
+			{ "proxy-authenticate", "" },
+			{ "proxy-authorization", "" },
+			{ "range", "" },
+			{ "referer", "" },
+			{ "refresh", "" },
+			{ "retry-after", "" },
+			{ "server", "" },
+			{ "set-cookie", "" },
+			{ "strict-transport-security", "" },
+			{ "transfer-encoding", "" },
+			{ "user-agent", "" },
+			{ "vary", "" },
+			{ "via", "" },
+			{ "www-authenticate", "" },
+	};
+
+	static final Entry[] STATIC = new Entry[STATIC_FIELDS.length];
+	private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<String, Integer>();
+	private static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<String, Integer>();
+
+	static {
+		for (int i = 0; i < STATIC_FIELDS.length; i++) {
+			String name = STATIC_FIELDS[i][0], value = STATIC_FIELDS[i][1];
+			byte[] bytes = name.getBytes();
+			HeaderName headerName = HeaderName.lookup(bytes, 0, bytes.length);
+			STATIC[i] = new Entry(headerName != null ? headerName : new HeaderName(name), value);
+			if (!STATIC_NAME_INDEX.containsKey(name))
+				STATIC_NAME_INDEX.put(name, i + 1);
+			if (value.length() > 0)
+				STATIC_FIELD_INDEX.put(name + ":" + value, i + 1);
+		}
+	}
+
+	/**
+	 * @param name a lower-case header name
+	 * @return the index of the static table entry matching name and value, or 0
+	 */
+	static int getStaticIndex(String name, String value) {
+		Integer index = STATIC_FIELD_INDEX.get(name + ":" + value);
+		return index == null ? 0 : index;
+	}
+
+	/**
+	 * @param name a lower-case header name
+	 * @return the index of the first static table entry with the name, or 0
+	 */
+	static int getStaticNameIndex(String name) {
+		Integer index = STATIC_NAME_INDEX.get(name);
+		return index == null ? 0 : index;
+	}
+
+	// the dynamic table, a ring buffer of entries, the newest at 'head'
+	private Entry[] entries = new Entry[16];
+	private int head, count, size, maxSize;
+
+	public HpackTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param index the HPACK index, starting at 1 with the static table
+	 */
+	public Entry get(int index) throws Http2Exception {
+		if (index <= 0 || index > STATIC.length + count)
+			throw new Http2Exception(Http2.COMPRESSION_ERROR, "Invalid header table index " + index + ".");
+		if (index <= STATIC.length)
+			return STATIC[index - 1];
+		return entries[(head - (index - STATIC.length - 1) + entries.length) % entries.length];
+	}
+
+	public void add(Entry entry) {
+		if (entry.size > maxSize) {
+			// see RFC 7541, section 4.4
+			clear();
+			return;
+		}
+		while (size + entry.size > maxSize)
+			evict();
+		if (count == entries.length)
+			grow();
+		head = (head + 1) % entries.length;
+		entries[head] = entry;
+		count++;
+		size += entry.size;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		while (size > maxSize)
+			evict();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	private void evict() {
+		int oldest = (head - count + 1 + entries.length) % entries.length;
+		size -= entries[oldest].size;
+		entries[oldest] = null;
+		count--;
+	}
+
+	private void clear() {
+		while (count > 0)
+			evict();
+	}
+
+	private void grow() {
+		Entry[] bigger = new Entry[entries.length * 2];
+		for (int i = 0; i < count; i++)
+			bigger[count - 1 - i] = entries[(head - i + entries.length) % entries.length];
+		entries = bigger;
+		head = count - 1;
+	}
+
+}
@@ -0,0 +1,163 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.Constants;
+
+/**
+ * Constants of the HTTP/2 protocol (RFC 7540) and access to TLS application layer protocol negotiation (ALPN).
+ *
+ * Membrane is compiled for Java 8, so the ALPN API (Java 9+, backported to Java 8u252) is looked up via
+ * reflection. On JVMs without ALPN, {@link #isALPNSupported()} returns false and TLS connections always use
+ * HTTP/1.x.
+ */
+public class Http2 {
+
+	private static final Log log = LogFactory.getLog(Http2.class.getName());
+
+	public static final String ALPN_H2 = "h2";
+	public static final String ALPN_HTTP_1_1 = "http/1.1";
+
+	static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Constants.ISO_8859_1_CHARSET);
+
+	// frame types
+	public static final int DATA = 0x0;
+	public static final int HEADERS = 0x1;
+	public static final int PRIORITY = 0x2;
+	public static final int RST_STREAM = 0x3;
+	public static final int SETTINGS = 0x4;
+	public static final int PUSH_PROMISE = 0x5;
+	public static final int PING = 0x6;
+	public static final int GOAWAY = 0x7;
+	public static final int WINDOW_UPDATE = 0x8;
+	public static final int CONTINUATION = 0x9;
+
+	// frame flags
+	public static final int FLAG_END_STREAM = 0x1;
+	public static final int FLAG_ACK = 0x1;
+	public static final int FLAG_END_HEADERS = 0x4;
+	public static final int FLAG_PADDED = 0x8;
+	public static final int FLAG_PRIORITY = 0x20;
+
+	// settings
+	public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	public static final int SETTINGS_ENABLE_PUSH = 0x2;
+	public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	// error codes
+	public static final int NO_ERROR = 0x0;
+	public static final int PROTOCOL_ERROR = 0x1;
+	public static final int INTERNAL_ERROR = 0x2;
+	public static final int FLOW_CONTROL_ERROR = 0x3;
+	public static final int SETTINGS_TIMEOUT = 0x4;
+	public static final int STREAM_CLOSED = 0x5;
+	public static final int FRAME_SIZE_ERROR = 0x6;
+	public static final int REFUSED_STREAM = 0x7;
+	public static final int CANCEL = 0x8;
+	public static final int COMPRESSION_ERROR = 0x9;
+	public static final int CONNECT_ERROR = 0xa;
+	public static final int ENHANCE_YOUR_CALM = 0xb;
+	public static final int INADEQUATE_SECURITY = 0xc;
+	public static final int HTTP_1_1_REQUIRED = 0xd;
+
+	public static final int DEFAULT_WINDOW_SIZE = 65535;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+	public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+	public static final int MAX_FRAME_SIZE_UPPER_BOUND = 16777215;
+
+	private static final Method setApplicationProtocols, getApplicationProtocol;
+
+	static {
+		Method s = null, g = null;
+		try {
+			s = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+			g = SSLSocket.class.getMethod("getApplicationProtocol");
+		} catch (Exception e) {
+			s = null;
+		}
+		setApplicationProtocols = s;
+		getApplicationProtocol = g;
+	}
+
+	public static boolean isALPNSupported() {
+		return setApplicationProtocols != null;
+	}
+
+	/**
+	 * Sets the protocols offered (client side) or accepted (server side) during the TLS handshake, in order of
+	 * preference. Has to be called before the handshake starts. Does nothing, if ALPN is not supported by the JVM.
+	 */
+	public static void setApplicationProtocols(SSLSocket socket, String... protocols) {
+		if (!isALPNSupported())
+			return;
+		try {
+			SSLParameters sslParameters = socket.getSSLParameters();
+			setApplicationProtocols.invoke(sslParameters, (Object) protocols);
+			socket.setSSLParameters(sslParameters);
+		} catch (Exception e) {
+			log.warn("Could not configure ALPN.", e);
+		}
+	}
+
+	/**
+	 * @return the protocol negotiated during the TLS handshake, or null if none was negotiated
+	 */
+	public static String getApplicationProtocol(SSLSocket socket) {
+		if (!isALPNSupported())
+			return null;
+		try {
+			String protocol = (String) getApplicationProtocol.invoke(socket);
+			return protocol == null || protocol.length() == 0 ? null : protocol;
+		} catch (Exception e) {
+			log.warn("Could not retrieve ALPN result.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Consumes the HTTP/2 connection preface, if the stream starts with it.
+	 *
+	 * Only as many bytes are read as match the preface, so that this method does not block on short HTTP/1.x
+	 * requests.
+	 *
+	 * @param in a stream supporting {@link InputStream#mark(int)}
+	 * @return whether the preface was found. If not, the stream has been reset to its original position.
+	 */
+	public static boolean readPreface(InputStream in) throws IOException {
+		in.mark(PREFACE.length);
+		for (byte b : PREFACE) {
+			if (in.read() != (b & 0xFF)) {
+				in.reset();
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
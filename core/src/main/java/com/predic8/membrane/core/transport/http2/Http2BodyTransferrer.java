@@ -0,0 +1,60 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+
+import com.predic8.membrane.core.http.AbstractBodyTransferrer;
+import com.predic8.membrane.core.http.Chunk;
+
+/**
+ * Sends a message body as DATA frames of an {@link Http2Stream}.
+ */
+public class Http2BodyTransferrer extends AbstractBodyTransferrer {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Http2Connection connection;
+	private final Http2Stream stream;
+	private boolean finished;
+
+	public Http2BodyTransferrer(Http2Connection connection, Http2Stream stream) {
+		this.connection = connection;
+		this.stream = stream;
+	}
+
+	@Override
+	public void write(byte[] content, int i, int length) throws IOException {
+		if (length > 0)
+			connection.writeData(stream, content, i, length, false);
+	}
+
+	@Override
+	public void write(Chunk chunk) throws IOException {
+		write(chunk.getContent(), 0, chunk.getLength());
+	}
+
+	/**
+	 * Ends the stream. May be called more than once.
+	 */
+	@Override
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		connection.writeData(stream, EMPTY, 0, 0, true);
+	}
+
+}
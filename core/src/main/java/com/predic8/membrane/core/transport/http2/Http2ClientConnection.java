@@ -0,0 +1,325 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+
+/**
+ * The client side of an HTTP/2 connection: Many requests are sent concurrently, each on its own stream.
+ *
+ * Before a request is sent, a stream slot has to be reserved via {@link #reserveStream()}, so that the peer's
+ * <tt>SETTINGS_MAX_CONCURRENT_STREAMS</tt> is never exceeded. Requests refused by the peer (via
+ * <tt>REFUSED_STREAM</tt> or because they were not processed before GOAWAY) fail with a
+ * {@link StreamResetException} carrying {@link Http2#REFUSED_STREAM}: They are safe to retry.
+ */
+public class Http2ClientConnection extends Http2Connection {
+
+	private static final Log log = LogFactory.getLog(Http2ClientConnection.class.getName());
+
+	private final String destination;
+	private final long idleTimeout;
+
+	private final Object streamIdLock = new Object();
+	// guarded by streamIdLock
+	private int reserved;
+	private volatile int nextStreamId = 1;
+
+	// guarded by this
+	private boolean settingsReceived;
+
+	private volatile long lastUse = System.currentTimeMillis();
+
+	/**
+	 * @param destination "host:port", used for logging
+	 * @param idleTimeout how long (in ms) the connection may stay without streams before it is closed. The
+	 *        socket's read timeout determines how often this is checked.
+	 */
+	public Http2ClientConnection(String destination, Socket socket, InputStream in, OutputStream out, int streamTimeout, long idleTimeout) {
+		super(socket, in, out, streamTimeout);
+		this.destination = destination;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sends the connection preface, starts the reading thread and waits for the peer's settings.
+	 */
+	public void start(int timeout) throws IOException {
+		writer.writePreface();
+		sendSettings();
+		Thread reader = new Thread("HTTP/2 Client " + destination) {
+			@Override
+			public void run() {
+				try {
+					readFrames();
+				} catch (IOException e) {
+					log.debug("HTTP/2 connection to " + destination + " failed.", e);
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (!settingsReceived && !isClosed()) {
+				long remaining = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeout != 0 && remaining <= 0) {
+					close();
+					throw new SocketTimeoutException("Timeout while waiting for the HTTP/2 settings of " + destination + ".");
+				}
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close();
+					throw new IOException("Interrupted while waiting for the HTTP/2 settings of " + destination + ".");
+				}
+			}
+			if (!settingsReceived)
+				throw new IOException("HTTP/2 connection to " + destination + " closed before settings were received.");
+		}
+	}
+
+	@Override
+	protected synchronized void onSettings() {
+		settingsReceived = true;
+		notifyAll();
+	}
+
+	@Override
+	protected int[] getLocalSettings() {
+		return new int[] {
+				Http2.SETTINGS_ENABLE_PUSH, 0,
+				Http2.SETTINGS_INITIAL_WINDOW_SIZE, LOCAL_INITIAL_WINDOW_SIZE,
+				Http2.SETTINGS_MAX_HEADER_LIST_SIZE, LOCAL_MAX_HEADER_LIST_SIZE,
+		};
+	}
+
+	/**
+	 * Reserves a slot for one stream. On success, {@link #sendRequest(Request, String, String)} has to be called
+	 * exactly once.
+	 *
+	 * @return false, if the connection is closing or the peer's limit of concurrent streams has been reached
+	 */
+	public boolean reserveStream() {
+		synchronized (streamIdLock) {
+			if (goAwayReceived || goAwaySent || isClosed())
+				return false;
+			if (streams.size() + reserved >= peerMaxConcurrentStreams)
+				return false;
+			// stream IDs are 31 bit
+			if (nextStreamId + 2L * reserved > Integer.MAX_VALUE)
+				return false;
+			reserved++;
+			return true;
+		}
+	}
+
+	/**
+	 * Sends the request on a new stream. A stream slot has to be reserved before.
+	 *
+	 * @param authority the value of <tt>:authority</tt>, usually the <tt>Host</tt> header
+	 */
+	public Http2Stream sendRequest(Request request, String scheme, String authority) throws IOException {
+		List<String> fields = new ArrayList<String>();
+		fields.add(":method");
+		fields.add(request.getMethod());
+		fields.add(":scheme");
+		fields.add(scheme);
+		fields.add(":authority");
+		fields.add(authority);
+		fields.add(":path");
+		fields.add(request.getUri());
+		Http2Messages.addFields(request.getHeader(), fields);
+
+		boolean noBody;
+		try {
+			noBody = request.isBodyEmpty();
+		} catch (IOException e) {
+			synchronized (streamIdLock) {
+				reserved--;
+			}
+			throw e;
+		}
+
+		Http2Stream stream = openStream(fields, noBody);
+		if (!noBody) {
+			try {
+				Http2BodyTransferrer transferrer = new Http2BodyTransferrer(this, stream);
+				request.getBody().write(transferrer);
+				transferrer.finish();
+			} catch (IOException e) {
+				resetStream(stream, Http2.CANCEL);
+				throw e;
+			}
+		}
+		return stream;
+	}
+
+	/**
+	 * Allocates the stream ID and sends the header block, atomically: Streams have to be opened in the order of
+	 * their IDs (see RFC 7540, section 5.1.1).
+	 */
+	private Http2Stream openStream(List<String> fields, boolean endStream) throws IOException {
+		synchronized (streamIdLock) {
+			reserved--;
+			Http2Stream stream = createStream(nextStreamId);
+			nextStreamId += 2;
+			try {
+				writeHeaders(stream, fields, endStream);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			return stream;
+		}
+	}
+
+	/**
+	 * Waits for the response on the stream. The response's body is read from the stream while it is consumed.
+	 *
+	 * @param headRequest whether the request was a HEAD request (so that the response has no body)
+	 */
+	public Response readResponse(Http2Stream stream, boolean headRequest) throws IOException {
+		try {
+			List<HeaderField> fields = stream.readHeaders();
+			Map<String, String> pseudoHeaders = new HashMap<String, String>(4);
+			Header header = Http2Messages.toHeader(fields, stream.getId(), pseudoHeaders);
+			String status = pseudoHeaders.get(":status");
+			if (status == null || pseudoHeaders.size() != 1 || !status.matches("[1-5][0-9][0-9]"))
+				throw new Http2Exception(stream.getId(), Http2.PROTOCOL_ERROR, "Invalid pseudo-header fields in response.");
+
+			Response response = new Response();
+			response.setStatusCode(Integer.parseInt(status));
+			response.setStatusMessage(Http2Messages.getReasonPhrase(response.getStatusCode()));
+			response.setVersion("1.1");
+			response.setHeader(header);
+
+			int code = response.getStatusCode();
+			if (headRequest || code == 204 || code == 304)
+				return response;
+			if (header.hasContentLength()) {
+				response.setBody(new Body(stream.getInputStream(), header.getContentLength()));
+			} else {
+				// the length is unknown: forward the body using chunked encoding
+				header.add(Header.TRANSFER_ENCODING, Header.CHUNKED);
+				response.setBody(new Body(stream.getInputStream()));
+			}
+			return response;
+		} catch (Http2Exception e) {
+			resetStream(stream, e.getErrorCode());
+			throw e;
+		} catch (IOException e) {
+			resetStream(stream, Http2.CANCEL);
+			throw e;
+		}
+	}
+
+	/**
+	 * Abandons the stream, for example because its response will not be used.
+	 */
+	public void cancel(Http2Stream stream) throws IOException {
+		resetStream(stream, Http2.CANCEL);
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<HeaderField> fields, boolean endStream) throws IOException {
+		if (isIdle(streamId))
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "HEADERS frame on idle stream " + streamId + ".");
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) {
+			// a stream we already reset
+			return;
+		}
+		if (stream.isHeadersReceived()) {
+			// trailers: not passed on, as HTTP/1.x messages do not have them outside of chunked bodies
+			if (!endStream)
+				throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "Trailers without END_STREAM.");
+			endStreamReceived(stream);
+			return;
+		}
+		if (fields.size() > 0 && fields.get(0).getHeaderName().toString().equals(":status") && fields.get(0).getValue().startsWith("1")) {
+			// informational responses (like "100 Continue") are not passed on
+			if (endStream)
+				throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "Informational response with END_STREAM.");
+			return;
+		}
+		stream.headersReceived(fields);
+		if (endStream)
+			endStreamReceived(stream);
+	}
+
+	@Override
+	protected void onGoAway(int lastStreamId, int errorCode) throws IOException {
+		log.debug(destination + " sent GOAWAY (error code " + errorCode + ").");
+		// streams above lastStreamId have not been processed and may be retried
+		for (Http2Stream stream : new ArrayList<Http2Stream>(streams.values()))
+			if (stream.getId() > lastStreamId)
+				resetStream(stream, Http2.REFUSED_STREAM);
+		if (streams.isEmpty())
+			close();
+	}
+
+	@Override
+	protected void streamRemoved(Http2Stream stream) {
+		lastUse = System.currentTimeMillis();
+		if ((goAwayReceived || goAwaySent) && streams.isEmpty())
+			close();
+	}
+
+	@Override
+	protected boolean onReadTimeout() {
+		synchronized (streamIdLock) {
+			if (!streams.isEmpty() || reserved > 0 || System.currentTimeMillis() - lastUse < idleTimeout)
+				return true;
+			log.debug("Closing idle HTTP/2 connection to " + destination + ".");
+			goAway(Http2.NO_ERROR);
+			return false;
+		}
+	}
+
+	@Override
+	protected boolean isIdle(int streamId) {
+		return (streamId & 1) == 0 || streamId >= nextStreamId;
+	}
+
+	@Override
+	protected int getLastPeerStreamId() {
+		// server push is disabled
+		return 0;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+}
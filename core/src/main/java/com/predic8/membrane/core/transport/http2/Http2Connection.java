@@ -0,0 +1,580 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.HeaderField;
+
+/**
+ * The parts of an HTTP/2 connection (RFC 7540) common to both sides: frame handling, HPACK state, settings and flow
+ * control.
+ *
+ * One thread runs {@link #readFrames()}, while any number of threads may write to the streams concurrently.
+ *
+ * Flow control credit of the connection is returned to the peer as soon as DATA is received, while the credit of
+ * each stream is only returned when the data has been consumed: This bounds the memory used by each stream without
+ * letting a stalled stream block the other streams of the connection.
+ */
+public abstract class Http2Connection {
+
+	private static final Log log = LogFactory.getLog(Http2Connection.class.getName());
+
+	protected static final int LOCAL_INITIAL_WINDOW_SIZE = 256 * 1024;
+	protected static final int LOCAL_CONNECTION_WINDOW_SIZE = 1024 * 1024;
+	protected static final int LOCAL_MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+	protected final Socket socket;
+	protected final FrameWriter writer;
+	private final FrameReader reader;
+	private final HpackDecoder decoder = new HpackDecoder(Http2.DEFAULT_HEADER_TABLE_SIZE, LOCAL_MAX_HEADER_LIST_SIZE);
+	private final int streamTimeout;
+
+	protected final ConcurrentHashMap<Integer, Http2Stream> streams = new ConcurrentHashMap<Integer, Http2Stream>();
+
+	// guarded by this
+	private long sendWindow = Http2.DEFAULT_WINDOW_SIZE;
+	private int peerInitialWindowSize = Http2.DEFAULT_WINDOW_SIZE;
+	private boolean closed;
+
+	protected volatile int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+	protected volatile boolean goAwayReceived, goAwaySent;
+
+	// only accessed by the reading thread
+	private int receiveWindow = Http2.DEFAULT_WINDOW_SIZE;
+	private int receivedSinceUpdate;
+	private int headerBlockStreamId;
+	private boolean headerBlockEndStream;
+	private byte[] headerBlock = new byte[1024];
+	private int headerBlockLength;
+
+	/**
+	 * @param in a buffered stream to read from
+	 * @param out a buffered stream to write to
+	 * @param streamTimeout how long (in ms) to wait for data of a stream; 0 for infinity
+	 */
+	protected Http2Connection(Socket socket, InputStream in, OutputStream out, int streamTimeout) {
+		this.socket = socket;
+		this.reader = new FrameReader(in, Http2.DEFAULT_MAX_FRAME_SIZE);
+		this.writer = new FrameWriter(out);
+		this.streamTimeout = streamTimeout;
+	}
+
+	/**
+	 * @return pairs of setting identifier and value sent to the peer
+	 */
+	protected abstract int[] getLocalSettings();
+
+	/**
+	 * Called by the reading thread for each complete header block.
+	 */
+	protected abstract void onHeaders(int streamId, List<HeaderField> fields, boolean endStream) throws IOException;
+
+	/**
+	 * Called by the reading thread when the peer sent GOAWAY.
+	 */
+	protected abstract void onGoAway(int lastStreamId, int errorCode) throws IOException;
+
+	/**
+	 * Called by the reading thread, if no frame was received within the socket timeout.
+	 *
+	 * @return whether to continue reading
+	 */
+	protected abstract boolean onReadTimeout() throws IOException;
+
+	/**
+	 * @return whether the stream ID has not been used yet (see RFC 7540, section 5.1, "idle")
+	 */
+	protected abstract boolean isIdle(int streamId);
+
+	/**
+	 * Sends the local settings. Has to be called before {@link #readFrames()}.
+	 */
+	protected void sendSettings() throws IOException {
+		writer.writeSettings(getLocalSettings());
+		int increment = LOCAL_CONNECTION_WINDOW_SIZE - Http2.DEFAULT_WINDOW_SIZE;
+		writer.writeWindowUpdate(0, increment);
+		receiveWindow += increment;
+	}
+
+	/**
+	 * Reads and handles frames, until the connection is closed.
+	 */
+	public void readFrames() throws IOException {
+		try {
+			while (true) {
+				try {
+					if (!reader.next())
+						break;
+				} catch (SocketTimeoutException e) {
+					if (onReadTimeout())
+						continue;
+					break;
+				}
+				try {
+					handleFrame();
+				} catch (Http2Exception e) {
+					if (e.isConnectionError())
+						throw e;
+					log.debug("Resetting HTTP/2 stream " + e.getStreamId() + ": " + e.getMessage());
+					Http2Stream stream = streams.get(e.getStreamId());
+					if (stream != null)
+						resetStream(stream, e.getErrorCode());
+					else
+						writer.writeRstStream(e.getStreamId(), e.getErrorCode());
+				}
+			}
+		} catch (Http2Exception e) {
+			log.debug("HTTP/2 connection error: " + e.getMessage());
+			goAway(e.getErrorCode());
+		} finally {
+			close();
+		}
+	}
+
+	private void handleFrame() throws IOException {
+		int type = reader.getType();
+		int streamId = reader.getStreamId();
+		int length = reader.getLength();
+		byte[] payload = reader.getPayload();
+
+		if (headerBlockStreamId != 0 && (type != Http2.CONTINUATION || streamId != headerBlockStreamId))
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "Expected CONTINUATION frame.");
+
+		switch (type) {
+		case Http2.DATA:
+			handleData(streamId, payload, length);
+			break;
+		case Http2.HEADERS:
+			handleHeaders(streamId, payload, length);
+			break;
+		case Http2.CONTINUATION:
+			if (headerBlockStreamId == 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "Unexpected CONTINUATION frame.");
+			appendHeaderBlock(payload, 0, length);
+			if (reader.hasFlag(Http2.FLAG_END_HEADERS))
+				headerBlockComplete();
+			break;
+		case Http2.PRIORITY:
+			if (streamId == 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "PRIORITY frame on stream 0.");
+			if (length != 5)
+				throw new Http2Exception(streamId, Http2.FRAME_SIZE_ERROR, "Invalid PRIORITY frame length.");
+			// stream priorities are not supported
+			break;
+		case Http2.RST_STREAM:
+			handleRstStream(streamId, payload, length);
+			break;
+		case Http2.SETTINGS:
+			handleSettings(streamId, payload, length);
+			break;
+		case Http2.PUSH_PROMISE:
+			// servers must not receive PUSH_PROMISE, clients disable server push
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "Unexpected PUSH_PROMISE frame.");
+		case Http2.PING:
+			if (streamId != 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "PING frame on stream " + streamId + ".");
+			if (length != 8)
+				throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid PING frame length.");
+			if (!reader.hasFlag(Http2.FLAG_ACK))
+				writer.writePing(true, payload, 0);
+			break;
+		case Http2.GOAWAY:
+			if (streamId != 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "GOAWAY frame on stream " + streamId + ".");
+			if (length < 8)
+				throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid GOAWAY frame length.");
+			goAwayReceived = true;
+			onGoAway(readInt(payload, 0) & 0x7FFFFFFF, readInt(payload, 4));
+			break;
+		case Http2.WINDOW_UPDATE:
+			handleWindowUpdate(streamId, payload, length);
+			break;
+		default:
+			// unknown frame types have to be ignored (see RFC 7540, section 4.1)
+		}
+	}
+
+	private void handleData(int streamId, byte[] payload, int length) throws IOException {
+		if (streamId == 0)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "DATA frame on stream 0.");
+		if (isIdle(streamId))
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "DATA frame on idle stream " + streamId + ".");
+
+		receiveWindow -= length;
+		if (receiveWindow < 0)
+			throw new Http2Exception(Http2.FLOW_CONTROL_ERROR, "Connection receive window exceeded.");
+		receivedSinceUpdate += length;
+		if (receivedSinceUpdate >= LOCAL_CONNECTION_WINDOW_SIZE / 2) {
+			writer.writeWindowUpdate(0, receivedSinceUpdate);
+			receiveWindow += receivedSinceUpdate;
+			receivedSinceUpdate = 0;
+		}
+
+		int offset = 0;
+		int dataLength = length;
+		if (reader.hasFlag(Http2.FLAG_PADDED)) {
+			if (length < 1)
+				throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid padded DATA frame length.");
+			int padding = payload[0] & 0xFF;
+			offset = 1;
+			dataLength = length - 1 - padding;
+			if (dataLength < 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "Padding exceeds DATA frame length.");
+		}
+
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) {
+			// the stream has already been closed or reset by us: ignore frames still in flight
+			return;
+		}
+		boolean endStream = reader.hasFlag(Http2.FLAG_END_STREAM);
+		stream.dataReceived(payload, offset, dataLength, length, endStream);
+		if (endStream)
+			streamHalfClosed(stream);
+	}
+
+	private void handleHeaders(int streamId, byte[] payload, int length) throws IOException {
+		if (streamId == 0)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "HEADERS frame on stream 0.");
+		int offset = 0;
+		int end = length;
+		if (reader.hasFlag(Http2.FLAG_PADDED)) {
+			if (length < 1)
+				throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid padded HEADERS frame length.");
+			offset = 1;
+			end -= payload[0] & 0xFF;
+		}
+		if (reader.hasFlag(Http2.FLAG_PRIORITY))
+			offset += 5;
+		if (end < offset)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "Padding exceeds HEADERS frame length.");
+
+		headerBlockStreamId = streamId;
+		headerBlockEndStream = reader.hasFlag(Http2.FLAG_END_STREAM);
+		headerBlockLength = 0;
+		appendHeaderBlock(payload, offset, end - offset);
+		if (reader.hasFlag(Http2.FLAG_END_HEADERS))
+			headerBlockComplete();
+	}
+
+	private void appendHeaderBlock(byte[] payload, int offset, int length) throws Http2Exception {
+		if (headerBlockLength + length > LOCAL_MAX_HEADER_LIST_SIZE)
+			throw new Http2Exception(Http2.ENHANCE_YOUR_CALM, "Header block too large.");
+		if (headerBlockLength + length > headerBlock.length)
+			headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+		System.arraycopy(payload, offset, headerBlock, headerBlockLength, length);
+		headerBlockLength += length;
+	}
+
+	private void headerBlockComplete() throws IOException {
+		int streamId = headerBlockStreamId;
+		headerBlockStreamId = 0;
+		List<HeaderField> fields = decoder.decode(headerBlock, 0, headerBlockLength, streamId);
+		onHeaders(streamId, fields, headerBlockEndStream);
+	}
+
+	private void handleRstStream(int streamId, byte[] payload, int length) throws IOException {
+		if (streamId == 0)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "RST_STREAM frame on stream 0.");
+		if (length != 4)
+			throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid RST_STREAM frame length.");
+		if (isIdle(streamId))
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "RST_STREAM frame on idle stream " + streamId + ".");
+		Http2Stream stream = streams.remove(streamId);
+		if (stream != null) {
+			stream.reset(new StreamResetException(streamId, readInt(payload, 0)));
+			synchronized (this) {
+				notifyAll();
+			}
+			streamRemoved(stream);
+		}
+	}
+
+	private void handleSettings(int streamId, byte[] payload, int length) throws IOException {
+		if (streamId != 0)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "SETTINGS frame on stream " + streamId + ".");
+		if (reader.hasFlag(Http2.FLAG_ACK)) {
+			if (length != 0)
+				throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with payload.");
+			return;
+		}
+		if (length % 6 != 0)
+			throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid SETTINGS frame length.");
+		for (int i = 0; i < length; i += 6) {
+			int id = (payload[i] & 0xFF) << 8 | (payload[i + 1] & 0xFF);
+			int value = readInt(payload, i + 2);
+			switch (id) {
+			case Http2.SETTINGS_HEADER_TABLE_SIZE:
+				writer.setMaxHeaderTableSize(value < 0 ? Integer.MAX_VALUE : value);
+				break;
+			case Http2.SETTINGS_ENABLE_PUSH:
+				if (value != 0 && value != 1)
+					throw new Http2Exception(Http2.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH value.");
+				break;
+			case Http2.SETTINGS_MAX_CONCURRENT_STREAMS:
+				peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+				break;
+			case Http2.SETTINGS_INITIAL_WINDOW_SIZE:
+				if (value < 0)
+					throw new Http2Exception(Http2.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE value.");
+				setPeerInitialWindowSize(value);
+				break;
+			case Http2.SETTINGS_MAX_FRAME_SIZE:
+				if (value < Http2.DEFAULT_MAX_FRAME_SIZE || value > Http2.MAX_FRAME_SIZE_UPPER_BOUND)
+					throw new Http2Exception(Http2.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE value.");
+				writer.setMaxFrameSize(value);
+				break;
+			default:
+				// SETTINGS_MAX_HEADER_LIST_SIZE is advisory, unknown settings have to be ignored
+			}
+		}
+		writer.writeSettingsAck();
+		onSettings();
+	}
+
+	/**
+	 * Called by the reading thread after the peer's settings have been applied.
+	 */
+	protected void onSettings() {
+	}
+
+	private synchronized void setPeerInitialWindowSize(int value) throws Http2Exception {
+		int delta = value - peerInitialWindowSize;
+		peerInitialWindowSize = value;
+		for (Http2Stream stream : streams.values()) {
+			stream.sendWindow += delta;
+			if (stream.sendWindow > Http2.MAX_WINDOW_SIZE)
+				throw new Http2Exception(Http2.FLOW_CONTROL_ERROR, "Stream send window overflow.");
+		}
+		notifyAll();
+	}
+
+	private void handleWindowUpdate(int streamId, byte[] payload, int length) throws IOException {
+		if (length != 4)
+			throw new Http2Exception(Http2.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame length.");
+		int increment = readInt(payload, 0) & 0x7FFFFFFF;
+		if (streamId == 0) {
+			if (increment == 0)
+				throw new Http2Exception(Http2.PROTOCOL_ERROR, "WINDOW_UPDATE with zero increment.");
+			synchronized (this) {
+				sendWindow += increment;
+				if (sendWindow > Http2.MAX_WINDOW_SIZE)
+					throw new Http2Exception(Http2.FLOW_CONTROL_ERROR, "Connection send window overflow.");
+				notifyAll();
+			}
+			return;
+		}
+		if (isIdle(streamId))
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "WINDOW_UPDATE frame on idle stream " + streamId + ".");
+		if (increment == 0)
+			throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "WINDOW_UPDATE with zero increment.");
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null)
+			return;
+		synchronized (this) {
+			stream.sendWindow += increment;
+			if (stream.sendWindow > Http2.MAX_WINDOW_SIZE)
+				throw new Http2Exception(streamId, Http2.FLOW_CONTROL_ERROR, "Stream send window overflow.");
+			notifyAll();
+		}
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return (b[offset] & 0xFF) << 24 | (b[offset + 1] & 0xFF) << 16 | (b[offset + 2] & 0xFF) << 8 | (b[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Creates and registers a new stream.
+	 */
+	protected synchronized Http2Stream createStream(int streamId) throws IOException {
+		if (closed)
+			throw new EOFException("HTTP/2 connection closed.");
+		Http2Stream stream = new Http2Stream(this, streamId, peerInitialWindowSize, LOCAL_INITIAL_WINDOW_SIZE);
+		streams.put(streamId, stream);
+		return stream;
+	}
+
+	/**
+	 * Sends the header fields on the stream.
+	 *
+	 * @param fields alternating lower-case names and values, pseudo-header fields first
+	 */
+	public void writeHeaders(Http2Stream stream, List<String> fields, boolean endStream) throws IOException {
+		IOException error = stream.getError();
+		if (error != null)
+			throw error;
+		writer.writeHeaders(stream.getId(), fields, endStream);
+		if (endStream) {
+			stream.endStreamSent();
+			streamHalfClosed(stream);
+		}
+	}
+
+	/**
+	 * Sends the data on the stream, blocking while the peer's flow control windows are exhausted.
+	 */
+	public void writeData(Http2Stream stream, byte[] data, int offset, int length, boolean endStream) throws IOException {
+		while (length > 0 || endStream) {
+			int n;
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + streamTimeout;
+				while (true) {
+					IOException error = stream.getError();
+					if (error != null)
+						throw error;
+					if (closed)
+						throw new EOFException("HTTP/2 connection closed.");
+					n = (int) Math.min(Math.min(length, writer.getMaxFrameSize()), Math.min(sendWindow, stream.sendWindow));
+					if (n > 0 || length == 0)
+						break;
+					long remaining = streamTimeout == 0 ? 0 : deadline - System.currentTimeMillis();
+					if (streamTimeout != 0 && remaining <= 0)
+						throw new SocketTimeoutException("Timeout while waiting for HTTP/2 flow control credit.");
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for HTTP/2 flow control credit.");
+					}
+				}
+				sendWindow -= n;
+				stream.sendWindow -= n;
+			}
+			boolean last = endStream && n == length;
+			writer.writeData(stream.getId(), data, offset, n, last);
+			offset += n;
+			length -= n;
+			if (last) {
+				stream.endStreamSent();
+				streamHalfClosed(stream);
+				break;
+			}
+		}
+	}
+
+	void sendWindowUpdate(int streamId, int increment) throws IOException {
+		if (streams.containsKey(streamId))
+			writer.writeWindowUpdate(streamId, increment);
+	}
+
+	/**
+	 * Resets the stream (if not already closed) and sends RST_STREAM to the peer.
+	 */
+	public void resetStream(Http2Stream stream, int errorCode) throws IOException {
+		if (streams.remove(stream.getId()) == null)
+			return;
+		stream.reset(new StreamResetException(stream.getId(), errorCode));
+		synchronized (this) {
+			notifyAll();
+		}
+		streamRemoved(stream);
+		writer.writeRstStream(stream.getId(), errorCode);
+	}
+
+	/**
+	 * Called by the reading thread, if the peer ended the stream with a header block (trailers).
+	 */
+	protected void endStreamReceived(Http2Stream stream) throws Http2Exception {
+		stream.endStreamReceived();
+		streamHalfClosed(stream);
+	}
+
+	private void streamHalfClosed(Http2Stream stream) {
+		if (stream.isClosed() && streams.remove(stream.getId()) != null)
+			streamRemoved(stream);
+	}
+
+	/**
+	 * Called after a stream has been removed from {@link #streams}, because it was closed by both sides or reset.
+	 */
+	protected void streamRemoved(Http2Stream stream) {
+	}
+
+	/**
+	 * Sends GOAWAY: The peer must not open new streams on this connection.
+	 */
+	public void goAway(int errorCode) {
+		if (goAwaySent)
+			return;
+		goAwaySent = true;
+		try {
+			writer.writeGoAway(getLastPeerStreamId(), errorCode);
+		} catch (IOException e) {
+			log.debug("Could not send GOAWAY.", e);
+		}
+	}
+
+	/**
+	 * @return the highest ID of the streams initiated by the peer
+	 */
+	protected abstract int getLastPeerStreamId();
+
+	/**
+	 * Closes the socket and fails all open streams.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		List<Http2Stream> open = new ArrayList<Http2Stream>(streams.values());
+		streams.clear();
+		for (Http2Stream stream : open) {
+			stream.reset(new EOFException("HTTP/2 connection closed."));
+			streamRemoved(stream);
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			log.debug("Closing HTTP/2 connection.", e);
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public int getStreamCount() {
+		return streams.size();
+	}
+
+	int getStreamTimeout() {
+		return streamTimeout;
+	}
+
+	int getLocalInitialWindowSize() {
+		return LOCAL_INITIAL_WINDOW_SIZE;
+	}
+
+	public Socket getSocket() {
+		return socket;
+	}
+
+}
@@ -0,0 +1,203 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.transport.ssl.SSLProvider;
+import com.predic8.membrane.core.util.DNSCache;
+
+/**
+ * Keeps the HTTP/2 connections to the backends, so that many exchanges share few connections per host:port.
+ *
+ * A new connection is only opened, when all connections to the destination have reached the server's limit of
+ * concurrent streams. Connections are opened one at a time per destination, so that a burst of requests does
+ * not open a burst of connections.
+ *
+ * For TLS destinations, HTTP/2 is negotiated via ALPN. If the server chooses HTTP/1.1 (or the JVM does not support
+ * ALPN), {@link #getConnection(String, int, String, SSLProvider, int)} returns null for a while, so that the caller
+ * uses HTTP/1.1 instead. Cleartext destinations are expected to support HTTP/2 with prior knowledge.
+ */
+public class Http2ConnectionPool {
+
+	private static final Log log = LogFactory.getLog(Http2ConnectionPool.class.getName());
+
+	/**
+	 * How long (in ms) a destination which negotiated HTTP/1.1 is not asked for HTTP/2 again.
+	 */
+	private static final long HTTP1_RECHECK_INTERVAL = 60000;
+
+	private static class Destination {
+		final CopyOnWriteArrayList<Http2ClientConnection> connections = new CopyOnWriteArrayList<Http2ClientConnection>();
+		volatile long http1Until;
+	}
+
+	private final ConcurrentHashMap<String, Destination> destinations = new ConcurrentHashMap<String, Destination>();
+	private final long idleTimeout;
+	private volatile DNSCache dnsCache;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param idleTimeout how long (in ms) a connection without streams is kept open
+	 */
+	public Http2ConnectionPool(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Returns a connection with a stream slot reserved for the caller (see
+	 * {@link Http2ClientConnection#reserveStream()}).
+	 *
+	 * @return null, if the destination does not support HTTP/2
+	 */
+	public Http2ClientConnection getConnection(String host, int port, String localAddr, SSLProvider sslProvider, int timeout) throws IOException {
+		if (shutdown)
+			throw new IllegalStateException("HTTP/2 connection pool has been shut down.");
+		String key = host + ":" + port;
+		Destination destination = destinations.get(key);
+		if (destination == null) {
+			destination = new Destination();
+			Destination existing = destinations.putIfAbsent(key, destination);
+			if (existing != null)
+				destination = existing;
+		}
+		if (destination.http1Until > System.currentTimeMillis())
+			return null;
+
+		Http2ClientConnection connection = reserve(destination);
+		if (connection != null)
+			return connection;
+		synchronized (destination) {
+			// another thread might have opened a connection in the meantime
+			connection = reserve(destination);
+			if (connection != null)
+				return connection;
+			connection = open(key, host, port, localAddr, sslProvider, timeout);
+			if (connection == null) {
+				destination.http1Until = System.currentTimeMillis() + HTTP1_RECHECK_INTERVAL;
+				return null;
+			}
+			if (!connection.reserveStream())
+				throw new IOException("New HTTP/2 connection to " + key + " does not accept streams.");
+			destination.connections.add(connection);
+			return connection;
+		}
+	}
+
+	private Http2ClientConnection reserve(Destination destination) {
+		for (Http2ClientConnection connection : destination.connections) {
+			if (connection.isClosed()) {
+				destination.connections.remove(connection);
+				continue;
+			}
+			if (connection.reserveStream())
+				return connection;
+		}
+		return null;
+	}
+
+	private Http2ClientConnection open(String key, String host, int port, String localAddr, SSLProvider sslProvider, int timeout) throws IOException {
+		Socket socket;
+		if (sslProvider != null) {
+			if (!Http2.isALPNSupported())
+				return null;
+			if (localAddr == null || localAddr.length() == 0)
+				socket = sslProvider.createSocket(host, port, timeout);
+			else
+				socket = sslProvider.createSocket(host, port, InetAddress.getByName(localAddr), 0, timeout);
+		} else {
+			DNSCache dnsCache = this.dnsCache;
+			socket = new Socket();
+			if (localAddr != null && localAddr.length() > 0)
+				socket.bind(new InetSocketAddress(dnsCache != null ? dnsCache.getByName(localAddr) : InetAddress.getByName(localAddr), 0));
+			socket.connect(dnsCache != null ? new InetSocketAddress(dnsCache.getByName(host), port) : new InetSocketAddress(host, port), timeout);
+		}
+		try {
+			if (socket instanceof SSLSocket) {
+				SSLSocket sslSocket = (SSLSocket) socket;
+				Http2.setApplicationProtocols(sslSocket, Http2.ALPN_H2, Http2.ALPN_HTTP_1_1);
+				sslSocket.startHandshake();
+				if (!Http2.ALPN_H2.equals(Http2.getApplicationProtocol(sslSocket))) {
+					log.debug(key + " does not support HTTP/2, using HTTP/1.1.");
+					socket.close();
+					return null;
+				}
+			}
+			socket.setTcpNoDelay(true);
+			// the read timeout determines how often the connection is checked for idleness
+			socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, idleTimeout));
+			Http2ClientConnection connection = new Http2ClientConnection(key, socket,
+					new BufferedInputStream(socket.getInputStream(), 16384), new BufferedOutputStream(socket.getOutputStream(), 16384),
+					0, idleTimeout); // like HTTP/1.1, wait for the server as long as it takes
+			connection.start(timeout);
+			log.debug("Opened HTTP/2 connection to " + key + ".");
+			return connection;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	public DNSCache getDnsCache() {
+		return dnsCache;
+	}
+
+	/**
+	 * Sets the cache used to resolve the hosts of cleartext connections opened from now on. If null (the default),
+	 * hosts are resolved on every new connection.
+	 */
+	public void setDnsCache(DNSCache dnsCache) {
+		this.dnsCache = dnsCache;
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	public int getConnectionCount() {
+		int count = 0;
+		for (Destination destination : destinations.values())
+			for (Http2ClientConnection connection : destination.connections)
+				if (!connection.isClosed())
+					count++;
+		return count;
+	}
+
+	/**
+	 * Sends GOAWAY on all connections: Exchanges in progress are completed, then the connections are closed.
+	 */
+	public void shutdownWhenDone() {
+		shutdown = true;
+		for (Destination destination : destinations.values()) {
+			for (Http2ClientConnection connection : destination.connections) {
+				connection.goAway(Http2.NO_ERROR);
+				if (connection.getStreamCount() == 0)
+					connection.close();
+			}
+		}
+	}
+
+}
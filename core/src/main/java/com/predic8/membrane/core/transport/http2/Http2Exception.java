@@ -0,0 +1,54 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 protocol violation (see RFC 7540, section 5.4).
+ *
+ * A stream ID of 0 denotes a connection error, which terminates the whole connection. Otherwise only the stream is
+ * reset.
+ */
+public class Http2Exception extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int streamId;
+	private final int errorCode;
+
+	public Http2Exception(int errorCode, String message) {
+		this(0, errorCode, message);
+	}
+
+	public Http2Exception(int streamId, int errorCode, String message) {
+		super(message);
+		this.streamId = streamId;
+		this.errorCode = errorCode;
+	}
+
+	public int getStreamId() {
+		return streamId;
+	}
+
+	public int getErrorCode() {
+		return errorCode;
+	}
+
+	public boolean isConnectionError() {
+		return streamId == 0;
+	}
+
+}
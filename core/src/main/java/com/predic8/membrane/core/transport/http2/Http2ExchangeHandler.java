@@ -0,0 +1,159 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.transport.http.AbortException;
+import com.predic8.membrane.core.transport.http.AbstractHttpHandler;
+import com.predic8.membrane.core.transport.http.Connection;
+import com.predic8.membrane.core.transport.http.HttpTransport;
+import com.predic8.membrane.core.util.DNSCache;
+
+/**
+ * Runs the exchange of a single HTTP/2 stream through the transport's interceptor chain, like
+ * {@link com.predic8.membrane.core.transport.http.HttpServerHandler} does for an HTTP/1.x request.
+ */
+public class Http2ExchangeHandler extends AbstractHttpHandler implements Runnable {
+
+	private static final Log log = LogFactory.getLog(Http2ExchangeHandler.class.getName());
+
+	private final Http2ServerConnection connection;
+	private final Http2Stream stream;
+
+	public Http2ExchangeHandler(Http2ServerConnection connection, Http2Stream stream, Request request) {
+		super(connection.getTransport());
+		this.connection = connection;
+		this.stream = stream;
+		this.srcReq = request;
+	}
+
+	@Override
+	public HttpTransport getTransport() {
+		return (HttpTransport)super.getTransport();
+	}
+
+	public void run() {
+		exchange = new Exchange(this);
+		try {
+			exchange.received();
+			process();
+		} catch (StreamResetException e) {
+			log.debug(e.getMessage());
+		} catch (AbortException e) {
+			log.debug("exchange aborted.");
+		} catch (IOException e) {
+			log.debug("HTTP/2 stream " + stream.getId() + " failed.", e);
+		} catch (Exception e) {
+			log.error("", e);
+		} finally {
+			try {
+				if (!stream.isEndStreamSent())
+					connection.resetStream(stream, Http2.INTERNAL_ERROR);
+				else if (!stream.isEndStreamReceived())
+					// the response is complete: the client may stop sending the request body (RFC 7540, section 8.1)
+					connection.resetStream(stream, Http2.NO_ERROR);
+			} catch (IOException e) {
+				log.debug("Could not reset HTTP/2 stream.", e);
+			}
+
+			// connections cannot be bound to an HTTP/2 stream (see Request.isBindTargetConnectionToIncoming())
+			Connection targetConnection = exchange.getTargetConnection();
+			if (targetConnection != null) {
+				exchange.setTargetConnection(null);
+				try {
+					targetConnection.close();
+				} catch (IOException e) {
+					log.debug("Closing bound connection.", e);
+				}
+			}
+
+			exchange.detach();
+		}
+	}
+
+	private void process() throws Exception {
+		try {
+			DNSCache dnsCache = getTransport().getRouter().getDnsCache();
+			InetAddress remoteAddr = connection.getSocket().getInetAddress();
+			String ip = dnsCache.getHostAddress(remoteAddr);
+			exchange.setRemoteAddrIp(ip);
+			exchange.setRemoteAddr(getTransport().isReverseDNS() ? dnsCache.getHostName(remoteAddr, dnsCache.getReverseLookupTimeout()) : ip);
+
+			exchange.setRequest(srcReq);
+			exchange.setOriginalRequestUri(srcReq.getUri());
+
+			invokeHandlers();
+
+			exchange.blockResponseIfNeeded();
+		} catch (AbortException e) {
+			log.debug("Aborted");
+			exchange.finishExchange(true, e.getMessage());
+
+			writeResponse(exchange.getResponse());
+
+			log.debug("exchange set aborted");
+			return;
+		}
+
+		try {
+			writeResponse(exchange.getResponse());
+			exchange.setCompleted();
+			log.debug("exchange set completed");
+		} catch (Exception e) {
+			exchange.finishExchange(true, e.getMessage());
+			throw e;
+		}
+	}
+
+	private void writeResponse(Response res) throws IOException {
+		connection.writeResponse(stream, res, srcReq.isHEADRequest());
+		exchange.setTimeResSent(System.currentTimeMillis());
+		exchange.collectStatistics();
+	}
+
+	/**
+	 * The input of an HTTP/2 stream cannot be shut down separately.
+	 */
+	@Override
+	public void shutdownInput() throws IOException {
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return connection.getSocket().getLocalAddress();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return connection.getSocket().getLocalPort();
+	}
+
+	public Http2ServerConnection getConnection() {
+		return connection;
+	}
+
+	public Http2Stream getStream() {
+		return stream;
+	}
+
+}
@@ -0,0 +1,149 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+
+/**
+ * Maps between HTTP/2 header lists and the HTTP/1.x based {@link Header} used by the interceptors (see RFC 7540,
+ * section 8.1.2).
+ */
+public class Http2Messages {
+
+	/**
+	 * Header fields only meaningful for a single HTTP/1.x connection, which must not be sent via HTTP/2.
+	 */
+	private static final Set<String> CONNECTION_SPECIFIC = new HashSet<String>();
+
+	static {
+		CONNECTION_SPECIFIC.add("connection");
+		CONNECTION_SPECIFIC.add("keep-alive");
+		CONNECTION_SPECIFIC.add("proxy-connection");
+		CONNECTION_SPECIFIC.add("transfer-encoding");
+		CONNECTION_SPECIFIC.add("upgrade");
+	}
+
+	private static final Map<Integer, String> REASON_PHRASES = new HashMap<Integer, String>();
+
+	static {
+		String[] phrases = { "100", "Continue", "200", "OK", "201", "Created", "202", "Accepted", "204", "No Content",
+				"206", "Partial Content", "301", "Moved Permanently", "302", "Found", "303", "See Other",
+				"304", "Not Modified", "307", "Temporary Redirect", "308", "Permanent Redirect", "400", "Bad Request",
+				"401", "Unauthorized", "403", "Forbidden", "404", "Not Found", "405", "Method Not Allowed",
+				"406", "Not Acceptable", "408", "Request Timeout", "409", "Conflict", "410", "Gone",
+				"411", "Length Required", "412", "Precondition Failed", "413", "Payload Too Large",
+				"415", "Unsupported Media Type", "429", "Too Many Requests", "500", "Internal Server Error",
+				"501", "Not Implemented", "502", "Bad Gateway", "503", "Service Unavailable", "504", "Gateway Timeout" };
+		for (int i = 0; i < phrases.length; i += 2)
+			REASON_PHRASES.put(Integer.parseInt(phrases[i]), phrases[i + 1]);
+	}
+
+	/**
+	 * Appends the header's fields, skipping connection-specific fields and fields listed in <tt>Connection</tt>.
+	 * <tt>Host</tt> is skipped as well, as it is replaced by <tt>:authority</tt>.
+	 *
+	 * @param fields alternating lower-case names and values
+	 */
+	public static void addFields(Header header, List<String> fields) {
+		HeaderField[] all = header.getAllHeaderFields();
+		Set<String> listedInConnection = null;
+		for (HeaderField field : all) {
+			if (!field.getHeaderName().equals(Header.CONNECTION))
+				continue;
+			for (String token : field.getValue().split(",")) {
+				if (listedInConnection == null)
+					listedInConnection = new HashSet<String>();
+				listedInConnection.add(token.trim().toLowerCase(Locale.ENGLISH));
+			}
+		}
+		for (HeaderField field : all) {
+			String name = field.getHeaderName().toString().toLowerCase(Locale.ENGLISH);
+			if (CONNECTION_SPECIFIC.contains(name) || listedInConnection != null && listedInConnection.contains(name))
+				continue;
+			if (name.equals("host"))
+				continue;
+			if (name.equals("te") && !field.getValue().trim().equalsIgnoreCase("trailers"))
+				continue;
+			fields.add(name);
+			fields.add(field.getValue());
+		}
+	}
+
+	/**
+	 * Converts a received header list. Multiple <tt>cookie</tt> fields are joined into one (see RFC 7540, section
+	 * 8.1.2.5).
+	 *
+	 * @param pseudoHeaders receives the pseudo-header fields (like <tt>:path</tt>)
+	 * @return the regular header fields
+	 * @throws Http2Exception a stream error, if the header list is malformed
+	 */
+	public static Header toHeader(List<HeaderField> fields, int streamId, Map<String, String> pseudoHeaders) throws Http2Exception {
+		Header header = new Header();
+		StringBuilder cookie = null;
+		boolean regularFieldSeen = false;
+		for (HeaderField field : fields) {
+			String name = field.getHeaderName().toString();
+			if (name.startsWith(":")) {
+				if (regularFieldSeen)
+					throw malformed(streamId, "Pseudo-header field after regular header field.");
+				if (pseudoHeaders.put(name, field.getValue()) != null)
+					throw malformed(streamId, "Duplicate pseudo-header field " + name + ".");
+				continue;
+			}
+			regularFieldSeen = true;
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (c >= 'A' && c <= 'Z')
+					throw malformed(streamId, "Upper-case header field name " + name + ".");
+			}
+			if (CONNECTION_SPECIFIC.contains(name))
+				throw malformed(streamId, "Connection-specific header field " + name + ".");
+			if (name.equals("te") && !field.getValue().equals("trailers"))
+				throw malformed(streamId, "Header field te with value other than trailers.");
+			if (name.equals("cookie")) {
+				if (cookie == null)
+					cookie = new StringBuilder(field.getValue());
+				else
+					cookie.append("; ").append(field.getValue());
+				continue;
+			}
+			header.add(field);
+		}
+		if (cookie != null)
+			header.add(Header.COOKIE, cookie.toString());
+		return header;
+	}
+
+	/**
+	 * HTTP/2 does not transport reason phrases: This provides one for responses passed on via HTTP/1.x.
+	 */
+	public static String getReasonPhrase(int statusCode) {
+		String phrase = REASON_PHRASES.get(statusCode);
+		return phrase == null ? "" : phrase;
+	}
+
+	private static Http2Exception malformed(int streamId, String message) {
+		return new Http2Exception(streamId, Http2.PROTOCOL_ERROR, message);
+	}
+
+}
@@ -0,0 +1,201 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.predic8.membrane.core.http.AbstractBody;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.transport.http.HttpTransport;
+
+/**
+ * The server side of an HTTP/2 connection: Each stream opened by the client is turned into a {@link Request} and
+ * handled by an {@link Http2ExchangeHandler} on the transport's executor, so that the streams of a connection are
+ * processed concurrently.
+ */
+public class Http2ServerConnection extends Http2Connection {
+
+	private static final Log log = LogFactory.getLog(Http2ServerConnection.class.getName());
+
+	static final int MAX_CONCURRENT_STREAMS = 100;
+
+	private final HttpTransport transport;
+	private volatile int lastStreamId;
+
+	public Http2ServerConnection(HttpTransport transport, Socket socket, InputStream in, OutputStream out) {
+		super(socket, in, out, transport.getSocketTimeout());
+		this.transport = transport;
+	}
+
+	/**
+	 * Serves the connection until it is closed. The client's connection preface must already have been consumed.
+	 */
+	public void serve() throws IOException {
+		sendSettings();
+		readFrames();
+	}
+
+	public HttpTransport getTransport() {
+		return transport;
+	}
+
+	@Override
+	protected int[] getLocalSettings() {
+		return new int[] {
+				Http2.SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS,
+				Http2.SETTINGS_INITIAL_WINDOW_SIZE, LOCAL_INITIAL_WINDOW_SIZE,
+				Http2.SETTINGS_MAX_HEADER_LIST_SIZE, LOCAL_MAX_HEADER_LIST_SIZE,
+		};
+	}
+
+	@Override
+	protected void onHeaders(int streamId, List<HeaderField> fields, boolean endStream) throws IOException {
+		if ((streamId & 1) == 0)
+			throw new Http2Exception(Http2.PROTOCOL_ERROR, "Client opened stream with even ID " + streamId + ".");
+
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			// trailers: not passed on, as HTTP/1.x messages do not have them outside of chunked bodies
+			if (!endStream)
+				throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "Trailers without END_STREAM.");
+			endStreamReceived(stream);
+			return;
+		}
+		if (streamId <= lastStreamId) {
+			// a stream we already reset
+			return;
+		}
+		lastStreamId = streamId;
+		if (goAwaySent)
+			return;
+		if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+			writer.writeRstStream(streamId, Http2.REFUSED_STREAM);
+			return;
+		}
+
+		Request request = createRequest(streamId, fields);
+		stream = createStream(streamId);
+		if (endStream) {
+			stream.endStreamReceived();
+		} else {
+			if (request.getHeader().hasContentLength()) {
+				request.setBody(new Body(stream.getInputStream(), request.getHeader().getContentLength()));
+			} else {
+				// the length is unknown: forward the body using chunked encoding
+				request.getHeader().add(Header.TRANSFER_ENCODING, Header.CHUNKED);
+				request.setBody(new Body(stream.getInputStream()));
+			}
+		}
+
+		try {
+			transport.getExecutorService().execute(new Http2ExchangeHandler(this, stream, request));
+		} catch (RejectedExecutionException e) {
+			log.error("Http2ExchangeHandler execution rejected. Might be due to a proxies.xml hot deployment in progress or a low"
+					+ " value for <transport maxThreadPoolSize=\"...\">.");
+			resetStream(stream, Http2.REFUSED_STREAM);
+		}
+	}
+
+	private Request createRequest(int streamId, List<HeaderField> fields) throws Http2Exception {
+		Map<String, String> pseudoHeaders = new HashMap<String, String>(8);
+		Header header = Http2Messages.toHeader(fields, streamId, pseudoHeaders);
+		for (String name : pseudoHeaders.keySet())
+			if (!name.equals(":method") && !name.equals(":scheme") && !name.equals(":authority") && !name.equals(":path"))
+				throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "Invalid pseudo-header field " + name + ".");
+
+		String method = pseudoHeaders.get(":method");
+		String path = pseudoHeaders.get(":path");
+		String authority = pseudoHeaders.get(":authority");
+		if (Request.METHOD_CONNECT.equals(method))
+			throw new Http2Exception(streamId, Http2.HTTP_1_1_REQUIRED, "CONNECT is only supported via HTTP/1.1.");
+		if (method == null || path == null || path.length() == 0 || pseudoHeaders.get(":scheme") == null)
+			throw new Http2Exception(streamId, Http2.PROTOCOL_ERROR, "Missing pseudo-header field.");
+
+		if (authority != null && header.getFirstValue(Header.HOST) == null)
+			header.add(Header.HOST, authority);
+		// the client sends the body anyway: we do not forward "100 Continue" via HTTP/2
+		header.removeFields(Header.EXPECT);
+
+		Request request = new Request();
+		request.setMethod(method);
+		request.setUri(path);
+		request.setVersion("1.1");
+		request.setHeader(header);
+		return request;
+	}
+
+	/**
+	 * Sends the response on the stream.
+	 *
+	 * @param headRequest whether the response answers a HEAD request (and therefore has no body)
+	 */
+	public void writeResponse(Http2Stream stream, Response response, boolean headRequest) throws IOException {
+		List<String> fields = new ArrayList<String>();
+		fields.add(":status");
+		fields.add(String.valueOf(response.getStatusCode()));
+		Http2Messages.addFields(response.getHeader(), fields);
+
+		int status = response.getStatusCode();
+		AbstractBody body = response.getBody();
+		boolean noBody = headRequest || status < 200 || status == 204 || status == 304 || body.isRead() && body.getLength() == 0;
+		writeHeaders(stream, fields, noBody);
+		if (noBody)
+			return;
+
+		Http2BodyTransferrer transferrer = new Http2BodyTransferrer(this, stream);
+		body.write(transferrer);
+		transferrer.finish();
+	}
+
+	@Override
+	protected void onGoAway(int lastStreamId, int errorCode) {
+		log.debug("Client sent GOAWAY (error code " + errorCode + ").");
+	}
+
+	@Override
+	protected boolean onReadTimeout() {
+		if (!streams.isEmpty())
+			return true;
+		log.debug("Closing idle HTTP/2 connection.");
+		goAway(Http2.NO_ERROR);
+		return false;
+	}
+
+	@Override
+	protected boolean isIdle(int streamId) {
+		return (streamId & 1) == 0 || streamId > lastStreamId;
+	}
+
+	@Override
+	protected int getLastPeerStreamId() {
+		return lastStreamId;
+	}
+
+}
@@ -0,0 +1,240 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import com.predic8.membrane.core.http.HeaderField;
+
+/**
+ * A stream of an {@link Http2Connection}.
+ *
+ * Received DATA frames are queued and can be read via {@link #getInputStream()}. Flow control credit is returned to
+ * the peer as the data is consumed, so that the queue never holds more than the stream's receive window.
+ */
+public class Http2Stream {
+
+	private final Http2Connection connection;
+	private final int id;
+
+	/**
+	 * The send window, guarded by the {@link #connection}'s lock.
+	 */
+	long sendWindow;
+
+	// guarded by this
+	private List<HeaderField> headers;
+	private final ArrayDeque<byte[]> received = new ArrayDeque<byte[]>();
+	private int positionInFirst;
+	private int receiveWindow;
+	private int consumedSinceUpdate;
+	private boolean endStreamReceived;
+	private IOException error;
+
+	private volatile boolean endStreamSent;
+	private volatile boolean reset;
+
+	private final InputStream inputStream = new InputStream() {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			int n, update = 0;
+			synchronized (Http2Stream.this) {
+				long deadline = System.currentTimeMillis() + connection.getStreamTimeout();
+				while (received.isEmpty() && !endStreamReceived && error == null)
+					await(deadline, "data");
+				if (error != null)
+					throw error;
+				if (received.isEmpty())
+					return -1;
+				byte[] first = received.peek();
+				n = Math.min(len, first.length - positionInFirst);
+				System.arraycopy(first, positionInFirst, b, off, n);
+				positionInFirst += n;
+				if (positionInFirst == first.length) {
+					received.poll();
+					positionInFirst = 0;
+				}
+				consumedSinceUpdate += n;
+				if (!endStreamReceived && consumedSinceUpdate >= connection.getLocalInitialWindowSize() / 2) {
+					update = consumedSinceUpdate;
+					consumedSinceUpdate = 0;
+					receiveWindow += update;
+				}
+			}
+			if (update > 0)
+				connection.sendWindowUpdate(id, update);
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			synchronized (Http2Stream.this) {
+				int available = 0;
+				for (byte[] data : received)
+					available += data.length;
+				return available - positionInFirst;
+			}
+		}
+	};
+
+	public Http2Stream(Http2Connection connection, int id, int sendWindow, int receiveWindow) {
+		this.connection = connection;
+		this.id = id;
+		this.sendWindow = sendWindow;
+		this.receiveWindow = receiveWindow;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the data received on the stream. Returns EOF after the peer ended the stream.
+	 */
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/**
+	 * Waits for a notification, while holding the lock of this stream.
+	 */
+	private void await(long deadline, String what) throws IOException {
+		long timeout = connection.getStreamTimeout();
+		long remaining = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+		if (timeout != 0 && remaining <= 0)
+			throw new SocketTimeoutException("Timeout while waiting for HTTP/2 stream " + id + " " + what + ".");
+		try {
+			wait(remaining);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for HTTP/2 stream " + id + " " + what + ".");
+		}
+	}
+
+	/**
+	 * Called by the reading thread for the header block starting a response.
+	 */
+	synchronized void headersReceived(List<HeaderField> headers) {
+		this.headers = headers;
+		notifyAll();
+	}
+
+	synchronized boolean isHeadersReceived() {
+		return headers != null;
+	}
+
+	/**
+	 * Waits for the header block starting the response.
+	 */
+	public synchronized List<HeaderField> readHeaders() throws IOException {
+		long deadline = System.currentTimeMillis() + connection.getStreamTimeout();
+		while (headers == null && error == null)
+			await(deadline, "headers");
+		if (headers == null)
+			throw error;
+		return headers;
+	}
+
+	/**
+	 * Called by the reading thread for each DATA frame.
+	 *
+	 * @param flowControlled the length of the whole frame payload including padding
+	 */
+	synchronized void dataReceived(byte[] data, int offset, int length, int flowControlled, boolean endStream) throws Http2Exception {
+		if (endStreamReceived)
+			throw new Http2Exception(id, Http2.STREAM_CLOSED, "DATA received after END_STREAM.");
+		receiveWindow -= flowControlled;
+		if (receiveWindow < 0)
+			throw new Http2Exception(id, Http2.FLOW_CONTROL_ERROR, "Stream receive window exceeded.");
+		// padding counts as consumed immediately
+		consumedSinceUpdate += flowControlled - length;
+		if (length > 0 && error == null) {
+			byte[] copy = new byte[length];
+			System.arraycopy(data, offset, copy, 0, length);
+			received.add(copy);
+		}
+		if (endStream)
+			endStreamReceived = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called by the reading thread, if the peer ended the stream with a header block (trailers).
+	 */
+	synchronized void endStreamReceived() throws Http2Exception {
+		if (endStreamReceived)
+			throw new Http2Exception(id, Http2.STREAM_CLOSED, "HEADERS received after END_STREAM.");
+		endStreamReceived = true;
+		notifyAll();
+	}
+
+	public synchronized boolean isEndStreamReceived() {
+		return endStreamReceived;
+	}
+
+	void endStreamSent() {
+		endStreamSent = true;
+	}
+
+	public boolean isEndStreamSent() {
+		return endStreamSent;
+	}
+
+	/**
+	 * Called when the stream was reset by either side, or when the connection was closed. Blocked readers and
+	 * writers of the stream fail with the given exception.
+	 */
+	void reset(IOException cause) {
+		reset = true;
+		synchronized (this) {
+			if (error == null)
+				error = cause;
+			received.clear();
+			notifyAll();
+		}
+	}
+
+	public boolean isReset() {
+		return reset;
+	}
+
+	synchronized IOException getError() {
+		return error;
+	}
+
+	public boolean isClosed() {
+		return reset || endStreamSent && isEndStreamReceived();
+	}
+
+	@Override
+	public String toString() {
+		return "HTTP/2 stream " + id;
+	}
+
+}
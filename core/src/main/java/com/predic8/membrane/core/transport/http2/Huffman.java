@@ -0,0 +1,162 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The static Huffman code used by HPACK (see RFC 7541, Appendix B).
+ *
+ * The code is canonical: ordering the symbols by code length and then by symbol value and counting upwards yields
+ * exactly the codes listed in the RFC. Therefore only the code lengths are stored and the codes are computed when the
+ * class is loaded.
+ */
+public class Huffman {
+
+	private static final int EOS = 256;
+
+	private static final byte[] LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30
+	};
+
+	private static final int[] CODES = new int[LENGTHS.length];
+
+	/**
+	 * The decoding tree: <tt>TREE[2 * node + bit]</tt> is the index of the child node, or <tt>-(symbol + 1)</tt> for a
+	 * leaf.
+	 */
+	private static final int[] TREE;
+
+	static {
+		Integer[] symbols = new Integer[LENGTHS.length];
+		for (int i = 0; i < symbols.length; i++)
+			symbols[i] = i;
+		Arrays.sort(symbols, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = LENGTHS[a] - LENGTHS[b];
+				return c != 0 ? c : a - b;
+			}
+		});
+		int code = 0;
+		for (int i = 0; i < symbols.length; i++) {
+			if (i > 0)
+				code = (code + 1) << (LENGTHS[symbols[i]] - LENGTHS[symbols[i - 1]]);
+			CODES[symbols[i]] = code;
+		}
+
+		// a complete binary tree with 257 leaves has 256 inner nodes
+		int[] tree = new int[2 * (LENGTHS.length - 1)];
+		int nodes = 1;
+		for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+			int node = 0;
+			for (int bit = LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int index = 2 * node + ((CODES[symbol] >>> bit) & 1);
+				if (tree[index] == 0)
+					tree[index] = nodes++;
+				node = tree[index];
+			}
+			tree[2 * node + (CODES[symbol] & 1)] = -(symbol + 1);
+		}
+		TREE = tree;
+	}
+
+	/**
+	 * @return the number of bytes needed to encode the given bytes
+	 */
+	public static int getEncodedLength(byte[] src) {
+		long bits = 0;
+		for (byte b : src)
+			bits += LENGTHS[b & 0xFF];
+		return (int) ((bits + 7) >> 3);
+	}
+
+	/**
+	 * Encodes the bytes into <tt>dst</tt>, which must have space for {@link #getEncodedLength(byte[])} bytes.
+	 *
+	 * @return the position after the last byte written
+	 */
+	public static int encode(byte[] src, byte[] dst, int pos) {
+		long current = 0;
+		int bits = 0;
+		for (byte b : src) {
+			int symbol = b & 0xFF;
+			current = (current << LENGTHS[symbol]) | CODES[symbol];
+			bits += LENGTHS[symbol];
+			while (bits >= 8) {
+				bits -= 8;
+				dst[pos++] = (byte) (current >>> bits);
+			}
+		}
+		if (bits > 0) {
+			// pad with the most significant bits of EOS, which are all ones
+			dst[pos++] = (byte) ((current << (8 - bits)) | (0xFF >>> bits));
+		}
+		return pos;
+	}
+
+	/**
+	 * @throws Http2Exception if the input is not a valid Huffman encoded string
+	 */
+	public static byte[] decode(byte[] src, int offset, int length) throws Http2Exception {
+		// the shortest code has 5 bits
+		byte[] dst = new byte[length * 8 / 5];
+		int pos = 0;
+		int node = 0;
+		int pendingBits = 0;
+		boolean pendingAllOnes = true;
+		for (int i = offset; i < offset + length; i++) {
+			int b = src[i] & 0xFF;
+			for (int bit = 7; bit >= 0; bit--) {
+				int value = (b >>> bit) & 1;
+				int next = TREE[2 * node + value];
+				if (next < 0) {
+					int symbol = -next - 1;
+					if (symbol == EOS)
+						throw new Http2Exception(Http2.COMPRESSION_ERROR, "Huffman encoded string contains EOS.");
+					dst[pos++] = (byte) symbol;
+					node = 0;
+					pendingBits = 0;
+					pendingAllOnes = true;
+				} else {
+					node = next;
+					pendingBits++;
+					pendingAllOnes &= value == 1;
+				}
+			}
+		}
+		if (pendingBits > 7 || !pendingAllOnes)
+			throw new Http2Exception(Http2.COMPRESSION_ERROR, "Invalid padding of Huffman encoded string.");
+		return Arrays.copyOf(dst, pos);
+	}
+
+}
@@ -0,0 +1,37 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import java.io.IOException;
+
+/**
+ * Thrown when reading from or writing to a stream reset via RST_STREAM.
+ */
+public class StreamResetException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int errorCode;
+
+	public StreamResetException(int streamId, int errorCode) {
+		super("HTTP/2 stream " + streamId + " was reset (error code " + errorCode + ").");
+		this.errorCode = errorCode;
+	}
+
+	public int getErrorCode() {
+		return errorCode;
+	}
+
+}
@@ -128,7 +128,7 @@ public class SSLContextCollection implements SSLProvider {
 	}
 
 	public ServerSocket createServerSocket(int port, int backlog, InetAddress bindAddress) throws IOException {
-		return new ServerSocket(port, 50, bindAddress);
+		return new ServerSocket(port, backlog, bindAddress);
 	}
 
 	@Override
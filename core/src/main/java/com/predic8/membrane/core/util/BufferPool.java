@@ -0,0 +1,225 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A pool of byte arrays used as temporary I/O buffers, to avoid allocating (and zeroing) a new buffer for each
+ * connection, message body or stream pump.
+ *
+ * Buffers are organized in size classes (powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}). Each class
+ * keeps a bounded number of free buffers in an array of slots, which is probed starting at a position derived from
+ * the current thread, so that neither acquiring nor releasing a buffer allocates or locks. When no free buffer is
+ * found, a new one is allocated; when all probed slots are occupied, a released buffer is left to the garbage
+ * collector. Requests larger than {@link #MAX_SIZE} are not pooled.
+ *
+ * A buffer must not be accessed after it has been released. For tests, {@link #setLeakDetection(boolean)} tracks
+ * the buffers currently acquired and detects buffers released twice (while still in the pool).
+ */
+public class BufferPool {
+
+	public static final int MIN_SIZE = 512;
+	public static final int MAX_SIZE = 65536;
+
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+	private static final int PROBES = 8;
+
+	private static final BufferPool INSTANCE;
+
+	static {
+		String slots = System.getProperty("membrane.core.util.bufferpool.slots");
+		INSTANCE = new BufferPool(slots == null ? 64 : Integer.parseInt(slots));
+	}
+
+	/**
+	 * @return the pool shared by the HTTP transport, message bodies and stream pumps
+	 */
+	public static BufferPool getInstance() {
+		return INSTANCE;
+	}
+
+	private final AtomicReferenceArray<byte[]>[] classes;
+	private final int slotMask;
+	private volatile boolean enabled = true;
+
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+	private final AtomicLong allocated = new AtomicLong();
+
+	private volatile Map<byte[], Throwable> outstanding;
+
+	/**
+	 * @param slots the maximum number of free buffers kept per size class (rounded up to a power of two), or 0 to
+	 *              disable pooling
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int slots) {
+		int n = slots <= 0 ? 0 : Integer.highestOneBit(slots - 1) << 1;
+		if (slots == 1)
+			n = 1;
+		slotMask = n - 1;
+		classes = new AtomicReferenceArray[SIZE_CLASSES];
+		for (int i = 0; i < SIZE_CLASSES; i++)
+			classes[i] = new AtomicReferenceArray<byte[]>(n);
+		enabled = n > 0;
+	}
+
+	/**
+	 * @return the index of the smallest size class holding at least size bytes, or -1 if size exceeds
+	 *         {@link #MAX_SIZE}
+	 */
+	private static int getSizeClass(int size) {
+		if (size > MAX_SIZE)
+			return -1;
+		if (size <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	private int getStartSlot() {
+		// Fibonacci hashing of the thread ID spreads concurrent threads over the slots
+		return (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & slotMask;
+	}
+
+	/**
+	 * @return a buffer holding at least size bytes. Its content is undefined.
+	 */
+	public byte[] acquire(int size) {
+		int sizeClass = getSizeClass(size);
+		if (sizeClass == -1)
+			return new byte[size];
+
+		byte[] buffer = null;
+		if (enabled) {
+			AtomicReferenceArray<byte[]> slots = classes[sizeClass];
+			int start = getStartSlot();
+			for (int i = 0; i < PROBES && i <= slotMask; i++) {
+				int slot = (start + i) & slotMask;
+				if (slots.get(slot) != null && (buffer = slots.getAndSet(slot, null)) != null)
+					break;
+			}
+		}
+		if (buffer == null) {
+			buffer = new byte[MIN_SIZE << sizeClass];
+			allocated.incrementAndGet();
+		}
+		acquired.incrementAndGet();
+
+		Map<byte[], Throwable> o = outstanding;
+		if (o != null)
+			synchronized (o) {
+				o.put(buffer, new Throwable("Buffer of " + buffer.length + " bytes acquired by thread '" +
+						Thread.currentThread().getName() + "'."));
+			}
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquire(int)} to the pool. Buffers of other sizes are ignored.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer.length > MAX_SIZE || buffer.length < MIN_SIZE || Integer.bitCount(buffer.length) != 1)
+			return;
+
+		AtomicReferenceArray<byte[]> slots = classes[getSizeClass(buffer.length)];
+		Map<byte[], Throwable> o = outstanding;
+		if (o != null)
+			synchronized (o) {
+				// buffers acquired before leak detection was enabled are not tracked
+				if (o.remove(buffer) == null && isFree(slots, buffer))
+					throw new IllegalStateException("Buffer released twice.");
+			}
+		released.incrementAndGet();
+
+		if (!enabled)
+			return;
+		int start = getStartSlot();
+		for (int i = 0; i < PROBES && i <= slotMask; i++) {
+			int slot = (start + i) & slotMask;
+			if (slots.get(slot) == null && slots.compareAndSet(slot, null, buffer))
+				return;
+		}
+	}
+
+	private static boolean isFree(AtomicReferenceArray<byte[]> slots, byte[] buffer) {
+		for (int i = 0; i < slots.length(); i++)
+			if (slots.get(i) == buffer)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Enables or disables pooling. A disabled pool allocates a new buffer for each call to {@link #acquire(int)}.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled && slotMask >= 0;
+		if (!enabled)
+			for (AtomicReferenceArray<byte[]> slots : classes)
+				for (int i = 0; i < slots.length(); i++)
+					slots.set(i, null);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts or stops tracking the buffers currently acquired. This is expensive and meant for tests.
+	 */
+	public synchronized void setLeakDetection(boolean leakDetection) {
+		outstanding = leakDetection ? new IdentityHashMap<byte[], Throwable>() : null;
+	}
+
+	/**
+	 * @return for each buffer acquired (since leak detection has been enabled) but not released yet, where it has
+	 *         been acquired
+	 */
+	public List<Throwable> getLeaks() {
+		Map<byte[], Throwable> o = outstanding;
+		if (o == null)
+			throw new IllegalStateException("Leak detection is not enabled.");
+		synchronized (o) {
+			return new ArrayList<Throwable>(o.values());
+		}
+	}
+
+	/**
+	 * @return the number of buffers acquired so far
+	 */
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	/**
+	 * @return the number of buffers released so far
+	 */
+	public long getReleased() {
+		return released.get();
+	}
+
+	/**
+	 * @return the number of buffers allocated so far, because no free buffer was available
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+}
@@ -18,6 +18,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -44,33 +45,44 @@ public class ByteUtil {
 		return content;
 	}
 
+	/**
+	 * Reads the stream until its end, collecting the data in pooled buffers of growing size, so that the only
+	 * allocation not recycled is the returned array.
+	 */
 	public static byte[] getByteArrayData(InputStream stream) throws IOException {
-
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-		byte[] buffer = new byte[2048];
-		while (true) {
-			int read = stream.read(buffer);
-			if (read < 0)
-				break;
-			bos.write(buffer, 0, read);
-		}
-
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = pool.acquire(4096);
 		try {
-			bos.close();
-		} catch (IOException e) {
-			log.error("", e);
+			int length = 0;
+			while (true) {
+				if (length == buffer.length) {
+					byte[] larger = pool.acquire(2 * buffer.length);
+					System.arraycopy(buffer, 0, larger, 0, length);
+					pool.release(buffer);
+					buffer = larger;
+				}
+				int read = stream.read(buffer, length, buffer.length - length);
+				if (read < 0)
+					break;
+				length += read;
+			}
+			return Arrays.copyOf(buffer, length);
+		} finally {
+			pool.release(buffer);
 		}
-
-		return bos.toByteArray();
 	}
 
 	public static void readStream(InputStream stream) throws IOException {
-		byte[] buffer = new byte[2048];
-		while (true) {
-			int read = stream.read(buffer);
-			if (read < 0)
-				break;
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = pool.acquire(2048);
+		try {
+			while (true) {
+				int read = stream.read(buffer);
+				if (read < 0)
+					break;
+			}
+		} finally {
+			pool.release(buffer);
 		}
 	}
 
@@ -15,58 +15,429 @@
 package com.predic8.membrane.core.util;
 
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
- * See InetAddress Caching of InetAddress class
+ * Caches forward (host name to addresses) and reverse (address to host name) DNS lookups.
+ *
+ * Successful lookups are cached for {@link #getTtl()} ms, failed ones for {@link #getNegativeTtl()} ms. Entries
+ * still used when 80% of their TTL have passed are refreshed in the background, so that request threads only
+ * block on the first lookup of a name. If a refresh fails, the last known addresses are used for up to another TTL,
+ * so that short outages of the name server do not affect connections to known hosts. Each kind of lookup caches at
+ * most {@link #getMaxEntries()} entries.
  *
- * Java 1.5 implementation of InetAddress Caching differs from Java 1.6 one.
+ * The default values can be set using the system properties
+ * <tt>membrane.core.util.dnscache.ttl</tt>, <tt>membrane.core.util.dnscache.negativettl</tt>,
+ * <tt>membrane.core.util.dnscache.maxentries</tt> and <tt>membrane.core.util.dnscache.reverselookuptimeout</tt>.
+ *
+ * Note that the JVM caches lookups as well (see the <tt>networkaddress.cache.ttl</tt> security property of
+ * {@link InetAddress}).
  */
 public class DNSCache {
 
-	private Map<InetAddress, String> hostNames = new Hashtable<InetAddress, String>();
-	private Map<InetAddress, String> canonicalHostNames = new Hashtable<InetAddress, String>();
-	private Map<InetAddress, String> hostAddresses = new Hashtable<InetAddress, String>();
+	private static final Log log = LogFactory.getLog(DNSCache.class.getName());
+
+	private volatile long ttl = Long.getLong("membrane.core.util.dnscache.ttl", 60000);
+	private volatile long negativeTtl = Long.getLong("membrane.core.util.dnscache.negativettl", 10000);
+	private volatile int maxEntries = Integer.getInteger("membrane.core.util.dnscache.maxentries", 10000);
+	private volatile long reverseLookupTimeout = Long.getLong("membrane.core.util.dnscache.reverselookuptimeout", 1000);
+
+	private final Cache<String, InetAddress[]> addresses = new Cache<String, InetAddress[]>() {
+		@Override
+		protected InetAddress[] lookup(String host) throws UnknownHostException {
+			return lookupAddresses(host);
+		}
+	};
+
+	private final Cache<InetAddress, String> hostNames = new ReverseCache() {
+		@Override
+		protected String lookup(InetAddress address) {
+			return lookupHostName(address);
+		}
+	};
+
+	private final Cache<InetAddress, String> canonicalHostNames = new ReverseCache() {
+		@Override
+		protected String lookup(InetAddress address) {
+			return lookupCanonicalHostName(address);
+		}
+	};
+
+	private final Cache<InetAddress, String> hostAddresses = new Cache<InetAddress, String>() {
+		@Override
+		protected String lookup(InetAddress address) {
+			return address.getHostAddress();
+		}
+	};
+
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DNS Lookup");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	public DNSCache() {
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return the first address of the host
+	 */
+	public InetAddress getByName(String host) throws UnknownHostException {
+		return getAllByName(host)[0];
+	}
+
+	public InetAddress[] getAllByName(String host) throws UnknownHostException {
+		return addresses.get(host).getValue();
+	}
+
+	/**
+	 * Like {@link #getByName(String)}, but does not block: If the host is not cached, it is looked up in the
+	 * background.
+	 *
+	 * @return the first address of the host, or null if the lookup has not completed yet
+	 */
+	public InetAddress getByNameIfResolved(String host) throws UnknownHostException {
+		Entry<InetAddress[]> entry = addresses.getIfResolved(host);
+		return entry != null ? entry.getValue()[0] : null;
+	}
 
+	/**
+	 * @return the host name or, if the reverse lookup failed, the textual representation of the address (like
+	 *         {@link InetAddress#getHostName()})
+	 */
 	public String getHostName(InetAddress address) {
-		if (hostNames.containsKey(address))
-			return hostNames.get(address);
+		String hostName = hostNames.getValueOrNull(address);
+		return hostName != null ? hostName : address.getHostAddress();
+	}
 
-		String hostName = address.getHostName();
-		hostNames.put(address, hostName);
-		return hostName;
+	/**
+	 * Like {@link #getHostName(InetAddress)}, but waits at most <code>timeout</code> ms for the reverse lookup.
+	 *
+	 * @return the host name or, if the lookup did not complete in time, the textual representation of the address.
+	 *         The lookup continues in the background: Its result is returned by subsequent calls.
+	 */
+	public String getHostName(InetAddress address, long timeout) {
+		String hostName = hostNames.get(address, timeout);
+		return hostName != null ? hostName : address.getHostAddress();
 	}
 
+	/**
+	 * @return see {@link #getHostName(InetAddress)}
+	 */
 	public String getCanonicalHostName(InetAddress address) {
-		if (canonicalHostNames.containsKey(address))
-			return canonicalHostNames.get(address);
+		String hostName = canonicalHostNames.getValueOrNull(address);
+		return hostName != null ? hostName : address.getHostAddress();
+	}
 
-		String canonicalHostName = address.getCanonicalHostName();
-		canonicalHostNames.put(address, canonicalHostName);
-		return canonicalHostName;
+	/**
+	 * Like {@link #getCanonicalHostName(InetAddress)}, but waits at most <code>timeout</code> ms for the reverse
+	 * lookup.
+	 *
+	 * @return see {@link #getHostName(InetAddress, long)}
+	 */
+	public String getCanonicalHostName(InetAddress address, long timeout) {
+		String hostName = canonicalHostNames.get(address, timeout);
+		return hostName != null ? hostName : address.getHostAddress();
 	}
 
 	public String getHostAddress(InetAddress address) {
-		if (hostAddresses.containsKey(address))
-			return hostAddresses.get(address);
-
-		String hostAddress = address.getHostAddress();
-		hostAddresses.put(address, hostAddress);
-		return hostAddress;
+		return hostAddresses.getValueOrNull(address);
 	}
 
 	public Collection<String> getCachedHostNames() {
-		return hostNames.values();
+		return hostNames.getCachedValues();
 	}
 
 	public Collection<String> getCachedCanonicalHostNames() {
-		return canonicalHostNames.values();
+		return canonicalHostNames.getCachedValues();
 	}
 
 	public Collection<String> getCachedHostAddresses() {
-		return hostAddresses.values();
+		return hostAddresses.getCachedValues();
+	}
+
+	protected InetAddress[] lookupAddresses(String host) throws UnknownHostException {
+		return InetAddress.getAllByName(host);
+	}
+
+	protected String lookupHostName(InetAddress address) {
+		return address.getHostName();
+	}
+
+	protected String lookupCanonicalHostName(InetAddress address) {
+		return address.getCanonicalHostName();
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @param ttl the time in ms a successful lookup is cached
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	/**
+	 * @param negativeTtl the time in ms a failed lookup is cached
+	 */
+	public void setNegativeTtl(long negativeTtl) {
+		this.negativeTtl = negativeTtl;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of entries per kind of lookup
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public long getReverseLookupTimeout() {
+		return reverseLookupTimeout;
+	}
+
+	/**
+	 * @param reverseLookupTimeout the time in ms request threads wait for a reverse lookup, see
+	 *            {@link #getHostName(InetAddress, long)}
+	 */
+	public void setReverseLookupTimeout(long reverseLookupTimeout) {
+		this.reverseLookupTimeout = reverseLookupTimeout;
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final UnknownHostException failure;
+		final long resolved; // time of the last successful lookup
+		final long refreshAt, expires;
+
+		Entry(V value, UnknownHostException failure, long resolved, long refreshAt, long expires) {
+			this.value = value;
+			this.failure = failure;
+			this.resolved = resolved;
+			this.refreshAt = refreshAt;
+			this.expires = expires;
+		}
+
+		V getValue() throws UnknownHostException {
+			if (failure != null)
+				// do not share the cached exception (and its stack trace) between threads
+				throw new UnknownHostException(failure.getMessage());
+			return value;
+		}
+	}
+
+	private abstract class Cache<K, V> {
+
+		private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+		private final ConcurrentHashMap<K, FutureTask<Entry<V>>> loading = new ConcurrentHashMap<K, FutureTask<Entry<V>>>();
+
+		protected abstract V lookup(K key) throws UnknownHostException;
+
+		/**
+		 * @return whether the lookup failed, although it did not throw an exception
+		 */
+		protected boolean isFailure(K key, V value) {
+			return false;
+		}
+
+		/**
+		 * Returns the cached entry, or looks the key up, blocking the current thread.
+		 */
+		Entry<V> get(K key) {
+			Entry<V> entry = getCached(key);
+			if (entry != null)
+				return entry;
+			FutureTask<Entry<V>> task = load(key);
+			task.run(); // does nothing, if another thread is already running the lookup
+			return await(task);
+		}
+
+		/**
+		 * Returns the cached value, or looks the key up, waiting at most <code>timeout</code> ms.
+		 *
+		 * @return null, if the lookup failed or did not complete in time
+		 */
+		V get(K key, long timeout) {
+			Entry<V> entry = getCached(key);
+			if (entry == null) {
+				FutureTask<Entry<V>> task = load(key);
+				execute(task);
+				try {
+					entry = task.get(timeout, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					log.debug("DNS lookup of " + key + " did not complete within " + timeout + " ms.");
+					return null;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			return entry.failure != null ? null : entry.value;
+		}
+
+		/**
+		 * Returns the cached entry, or starts looking the key up in the background.
+		 *
+		 * @return null, if the lookup has not completed yet
+		 */
+		Entry<V> getIfResolved(K key) {
+			Entry<V> entry = getCached(key);
+			if (entry != null)
+				return entry;
+			FutureTask<Entry<V>> task = load(key);
+			execute(task);
+			return task.isDone() ? await(task) : null;
+		}
+
+		V getValueOrNull(K key) {
+			Entry<V> entry = get(key);
+			return entry.failure != null ? null : entry.value;
+		}
+
+		private Entry<V> getCached(K key) {
+			Entry<V> entry = entries.get(key);
+			if (entry == null)
+				return null;
+			long now = System.currentTimeMillis();
+			if (now >= entry.expires)
+				return null;
+			if (now >= entry.refreshAt && !loading.containsKey(key))
+				execute(load(key));
+			return entry;
+		}
+
+		/**
+		 * @return the task looking up the key: a new one (which still has to be run) or the one already running
+		 */
+		private FutureTask<Entry<V>> load(final K key) {
+			FutureTask<Entry<V>> task = new FutureTask<Entry<V>>(new Callable<Entry<V>>() {
+				@Override
+				public Entry<V> call() {
+					try {
+						return compute(key);
+					} finally {
+						loading.remove(key);
+					}
+				}
+			});
+			FutureTask<Entry<V>> running = loading.putIfAbsent(key, task);
+			return running != null ? running : task;
+		}
+
+		private void execute(FutureTask<Entry<V>> task) {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.run();
+			}
+		}
+
+		private Entry<V> await(FutureTask<Entry<V>> task) {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return task.get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+
+		private Entry<V> compute(K key) {
+			long now = System.currentTimeMillis();
+			long ttl = DNSCache.this.ttl, negativeTtl = DNSCache.this.negativeTtl;
+			Entry<V> entry;
+			try {
+				V value = lookup(key);
+				if (isFailure(key, value))
+					entry = new Entry<V>(value, null, 0, now + negativeTtl, now + negativeTtl);
+				else
+					entry = new Entry<V>(value, null, now, now + ttl * 4 / 5, now + ttl);
+			} catch (UnknownHostException e) {
+				Entry<V> old = entries.get(key);
+				if (old != null && old.failure == null && old.resolved > 0 && now - old.resolved < 2 * ttl) {
+					log.warn("DNS lookup of " + key + " failed. Using the last known result.");
+					entry = new Entry<V>(old.value, null, old.resolved, now + negativeTtl, now + negativeTtl);
+				} else {
+					entry = new Entry<V>(null, e, 0, now + negativeTtl, now + negativeTtl);
+				}
+			}
+			entries.put(key, entry);
+			if (entries.size() > maxEntries)
+				evict(now);
+			return entry;
+		}
+
+		private void evict(long now) {
+			int max = maxEntries;
+			for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();)
+				if (now >= it.next().expires)
+					it.remove();
+			// remove arbitrary entries, leaving some room before the next eviction
+			for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext() && entries.size() > max * 9 / 10;) {
+				it.next();
+				it.remove();
+			}
+		}
+
+		Collection<V> getCachedValues() {
+			List<V> values = new ArrayList<V>();
+			for (Map.Entry<K, Entry<V>> e : entries.entrySet())
+				if (e.getValue().failure == null)
+					values.add(e.getValue().value);
+			return values;
+		}
+	}
+
+	/**
+	 * Reverse lookups do not fail, but return the textual representation of the address instead of a host name.
+	 */
+	private abstract class ReverseCache extends Cache<InetAddress, String> {
+		@Override
+		protected boolean isFailure(InetAddress address, String hostName) {
+			return hostName == null || hostName.equals(address.getHostAddress());
+		}
 	}
 
 }
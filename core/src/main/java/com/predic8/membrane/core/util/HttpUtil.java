@@ -16,6 +16,7 @@ package com.predic8.membrane.core.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
@@ -31,6 +32,7 @@ import org.apache.commons.lang.StringEscapeUtils;
 import com.predic8.membrane.core.Constants;
 import com.predic8.membrane.core.http.Chunk;
 import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.HttpHeadInputStream;
 import com.predic8.membrane.core.http.MimeType;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.http.Response.ResponseBuilder;
@@ -47,6 +49,8 @@ public class HttpUtil {
 	}
 
 	public static String readLine(InputStream in) throws IOException, EndOfStreamException {
+		if (in instanceof HttpHeadInputStream)
+			return ((HttpHeadInputStream) in).readLine();
 
 		StringBuilder line = new StringBuilder(128);
 
@@ -70,26 +74,81 @@ public class HttpUtil {
 	}
 
 
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(Constants.ISO_8859_1_CHARSET);
+
+	/**
+	 * Reads the size line of a chunk ("Transfer-Encoding: chunked"). Chunk extensions and whitespace around the
+	 * size are ignored. The hex digits are parsed directly from the stream, without allocating.
+	 *
+	 * @throws NumberFormatException if the line does not contain a valid chunk size
+	 */
 	public static int readChunkSize(InputStream in) throws IOException {
-		StringBuilder buffer = new StringBuilder();
+		int size = 0;
+		int digits = 0;
+		boolean trailingWhitespace = false;
 
-		int c = 0;
+		int c;
 		while ((c = in.read()) != -1) {
 			if (c == 13) {
-				c = in.read();
+				in.read(); // LF
 				break;
 			}
+			if (c == 10)
+				break;
 
 			// ignore chunk extensions
 			if (c == ';') {
-				while ((c = in.read()) != 10)
+				while ((c = in.read()) != 10 && c != -1)
 					;
+				break;
 			}
 
-			buffer.append((char) c);
+			if (c == ' ' || c == '\t') {
+				trailingWhitespace = digits > 0;
+				continue;
+			}
+
+			int digit = Character.digit(c, 16);
+			if (digit == -1 || trailingWhitespace)
+				throw new NumberFormatException("Invalid character '" + (char) c + "' in chunk size.");
+			if (size > (Integer.MAX_VALUE >> 4))
+				throw new NumberFormatException("Chunk size too large.");
+			size = size << 4 | digit;
+			digits++;
+		}
+
+		if (digits == 0)
+			throw new NumberFormatException("Missing chunk size.");
+		return size;
+	}
+
+	/**
+	 * @return the number of hex digits of the chunk size
+	 */
+	public static int getChunkSizeLength(int size) {
+		return size == 0 ? 1 : (35 - Integer.numberOfLeadingZeros(size)) >> 2;
+	}
+
+	/**
+	 * Writes the chunk size as lower case hex digits into <code>buffer</code>.
+	 *
+	 * @return the position after the last digit
+	 */
+	public static int writeChunkSize(int size, byte[] buffer, int pos) {
+		int end = pos + getChunkSizeLength(size);
+		for (int i = end - 1; i >= pos; i--) {
+			buffer[i] = HEX_DIGITS[size & 0xF];
+			size >>>= 4;
 		}
+		return end;
+	}
 
-		return Integer.parseInt(buffer.toString().trim(), 16);
+	/**
+	 * Writes the chunk size as lower case hex digits to <code>out</code>.
+	 */
+	public static void writeChunkSize(int size, OutputStream out) throws IOException {
+		for (int shift = (getChunkSizeLength(size) - 1) << 2; shift >= 0; shift -= 4)
+			out.write(HEX_DIGITS[(size >>> shift) & 0xF]);
 	}
 
 	public static Response setHTMLErrorResponse(ResponseBuilder responseBuilder, String message, String comment) {
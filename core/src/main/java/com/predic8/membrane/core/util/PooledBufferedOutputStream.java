@@ -0,0 +1,116 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Like {@link java.io.BufferedOutputStream}, but using a buffer from a {@link BufferPool}.
+ *
+ * The buffer is returned to the pool by {@link #close()} or {@link #release()}. Any later write fails with an
+ * {@link IOException}, so that a stream used by several threads (like the client connection of a tunnel) cannot
+ * write into a buffer which has already been reused.
+ */
+public class PooledBufferedOutputStream extends OutputStream {
+
+	private final OutputStream out;
+	private final BufferPool pool;
+	private byte[] buf;
+	private int count;
+
+	public PooledBufferedOutputStream(OutputStream out, int size) {
+		this(out, size, BufferPool.getInstance());
+	}
+
+	public PooledBufferedOutputStream(OutputStream out, int size, BufferPool pool) {
+		this.out = out;
+		this.pool = pool;
+		this.buf = pool.acquire(size);
+	}
+
+	private byte[] getBufIfOpen() throws IOException {
+		byte[] b = buf;
+		if (b == null)
+			throw new IOException("Stream closed");
+		return b;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		byte[] buffer = getBufIfOpen();
+		if (count >= buffer.length)
+			flushBuffer();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		byte[] buffer = getBufIfOpen();
+		if (len >= buffer.length) {
+			// large writes bypass the buffer
+			flushBuffer();
+			out.write(b, off, len);
+			return;
+		}
+		if (len > buffer.length - count)
+			flushBuffer();
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		// like BufferedOutputStream, flushing a closed stream is harmless: nothing is buffered anymore
+		if (buf == null)
+			return;
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			synchronized (this) {
+				if (buf != null)
+					flushBuffer();
+			}
+			out.close();
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Returns the buffer to the pool without flushing it, for example after the underlying socket has been closed.
+	 * The stream cannot be used afterwards.
+	 */
+	public synchronized void release() {
+		if (buf == null)
+			return;
+		byte[] b = buf;
+		buf = null;
+		count = 0;
+		pool.release(b);
+	}
+
+}
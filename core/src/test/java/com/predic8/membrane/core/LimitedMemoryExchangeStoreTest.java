@@ -15,17 +15,23 @@
 package com.predic8.membrane.core;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.predic8.membrane.core.exchange.AbstractExchange;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.exchangestore.LimitedMemoryExchangeStore;
 import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.Interceptor.Flow;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
 
 public class LimitedMemoryExchangeStoreTest {
 
@@ -59,12 +65,76 @@ public class LimitedMemoryExchangeStoreTest {
 
 	}
 
+	@Test
+	public void testPerRuleAccess() throws Exception {
+		Rule a = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3000), "localhost", 80);
+		Rule b = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3001), "localhost", 80);
+		List<Exchange> ofA = new ArrayList<Exchange>();
+		for (int i = 0; i < 3; i++) {
+			Exchange exc = getExchange("a" + i, a);
+			ofA.add(exc);
+			store.snap(exc, Flow.RESPONSE);
+		}
+		for (int i = 0; i < 2; i++)
+			store.snap(getExchange("b" + i, b), Flow.RESPONSE);
+
+		Assert.assertEquals(3, store.getNumberOfExchanges(a.getKey()));
+		Assert.assertEquals(2, store.getExchanges(b.getKey()).length);
+
+		store.remove(ofA.get(1));
+		Assert.assertEquals(2, store.getNumberOfExchanges(a.getKey()));
+		Assert.assertEquals("a2", store.getExchanges(a.getKey())[1].getProperty("id"));
+
+		store.removeAllExchanges(b);
+		Assert.assertEquals(0, store.getNumberOfExchanges(b.getKey()));
+		Assert.assertEquals(2, store.getAllExchangesAsList().size());
+		Assert.assertEquals(ofA.get(0).getHeapSizeEstimation() + ofA.get(2).getHeapSizeEstimation(), store.getCurrentSize());
+	}
+
+	@Test
+	public void testConcurrentSnaps() throws Exception {
+		final Rule rule = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3000), "localhost", 80);
+		store.setMaxSize(100 * getExchange("x", rule).getHeapSizeEstimation());
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int n = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 1000; i++)
+							store.snap(getExchange(n + "-" + i, rule), Flow.RESPONSE);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		int size = 0;
+		for (Object exc : store.getAllExchanges())
+			size += ((AbstractExchange) exc).getHeapSizeEstimation();
+		Assert.assertEquals(size, store.getCurrentSize());
+		Assert.assertTrue(store.getCurrentSize() <= store.getMaxSize());
+		Assert.assertEquals(store.getAllExchanges().length, store.getNumberOfExchanges(rule.getKey()));
+	}
+
 	private void assertStore(int pos, String value) {
 		Assert.assertEquals(value, store.getAllExchangesAsList().get(pos).getProperty("id"));
 	}
 
 	private Exchange getExchange(String id) throws IOException {
+		return getExchange(id, null);
+	}
+
+	private Exchange getExchange(String id, Rule rule) throws IOException {
 		Exchange exc = new Exchange(null);
+		exc.setRule(rule);
 		exc.setProperty("id", id);
 		Request req = new Request();
 		req.create("GET", "http://test", "HTTP/", new Header(), null);
@@ -109,4 +109,28 @@ public class RuleManagerTest {
 		assertEquals(forwardBlz, manager.getRules().get(2));
 	}
 
+	@Test
+	public void testFirstMatchWinsAfterRuleUp() throws Exception {
+		ServiceProxyKey key = new ServiceProxyKey("localhost", "GET", "/foo.*", 3014);
+		key.setUsePathPattern(true);
+		Rule specific = new ServiceProxy(key, "thomas-bayer.com", 80);
+		specific.init(new MockRouter());
+		manager.addProxyAndOpenPortIfNew(specific);
+
+		assertEquals(forwardBlz, manager.getMatchingRule("localhost", "GET", "/foo", "1.1", 3014, null));
+		manager.ruleUp(specific);
+		manager.ruleUp(specific);
+		assertEquals(specific, manager.getMatchingRule("localhost", "GET", "/foo", "1.1", 3014, null));
+		assertEquals(forwardBlz, manager.getMatchingRule("localhost", "GET", "/bar", "1.1", 3014, null));
+		assertEquals(forwardBlz, manager.getMatchingRule("LOCALHOST:3014", "POST", "/foo", "1.1", 3014, null));
+	}
+
+	@Test
+	public void testNoMatchForOtherHostOrPort() throws Exception {
+		assertEquals(null, manager.getMatchingRule("example.com", "GET", "/", "1.1", 3014, null));
+		assertEquals(null, manager.getMatchingRule("localhost", "GET", "/", "1.1", 3016, null));
+		assertEquals(forwardBlzPOST, manager.getMatchingRule("localhost", "POST", "/", "1.1", 3015, null));
+		assertEquals(proxy3013, manager.getProxyRules().get(0));
+	}
+
 }
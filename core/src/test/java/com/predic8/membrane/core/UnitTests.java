@@ -23,7 +23,9 @@ import com.predic8.membrane.core.config.ProxyTest;
 import com.predic8.membrane.core.config.ReadRulesConfigurationTest;
 import com.predic8.membrane.core.config.ReadRulesWithInterceptorsConfigurationTest;
 import com.predic8.membrane.core.http.BodyTest;
+import com.predic8.membrane.core.http.ChunkedBodyTransferrerTest;
 import com.predic8.membrane.core.http.HeaderTest;
+import com.predic8.membrane.core.http.HttpHeadInputStreamTest;
 import com.predic8.membrane.core.http.RequestTest;
 import com.predic8.membrane.core.http.ResponseTest;
 import com.predic8.membrane.core.interceptor.DispatchingInterceptorTest;
@@ -32,6 +34,7 @@ import com.predic8.membrane.core.interceptor.IndexInterceptorTest;
 import com.predic8.membrane.core.interceptor.InternalInvocationTest;
 import com.predic8.membrane.core.interceptor.MessageAnalyserTest;
 import com.predic8.membrane.core.interceptor.ThrottleInterceptorTest;
+import com.predic8.membrane.core.interceptor.ConcurrencyLimiterTest;
 import com.predic8.membrane.core.interceptor.WADLInterceptorTest;
 import com.predic8.membrane.core.interceptor.WSDLInterceptorTest;
 import com.predic8.membrane.core.interceptor.acl.AccessControlInterceptorTest;
@@ -39,9 +42,14 @@ import com.predic8.membrane.core.interceptor.acl.AccessControlParserTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterBalancerTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterManagerTest;
 import com.predic8.membrane.core.interceptor.balancer.ClusterNotificationInterceptorTest;
+import com.predic8.membrane.core.interceptor.balancer.ConsistentHashStrategyTest;
+import com.predic8.membrane.core.interceptor.balancer.HealthCheckerTest;
 import com.predic8.membrane.core.interceptor.balancer.JSESSIONIDExtractorTest;
 import com.predic8.membrane.core.interceptor.balancer.LoadBalancingWithClusterManagerAndNoSessionTest;
 import com.predic8.membrane.core.interceptor.balancer.LoadBalancingWithClusterManagerTest;
+import com.predic8.membrane.core.interceptor.balancer.PowerOfTwoChoicesStrategyTest;
+import com.predic8.membrane.core.interceptor.balancer.SessionTableTest;
+import com.predic8.membrane.core.interceptor.balancer.WeightedRoundRobinStrategyTest;
 import com.predic8.membrane.core.interceptor.balancer.XMLSessionIdExtractorTest;
 import com.predic8.membrane.core.interceptor.cbr.XPathCBRInterceptorTest;
 import com.predic8.membrane.core.interceptor.formvalidation.FormValidationInterceptorTest;
@@ -63,12 +71,24 @@ import com.predic8.membrane.core.magic.MagicTest;
 import com.predic8.membrane.core.multipart.ReassembleTest;
 import com.predic8.membrane.core.resolver.SingleResolverTest;
 import com.predic8.membrane.core.rules.ProxyRuleTest;
+import com.predic8.membrane.core.rules.BulkheadTest;
 import com.predic8.membrane.core.rules.ServiceProxyKeyTest;
 import com.predic8.membrane.core.transport.ExchangeTest;
 import com.predic8.membrane.core.transport.http.HostColonPortTest;
+import com.predic8.membrane.core.transport.http.ConnectionManagerTest;
+import com.predic8.membrane.core.transport.http.HttpEndpointListenerTest;
 import com.predic8.membrane.core.transport.http.HttpKeepAliveTest;
+import com.predic8.membrane.core.transport.http.NioModeTest;
+import com.predic8.membrane.core.transport.http.CircuitBreakerTest;
+import com.predic8.membrane.core.transport.http.HedgingTest;
+import com.predic8.membrane.core.transport.http.RetryPolicyTest;
+import com.predic8.membrane.core.transport.http.TunnelEngineTest;
 import com.predic8.membrane.core.transport.http.ServiceInvocationTest;
+import com.predic8.membrane.core.transport.http2.HpackTest;
+import com.predic8.membrane.core.transport.http2.Http2ClientTest;
+import com.predic8.membrane.core.transport.http2.Http2ServerTest;
 import com.predic8.membrane.core.transport.ssl.SSLContextTest;
+import com.predic8.membrane.core.util.BufferPoolTest;
 import com.predic8.membrane.core.util.ByteUtilTest;
 import com.predic8.membrane.core.util.ContentTypeDetectorTest;
 import com.predic8.membrane.core.util.DNSCacheTest;
@@ -81,7 +101,7 @@ import com.predic8.membrane.core.ws.relocator.RelocatorWADLTest;
 import com.predic8.membrane.interceptor.MultipleLoadBalancersTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ HeaderTest.class, BodyTest.class, ByteUtilTest.class,
+@SuiteClasses({ HeaderTest.class, BodyTest.class, ChunkedBodyTransferrerTest.class, ByteUtilTest.class, BufferPoolTest.class,
 	HttpUtilTest.class, RequestTest.class, ResponseTest.class,
 	MagicTest.class, WSDLInterceptorTest.class,
 	AccessControlParserTest.class, AccessControlInterceptorTest.class,
@@ -89,7 +109,7 @@ import com.predic8.membrane.interceptor.MultipleLoadBalancersTest;
 	HostColonPortTest.class,
 	HTTP2XMLInterceptorTest.class, ReadRulesConfigurationTest.class,
 	ReadRulesWithInterceptorsConfigurationTest.class,
-	RuleManagerTest.class, ProxyTest.class, ServiceProxyKeyTest.class,
+	RuleManagerTest.class, ProxyTest.class, ServiceProxyKeyTest.class, BulkheadTest.class,
 	ProxyRuleTest.class, TextUtilTest.class, RelocatorTest.class,
 	XSLTInterceptorTest.class, URLUtilTest.class, ClusterManagerTest.class,
 	ClusterNotificationInterceptorTest.class,
@@ -99,7 +119,7 @@ import com.predic8.membrane.interceptor.MultipleLoadBalancersTest;
 	MultipleLoadBalancersTest.class, DNSCacheTest.class,
 	ValidatorInterceptorTest.class, XPathCBRInterceptorTest.class,
 	CustomSpringConfigurationTest.class, JSESSIONIDExtractorTest.class,
-	ThrottleInterceptorTest.class, GroovyInterceptorTest.class,
+	ThrottleInterceptorTest.class, ConcurrencyLimiterTest.class, GroovyInterceptorTest.class,
 	FormValidationInterceptorTest.class, ServiceInvocationTest.class,
 	HttpKeepAliveTest.class, ReverseProxyingInterceptorTest.class,
 	SSLContextTest.class, RelocatorWADLTest.class,
@@ -117,7 +137,20 @@ import com.predic8.membrane.interceptor.MultipleLoadBalancersTest;
 	SOAPMessageValidatorInterceptorTest.class,
 	URITest.class,
 	RewriteInterceptorTest.class,
-	AbortExchangeTest.class
+	AbortExchangeTest.class,
+	NioModeTest.class,
+	ConnectionManagerTest.class,
+	HttpEndpointListenerTest.class,
+	TunnelEngineTest.class,
+	RetryPolicyTest.class,
+	HedgingTest.class,
+	CircuitBreakerTest.class,
+	PowerOfTwoChoicesStrategyTest.class,
+	WeightedRoundRobinStrategyTest.class,
+	ConsistentHashStrategyTest.class,
+	SessionTableTest.class,
+	HealthCheckerTest.class,
+	HttpHeadInputStreamTest.class, HpackTest.class, Http2ServerTest.class, Http2ClientTest.class
 })
 public class UnitTests {
 	/*
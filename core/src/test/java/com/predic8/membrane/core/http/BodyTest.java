@@ -15,6 +15,7 @@ package com.predic8.membrane.core.http;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -126,4 +127,42 @@ public class BodyTest {
 		assertTrue(Arrays.equals(ciob2.getContent(), ciob.getContent()));
 	}
 
+	@Test
+	public void testStreamWithoutRetaining() throws Exception {
+		unchunkedBody2.setRetainContent(false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(10000);
+		unchunkedBody2.write(new PlainBodyTransferrer(out));
+
+		assertTrue(Arrays.equals(msg2, out.toByteArray()));
+		assertEquals(10000, unchunkedBody2.getLength());
+		try {
+			unchunkedBody2.getContent();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStreamChunkedWithoutRetaining() throws Exception {
+		AbstractBody body = new ChunkedBody(new ByteArrayInputStream(chunk2.getBytes()));
+		body.setRetainContent(false);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		body.write(new ChunkedBodyTransferrer(baos));
+
+		assertEquals(5, body.getLength());
+		ChunkedBody ciob = new ChunkedBody(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(chunk2Body, new String(ciob.getContent()));
+	}
+
+	@Test
+	public void testRetainedForObserver() throws Exception {
+		unchunkedBody.setRetainContent(false);
+		unchunkedBody.addObserver(new AbstractMessageObserver() {
+		});
+		unchunkedBody.write(new PlainBodyTransferrer(new ByteArrayOutputStream()));
+
+		assertTrue(Arrays.equals(msg1, unchunkedBody.getContent()));
+	}
+
 }
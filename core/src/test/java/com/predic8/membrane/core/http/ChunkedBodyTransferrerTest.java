@@ -0,0 +1,154 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.HttpUtil;
+
+public class ChunkedBodyTransferrerTest {
+
+	private static class FlushCountingStream extends ByteArrayOutputStream {
+		int flushes;
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+	}
+
+	private final FlushCountingStream out = new FlushCountingStream();
+
+	private List<Chunk> getChunks() throws Exception {
+		return HttpUtil.readChunks(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void testCoalesceSmallWrites() throws Exception {
+		ChunkedBodyTransferrer t = new ChunkedBodyTransferrer(out, 8192, 60000);
+		for (int i = 0; i < 100; i++)
+			t.write("0123456789".getBytes(), 0, 10);
+		assertEquals(0, out.size());
+		t.finish();
+
+		List<Chunk> chunks = getChunks();
+		assertEquals(1, chunks.size());
+		assertEquals(1000, chunks.get(0).getLength());
+		assertEquals(0, out.flushes);
+	}
+
+	@Test
+	public void testLargeWrites() throws Exception {
+		ChunkedBodyTransferrer t = new ChunkedBodyTransferrer(out, 100, 60000);
+		t.write(new byte[5], 0, 5);
+		t.write(new byte[1000], 0, 1000);
+		t.write(new byte[60], 0, 60);
+		t.write(new byte[60], 0, 60);
+		t.write(new byte[0], 0, 0);
+		t.finish();
+
+		List<Chunk> chunks = getChunks();
+		assertEquals(4, chunks.size());
+		assertEquals(5, chunks.get(0).getLength());
+		assertEquals(1000, chunks.get(1).getLength());
+		assertEquals(60, chunks.get(2).getLength());
+		assertEquals(60, chunks.get(3).getLength());
+	}
+
+	@Test
+	public void testFlushIfBlocking() throws Exception {
+		ChunkedBodyTransferrer t = new ChunkedBodyTransferrer(out, 8192, 60000);
+		t.write(new byte[5], 0, 5);
+		t.flushIfBlocking(new ByteArrayInputStream(new byte[1]));
+		assertEquals(0, out.size());
+
+		t.flushIfBlocking(new ByteArrayInputStream(new byte[0]));
+		assertEquals("5" + Constants.CRLF + "\0\0\0\0\0" + Constants.CRLF, out.toString(Constants.ISO_8859_1));
+		assertEquals(1, out.flushes);
+	}
+
+	@Test
+	public void testMaxDelay() throws Exception {
+		ChunkedBodyTransferrer t = new ChunkedBodyTransferrer(out, 8192, 0);
+		for (int i = 0; i < 3; i++)
+			t.write(new byte[5], 0, 5);
+		t.finish();
+
+		assertEquals(3, getChunks().size());
+		assertEquals(3, out.flushes);
+	}
+
+	@Test
+	public void testStreamTinyChunks() throws Exception {
+		StringBuilder raw = new StringBuilder();
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String item = "{\"id\":" + i + "},";
+			raw.append(Integer.toHexString(item.length())).append(Constants.CRLF).append(item).append(Constants.CRLF);
+			content.append(item);
+		}
+		raw.append("0").append(Constants.CRLF).append(Constants.CRLF);
+
+		ChunkedBody body = new ChunkedBody(new ByteArrayInputStream(raw.toString().getBytes()));
+		body.setRetainContent(false);
+		body.write(new ChunkedBodyTransferrer(out, 8192, 60000));
+
+		List<Chunk> chunks = getChunks();
+		assertEquals(2, chunks.size());
+		StringBuilder result = new StringBuilder();
+		for (Chunk chunk : chunks)
+			result.append(chunk.toString());
+		assertEquals(content.toString(), result.toString());
+	}
+
+	@Test
+	public void testReleaseBufferIfWriteFails() throws Exception {
+		OutputStream closed = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("closed");
+			}
+		};
+		BufferPool pool = BufferPool.getInstance();
+		pool.setLeakDetection(true);
+		try {
+			ChunkedBodyTransferrer t = new ChunkedBodyTransferrer(closed, 8192, 60000);
+			t.write(new byte[5], 0, 5);
+			assertEquals(1, pool.getLeaks().size());
+			try {
+				t.write(new byte[8192], 0, 8192);
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			assertTrue(pool.getLeaks().isEmpty());
+		} finally {
+			pool.setLeakDetection(false);
+		}
+	}
+
+}
@@ -16,6 +16,7 @@ package com.predic8.membrane.core.http;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 
 import javax.activation.MimeType;
@@ -79,4 +80,33 @@ public class HeaderTest {
 		assertEquals("utf-8", header.getCharset());
 	}
 
+	@Test
+	public void testHotFieldsFollowModifications() throws Exception {
+		Header header = new Header();
+		header.add("Content-Length", "1");
+		assertEquals(1, header.getContentLength());
+		header.add("content-length", "2");
+		assertEquals(1, header.getContentLength());
+		header.removeFields("CONTENT-LENGTH");
+		assertEquals(-1, header.getContentLength());
+		header.setContentLength(3);
+		assertEquals(3, header.getContentLength());
+		header.clear();
+		assertNull(header.getHost());
+		header.setHost("a");
+		header.add(Header.HOST, "b");
+		header.setValue(Header.HOST, "c");
+		assertEquals(1, header.getNumberOf(Header.HOST));
+		assertEquals("c", header.getHost());
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		Header header = new Header("Host: localhost\r\nX-Foo: b\u00e4r\r\n");
+		header.add("X-Bar", "\u20ac");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		header.write(baos);
+		assertEquals("Host: localhost\r\nX-Foo: b\u00e4r\r\nX-Bar: ?\r\n", new String(baos.toByteArray(), Constants.ISO_8859_1_CHARSET));
+	}
+
 }
@@ -0,0 +1,136 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.transport.http.EOFWhileReadingLineException;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.HttpUtil;
+
+public class HttpHeadInputStreamTest {
+
+	private InputStream stream(String s, int bufferSize) {
+		return new HttpHeadInputStream(new ByteArrayInputStream(s.getBytes(Constants.ISO_8859_1_CHARSET)), bufferSize);
+	}
+
+	@Test
+	public void testParseRequestHead() throws Exception {
+		String head = "POST /foo HTTP/1.1\r\nHost: localhost\r\ncontent-length: 3\r\nX-Foo:  bar baz \r\nInvalid\r\n\r\nabc";
+		// small buffers force lines to be split across refills
+		for (int bufferSize : new int[] { 2, 7, 2048 }) {
+			InputStream in = stream(head, bufferSize);
+			Request r = new Request();
+			r.read(in, true);
+
+			assertEquals("POST", r.getMethod());
+			assertEquals("/foo", r.getUri());
+			assertEquals("localhost", r.getHeader().getHost());
+			assertEquals(3, r.getHeader().getContentLength());
+			assertEquals("bar baz", r.getHeader().getFirstValue("X-Foo"));
+			assertEquals(3, r.getHeader().getAllHeaderFields().length);
+			assertEquals("abc", r.getBodyAsStringDecoded());
+		}
+	}
+
+	@Test
+	public void testInternedHeaderNames() throws Exception {
+		HttpHeadInputStream in = (HttpHeadInputStream) stream("Host: a\r\nHost: b\r\ncontent-length: 0\r\n\r\n", 2048);
+		HeaderField f1 = in.readHeaderField();
+		HeaderField f2 = in.readHeaderField();
+		HeaderField f3 = in.readHeaderField();
+
+		assertSame(f1.getHeaderName(), f2.getHeaderName());
+		assertEquals("content-length", f3.getHeaderName().toString()); // case is preserved
+		assertEquals("b", f2.getValue());
+		assertEquals(null, in.readHeaderField());
+	}
+
+	@Test
+	public void testLineTerminators() throws Exception {
+		InputStream in = stream("a\nb\r\nc\n\rd", 2);
+		assertEquals("a", HttpUtil.readLine(in));
+		assertEquals("b", HttpUtil.readLine(in));
+		assertEquals("c", HttpUtil.readLine(in));
+		try {
+			HttpUtil.readLine(in);
+			fail();
+		} catch (EOFWhileReadingLineException e) {
+			assertEquals("d", e.getLineSoFar());
+		}
+	}
+
+	@Test
+	public void testBufferIsReleasedAfterRunningRead() throws Exception {
+		final BufferPool pool = new BufferPool(4);
+		final CountDownLatch reading = new CountDownLatch(1), closed = new CountDownLatch(1);
+		final long[] releasedWhileReading = new long[1];
+		final HttpHeadInputStream in = new HttpHeadInputStream(new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				reading.countDown();
+				try {
+					closed.await();
+					// data arriving while the socket is being closed
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				releasedWhileReading[0] = pool.getReleased();
+				b[off] = 'x';
+				throw new IOException("Socket closed");
+			}
+
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+		}, 1024, pool);
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					in.read();
+				} catch (IOException e) {
+					// expected
+				}
+			}
+		};
+		reader.start();
+		reading.await();
+		in.close();
+		reader.join();
+
+		assertEquals(0, releasedWhileReading[0]);
+		assertEquals(1, pool.getReleased());
+	}
+
+}
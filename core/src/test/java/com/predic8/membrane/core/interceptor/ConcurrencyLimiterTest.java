@@ -0,0 +1,125 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	private static final long MS = 1000000;
+
+	@Test
+	public void testRejectWhenQueueIsFull() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+		limiter.setMaxQueued(1);
+		assertTrue(limiter.tryAcquire());
+
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					acquired.set(limiter.acquire(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		waiter.start();
+		while (limiter.getQueued() == 0)
+			Thread.sleep(10);
+
+		// the queue is full: rejected without waiting
+		long t = System.currentTimeMillis();
+		assertFalse(limiter.acquire(10, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - t < 1000);
+		assertEquals(1, limiter.getRejected());
+
+		limiter.release();
+		waiter.join();
+		assertTrue(acquired.get());
+		assertEquals(1, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+		assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+		long t = System.currentTimeMillis();
+		assertFalse(limiter.acquire(200, TimeUnit.MILLISECONDS));
+		assertTrue(System.currentTimeMillis() - t >= 190);
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	public void testAdaptiveLimit() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(0);
+		limiter.setAdaptive(5, 100, 20);
+		assertEquals(20, limiter.getLimit());
+
+		// the limit grows while it is fully used and the latency is stable
+		load(limiter, 100, 10 * MS, false);
+		int grown = limiter.getLimit();
+		assertTrue(grown > 40);
+
+		// rising latency lowers it
+		load(limiter, 30, 100 * MS, false);
+		int lowered = limiter.getLimit();
+		assertTrue(lowered < grown / 2);
+
+		// as do failures
+		load(limiter, 5, 10 * MS, true);
+		assertTrue(limiter.getLimit() < lowered);
+
+		// but never below the minimum
+		load(limiter, 100, 10 * MS, true);
+		assertEquals(5, limiter.getLimit());
+	}
+
+	@Test
+	public void testAdaptiveLimitDoesNotGrowWhenUnused() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(0);
+		limiter.setAdaptive(1, 100, 20);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(10 * MS, false);
+		}
+		assertEquals(20, limiter.getLimit());
+	}
+
+	/**
+	 * Completes the given number of requests, while keeping the limit fully used.
+	 */
+	private void load(ConcurrencyLimiter limiter, int requests, long rtt, boolean dropped) {
+		while (limiter.tryAcquire())
+			;
+		for (int i = 0; i < requests; i++) {
+			limiter.release(rtt, dropped);
+			while (limiter.tryAcquire())
+				;
+		}
+		while (limiter.getInFlight() > 0)
+			limiter.release();
+	}
+
+}
@@ -0,0 +1,136 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+
+public class ConsistentHashStrategyTest {
+
+	private static final int KEYS = 2000;
+
+	private LoadBalancingInterceptor lbi;
+	private ConsistentHashStrategy strategy;
+	private Cluster cluster;
+
+	@Before
+	public void setUp() throws Exception {
+		lbi = new LoadBalancingInterceptor();
+		strategy = new ConsistentHashStrategy();
+		lbi.setDispatchingStrategy(strategy);
+		cluster = lbi.getClusterManager().getClusters().get(0);
+		for (String host : new String[] { "a", "b", "c", "d" })
+			cluster.nodeUp(new Node(host, 80));
+	}
+
+	@Test
+	public void testKeys() throws Exception {
+		Exchange exc = createExchange("/customers/42/orders?id=7&x=y");
+
+		strategy.setHeader("X-Customer");
+		assertEquals("c1", strategy.getKey(exc));
+
+		strategy.setHeader(null);
+		strategy.setCookie("sid");
+		assertEquals("s1", strategy.getKey(exc));
+
+		strategy.setCookie(null);
+		strategy.setQueryParam("id");
+		assertEquals("7", strategy.getKey(exc));
+
+		strategy.setQueryParam(null);
+		strategy.setPathSegment(2);
+		assertEquals("42", strategy.getKey(exc));
+
+		strategy.setPathSegment(4);
+		assertNull(strategy.getKey(exc));
+	}
+
+	@Test
+	public void testSameKeySameNode() throws Exception {
+		strategy.setQueryParam("id");
+		Node n = strategy.dispatch(lbi, createExchange("/?id=7"));
+		for (int i = 0; i < 10; i++)
+			assertSame(n, strategy.dispatch(lbi, createExchange("/foo?id=7")));
+	}
+
+	@Test
+	public void testEvenDistribution() throws Exception {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Node n : dispatchAll().values())
+			counts.put(n.getHost(), counts.containsKey(n.getHost()) ? counts.get(n.getHost()) + 1 : 1);
+		for (int count : counts.values())
+			assertTrue("" + counts, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3);
+	}
+
+	@Test
+	public void testOnlyKeysOfFailedNodeAreMoved() throws Exception {
+		Map<String, Node> before = dispatchAll();
+
+		cluster.nodeDown(new Node("d", 80));
+		Map<String, Node> after = dispatchAll();
+		for (String key : before.keySet()) {
+			if (before.get(key).getHost().equals("d"))
+				assertNotEquals("d", after.get(key).getHost());
+			else
+				assertSame(before.get(key), after.get(key));
+		}
+
+		cluster.nodeUp(new Node("d", 80));
+		assertEquals(before, dispatchAll());
+	}
+
+	@Test
+	public void testWeight() throws Exception {
+		cluster.nodeUp(new Node("a", 80), 3);
+		int a = 0;
+		for (Node n : dispatchAll().values())
+			if (n.getHost().equals("a"))
+				a++;
+		// a should get half of the keys
+		assertTrue("" + a, a > KEYS / 2 * 0.8 && a < KEYS / 2 * 1.2);
+	}
+
+	private Map<String, Node> dispatchAll() throws Exception {
+		Map<String, Node> result = new HashMap<String, Node>();
+		for (int i = 0; i < KEYS; i++)
+			result.put("key" + i, strategy.dispatch(lbi, "key" + i));
+		return result;
+	}
+
+	private Exchange createExchange(String uri) throws Exception {
+		Exchange exc = new Exchange(null);
+		exc.setRequest(new Request.Builder().get(uri).header("X-Customer", "c1").header("Cookie", "a=b; sid=s1").build());
+		return exc;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidVirtualNodes() {
+		new ConsistentHashStrategy().setVirtualNodes(0);
+	}
+
+}
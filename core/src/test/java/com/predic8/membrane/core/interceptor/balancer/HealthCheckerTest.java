@@ -0,0 +1,198 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.util.DNSCache;
+
+public class HealthCheckerTest {
+
+	private ServerSocket server;
+	private Thread acceptor;
+	private volatile int status = 200;
+
+	private LoadBalancingInterceptor lbi;
+	private Cluster cluster;
+	private HealthChecker checker;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(3064);
+		acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket s = server.accept();
+						try {
+							answer(s);
+						} catch (IOException e) {
+							// ignore
+						} finally {
+							s.close();
+						}
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.start();
+
+		lbi = new LoadBalancingInterceptor();
+		cluster = lbi.getClusterManager().getClusters().get(0);
+		cluster.nodeUp(new Node("localhost", 3064));
+		cluster.nodeUp(new Node("localhost", 3065)); // nothing listening
+
+		checker = new HealthChecker();
+		checker.setInterval(100);
+		checker.setJitter(10);
+		checker.setTimeout(500);
+		checker.setHealthyThreshold(2);
+		checker.setUnhealthyThreshold(2);
+	}
+
+	private void answer(Socket s) throws IOException {
+		InputStream in = s.getInputStream();
+		int matched = 0, b;
+		while (matched < 4 && (b = in.read()) != -1)
+			matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : b == '\r' ? 1 : 0;
+		OutputStream out = s.getOutputStream();
+		out.write(("HTTP/1.1 " + status + " X\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		checker.stop();
+		server.close();
+		acceptor.join();
+	}
+
+	private Node getNode(int port) {
+		for (Node n : cluster.getAllNodes(0))
+			if (n.getPort() == port)
+				return n;
+		throw new AssertionError("node " + port + " not found");
+	}
+
+	private void waitFor(int port, boolean up) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			HealthChecker.NodeHealth health = checker.getHealth(getNode(port));
+			if (getNode(port).isUp() == up && health != null && health.isHealthy() == up)
+				return;
+			Thread.sleep(50);
+		}
+		fail("node " + port + " did not become " + (up ? "UP" : "DOWN"));
+	}
+
+	@Test
+	public void testNodesAreTakenDownAndPutBackUp() throws Exception {
+		checker.start(lbi, null);
+
+		waitFor(3064, true);
+		waitFor(3065, false);
+		assertTrue(checker.getHealth(getNode(3064)).getLatency() >= 0);
+		assertEquals(-1, checker.getHealth(getNode(3065)).getLatency());
+
+		status = 500;
+		waitFor(3064, false);
+
+		status = 200;
+		waitFor(3064, true);
+	}
+
+	@Test
+	public void testStoppedWithInterceptor() throws Exception {
+		NodeOnlineChecker noc = new NodeOnlineChecker();
+		noc.setHealthCheck(checker);
+		lbi.setNodeOnlineChecker(noc);
+		noc.init(null);
+		waitFor(3065, false);
+		assertTrue(checker.isRunning());
+
+		lbi.destroy();
+		assertFalse(checker.isRunning());
+		Thread.sleep(100); // let a running check complete
+		long lastCheck = checker.getHealth(getNode(3065)).getLastCheck();
+		Thread.sleep(300);
+		assertEquals(lastCheck, checker.getHealth(getNode(3065)).getLastCheck());
+	}
+
+	@Test
+	public void testSlowLookupDoesNotDelayOtherNodes() throws Exception {
+		final CountDownLatch resolve = new CountDownLatch(1);
+		checker.setDnsCache(new DNSCache() {
+			@Override
+			protected InetAddress[] lookupAddresses(String host) throws UnknownHostException {
+				if (host.equals("slow.invalid")) {
+					try {
+						resolve.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new UnknownHostException(host);
+				}
+				return super.lookupAddresses(host);
+			}
+		});
+		cluster.nodeUp(new Node("slow.invalid", 80));
+		checker.start(lbi, null);
+		try {
+			waitFor(3064, true);
+			waitFor(3065, false);
+			assertEquals(0, checker.getHealth(new Node("slow.invalid", 80)).getFailures());
+		} finally {
+			resolve.countDown();
+		}
+		for (int i = 0; i < 100 && checker.getHealth(new Node("slow.invalid", 80)).getFailures() < 2; i++)
+			Thread.sleep(50);
+		assertFalse(checker.getHealth(new Node("slow.invalid", 80)).isHealthy());
+	}
+
+	@Test
+	public void testExpectedStatus() {
+		checker.setExpectedStatus("200-299, 404");
+		assertTrue(checker.isExpected(200));
+		assertTrue(checker.isExpected(204));
+		assertTrue(checker.isExpected(404));
+		assertFalse(checker.isExpected(301));
+		assertFalse(checker.isExpected(500));
+		assertFalse(checker.isExpected(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidStatusRange() {
+		HealthChecker.parseStatusCodes("300-200");
+	}
+
+}
@@ -0,0 +1,140 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+
+public class PowerOfTwoChoicesStrategyTest {
+
+	private LoadBalancingInterceptor lbi;
+	private PowerOfTwoChoicesStrategy strategy;
+	private Node a, b;
+
+	@Before
+	public void setUp() throws Exception {
+		lbi = new LoadBalancingInterceptor();
+		strategy = new PowerOfTwoChoicesStrategy();
+		lbi.setDispatchingStrategy(strategy);
+		lbi.getClusterManager().up(Cluster.DEFAULT_NAME, "a", 80);
+		lbi.getClusterManager().up(Cluster.DEFAULT_NAME, "b", 80);
+		List<Node> nodes = lbi.getEndpoints();
+		a = nodes.get(0);
+		b = nodes.get(1);
+	}
+
+	@Test
+	public void testPrefersNodeWithFewerRunningRequests() throws Exception {
+		a.addThread();
+		for (int i = 0; i < 100; i++)
+			assertSame(b, strategy.dispatch(lbi));
+
+		a.removeThread();
+		assertEquals(0, a.getThreads());
+	}
+
+	@Test
+	public void testRunningRequestsOfNodeGoingDown() throws Exception {
+		a.addThread();
+		a.addThread();
+		lbi.getClusterManager().down(Cluster.DEFAULT_NAME, "a", 80);
+		// the requests dispatched before complete after the node went down
+		a.removeThread();
+		a.removeThread();
+		assertEquals(0, a.getThreads());
+
+		lbi.getClusterManager().up(Cluster.DEFAULT_NAME, "a", 80);
+		b.addThread();
+		for (int i = 0; i < 100; i++)
+			assertSame(a, strategy.dispatch(lbi));
+		b.removeThread();
+	}
+
+	@Test
+	public void testPrefersFasterNode() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			strategy.done(createExchange(a, 500));
+			strategy.done(createExchange(b, 20));
+		}
+		for (int i = 0; i < 100; i++)
+			assertSame(b, strategy.dispatch(lbi));
+	}
+
+	@Test
+	public void testLoadIsProportionalToSpeed() throws Exception {
+		long now = System.currentTimeMillis();
+		strategy.observe(a, 99, now);
+		strategy.observe(b, 24, now);
+
+		// a node 4 times faster may run 4 times as many requests
+		b.addThread();
+		b.addThread();
+		assertTrue(strategy.getCost(b, now) < strategy.getCost(a, now));
+		b.addThread();
+		b.addThread();
+		assertTrue(strategy.getCost(b, now) > strategy.getCost(a, now));
+	}
+
+	@Test
+	public void testPeakIsTakenImmediatelyAndDecays() throws Exception {
+		strategy.setDecayTime(1000);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++)
+			strategy.observe(a, 10, now);
+		strategy.observe(a, 1000, now);
+		assertEquals(1001, strategy.getCost(a, now), 0.1);
+
+		// after a few decay times, the slow response is forgotten
+		assertTrue(strategy.getCost(a, now + 5000) < 10);
+	}
+
+	@Test
+	public void testResponseTimesOfRemovedNodesAreForgotten() throws Exception {
+		Node c = new Node("c", 80); // not (or not anymore) in the cluster
+		long now = System.currentTimeMillis();
+		strategy.observe(a, 100, now);
+		strategy.observe(c, 100, now);
+
+		strategy.dispatch(lbi);
+		assertEquals(101, strategy.getCost(a, now), 0.1);
+		assertEquals(1, strategy.getCost(c, now), 0.1);
+
+		// at most once per interval
+		strategy.observe(c, 100, now);
+		strategy.prune(Arrays.asList(a, b), now + 1);
+		assertEquals(101, strategy.getCost(c, now), 0.1);
+		strategy.prune(Arrays.asList(a, b), now + PowerOfTwoChoicesStrategy.PRUNE_INTERVAL + 1000);
+		assertEquals(1, strategy.getCost(c, now), 0.1);
+	}
+
+	private Exchange createExchange(Node node, long responseTime) {
+		Exchange exc = new Exchange(null);
+		exc.setProperty("dispatchedNode", node);
+		long now = System.currentTimeMillis();
+		exc.setTimeReqSent(now - responseTime);
+		exc.setTimeResReceived(now);
+		return exc;
+	}
+
+}
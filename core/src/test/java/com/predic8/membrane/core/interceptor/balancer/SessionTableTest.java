@@ -0,0 +1,140 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionTableTest {
+
+	private static final long MINUTE = 60000;
+	private static final long TICK = SessionTable.TICK;
+
+	private SessionTable table;
+	private Node node;
+	private long now;
+
+	@Before
+	public void setUp() {
+		table = new SessionTable();
+		node = new Node("localhost", 80);
+		now = System.currentTimeMillis();
+	}
+
+	@Test
+	public void testExpiry() {
+		Session s = add("a", now);
+
+		assertEquals(0, table.expire(now, MINUTE));
+		assertEquals(0, table.expire(now + MINUTE - TICK, MINUTE));
+		assertSame(s, table.get("a"));
+		assertEquals(1, table.expire(now + MINUTE + 2 * TICK, MINUTE));
+		assertNull(table.get("a"));
+	}
+
+	@Test
+	public void testUsedSessionIsKept() {
+		add("a", now);
+		table.expire(now, MINUTE);
+
+		table.get("a").lastUsed = now + 50000;
+		assertEquals(0, table.expire(now + MINUTE + 2 * TICK, MINUTE));
+		assertEquals(1, table.expire(now + 50000 + MINUTE + 2 * TICK, MINUTE));
+	}
+
+	@Test
+	public void testTimeoutLongerThanWheel() {
+		long days = 24 * 60 * MINUTE;
+		add("a", now);
+		table.expire(now, 5 * days);
+
+		assertEquals(0, table.expire(now + 4 * days, 5 * days));
+		assertEquals(0, table.expire(now + 5 * days - TICK, 5 * days));
+		assertEquals(1, table.expire(now + 5 * days + 2 * TICK, 5 * days));
+	}
+
+	@Test
+	public void testReplacedSession() {
+		add("a", now);
+		Session s = add("a", now + 10000);
+		table.expire(now, MINUTE);
+
+		assertEquals(0, table.expire(now + MINUTE + 2 * TICK, MINUTE));
+		assertSame(s, table.get("a"));
+		assertEquals(1, table.expire(now + 10000 + MINUTE + 2 * TICK, MINUTE));
+	}
+
+	@Test
+	public void testTimeoutChanges() {
+		add("a", now);
+		table.expire(now, 60 * MINUTE);
+		assertEquals(0, table.expire(now + 2 * MINUTE, 60 * MINUTE));
+
+		assertEquals(1, table.expire(now + 2 * MINUTE + TICK, MINUTE));
+	}
+
+	@Test
+	public void testNoTimeout() {
+		add("a", now);
+		assertEquals(0, table.expire(now + 60 * MINUTE, 0));
+		assertEquals(1, table.getSessions().size());
+	}
+
+	@Test
+	public void testManySessions() {
+		Random random = new Random(42);
+		long timeout = 100 * TICK;
+		List<Session> all = new ArrayList<Session>();
+		long t = now;
+		for (int step = 0; step < 2000; step++) {
+			for (int i = 0; i < 20; i++)
+				all.add(add("s" + all.size(), t - random.nextInt((int) timeout)));
+			for (int i = 0; i < 20; i++) {
+				Session s = table.get("s" + random.nextInt(all.size()));
+				if (s != null)
+					s.lastUsed = t;
+			}
+
+			table.expire(t, timeout);
+
+			for (Session s : all) {
+				if (table.get(s.getId()) == s) {
+					// removed at most one tick late
+					assertTrue(t < ((s.getLastUsed() + timeout) / TICK + 1) * TICK);
+				} else {
+					assertTrue(t - s.getLastUsed() > timeout);
+				}
+			}
+			t += random.nextInt((int) (3 * TICK));
+		}
+	}
+
+	private Session add(String id, long lastUsed) {
+		Session s = new Session(id, node);
+		s.lastUsed = lastUsed;
+		table.put(s);
+		return s;
+	}
+
+}
@@ -0,0 +1,106 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.interceptor.balancer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedRoundRobinStrategyTest {
+
+	private LoadBalancingInterceptor lbi;
+	private WeightedRoundRobinStrategy strategy;
+	private Cluster cluster;
+
+	@Before
+	public void setUp() throws Exception {
+		lbi = new LoadBalancingInterceptor();
+		strategy = new WeightedRoundRobinStrategy();
+		lbi.setDispatchingStrategy(strategy);
+		cluster = lbi.getClusterManager().getClusters().get(0);
+	}
+
+	@Test
+	public void testSmoothDistribution() throws Exception {
+		strategy.setSlowStart(0);
+		cluster.nodeUp(new Node("a", 80), 5);
+		cluster.nodeUp(new Node("b", 80), 1);
+		cluster.nodeUp(new Node("c", 80), 1);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 14; i++)
+			sb.append(strategy.dispatch(lbi).getHost());
+		assertEquals("aabacaaaabacaa", sb.toString());
+	}
+
+	@Test
+	public void testProportionalToWeight() throws Exception {
+		strategy.setSlowStart(0);
+		cluster.nodeUp(new Node("a", 80), 3);
+		cluster.nodeUp(new Node("b", 80), 1);
+
+		Map<String, Integer> counts = dispatch(400);
+		assertEquals(300, (int) counts.get("a"));
+		assertEquals(100, (int) counts.get("b"));
+	}
+
+	@Test
+	public void testWeightCanBeChanged() throws Exception {
+		strategy.setSlowStart(0);
+		cluster.nodeUp(new Node("a", 80));
+		cluster.nodeUp(new Node("b", 80));
+		assertEquals(1, cluster.getNode(new Node("a", 80)).getWeight());
+
+		lbi.getClusterManager().up(Cluster.DEFAULT_NAME, "a", 80, 4);
+		Map<String, Integer> counts = dispatch(500);
+		assertEquals(400, (int) counts.get("a"));
+		assertEquals(100, (int) counts.get("b"));
+	}
+
+	@Test
+	public void testSlowStart() throws Exception {
+		strategy.setSlowStart(10000);
+		cluster.nodeUp(new Node("a", 80), 2);
+		Node a = cluster.getNode(new Node("a", 80));
+		long upSince = a.getUpSince();
+
+		assertEquals(1, strategy.getEffectiveWeight(a, upSince));
+		assertEquals(WeightedRoundRobinStrategy.SCALE / 5, strategy.getEffectiveWeight(a, upSince + 1000));
+		assertEquals(2 * WeightedRoundRobinStrategy.SCALE, strategy.getEffectiveWeight(a, upSince + 10000));
+
+		// heartbeats do not restart the slow start
+		cluster.nodeUp(new Node("a", 80));
+		assertEquals(upSince, a.getUpSince());
+
+		cluster.nodeDown(new Node("a", 80));
+		Thread.sleep(10);
+		cluster.nodeUp(new Node("a", 80));
+		assertEquals(true, a.getUpSince() > upSince);
+	}
+
+	private Map<String, Integer> dispatch(int n) throws Exception {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++) {
+			String host = strategy.dispatch(lbi).getHost();
+			counts.put(host, counts.containsKey(host) ? counts.get(host) + 1 : 1);
+		}
+		return counts;
+	}
+
+}
@@ -0,0 +1,122 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.transport.http.HttpClient;
+
+public class BulkheadTest {
+
+	private HttpRouter router;
+	private Bulkhead bulkhead;
+	private final CountDownLatch backendStalled = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		router = new HttpRouter();
+
+		ServiceProxy slow = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3057), "", -1);
+		bulkhead = new Bulkhead();
+		bulkhead.setMaxConcurrent(2);
+		slow.setBulkhead(bulkhead);
+		slow.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				backendStalled.await(30, TimeUnit.SECONDS);
+				exc.setResponse(Response.ok("slow").build());
+				return Outcome.RETURN;
+			}
+		});
+		router.getRuleManager().addProxyAndOpenPortIfNew(slow);
+
+		ServiceProxy fast = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3058), "", -1);
+		fast.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				exc.setResponse(Response.ok("fast").build());
+				return Outcome.RETURN;
+			}
+		});
+		router.getRuleManager().addProxyAndOpenPortIfNew(fast);
+
+		router.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		backendStalled.countDown();
+		router.shutdown();
+	}
+
+	private int call(int port) throws Exception {
+		Exchange exc = new Request.Builder().get("http://localhost:" + port + "/").buildExchange();
+		new HttpClient().call(exc);
+		return exc.getResponse().getStatusCode();
+	}
+
+	@Test
+	public void testSlowProxyDoesNotStarveOthers() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Integer> r1 = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return BulkheadTest.this.call(3057);
+				}
+			});
+			Future<Integer> r2 = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return BulkheadTest.this.call(3057);
+				}
+			});
+			while (bulkhead.getInFlight() < 2)
+				Thread.sleep(10);
+
+			assertEquals(503, call(3057));
+			assertEquals(200, call(3058));
+			assertEquals(1.0, bulkhead.getUtilization(), 0.001);
+
+			backendStalled.countDown();
+			assertEquals(200, (int) r1.get(30, TimeUnit.SECONDS));
+			assertEquals(200, (int) r2.get(30, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(2, bulkhead.getAccepted());
+		assertEquals(1, bulkhead.getRejected());
+		assertEquals(0, bulkhead.getInFlight());
+	}
+
+}
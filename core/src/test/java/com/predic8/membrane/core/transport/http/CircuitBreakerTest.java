@@ -0,0 +1,198 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.transport.http.CircuitBreaker.State;
+import com.predic8.membrane.core.transport.http.client.CircuitBreakerConfiguration;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+
+public class CircuitBreakerTest {
+
+	private static CircuitBreakerConfiguration configuration() {
+		CircuitBreakerConfiguration cbc = new CircuitBreakerConfiguration();
+		cbc.setWindowSize(10);
+		cbc.setMinCalls(4);
+		cbc.setOpenDuration(200);
+		cbc.setHalfOpenCalls(2);
+		return cbc;
+	}
+
+	private static void call(CircuitBreaker cb, boolean success, long duration) {
+		assertTrue(cb.tryAcquire());
+		cb.onResult(success, duration);
+	}
+
+	@Test
+	public void testOpenOnFailureRate() {
+		CircuitBreaker cb = new CircuitBreaker("localhost:80", configuration());
+		call(cb, false, 0);
+		call(cb, false, 0);
+		call(cb, false, 0);
+		assertEquals(State.CLOSED, cb.getState()); // minCalls not reached
+		call(cb, true, 0);
+		assertEquals(State.OPEN, cb.getState()); // 3 of 4 failed
+
+		assertFalse(cb.tryAcquire());
+		assertEquals(1, cb.getRejected());
+		assertEquals(1, cb.getOpened());
+		assertTrue(cb.getRetryAfter() > 0);
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		CircuitBreaker cb = new CircuitBreaker("localhost:80", configuration());
+		for (int i = 0; i < 4; i++)
+			call(cb, false, 0);
+		assertEquals(State.OPEN, cb.getState());
+
+		CircuitBreakerConfiguration cbc = configuration();
+		cbc.setFailureRateThreshold(30);
+		cb = new CircuitBreaker("localhost:80", cbc);
+		for (int i = 0; i < 30; i++) {
+			// 1 failure per 5 calls: 20% < 30%
+			call(cb, i % 5 != 4, 0);
+			assertEquals(State.CLOSED, cb.getState());
+		}
+	}
+
+	@Test
+	public void testSlowCalls() {
+		CircuitBreakerConfiguration cbc = configuration();
+		cbc.setSlowCallDuration(100);
+		cbc.setSlowCallRateThreshold(50);
+		CircuitBreaker cb = new CircuitBreaker("localhost:80", cbc);
+		call(cb, true, 150);
+		call(cb, true, 10);
+		call(cb, true, 150);
+		call(cb, true, 10);
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test
+	public void testHalfOpen() throws Exception {
+		CircuitBreaker cb = new CircuitBreaker("localhost:80", configuration());
+		for (int i = 0; i < 4; i++)
+			call(cb, false, 0);
+		Thread.sleep(300);
+
+		// probes are limited
+		assertTrue(cb.tryAcquire());
+		assertEquals(State.HALF_OPEN, cb.getState());
+		assertTrue(cb.tryAcquire());
+		assertFalse(cb.tryAcquire());
+
+		// a failed probe opens the circuit again
+		cb.onResult(false, 0);
+		assertEquals(State.OPEN, cb.getState());
+		cb.onResult(true, 0);
+		assertEquals(State.OPEN, cb.getState());
+		Thread.sleep(300);
+
+		call(cb, true, 0);
+		call(cb, true, 0);
+		assertEquals(State.CLOSED, cb.getState());
+		assertEquals(2, cb.getOpened());
+		assertEquals(2, cb.getHalfOpened());
+		assertEquals(1, cb.getClosed());
+	}
+
+	@Test
+	public void testFailFast() throws Exception {
+		HttpClientConfiguration hcc = new HttpClientConfiguration();
+		hcc.setMaxRetries(1);
+		CircuitBreakerConfiguration cbc = configuration();
+		cbc.setOpenDuration(60000);
+		hcc.setCircuitBreaker(cbc);
+		HttpClient hc = new HttpClient(hcc);
+
+		// nothing is listening on port 3063
+		for (int i = 0; i < 4; i++) {
+			try {
+				hc.call(new Request.Builder().get("http://localhost:3063/").buildExchange());
+				fail();
+			} catch (ConnectException e) {
+				// expected
+			}
+		}
+		try {
+			hc.call(new Request.Builder().get("http://localhost:3063/").buildExchange());
+			fail();
+		} catch (CircuitBreakerOpenException e) {
+			assertTrue(e.getRetryAfter() > 50000);
+		}
+		CircuitBreaker cb = hc.getCircuitBreakers().iterator().next();
+		assertEquals("localhost:3063", cb.getDestination());
+		assertEquals(State.OPEN, cb.getState());
+	}
+
+	@Test
+	public void testPoolExhaustionIsNotRetriedAndNotAFailure() throws Exception {
+		HttpClientConfiguration hcc = new HttpClientConfiguration();
+		hcc.setMaxRetries(5);
+		hcc.getRetries().setInitialBackoff(1000);
+		hcc.getConnection().setMaxConnectionsPerHost(1);
+		CircuitBreakerConfiguration cbc = configuration();
+		cbc.setMinCalls(1);
+		hcc.setCircuitBreaker(cbc);
+		HttpClient hc = new HttpClient(hcc);
+
+		ServerSocket server = new ServerSocket(3066);
+		try {
+			// lease the only connection allowed
+			Connection con = hc.getConnectionManager().getConnection("localhost", 3066, null, null, 10000);
+			try {
+				long start = System.currentTimeMillis();
+				try {
+					hc.call(new Request.Builder().get("http://localhost:3066/").buildExchange());
+					fail();
+				} catch (ConnectionPoolExhaustedException e) {
+					// expected
+				}
+				assertTrue(System.currentTimeMillis() - start < 500); // no backoff
+				assertEquals(State.CLOSED, hc.getCircuitBreakers().iterator().next().getState());
+			} finally {
+				con.close();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testReleaseHalfOpenPermit() throws Exception {
+		CircuitBreaker cb = new CircuitBreaker("localhost:80", configuration());
+		for (int i = 0; i < 4; i++)
+			call(cb, false, 0);
+		Thread.sleep(300);
+
+		assertTrue(cb.tryAcquire());
+		assertTrue(cb.tryAcquire());
+		assertFalse(cb.tryAcquire());
+		cb.release();
+		assertTrue(cb.tryAcquire());
+		assertEquals(State.HALF_OPEN, cb.getState());
+	}
+}
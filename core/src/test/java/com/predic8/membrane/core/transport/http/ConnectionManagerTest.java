@@ -0,0 +1,139 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionManagerTest {
+
+	private ServerSocket server;
+	private Thread acceptor;
+	private final List<Socket> accepted = new ArrayList<Socket>();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(3051);
+		acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket s = server.accept();
+						synchronized (accepted) {
+							accepted.add(s);
+						}
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+		acceptor.join();
+		synchronized (accepted) {
+			for (Socket s : accepted)
+				s.close();
+		}
+	}
+
+	private Connection get(ConnectionManager cm) throws IOException {
+		return cm.getConnection("localhost", 3051, null, null, 10000);
+	}
+
+	@Test
+	public void testLIFOReuse() throws Exception {
+		ConnectionManager cm = new ConnectionManager(30000);
+		Connection c1 = get(cm);
+		Connection c2 = get(cm);
+		c1.release();
+		c2.release();
+
+		assertSame(c2, get(cm));
+		assertSame(c1, get(cm));
+
+		ConnectionManager.PoolStatistics s = cm.getPoolStatistics().get(0);
+		assertEquals("localhost:3051", s.getDestination());
+		assertEquals(2, s.getCreated());
+		assertEquals(2, s.getLeased());
+		assertEquals(0, s.getIdle());
+	}
+
+	@Test
+	public void testFailWhenPerHostLimitReached() throws Exception {
+		ConnectionManager cm = new ConnectionManager(30000, 1, 0, 0);
+		Connection c1 = get(cm);
+		try {
+			get(cm);
+			fail();
+		} catch (ConnectionPoolExhaustedException e) {
+			// expected
+		}
+
+		c1.close();
+		get(cm).close();
+		assertEquals(0, cm.getNumberInPool());
+	}
+
+	@Test
+	public void testWaitForReleasedConnection() throws Exception {
+		ConnectionManager cm = new ConnectionManager(30000, 0, 1, 5000);
+		final Connection c1 = get(cm);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+					c1.release();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}.start();
+
+		assertSame(c1, get(cm));
+		assertEquals(1, cm.getNumberInPool());
+		assertEquals(1, cm.getPoolStatistics().get(0).getCreated());
+	}
+
+	@Test
+	public void testEvictExpiredConnection() throws Exception {
+		ConnectionManager cm = new ConnectionManager(100); // released connections expire immediately
+		Connection c1 = get(cm);
+		c1.release();
+
+		Connection c2 = get(cm);
+		assertEquals(1, cm.getPoolStatistics().get(0).getEvicted());
+		assertEquals(1, cm.getNumberInPool());
+		c2.close();
+		assertEquals(0, cm.getNumberInPool());
+	}
+}
@@ -0,0 +1,166 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.transport.http.client.HedgingConfiguration;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+
+public class HedgingTest {
+
+	private Server slow, fast;
+
+	@Before
+	public void setUp() throws Exception {
+		slow = new Server(3061, 1000, "slow");
+		fast = new Server(3062, 0, "fast");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		slow.close();
+		fast.close();
+	}
+
+	private HttpClient createClient() {
+		HedgingConfiguration hedging = new HedgingConfiguration();
+		hedging.setDelay(50);
+		hedging.setPercentile(0);
+		HttpClientConfiguration hcc = new HttpClientConfiguration();
+		hcc.setHedging(hedging);
+		return new HttpClient(hcc);
+	}
+
+	private Exchange createExchange(Request.Builder builder) throws Exception {
+		Exchange exc = builder.buildExchange();
+		exc.getDestinations().add("http://localhost:3062/");
+		return exc;
+	}
+
+	@Test
+	public void testHedgeSlowDestination() throws Exception {
+		HttpClient hc = createClient();
+		Exchange exc = createExchange(new Request.Builder().get("http://localhost:3061/"));
+
+		long start = System.currentTimeMillis();
+		hc.call(exc);
+		assertEquals("fast", exc.getResponse().getBodyAsStringDecoded());
+		assertTrue(System.currentTimeMillis() - start < 800);
+		assertEquals(Arrays.asList("http://localhost:3062/"), exc.getDestinations());
+		assertEquals(1, hc.getHedgingPolicy().getHedged());
+		assertEquals(1, hc.getHedgingPolicy().getWon());
+
+		// the connection to the slow destination has been closed, when its try was cancelled
+		assertEquals(1, hc.getConnectionManager().getNumberInPool());
+	}
+
+	@Test
+	public void testDoNotHedgePost() throws Exception {
+		HttpClient hc = createClient();
+		Exchange exc = createExchange(new Request.Builder().post("http://localhost:3061/").body("a"));
+
+		hc.call(exc);
+		assertEquals("slow", exc.getResponse().getBodyAsStringDecoded());
+		assertEquals(0, hc.getHedgingPolicy().getHedged());
+	}
+
+	@Test
+	public void testResponseTimePercentile() throws Exception {
+		HedgingConfiguration hedging = new HedgingConfiguration();
+		hedging.setDelay(1000);
+		HedgingPolicy policy = new HedgingPolicy(hedging);
+		for (int i = 1; i < HedgingPolicy.MIN_SAMPLES; i++)
+			policy.record("a:80", i);
+		assertEquals(1000, policy.getDelay("a:80"));
+		for (int i = HedgingPolicy.MIN_SAMPLES; i <= HedgingPolicy.SAMPLES; i++)
+			policy.record("a:80", i);
+		assertEquals(95, policy.getDelay("a:80"));
+		assertEquals(1000, policy.getDelay("b:80"));
+	}
+
+	/**
+	 * Answers every request after a delay.
+	 */
+	private static class Server extends Thread {
+		private final ServerSocket ss;
+		private final long delay;
+		private final String body;
+
+		Server(int port, long delay, String body) throws IOException {
+			ss = new ServerSocket(port);
+			this.delay = delay;
+			this.body = body;
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Socket s = ss.accept();
+					new Thread() {
+						@Override
+						public void run() {
+							try {
+								InputStream in = s.getInputStream();
+								while (true) {
+									// read the request head (the requests of this test have small bodies, if any)
+									int matched = 0, c;
+									while (matched < 4 && (c = in.read()) != -1)
+										matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : c == '\r' ? 1 : 0;
+									if (matched < 4)
+										break;
+									while (in.available() > 0)
+										in.read();
+									Thread.sleep(delay);
+									s.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes());
+								}
+							} catch (Exception e) {
+								// closed
+							} finally {
+								try {
+									s.close();
+								} catch (IOException e) {
+									// ignore
+								}
+							}
+						}
+					}.start();
+				}
+			} catch (IOException e) {
+				// closed
+			}
+		}
+
+		void close() throws Exception {
+			ss.close();
+			join();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+public class HttpEndpointListenerTest {
+
+	private HttpRouter router;
+
+	@Before
+	public void setUp() throws Exception {
+		router = new HttpRouter();
+		router.getTransport().setAcceptors(3);
+		router.getTransport().setBacklog(200);
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3056), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor(){
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				exc.setResponse(Response.ok(exc.getRequest().getUri()).build());
+				return Outcome.RETURN;
+			}
+		});
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		router.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		router.shutdown();
+	}
+
+	@Test
+	public void testMultipleAcceptors() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			// a new client per request, so that each request uses a new connection
+			Exchange exc = new Request.Builder().get("http://localhost:3056/" + i).buildExchange();
+			new HttpClient().call(exc);
+			assertEquals(200, exc.getResponse().getStatusCode());
+			assertEquals("/" + i, exc.getResponse().getBodyAsStringDecoded());
+		}
+
+		List<HttpEndpointListener> listeners = router.getTransport().getEndpointListeners();
+		assertEquals(1, listeners.size());
+		HttpEndpointListener listener = listeners.get(0);
+		assertEquals(3056, listener.getPort());
+		assertEquals(3, listener.getAcceptorCount());
+		assertEquals(20, listener.getStatistics().getAccepted());
+		assertEquals(0, listener.getStatistics().getRejected());
+	}
+
+	@Test
+	public void testClosePortStopsAllAcceptors() throws Exception {
+		HttpEndpointListener listener = router.getTransport().getEndpointListeners().get(0);
+		router.getTransport().closePort(null, 3056);
+		assertTrue(listener.isClosed());
+		try {
+			new Socket("localhost", 3056).close();
+			fail();
+		} catch (ConnectException e) {
+			// expected
+		}
+		for (Thread t : Thread.getAllStackTraces().keySet())
+			if (t.getName().startsWith("Connection Acceptor :3056"))
+				fail(t.getName() + " is still running.");
+	}
+
+}
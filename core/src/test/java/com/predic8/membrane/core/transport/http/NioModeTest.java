@@ -0,0 +1,114 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+public class NioModeTest {
+
+	private HashSet<Integer> set; // tracks the hashcodes of all connections used
+	private HttpRouter router;
+
+	@Before
+	public void setUp() throws Exception {
+		set = new HashSet<Integer>();
+
+		router = new HttpRouter();
+		router.getTransport().setMode(HttpTransport.Mode.NIO);
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3031), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor(){
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				exc.getRequest().readBody();
+				exc.setResponse(Response.ok("OK.").build());
+				set.add(((HttpServerHandler)exc.getHandler()).getSrcOut().hashCode());
+				return Outcome.RETURN;
+			}
+		});
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		router.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		router.shutdown();
+	}
+
+	private Request createRequest() {
+		Request r = new Request();
+		r.setMethod("GET");
+		r.setUri("/");
+		r.setVersion("1.1");
+		r.getHeader().add(Header.CONTENT_LENGTH, "0");
+		r.getHeader().add(Header.HOST, "localhost");
+		return r;
+	}
+
+	private int doExchange(Connection c) throws Exception {
+		createRequest().write(c.out);
+		Response r = new Response();
+		r.read(c.in, true);
+		return r.getStatusCode();
+	}
+
+	@Test
+	public void testKeepAliveAcrossIdlePeriods() throws Exception {
+		Connection c = Connection.open("localhost", 3031, null, null, 30000);
+		try {
+			Thread.sleep(200); // parked before the first request
+			assertEquals(200, doExchange(c));
+			Thread.sleep(200); // parked between requests
+			assertEquals(200, doExchange(c));
+			assertEquals(200, doExchange(c));
+
+			assertEquals(1, set.size());
+		} finally {
+			c.close();
+		}
+	}
+
+	@Test
+	public void testMultipleConnections() throws Exception {
+		Connection c1 = Connection.open("localhost", 3031, null, null, 30000);
+		Connection c2 = Connection.open("localhost", 3031, null, null, 30000);
+		try {
+			assertEquals(200, doExchange(c1));
+			assertEquals(200, doExchange(c2));
+			assertEquals(200, doExchange(c1));
+
+			assertEquals(2, set.size());
+		} finally {
+			c1.close();
+			c2.close();
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+import com.predic8.membrane.core.transport.http.client.RetryConfiguration;
+
+public class RetryPolicyTest {
+
+	private static RetryConfiguration configuration(int budgetPercent, int minRetriesPerSecond) {
+		RetryConfiguration rc = new RetryConfiguration();
+		rc.setBudgetPercent(budgetPercent);
+		rc.setMinRetriesPerSecond(minRetriesPerSecond);
+		return rc;
+	}
+
+	@Test
+	public void testBudget() throws Exception {
+		RetryPolicy policy = new RetryPolicy(configuration(50, 0));
+		Request get = new Request.Builder().get("/").build();
+
+		assertFalse(policy.allowRetry(get, true));
+		policy.requested();
+		policy.requested();
+		assertTrue(policy.allowRetry(get, true));
+		assertFalse(policy.allowRetry(get, true));
+
+		assertEquals(1, policy.getAttempted());
+		assertEquals(2, policy.getSuppressedByBudget());
+	}
+
+	@Test
+	public void testMinRetriesPerSecond() throws Exception {
+		RetryPolicy policy = new RetryPolicy(configuration(0, 10));
+		Request get = new Request.Builder().get("/").build();
+
+		for (int i = 0; i < 10; i++)
+			assertTrue(policy.allowRetry(get, true));
+		assertFalse(policy.allowRetry(get, true));
+		Thread.sleep(250);
+		assertTrue(policy.allowRetry(get, true));
+	}
+
+	@Test
+	public void testIdempotency() throws Exception {
+		RetryPolicy policy = new RetryPolicy(configuration(0, 100));
+		Request post = new Request.Builder().post("/").build();
+
+		assertFalse(policy.allowRetry(post, false));
+		assertTrue(policy.allowRetry(post, true));
+		assertTrue(policy.allowRetry(new Request.Builder().put("/").build(), false));
+		assertEquals(1, policy.getSuppressedNonIdempotent());
+
+		RetryConfiguration rc = configuration(0, 100);
+		rc.setRetryNonIdempotent(true);
+		assertTrue(new RetryPolicy(rc).allowRetry(post, false));
+	}
+
+	@Test
+	public void testBackoff() throws Exception {
+		RetryConfiguration rc = new RetryConfiguration();
+		rc.setInitialBackoff(100);
+		rc.setMaxBackoff(1000);
+		RetryPolicy policy = new RetryPolicy(rc);
+		for (int i = 0; i < 100; i++) {
+			assertBetween(50, 100, policy.getBackoff(1));
+			assertBetween(200, 400, policy.getBackoff(3));
+			assertBetween(500, 1000, policy.getBackoff(40));
+		}
+	}
+
+	private static void assertBetween(long min, long max, long value) {
+		assertTrue(value + " is not in [" + min + ", " + max + "]", min <= value && value <= max);
+	}
+
+	@Test
+	public void testDoNotRetryPostAfterConnect() throws Exception {
+		assertEquals(1, countTries(new Request.Builder().post("http://localhost:3060/").body("a").buildExchange()));
+		assertEquals(3, countTries(new Request.Builder().get("http://localhost:3060/").buildExchange()));
+	}
+
+	@Test
+	public void testStreamedBodyWithoutRetaining() throws Exception {
+		final ServerSocket server = new ServerSocket(3067);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket s = server.accept();
+						accepted.incrementAndGet();
+						// read the request head and the 5 byte body
+						InputStream in = s.getInputStream();
+						int matched = 0, c;
+						while (matched < 4 && (c = in.read()) != -1)
+							matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : c == '\r' ? 1 : 0;
+						for (int i = 0; i < 5; i++)
+							in.read();
+						s.getOutputStream().write("HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n".getBytes());
+						s.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.start();
+		try {
+			HttpClientConfiguration hcc = new HttpClientConfiguration();
+			hcc.setMaxRetries(3);
+			hcc.getRetries().setInitialBackoff(10);
+			HttpClient hc = new HttpClient(hcc);
+
+			// nothing is listening on port 3068: no body has been sent, when failing over
+			Exchange exc = createStreamingPut("http://localhost:3068/");
+			exc.getDestinations().add("http://localhost:3067/");
+			hc.call(exc, true, true);
+			assertEquals(500, exc.getResponse().getStatusCode());
+			assertEquals(1, accepted.get());
+
+			// the body cannot be sent again after the 500 response: it is returned instead of failing over
+			exc = createStreamingPut("http://localhost:3067/");
+			exc.getDestinations().add("http://localhost:3067/");
+			hc.call(exc, true, true);
+			assertEquals(500, exc.getResponse().getStatusCode());
+			assertEquals(2, accepted.get());
+			assertTrue(exc.getRequest().getBody().isContentDiscarded());
+		} finally {
+			server.close();
+			acceptor.join();
+		}
+	}
+
+	private Exchange createStreamingPut(String url) throws Exception {
+		Exchange exc = new Request.Builder().put(url).header(Header.CONTENT_LENGTH, "5").buildExchange();
+		exc.getRequest().setBody(new Body(new ByteArrayInputStream("hello".getBytes()), 5));
+		exc.getRequest().getBody().setRetainContent(false);
+		return exc;
+	}
+
+	/**
+	 * Calls a server closing every connection after sending an incomplete status line.
+	 *
+	 * @return the number of connections opened by the client
+	 */
+	private int countTries(Exchange exc) throws Exception {
+		final ServerSocket server = new ServerSocket(3060);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket s = server.accept();
+						accepted.incrementAndGet();
+						s.getOutputStream().write("HTTP/1.1 2".getBytes());
+						s.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.start();
+		try {
+			HttpClientConfiguration hcc = new HttpClientConfiguration();
+			hcc.setMaxRetries(3);
+			hcc.getRetries().setInitialBackoff(10);
+			try {
+				new HttpClient(hcc).call(exc);
+				fail();
+			} catch (Exception e) {
+				// expected
+			}
+			return accepted.get();
+		} finally {
+			server.close();
+			acceptor.join();
+		}
+	}
+}
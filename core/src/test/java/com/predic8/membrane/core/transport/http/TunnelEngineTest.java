@@ -0,0 +1,179 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.http.HttpHeadInputStream;
+import com.predic8.membrane.core.transport.http.StreamPump.StreamPumpStats;
+
+public class TunnelEngineTest {
+
+	private ServerSocketChannel server;
+	private TunnelEngine engine;
+	private StreamPumpStats stats;
+	private Socket client, backend;
+	private CountDownLatch closed;
+
+	@Before
+	public void setUp() throws Exception {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("localhost", 3059));
+		stats = new StreamPumpStats();
+		engine = new TunnelEngine(2, stats);
+		closed = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		engine.close();
+		server.close();
+		if (client != null)
+			client.close();
+		if (backend != null)
+			backend.close();
+	}
+
+	/**
+	 * Connects client and backend through the engine, like an upgraded connection: "before" has already been sent
+	 * by the client and is buffered by the proxy.
+	 */
+	private void connect(byte[] before) throws Exception {
+		client = new Socket("localhost", 3059);
+		SocketChannel proxyToClient = server.accept();
+		SocketChannel proxyToBackend = SocketChannel.open(new InetSocketAddress("localhost", 3059));
+		backend = server.accept().socket();
+
+		HttpHeadInputStream clientIn = new HttpHeadInputStream(proxyToClient.socket().getInputStream(), 1024);
+		HttpHeadInputStream backendIn = new HttpHeadInputStream(proxyToBackend.socket().getInputStream(), 1024);
+		if (before.length > 0) {
+			client.getOutputStream().write(before);
+			clientIn.mark(1);
+			clientIn.read();
+			clientIn.reset();
+		}
+
+		assertTrue(TunnelEngine.canForward(proxyToClient.socket(), clientIn, proxyToBackend.socket(), backendIn));
+		engine.forward(proxyToClient.socket(), clientIn, proxyToBackend.socket(), backendIn, "onward", "backward",
+				null, new Runnable() {
+					@Override
+					public void run() {
+						closed.countDown();
+					}
+				});
+	}
+
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while (out.size() < length) {
+			int n = in.read(buffer, 0, Math.min(buffer.length, length - out.size()));
+			if (n == -1)
+				break;
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testBufferedDataIsForwardedFirst() throws Exception {
+		connect("hello".getBytes());
+		client.getOutputStream().write(" world".getBytes());
+		assertEquals("hello world", new String(readFully(backend.getInputStream(), 11)));
+	}
+
+	@Test
+	public void testLargeTransferInBothDirections() throws Exception {
+		connect(new byte[0]);
+		final byte[] data = new byte[4 * 1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		// the backend echoes everything, while the client is still sending
+		Thread echo = new Thread() {
+			@Override
+			public void run() {
+				try {
+					InputStream in = backend.getInputStream();
+					OutputStream out = backend.getOutputStream();
+					byte[] buffer = new byte[10000];
+					int n;
+					while ((n = in.read(buffer)) != -1)
+						out.write(buffer, 0, n);
+					backend.shutdownOutput();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		echo.start();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					client.getOutputStream().write(data);
+					client.shutdownOutput();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+
+		assertArrayEquals(data, readFully(client.getInputStream(), data.length + 1));
+		writer.join();
+		echo.join();
+
+		assertTrue(closed.await(10, TimeUnit.SECONDS));
+		assertEquals(0, engine.getTunnelCount());
+		assertEquals(0, stats.getRunning());
+	}
+
+	@Test
+	public void testCloseAllStreamPumps() throws Exception {
+		connect(new byte[0]);
+		client.getOutputStream().write(1);
+		assertEquals(1, backend.getInputStream().read());
+
+		assertEquals(2, stats.getRunning());
+		long transferred = 0;
+		for (Pump pump : stats.getStreamPumps())
+			transferred += pump.getTransferredBytes();
+		assertEquals(1, transferred);
+
+		stats.closeAllStreamPumps();
+		assertTrue(closed.await(10, TimeUnit.SECONDS));
+		assertEquals(-1, backend.getInputStream().read());
+		assertEquals(0, stats.getRunning());
+	}
+
+}
@@ -0,0 +1,114 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.client.HttpClientConfiguration;
+
+public class Http2ClientTest {
+
+	private HttpRouter backend;
+	private Set<Http2ServerConnection> connections;
+
+	@Before
+	public void setUp() throws Exception {
+		connections = ConcurrentHashMap.newKeySet();
+		backend = new HttpRouter();
+		backend.getTransport().setHttp2(true);
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3054), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor(){
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				if (exc.getHandler() instanceof Http2ExchangeHandler)
+					connections.add(((Http2ExchangeHandler) exc.getHandler()).getConnection());
+				Thread.sleep(100);
+				exc.setResponse(Response.ok(exc.getRequest().getUri() + " " + exc.getRequest().getBodyAsStringDecoded()).build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		backend.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		backend.shutdown();
+	}
+
+	@Test
+	public void testMultiplexing() throws Exception {
+		HttpClientConfiguration configuration = new HttpClientConfiguration();
+		configuration.getConnection().setHttp2(true);
+		final HttpClient client = new HttpClient(configuration);
+
+		ExecutorService executor = Executors.newFixedThreadPool(50);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 50; i++) {
+				final int n = i;
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						Exchange exc = new Request.Builder().post("http://localhost:3054/" + n).body("body" + n).buildExchange();
+						client.call(exc);
+						assertEquals(200, exc.getResponse().getStatusCode());
+						return exc.getResponse().getBodyAsStringDecoded();
+					}
+				}));
+			}
+			for (int i = 0; i < 50; i++)
+				assertEquals("/" + i + " body" + i, results.get(i).get(30, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// the server allows 100 concurrent streams per connection
+		assertEquals(1, connections.size());
+	}
+
+	@Test
+	public void testHttp1BackendsUnaffected() throws Exception {
+		Exchange exc = new Request.Builder().get("http://localhost:3054/a").buildExchange();
+		new HttpClient().call(exc);
+		assertEquals(200, exc.getResponse().getStatusCode());
+		assertTrue(connections.isEmpty());
+	}
+
+}
@@ -0,0 +1,125 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.transport.http2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.HeaderField;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+
+public class Http2ServerTest {
+
+	private HttpRouter router;
+
+	@Before
+	public void setUp() throws Exception {
+		router = new HttpRouter();
+		router.getTransport().setHttp2(true);
+		ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3052), "", -1);
+		sp.getInterceptors().add(new AbstractInterceptor(){
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				String body = exc.getRequest().getBodyAsStringDecoded();
+				exc.setResponse(Response.ok(exc.getRequest().getMethod() + " " + exc.getRequest().getUri() + " " + body).build());
+				return Outcome.RETURN;
+			}
+		});
+		router.getRuleManager().addProxyAndOpenPortIfNew(sp);
+		router.init();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		router.shutdown();
+	}
+
+	@Test
+	public void testConcurrentStreamsOnOneConnection() throws Exception {
+		Socket socket = new Socket("localhost", 3052);
+		try {
+			FrameWriter writer = new FrameWriter(new BufferedOutputStream(socket.getOutputStream()));
+			FrameReader reader = new FrameReader(new BufferedInputStream(socket.getInputStream()), Http2.DEFAULT_MAX_FRAME_SIZE);
+			HpackDecoder decoder = new HpackDecoder(Http2.DEFAULT_HEADER_TABLE_SIZE, 65536);
+
+			writer.writePreface();
+			writer.writeSettings();
+			writer.writeHeaders(1, Arrays.asList(":method", "POST", ":scheme", "http", ":path", "/a",
+					":authority", "localhost:3052", "content-type", "text/plain"), false);
+			writer.writeHeaders(3, Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/b",
+					":authority", "localhost:3052"), true);
+			byte[] body = "hello".getBytes();
+			writer.writeData(1, body, 0, body.length, true);
+
+			Map<Integer, String> status = new HashMap<Integer, String>();
+			Map<Integer, ByteArrayOutputStream> bodies = new HashMap<Integer, ByteArrayOutputStream>();
+			int completed = 0;
+			while (completed < 2 && reader.next()) {
+				switch (reader.getType()) {
+				case Http2.SETTINGS:
+					if (!reader.hasFlag(Http2.FLAG_ACK))
+						writer.writeSettingsAck();
+					break;
+				case Http2.HEADERS:
+					for (HeaderField field : decoder.decode(reader.getPayload(), 0, reader.getLength(), reader.getStreamId()))
+						if (field.getHeaderName().toString().equals(":status"))
+							status.put(reader.getStreamId(), field.getValue());
+					bodies.put(reader.getStreamId(), new ByteArrayOutputStream());
+					break;
+				case Http2.DATA:
+					bodies.get(reader.getStreamId()).write(reader.getPayload(), 0, reader.getLength());
+					break;
+				}
+				if ((reader.getType() == Http2.HEADERS || reader.getType() == Http2.DATA)
+						&& reader.hasFlag(Http2.FLAG_END_STREAM))
+					completed++;
+			}
+
+			assertEquals("200", status.get(1));
+			assertEquals("POST /a hello", bodies.get(1).toString());
+			assertEquals("200", status.get(3));
+			assertEquals("GET /b ", bodies.get(3).toString());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testHttp11StillServed() throws Exception {
+		Exchange exc = new HttpClient().call(new Request.Builder().get("http://localhost:3052/c").buildExchange());
+		assertEquals(200, exc.getResponse().getStatusCode());
+		assertEquals("GET /c ", exc.getResponse().getBodyAsStringDecoded());
+	}
+
+}
@@ -0,0 +1,149 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+		BufferPool pool = new BufferPool(4);
+		assertEquals(512, pool.acquire(1).length);
+		assertEquals(512, pool.acquire(512).length);
+		assertEquals(1024, pool.acquire(513).length);
+		assertEquals(8192, pool.acquire(8192).length);
+		assertEquals(65536, pool.acquire(65536).length);
+		assertEquals(65537, pool.acquire(65537).length);
+	}
+
+	@Test
+	public void testReuse() {
+		BufferPool pool = new BufferPool(4);
+		byte[] b = pool.acquire(8000);
+		pool.release(b);
+		assertSame(b, pool.acquire(8000));
+		assertNotSame(b, pool.acquire(8000));
+		assertEquals(2, pool.getAllocated());
+		assertEquals(3, pool.getAcquired());
+		assertEquals(1, pool.getReleased());
+	}
+
+	@Test
+	public void testBounded() {
+		BufferPool pool = new BufferPool(1);
+		byte[] b1 = pool.acquire(1000);
+		byte[] b2 = pool.acquire(1000);
+		pool.release(b1);
+		pool.release(b2); // dropped: the only slot is occupied
+		assertSame(b1, pool.acquire(1000));
+		assertNotSame(b2, pool.acquire(1000));
+		assertEquals(3, pool.getAllocated());
+	}
+
+	@Test
+	public void testDisabled() {
+		BufferPool pool = new BufferPool(0);
+		byte[] b = pool.acquire(1000);
+		pool.release(b);
+		assertNotSame(b, pool.acquire(1000));
+
+		pool = new BufferPool(4);
+		pool.setEnabled(false);
+		b = pool.acquire(1000);
+		pool.release(b);
+		assertNotSame(b, pool.acquire(1000));
+	}
+
+	@Test
+	public void testLeakDetection() {
+		BufferPool pool = new BufferPool(4);
+		byte[] untracked = pool.acquire(1000);
+		pool.setLeakDetection(true);
+		byte[] a = pool.acquire(1000);
+		pool.acquire(1000);
+		pool.release(a);
+		pool.release(untracked);
+
+		List<Throwable> leaks = pool.getLeaks();
+		assertEquals(1, leaks.size());
+		assertTrue(leaks.get(0).getMessage().contains(Thread.currentThread().getName()));
+
+		try {
+			pool.release(a);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGetByteArrayDataReleasesBuffers() throws IOException {
+		byte[] data = new byte[200000];
+		new Random(1).nextBytes(data);
+
+		BufferPool pool = BufferPool.getInstance();
+		pool.setLeakDetection(true);
+		try {
+			assertArrayEquals(data, ByteUtil.getByteArrayData(new ByteArrayInputStream(data)));
+			for (Throwable leak : pool.getLeaks())
+				if (leak.getMessage().contains("'" + Thread.currentThread().getName() + "'"))
+					throw new AssertionError(leak);
+		} finally {
+			pool.setLeakDetection(false);
+		}
+	}
+
+	@Test
+	public void testPooledBufferedOutputStream() throws IOException {
+		BufferPool pool = new BufferPool(4);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		PooledBufferedOutputStream out = new PooledBufferedOutputStream(target, 2048, pool);
+		out.write('a');
+		out.write(new byte[3000], 0, 3000);
+		out.write("bc".getBytes(), 0, 2);
+		assertEquals(3001, target.size());
+		out.flush();
+		assertEquals(3003, target.size());
+		out.write('d');
+		out.close();
+		assertEquals(3004, target.size());
+		assertEquals(1, pool.getReleased());
+
+		try {
+			out.write('e');
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		out.flush(); // harmless
+		out.release(); // does not release twice
+		assertEquals(1, pool.getReleased());
+	}
+
+}
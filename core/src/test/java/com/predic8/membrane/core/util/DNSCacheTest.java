@@ -16,10 +16,14 @@ package com.predic8.membrane.core.util;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -53,4 +57,177 @@ public class DNSCacheTest {
 		assertTrue(cache.getCachedHostAddresses().contains(host));
 	}
 
+	@Test
+	public void testFailedReverseLookup() throws Exception {
+		DNSCache cache = new DNSCache() {
+			@Override
+			protected String lookupHostName(InetAddress address) {
+				return null;
+			}
+
+			@Override
+			protected String lookupCanonicalHostName(InetAddress address) {
+				return address.getHostAddress();
+			}
+		};
+		InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+		assertEquals("10.0.0.1", cache.getHostName(address));
+		assertEquals("10.0.0.1", cache.getCanonicalHostName(address));
+	}
+
+	private static class CountingDNSCache extends DNSCache {
+		final AtomicInteger lookups = new AtomicInteger();
+		volatile boolean fail;
+		volatile long delay;
+
+		@Override
+		protected InetAddress[] lookupAddresses(String host) throws UnknownHostException {
+			lookups.incrementAndGet();
+			sleep(delay);
+			if (fail)
+				throw new UnknownHostException(host);
+			return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { 10, 0, 0, (byte) lookups.get() }) };
+		}
+
+		@Override
+		protected String lookupHostName(InetAddress address) {
+			lookups.incrementAndGet();
+			sleep(delay);
+			return fail ? address.getHostAddress() : "host" + address.getAddress()[3];
+		}
+
+		private void sleep(long delay) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Test
+	public void testPositiveTtl() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.setTtl(200);
+		InetAddress a = cache.getByName("predic8.de");
+		assertSame(a, cache.getByName("predic8.de"));
+		assertEquals(1, cache.lookups.get());
+
+		Thread.sleep(300);
+		assertEquals(10 << 24 | 2, toInt(cache.getByName("predic8.de")));
+		assertEquals(2, cache.lookups.get());
+	}
+
+	@Test
+	public void testNegativeTtl() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.setNegativeTtl(200);
+		cache.fail = true;
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.getByName("unknown.predic8.de");
+				fail();
+			} catch (UnknownHostException e) {
+				// expected
+			}
+		}
+		assertEquals(1, cache.lookups.get());
+
+		Thread.sleep(300);
+		cache.fail = false;
+		cache.getByName("unknown.predic8.de");
+		assertEquals(2, cache.lookups.get());
+	}
+
+	@Test
+	public void testRefreshBeforeExpiry() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.setTtl(500);
+		InetAddress a = cache.getByName("predic8.de");
+		Thread.sleep(450);
+
+		// still valid: returned immediately, but refreshed in the background
+		assertSame(a, cache.getByName("predic8.de"));
+		waitForLookups(cache, 2);
+		Thread.sleep(100);
+		assertEquals(10 << 24 | 2, toInt(cache.getByName("predic8.de")));
+	}
+
+	@Test
+	public void testKeepLastKnownAddressIfRefreshFails() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.setTtl(500);
+		cache.setNegativeTtl(60000);
+		InetAddress a = cache.getByName("predic8.de");
+		Thread.sleep(450);
+
+		cache.fail = true;
+		cache.getByName("predic8.de");
+		waitForLookups(cache, 2);
+		Thread.sleep(100);
+		assertSame(a, cache.getByName("predic8.de"));
+		assertEquals(2, cache.lookups.get());
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.setMaxEntries(10);
+		for (int i = 0; i < 100; i++)
+			cache.getHostName(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) i }));
+		assertTrue(cache.getCachedHostNames().size() <= 10);
+	}
+
+	@Test
+	public void testReverseLookupTimeout() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.delay = 500;
+		InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+
+		long start = System.currentTimeMillis();
+		assertEquals("10.0.0.1", cache.getHostName(address, 50));
+		assertTrue(System.currentTimeMillis() - start < 400);
+
+		// the lookup completes in the background
+		Thread.sleep(600);
+		assertEquals("host1", cache.getHostName(address, 50));
+		assertEquals(1, cache.lookups.get());
+	}
+
+	@Test
+	public void testResolveInBackground() throws Exception {
+		CountingDNSCache cache = new CountingDNSCache();
+		cache.delay = 300;
+		long start = System.currentTimeMillis();
+		assertNull(cache.getByNameIfResolved("predic8.de"));
+		assertNull(cache.getByNameIfResolved("predic8.de"));
+		assertTrue(System.currentTimeMillis() - start < 200);
+
+		Thread.sleep(500);
+		assertEquals(10 << 24 | 1, toInt(cache.getByNameIfResolved("predic8.de")));
+		assertEquals(1, cache.lookups.get());
+
+		cache.delay = 0;
+		cache.fail = true;
+		cache.getByNameIfResolved("unknown.predic8.de");
+		Thread.sleep(100);
+		try {
+			cache.getByNameIfResolved("unknown.predic8.de");
+			fail();
+		} catch (UnknownHostException e) {
+			// expected
+		}
+	}
+
+	private static void waitForLookups(CountingDNSCache cache, int lookups) throws InterruptedException {
+		for (int i = 0; i < 100 && cache.lookups.get() < lookups; i++)
+			Thread.sleep(10);
+		assertEquals(lookups, cache.lookups.get());
+	}
+
+	private static int toInt(InetAddress address) {
+		byte[] b = address.getAddress();
+		return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | (b[3] & 0xFF);
+	}
+
 }
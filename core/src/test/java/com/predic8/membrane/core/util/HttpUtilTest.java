@@ -17,6 +17,7 @@ package com.predic8.membrane.core.util;
 import static com.predic8.membrane.core.util.HttpUtil.readLine;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -67,4 +68,38 @@ public class HttpUtilTest {
 		assertEquals(15663, HttpUtil.readChunkSize(new ByteArrayInputStream(s.getBytes())));
 	}
 
+	@Test
+	public void testReadChunkSizeWithWhitespaceAndParameters() throws Exception {
+		String s = " 1a ;name=value" + Constants.CRLF + "x";
+		InputStream in = new ByteArrayInputStream(s.getBytes());
+		assertEquals(26, HttpUtil.readChunkSize(in));
+		assertEquals('x', in.read());
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testReadInvalidChunkSize() throws Exception {
+		HttpUtil.readChunkSize(new ByteArrayInputStream(("1g" + Constants.CRLF).getBytes()));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testReadChunkSizeOverflow() throws Exception {
+		HttpUtil.readChunkSize(new ByteArrayInputStream(("100000000" + Constants.CRLF).getBytes()));
+	}
+
+	@Test
+	public void testWriteChunkSize() throws Exception {
+		int[] sizes = { 0, 1, 15, 16, 255, 4096, 65535, 1 << 20, Integer.MAX_VALUE };
+		for (int size : sizes) {
+			byte[] buffer = new byte[10];
+			int end = HttpUtil.writeChunkSize(size, buffer, 1);
+			assertEquals(Integer.toHexString(size), new String(buffer, 1, end - 1, Constants.ISO_8859_1));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			HttpUtil.writeChunkSize(size, out);
+			assertEquals(Integer.toHexString(size), out.toString(Constants.ISO_8859_1));
+
+			assertEquals(size, HttpUtil.readChunkSize(new ByteArrayInputStream((Integer.toHexString(size) + Constants.CRLF).getBytes())));
+		}
+	}
+
 }
@@ -0,0 +1,116 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.predic8.membrane.core.http.Body;
+import com.predic8.membrane.core.http.PlainBodyTransferrer;
+import com.predic8.membrane.core.transport.http.StreamPump;
+import com.predic8.membrane.core.util.BufferPool;
+import com.predic8.membrane.core.util.ByteUtil;
+
+/**
+ * Compares the number of bytes allocated per transfer with and without the {@link BufferPool}, for streamed
+ * bodies, stream pumps (as used by tunnels) and {@link ByteUtil#getByteArrayData(java.io.InputStream)}.
+ *
+ * Use <tt>-Diterations=100000 -Dsize=65536</tt> to adjust the load.
+ */
+public class BufferPoolAllocation {
+
+	private static final int ITERATIONS = Integer.getInteger("iterations", 100000);
+	private static final int SIZE = Integer.getInteger("size", 65536);
+
+	private static final OutputStream NULL = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private interface Transfer {
+		void run(byte[] data) throws Exception;
+	}
+
+	@Test
+	public void streamedBody() throws Exception {
+		compare("body", new Transfer() {
+			@Override
+			public void run(byte[] data) throws Exception {
+				Body body = new Body(new ByteArrayInputStream(data), data.length);
+				body.setRetainContent(false);
+				body.write(new PlainBodyTransferrer(NULL));
+			}
+		});
+	}
+
+	@Test
+	public void streamPump() throws Exception {
+		compare("stream pump", new Transfer() {
+			@Override
+			public void run(byte[] data) throws Exception {
+				new StreamPump(new ByteArrayInputStream(data), NULL, null, "pump", null).run();
+			}
+		});
+	}
+
+	@Test
+	public void getByteArrayData() throws Exception {
+		compare("getByteArrayData", new Transfer() {
+			@Override
+			public void run(byte[] data) throws IOException {
+				ByteUtil.getByteArrayData(new ByteArrayInputStream(data));
+			}
+		});
+	}
+
+	private void compare(String name, Transfer transfer) throws Exception {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		BufferPool pool = BufferPool.getInstance();
+		boolean enabled = pool.isEnabled();
+		try {
+			pool.setEnabled(false);
+			long unpooled = measure(transfer);
+			pool.setEnabled(true);
+			long pooled = measure(transfer);
+			System.out.println(name + ": " + unpooled + " bytes/transfer unpooled, " + pooled + " bytes/transfer pooled");
+		} finally {
+			pool.setEnabled(enabled);
+		}
+	}
+
+	private long measure(Transfer transfer) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		byte[] data = new byte[SIZE];
+		for (int i = 0; i < ITERATIONS / 10; i++)
+			transfer.run(data); // warm up
+
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < ITERATIONS; i++)
+			transfer.run(data);
+		return (threads.getThreadAllocatedBytes(id) - before) / ITERATIONS;
+	}
+
+}
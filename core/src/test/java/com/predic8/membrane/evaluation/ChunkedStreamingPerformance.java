@@ -0,0 +1,107 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.Constants;
+import com.predic8.membrane.core.http.ChunkedBody;
+import com.predic8.membrane.core.http.ChunkedBodyTransferrer;
+
+/**
+ * Streams a chunked JSON response consisting of many tiny chunks (one per array element) through
+ * {@link ChunkedBodyTransferrer}, once sending each chunk on its own and once coalescing them. Reports the
+ * number of writes reaching the "socket" (each one being a syscall and usually a TCP segment), the throughput
+ * and, if supported by the JVM, the number of bytes allocated per response.
+ *
+ * Use <tt>-Delements=10000 -Diterations=200</tt> to adjust the load.
+ */
+public class ChunkedStreamingPerformance {
+
+	private static final int ELEMENTS = Integer.getInteger("elements", 10000);
+	private static final int ITERATIONS = Integer.getInteger("iterations", 200);
+
+	private static class SocketStream extends OutputStream {
+		long writes, bytes;
+
+		@Override
+		public void write(int b) {
+			writes++;
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			writes++;
+			bytes += len;
+		}
+	}
+
+	@Test
+	public void tinyChunks() throws Exception {
+		byte[] response = createResponse();
+		run("per chunk", response, 0);
+		run("coalesced", response, ChunkedBodyTransferrer.DEFAULT_BUFFER_SIZE);
+	}
+
+	private void run(String name, byte[] response, int bufferSize) throws Exception {
+		for (int i = 0; i < ITERATIONS / 10; i++)
+			transfer(response, bufferSize, new SocketStream()); // warm up
+
+		long allocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		SocketStream socket = new SocketStream();
+		for (int i = 0; i < ITERATIONS; i++)
+			transfer(response, bufferSize, socket);
+		long time = System.nanoTime() - start;
+		allocated = getAllocatedBytes() - allocated;
+
+		System.out.println(name + ": " + socket.writes / ITERATIONS + " socket writes/response, "
+				+ socket.bytes / ITERATIONS + " bytes/response, "
+				+ (ITERATIONS * 1000000000L / time) + " responses/s"
+				+ (allocated < 0 ? "" : ", " + allocated / ITERATIONS + " bytes allocated/response"));
+	}
+
+	private void transfer(byte[] response, int bufferSize, SocketStream socket) throws Exception {
+		BufferedOutputStream out = new BufferedOutputStream(socket, 8192);
+		ChunkedBody body = new ChunkedBody(new ByteArrayInputStream(response));
+		body.setRetainContent(false);
+		body.write(new ChunkedBodyTransferrer(out, bufferSize, ChunkedBodyTransferrer.DEFAULT_MAX_DELAY));
+		out.flush();
+	}
+
+	private byte[] createResponse() throws Exception {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		for (int i = 0; i < ELEMENTS; i++) {
+			String element = (i == 0 ? "[" : ",") + "{\"id\":" + i + ",\"name\":\"item " + i + "\"}" + (i == ELEMENTS - 1 ? "]" : "");
+			raw.write((Integer.toHexString(element.length()) + Constants.CRLF + element + Constants.CRLF).getBytes(Constants.UTF_8_CHARSET));
+		}
+		raw.write(("0" + Constants.CRLF + Constants.CRLF).getBytes(Constants.UTF_8_CHARSET));
+		return raw.toByteArray();
+	}
+
+	private long getAllocatedBytes() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
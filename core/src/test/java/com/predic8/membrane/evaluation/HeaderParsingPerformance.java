@@ -0,0 +1,71 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.predic8.membrane.core.http.HttpHeadInputStream;
+import com.predic8.membrane.core.http.Request;
+
+/**
+ * Compares parsing request heads from a {@link BufferedInputStream} (byte-by-byte via
+ * {@link com.predic8.membrane.core.util.HttpUtil#readLine(InputStream)}) with the bulk parser of
+ * {@link HttpHeadInputStream}.
+ */
+public class HeaderParsingPerformance {
+
+	private static final int ITERATIONS = 1000000;
+
+	private byte[] buffer = new byte[1024];
+	private int bufferSize;
+
+	@Before
+	public void setUp() throws Exception {
+		InputStream in = getClass().getClassLoader().getResourceAsStream("request.txt");
+		int p = 0;
+		while ((p = in.read(buffer, bufferSize, buffer.length - bufferSize)) != -1) {
+			bufferSize += p;
+		}
+	}
+
+	@Test
+	public void compare() throws Exception {
+		// warm up both paths
+		run(false, ITERATIONS / 10);
+		run(true, ITERATIONS / 10);
+
+		System.out.println("time BufferedInputStream: " + run(false, ITERATIONS) / 1000.0);
+		System.out.println("time HttpHeadInputStream: " + run(true, ITERATIONS) / 1000.0);
+	}
+
+	private long run(boolean bulk, int iterations) throws Exception {
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < iterations; i++) {
+			InputStream in = new ByteArrayInputStream(buffer, 0, bufferSize);
+			in = bulk ? new HttpHeadInputStream(in, 2048) : new BufferedInputStream(in, 2048);
+			Request request = new Request();
+			request.read(in, false);
+			// typical accesses during proxying
+			request.getHeader().getHost();
+			request.getHeader().getContentLength();
+		}
+		return System.currentTimeMillis() - time;
+	}
+}
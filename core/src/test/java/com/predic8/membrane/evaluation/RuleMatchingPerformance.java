@@ -0,0 +1,74 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.RuleManager;
+import com.predic8.membrane.core.RuleManager.RuleDefinitionSource;
+import com.predic8.membrane.core.RuleMatchingIndex;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+/**
+ * Compares a linear scan over the rules with {@link RuleManager#getMatchingRule(String, String, String, String, int, String)}
+ * for 10, 100 and 1000 service proxies. The request matches the last proxy, which is the worst case for the scan.
+ */
+public class RuleMatchingPerformance {
+
+	private static final int LOOKUPS = 10000000;
+
+	@Test
+	public void compare() throws Exception {
+		for (int n : new int[] { 10, 100, 1000 })
+			compare(n);
+	}
+
+	private void compare(int numberOfRules) throws Exception {
+		HttpRouter router = new HttpRouter();
+		RuleManager rm = router.getRuleManager();
+		for (int i = 0; i < numberOfRules; i++) {
+			String host = i % 2 == 0 ? "*" : "host" + i + ".example.com";
+			ServiceProxyKey key = new ServiceProxyKey(host, "*", "/service" + i + "/.*", 2000);
+			key.setUsePathPattern(true);
+			ServiceProxy sp = new ServiceProxy(key, "localhost", 8080);
+			sp.init(router);
+			rm.addProxy(sp, RuleDefinitionSource.MANUAL);
+		}
+
+		String host = "host" + (numberOfRules - 1) + ".example.com";
+		String uri = "/service" + (numberOfRules - 1) + "/foo";
+		int lookups = LOOKUPS / numberOfRules;
+
+		for (int round = 0; round < 2; round++) { // the first round warms up
+			long time = System.nanoTime();
+			for (int i = 0; i < lookups; i++)
+				for (Rule rule : rm.getRules())
+					if (RuleMatchingIndex.matches(rule, host, "GET", uri, "1.1", 2000, "127.0.0.1"))
+						break;
+			long linear = (System.nanoTime() - time) / lookups;
+
+			time = System.nanoTime();
+			for (int i = 0; i < lookups; i++)
+				rm.getMatchingRule(host, "GET", uri, "1.1", 2000, "127.0.0.1");
+			long indexed = (System.nanoTime() - time) / lookups;
+
+			if (round == 1)
+				System.out.println(numberOfRules + " rules: linear scan " + linear + "ns, index " + indexed + "ns per lookup");
+		}
+	}
+}
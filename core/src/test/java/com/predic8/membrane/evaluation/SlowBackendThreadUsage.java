@@ -0,0 +1,126 @@
+/* Copyright 2016 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.evaluation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.predic8.membrane.core.HttpRouter;
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpTransport.ExecutorType;
+import com.predic8.membrane.core.transport.http.VirtualThreads;
+
+/**
+ * Compares the platform thread count and the p99 latency of <tt>&lt;transport executor="pool"&gt;</tt> and
+ * <tt>&lt;transport executor="virtual"&gt;</tt> while proxying many concurrent requests to a slow backend.
+ *
+ * Use <tt>-Dconcurrency=10000 -Ddelay=2000</tt> to adjust the load.
+ */
+public class SlowBackendThreadUsage {
+
+	private static final int CONCURRENCY = Integer.getInteger("concurrency", 10000);
+	private static final int DELAY = Integer.getInteger("delay", 2000);
+
+	@Test
+	public void pool() throws Exception {
+		run(ExecutorType.POOL);
+	}
+
+	@Test
+	public void virtual() throws Exception {
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		run(ExecutorType.VIRTUAL);
+	}
+
+	private void run(ExecutorType executorType) throws Exception {
+		HttpRouter backend = new HttpRouter();
+		if (VirtualThreads.isSupported())
+			backend.getTransport().setExecutor(ExecutorType.VIRTUAL);
+		ServiceProxy slow = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3041), "", -1);
+		slow.getInterceptors().add(new AbstractInterceptor() {
+			@Override
+			public Outcome handleRequest(Exchange exc) throws Exception {
+				Thread.sleep(DELAY);
+				exc.setResponse(Response.ok("OK.").build());
+				return Outcome.RETURN;
+			}
+		});
+		backend.getRuleManager().addProxyAndOpenPortIfNew(slow);
+		backend.init();
+
+		HttpRouter proxy = new HttpRouter();
+		proxy.getTransport().setExecutor(executorType);
+		proxy.getRuleManager().addProxyAndOpenPortIfNew(new ServiceProxy(new ServiceProxyKey("*", "*", ".*", 3040), "localhost", 3041));
+		proxy.init();
+
+		ExecutorService clients = VirtualThreads.isSupported() ? VirtualThreads.newExecutor("client") : Executors.newCachedThreadPool();
+		try {
+			final HttpClient client = new HttpClient();
+			final long[] latencies = new long[CONCURRENCY];
+			final AtomicInteger failures = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(CONCURRENCY);
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			threads.resetPeakThreadCount();
+
+			for (int i = 0; i < CONCURRENCY; i++) {
+				final int n = i;
+				clients.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							long start = System.nanoTime();
+							Exchange exc = new Request.Builder().get("http://localhost:3040/").buildExchange();
+							client.call(exc).getResponse().readBody();
+							latencies[n] = System.nanoTime() - start;
+						} catch (Exception e) {
+							failures.incrementAndGet();
+							latencies[n] = Long.MAX_VALUE;
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			done.await(10, TimeUnit.MINUTES);
+
+			Arrays.sort(latencies);
+			System.out.println("executor=" + executorType + " concurrency=" + CONCURRENCY + " delay=" + DELAY + "ms");
+			System.out.println("  peak platform threads: " + threads.getPeakThreadCount());
+			System.out.println("  p50 latency: " + TimeUnit.NANOSECONDS.toMillis(latencies[CONCURRENCY / 2]) + "ms");
+			System.out.println("  p99 latency: " + TimeUnit.NANOSECONDS.toMillis(latencies[CONCURRENCY * 99 / 100]) + "ms");
+			System.out.println("  failures: " + failures.get());
+		} finally {
+			clients.shutdownNow();
+			proxy.shutdown();
+			backend.shutdown();
+		}
+	}
+}